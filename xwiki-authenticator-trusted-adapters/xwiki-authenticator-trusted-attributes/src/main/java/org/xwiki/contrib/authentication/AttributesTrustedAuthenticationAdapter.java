@@ -27,6 +27,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -78,18 +79,65 @@ public class AttributesTrustedAuthenticationAdapter implements TrustedAuthentica
     @Inject
     private Provider<XWikiContext> contextProvider;
 
+    /**
+     * The configuration read with each request, cached so that identifying an already authenticated user neither reads
+     * the configuration nor allocates anything, and read again when the configuration changes.
+     */
+    private volatile Settings settings;
+
+    /**
+     * The adapter configuration, read at once from the authenticator configuration.
+     */
+    private static final class Settings
+    {
+        private final long generation;
+
+        private final String authField;
+
+        private final String idField;
+
+        private final List<String> groupFieldNames;
+
+        private final Pattern groupValueSeparator;
+
+        Settings(TrustedAuthenticationConfiguration configuration, long generation)
+        {
+            this.generation = generation;
+            this.authField = configuration.getCustomProperty(CONFIG_AUTH_FIELD, DEFAULT_AUTH_FIELD);
+            this.idField = configuration.getCustomProperty(CONFIG_ID_FIELD, DEFAULT_ID_FIELD);
+            this.groupFieldNames = configuration.getCustomPropertyAsList(CONFIG_GROUP_FIELD, COMMA_SEPARATOR, null);
+            this.groupValueSeparator = Pattern.compile(
+                configuration.getCustomProperty(CONFIG_GROUP_VALUE_SEPARATOR, DEFAULT_GROUP_VALUE_SEPARATOR));
+        }
+    }
+
+    /**
+     * @return the adapter configuration, read again when the configuration changed since it was last read
+     */
+    private Settings getSettings()
+    {
+        long generation = configuration.getGeneration();
+        Settings current = this.settings;
+        if (current == null || current.generation != generation) {
+            current = new Settings(configuration, generation);
+            this.settings = current;
+        }
+
+        return current;
+    }
+
     @Override
     public String getUserUid()
     {
         // There is no need for a Secret field when attributes.
         // Secret field cross checking is a pseudo security fix for the relative less secure HTTP headers.
-        return getAttribute(configuration.getCustomProperty(CONFIG_AUTH_FIELD, DEFAULT_AUTH_FIELD));
+        return getAttribute(getSettings().authField);
     }
 
     @Override
     public String getUserName()
     {
-        return getAttribute(configuration.getCustomProperty(CONFIG_ID_FIELD, DEFAULT_ID_FIELD));
+        return getAttribute(getSettings().idField);
     }
 
     @Override
@@ -101,7 +149,18 @@ public class AttributesTrustedAuthenticationAdapter implements TrustedAuthentica
     @Override
     public boolean isUserInRole(String role)
     {
-        return getUserRoles().contains(role);
+        Settings current = getSettings();
+        if (current.groupFieldNames != null) {
+            for (String groupFieldName : current.groupFieldNames) {
+                String groupAttributes = getAttribute(groupFieldName);
+                if (StringUtils.isNotBlank(groupAttributes)
+                    && Arrays.asList(current.groupValueSeparator.split(groupAttributes)).contains(role)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -132,18 +191,15 @@ public class AttributesTrustedAuthenticationAdapter implements TrustedAuthentica
     @Override
     public List<String> getUserRoles()
     {
-        List<String> groupFieldNames = configuration.getCustomPropertyAsList(CONFIG_GROUP_FIELD, COMMA_SEPARATOR, null);
+        Settings current = getSettings();
 
         // Use a set to ensure that we don't send back duplicate roles
         Set<String> attributeValues = new HashSet<>();
-        if (groupFieldNames != null) {
-            String groupValueSeparator =
-                configuration.getCustomProperty(CONFIG_GROUP_VALUE_SEPARATOR, DEFAULT_GROUP_VALUE_SEPARATOR);
-
-            for (String groupFieldName : groupFieldNames) {
+        if (current.groupFieldNames != null) {
+            for (String groupFieldName : current.groupFieldNames) {
                 String groupAttributes = getAttribute(groupFieldName);
                 if (StringUtils.isNotBlank(groupAttributes)) {
-                    attributeValues.addAll(Arrays.asList(groupAttributes.split(groupValueSeparator)));
+                    attributeValues.addAll(Arrays.asList(current.groupValueSeparator.split(groupAttributes)));
                 }
             }
         }
@@ -20,14 +20,17 @@
 
 package org.xwiki.contrib.authentication;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -68,6 +71,10 @@ public class HeadersTrustedAuthenticationAdapter implements TrustedAuthenticatio
 
     private static final String CONFIG_HEADER_ENCODING = "header_encoding";
 
+    private static final String CONFIG_TRUSTED_PROXIES = "trusted_proxies";
+
+    private static final String CONFIG_PACKED_FIELD = "packed_field";
+
     // Default values for configuration
     private static final String DEFAULT_AUTH_FIELD = "remote_user";
 
@@ -79,6 +86,23 @@ public class HeadersTrustedAuthenticationAdapter implements TrustedAuthenticatio
 
     private static final char COMMA_SEPARATOR = ',';
 
+    /**
+     * Name of the request attribute holding the identity decoded from the packed header, so that the header is decoded
+     * once per request.
+     */
+    private static final String PACKED_IDENTITY_ATTRIBUTE =
+        HeadersTrustedAuthenticationAdapter.class.getName() + ".packedIdentity";
+
+    /**
+     * Remember that the packed header of the current request is not valid.
+     */
+    private static final PackedIdentity INVALID_PACKED_IDENTITY = new PackedIdentity(null, null, null, null);
+
+    /**
+     * Printable ASCII characters, encoded the same way by the charsets compatible with ASCII.
+     */
+    private static final String ASCII_PROBE = " 0123456789:@ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz~";
+
     @Inject
     private Logger logger;
 
@@ -88,50 +112,176 @@ public class HeadersTrustedAuthenticationAdapter implements TrustedAuthenticatio
     @Inject
     private Provider<XWikiContext> contextProvider;
 
+    /**
+     * The configuration read with each request, cached so that identifying an already authenticated user neither reads
+     * the configuration nor allocates anything, and read again when the configuration changes.
+     */
+    private volatile Settings settings;
+
+    /**
+     * The adapter configuration, read at once from the authenticator configuration.
+     */
+    private static final class Settings
+    {
+        private final long generation;
+
+        private final String secretField;
+
+        private final String secretValue;
+
+        private final String authField;
+
+        private final String idField;
+
+        private final String packedField;
+
+        private final List<String> groupFieldNames;
+
+        private final Pattern groupValueSeparator;
+
+        /**
+         * The charset of the header values, or null if they are not decoded.
+         */
+        private Charset headerCharset;
+
+        /**
+         * True if the header charset encodes ASCII characters like ISO-8859-1, in which case ASCII header values are
+         * left as is.
+         */
+        private boolean headerCharsetAsciiCompatible;
+
+        /**
+         * The networks of the proxies allowed to send the headers, or null if they are accepted from any address.
+         */
+        private TrustedProxyNetworks trustedProxies;
+
+        Settings(TrustedAuthenticationConfiguration configuration, long generation, Logger logger)
+        {
+            this.generation = generation;
+            this.secretField = configuration.getCustomProperty(CONFIG_SECRET_FIELD, null);
+            this.secretValue = configuration.getCustomProperty(CONFIG_SECRET_VALUE, null);
+            this.authField = configuration.getCustomProperty(CONFIG_AUTH_FIELD, DEFAULT_AUTH_FIELD);
+            this.idField = configuration.getCustomProperty(CONFIG_ID_FIELD, DEFAULT_ID_FIELD);
+            this.packedField = StringUtils.trimToNull(configuration.getCustomProperty(CONFIG_PACKED_FIELD, null));
+            this.groupFieldNames = configuration.getCustomPropertyAsList(CONFIG_GROUP_FIELD, COMMA_SEPARATOR, null);
+            this.groupValueSeparator = Pattern.compile(
+                configuration.getCustomProperty(CONFIG_GROUP_VALUE_SEPARATOR, DEFAULT_GROUP_VALUE_SEPARATOR));
+
+            List<String> proxies =
+                configuration.getCustomPropertyAsList(CONFIG_TRUSTED_PROXIES, COMMA_SEPARATOR, null);
+            if (proxies != null && !proxies.isEmpty()) {
+                // Invalid networks are ignored, but headers are still only accepted from the valid ones
+                this.trustedProxies = new TrustedProxyNetworks();
+                for (String proxy : proxies) {
+                    if (!this.trustedProxies.add(proxy)) {
+                        logger.warn("Ignoring invalid trusted proxy network [{}].", proxy);
+                    }
+                }
+            }
+
+            String encoding = configuration.getCustomProperty(CONFIG_HEADER_ENCODING, null);
+            if (StringUtils.isNotBlank(encoding)) {
+                try {
+                    this.headerCharset = Charset.forName(encoding);
+                    this.headerCharsetAsciiCompatible = Arrays.equals(ASCII_PROBE.getBytes(this.headerCharset),
+                        ASCII_PROBE.getBytes(StandardCharsets.ISO_8859_1));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Unsupported charset [{}] requested for decoding headers.", encoding);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the adapter configuration, read again when the configuration changed since it was last read
+     */
+    private Settings getSettings()
+    {
+        long generation = configuration.getGeneration();
+        Settings current = this.settings;
+        if (current == null || current.generation != generation) {
+            current = new Settings(configuration, generation, logger);
+            this.settings = current;
+        }
+
+        return current;
+    }
+
     @Override
     public String getUserUid()
     {
-        String secretField = configuration.getCustomProperty(CONFIG_SECRET_FIELD, null);
+        Settings current = getSettings();
+
+        // Reject requests not coming from a trusted proxy before reading any header
+        if (current.trustedProxies != null) {
+            XWikiRequest request = contextProvider.get().getRequest();
+            String remoteAddress = request != null ? request.getRemoteAddr() : null;
+            if (!current.trustedProxies.contains(remoteAddress)) {
+                logger.debug("Received request from untrusted address [{}], falling back.", remoteAddress);
+                return null;
+            }
+        }
 
         // Validate shared secret
-        if (!StringUtils.isEmpty(secretField)) {
-            String headerSecretValue = getHeader(secretField);
+        if (!StringUtils.isEmpty(current.secretField)) {
+            String headerSecretValue = getHeader(current, current.secretField);
 
-            if (headerSecretValue == null
-                || !headerSecretValue.equals(configuration.getCustomProperty(CONFIG_SECRET_VALUE, null))) {
+            if (headerSecretValue == null || !headerSecretValue.equals(current.secretValue)) {
                 logger.debug("Received invalid value [{}] for secret header [{}], falling back.", headerSecretValue,
-                    secretField);
+                    current.secretField);
                 return null;
             }
             logger.debug("Secret validation succeeded.");
         }
 
-        return getHeader(configuration.getCustomProperty(CONFIG_AUTH_FIELD, DEFAULT_AUTH_FIELD));
+        PackedIdentity identity = getPackedIdentity(current);
+        return identity != null ? identity.getUid() : getHeader(current, current.authField);
     }
 
     @Override
     public String getUserName()
     {
-        return getHeader(configuration.getCustomProperty(CONFIG_ID_FIELD, DEFAULT_ID_FIELD));
+        Settings current = getSettings();
+        PackedIdentity identity = getPackedIdentity(current);
+        return identity != null ? identity.getName() : getHeader(current, current.idField);
     }
 
     @Override
     public String getUserProperty(String name)
     {
-        return getHeader(name);
+        Settings current = getSettings();
+        PackedIdentity identity = getPackedIdentity(current);
+        return identity != null ? identity.getProperties().get(name) : getHeader(current, name);
     }
 
     @Override
     public boolean isUserInRole(String role)
     {
-        return getUserRoles().contains(role);
+        Settings current = getSettings();
+        PackedIdentity identity = getPackedIdentity(current);
+        if (identity != null) {
+            return identity.getRoles().contains(role);
+        }
+
+        if (current.groupFieldNames != null) {
+            for (String groupFieldName : current.groupFieldNames) {
+                String groupHeaders = getHeader(current, groupFieldName);
+                if (StringUtils.isNotBlank(groupHeaders)
+                    && Arrays.asList(current.groupValueSeparator.split(groupHeaders)).contains(role)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
     }
 
     /**
+     * @param current the adapter configuration
      * @param name the name of the header.
      * @return the value of the named request header, or null if no value is defined.
      */
-    private String getHeader(String name)
+    private String getHeader(Settings current, String name)
     {
         if (StringUtils.isBlank(name)) {
             return null;
@@ -142,41 +292,75 @@ public class HeadersTrustedAuthenticationAdapter implements TrustedAuthenticatio
             return null;
         }
 
+        if (current.trustedProxies != null && !current.trustedProxies.contains(request.getRemoteAddr())) {
+            return null;
+        }
+
         String value = request.getHeader(name);
 
         if (StringUtils.isNotBlank(value)) {
             this.logger.debug("Retrieved header [{}] with value [{}].", name, value);
 
-            String encoding = configuration.getCustomProperty(CONFIG_HEADER_ENCODING, null);
-            if (StringUtils.isNotBlank(encoding) && Charset.isSupported(encoding)) {
-                try {
-                    value = new String(value.getBytes("ISO-8859-1"), encoding);
-                } catch (UnsupportedEncodingException e) {
-                    logger.debug("Failed to decode header [{}] using charset [{}].", name, encoding, e);
-                }
-            } else {
-                logger.debug("Unsupported charset [{}] requested for decoding headers.", encoding);
+            if (current.headerCharset != null
+                && !(current.headerCharsetAsciiCompatible && StringUtils.isAsciiPrintable(value))) {
+                value = new String(value.getBytes(StandardCharsets.ISO_8859_1), current.headerCharset);
             }
         }
 
         return value;
     }
 
+    /**
+     * @param current the adapter configuration
+     * @return the identity of the packed header of the current request, decoded once per request, or null if no packed
+     *         header is configured or provided, in which case the other headers are used.
+     */
+    private PackedIdentity getPackedIdentity(Settings current)
+    {
+        if (current.packedField == null) {
+            return null;
+        }
+
+        XWikiRequest request = contextProvider.get().getRequest();
+        if (request == null) {
+            return null;
+        }
+
+        PackedIdentity identity = (PackedIdentity) request.getAttribute(PACKED_IDENTITY_ATTRIBUTE);
+        if (identity == null) {
+            String value = getHeader(current, current.packedField);
+            if (StringUtils.isBlank(value)) {
+                return null;
+            }
+
+            try {
+                identity = PackedIdentity.decode(value);
+            } catch (IOException e) {
+                logger.warn("Ignoring invalid packed identity header [{}]: {}", current.packedField, e.getMessage());
+                identity = INVALID_PACKED_IDENTITY;
+            }
+            request.setAttribute(PACKED_IDENTITY_ATTRIBUTE, identity);
+        }
+
+        return identity;
+    }
+
     @Override
     public List<String> getUserRoles()
     {
-        List<String> groupFieldNames = configuration.getCustomPropertyAsList(CONFIG_GROUP_FIELD, COMMA_SEPARATOR, null);
+        Settings current = getSettings();
+        PackedIdentity identity = getPackedIdentity(current);
+        if (identity != null) {
+            return new ArrayList<>(identity.getRoles());
+        }
 
         // Use a set to ensure that we don't send back duplicate roles
         Set<String> headerValues = new HashSet<>();
-        if (groupFieldNames != null) {
-            String groupValueSeparator =
-                configuration.getCustomProperty(CONFIG_GROUP_VALUE_SEPARATOR, DEFAULT_GROUP_VALUE_SEPARATOR);
-
-            for (String groupFieldName : groupFieldNames) {
-                String groupHeaders = getHeader(groupFieldName);
+        if (current.groupFieldNames != null) {
+            for (String groupFieldName : current.groupFieldNames) {
+                String groupHeaders = getHeader(current, groupFieldName);
                 if (StringUtils.isNotBlank(groupHeaders)) {
-                    headerValues.addAll(Arrays.asList(groupHeaders.split(groupValueSeparator)));
+                    headerValues.addAll(Arrays.asList(current.groupValueSeparator.split(groupHeaders)));
                 }
             }
         }
@@ -0,0 +1,310 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Identity of a user carried by a single packed header: the base64 encoding of the deflate (zlib) compression of a
+ * JSON object like {@code {"uid":"jdoe","name":"jdoe","properties":{"email":"jdoe@example.com"},"roles":["a","b"]}}.
+ * It avoids huge role headers, exceeding the limits of the proxies and expensive to split, for users having thousands
+ * of roles. The value is decoded in a single streaming pass, and {@link #main(String[])} encodes it on the proxy side.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public final class PackedIdentity
+{
+    /**
+     * Maximum size of the decompressed identity, preventing a forged header from exhausting the memory.
+     */
+    private static final int MAX_DECODED_SIZE = 4 * 1024 * 1024;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String FIELD_UID = "uid";
+
+    private static final String FIELD_NAME = "name";
+
+    private static final String FIELD_PROPERTIES = "properties";
+
+    private static final String FIELD_ROLES = "roles";
+
+    private static final String PROPERTY_PREFIX = "property.";
+
+    private static final String ARGUMENT_SEPARATOR = "=";
+
+    private static final String ROLES_SEPARATOR = "|";
+
+    private final String uid;
+
+    private final String name;
+
+    private final Map<String, String> properties;
+
+    private final Set<String> roles;
+
+    /**
+     * Fail once more than a maximum number of bytes have been read.
+     */
+    private static final class LimitedInputStream extends FilterInputStream
+    {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit)
+        {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0) {
+                consume(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                consume(count);
+            }
+            return count;
+        }
+
+        private void consume(int count) throws IOException
+        {
+            remaining -= count;
+            if (remaining < 0) {
+                throw new IOException("Packed identity larger than " + MAX_DECODED_SIZE + " bytes");
+            }
+        }
+    }
+
+    /**
+     * @param uid the unique identifier of the user.
+     * @param name the name of the user, used for its profile.
+     * @param properties the properties of the user, indexed by the names of the headers they replace.
+     * @param roles the roles of the user.
+     */
+    public PackedIdentity(String uid, String name, Map<String, String> properties, Collection<String> roles)
+    {
+        this.uid = uid;
+        this.name = name;
+        this.properties = properties != null ? Collections.unmodifiableMap(new LinkedHashMap<>(properties))
+            : Collections.<String, String>emptyMap();
+        this.roles = roles != null ? Collections.unmodifiableSet(new LinkedHashSet<>(roles))
+            : Collections.<String>emptySet();
+    }
+
+    /**
+     * @return the unique identifier of the user, or null if it is not provided.
+     */
+    public String getUid()
+    {
+        return uid;
+    }
+
+    /**
+     * @return the name of the user, or null if it is not provided.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the properties of the user, indexed by the names of the headers they replace.
+     */
+    public Map<String, String> getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * @return the roles of the user.
+     */
+    public Set<String> getRoles()
+    {
+        return roles;
+    }
+
+    /**
+     * @param value the value of the packed header.
+     * @return the decoded identity.
+     * @throws IOException if the value is not a valid packed identity.
+     */
+    public static PackedIdentity decode(String value) throws IOException
+    {
+        InputStream input = new LimitedInputStream(new InflaterInputStream(Base64.getDecoder()
+            .wrap(new ByteArrayInputStream(value.trim().getBytes(StandardCharsets.ISO_8859_1)))), MAX_DECODED_SIZE);
+
+        try (JsonParser parser = JSON_FACTORY.createParser(input)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+            String uid = null;
+            String name = null;
+            Map<String, String> properties = new LinkedHashMap<>();
+            List<String> roles = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (FIELD_UID.equals(field)) {
+                    uid = parser.getValueAsString();
+                } else if (FIELD_NAME.equals(field)) {
+                    name = parser.getValueAsString();
+                } else if (FIELD_PROPERTIES.equals(field)) {
+                    expect(parser, token, JsonToken.START_OBJECT);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String property = parser.getCurrentName();
+                        parser.nextToken();
+                        properties.put(property, parser.getValueAsString());
+                    }
+                } else if (FIELD_ROLES.equals(field)) {
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        roles.add(parser.getText());
+                    }
+                    expect(parser, parser.currentToken(), JsonToken.END_ARRAY);
+                } else {
+                    // Ignore unknown fields, for forward compatibility
+                    parser.skipChildren();
+                }
+            }
+            expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+
+            return new PackedIdentity(uid, name, properties, roles);
+        } catch (IllegalArgumentException e) {
+            // Thrown by the base64 decoder on invalid characters
+            throw new IOException("Invalid packed identity", e);
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken token, JsonToken expected) throws JsonParseException
+    {
+        if (token != expected) {
+            throw new JsonParseException(parser, String.format("Expected [%s] but got [%s]", expected, token));
+        }
+    }
+
+    /**
+     * @return the value of the packed header holding this identity.
+     * @throws IOException if the identity cannot be encoded.
+     */
+    public String encode() throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (JsonGenerator generator = JSON_FACTORY
+            .createGenerator(new DeflaterOutputStream(Base64.getEncoder().wrap(output), deflater))) {
+            generator.writeStartObject();
+            if (uid != null) {
+                generator.writeStringField(FIELD_UID, uid);
+            }
+            if (name != null) {
+                generator.writeStringField(FIELD_NAME, name);
+            }
+            generator.writeObjectFieldStart(FIELD_PROPERTIES);
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                generator.writeStringField(property.getKey(), property.getValue());
+            }
+            generator.writeEndObject();
+            generator.writeArrayFieldStart(FIELD_ROLES);
+            for (String role : roles) {
+                generator.writeString(role);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } finally {
+            deflater.end();
+        }
+
+        return new String(output.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Print the value of the packed header for the identity given on the command line, as
+     * {@code uid=<uid> name=<name> roles=<role>|<role> property.<header>=<value>}, each argument being optional and
+     * {@code roles} repeatable.
+     *
+     * @param args the identity to encode.
+     * @throws IOException if the identity cannot be encoded.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        String uid = null;
+        String name = null;
+        Map<String, String> properties = new LinkedHashMap<>();
+        List<String> roles = new ArrayList<>();
+        for (String arg : args) {
+            String key = StringUtils.substringBefore(arg, ARGUMENT_SEPARATOR);
+            String value = StringUtils.substringAfter(arg, ARGUMENT_SEPARATOR);
+            if (FIELD_UID.equals(key)) {
+                uid = value;
+            } else if (FIELD_NAME.equals(key)) {
+                name = value;
+            } else if (FIELD_ROLES.equals(key)) {
+                Collections.addAll(roles, StringUtils.split(value, ROLES_SEPARATOR));
+            } else if (key.startsWith(PROPERTY_PREFIX)) {
+                properties.put(key.substring(PROPERTY_PREFIX.length()), value);
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        OutputStream out = new FileOutputStream(FileDescriptor.out);
+        out.write(new PackedIdentity(uid, name, properties, roles).encode().getBytes(StandardCharsets.US_ASCII));
+        out.write('\n');
+        out.flush();
+    }
+}
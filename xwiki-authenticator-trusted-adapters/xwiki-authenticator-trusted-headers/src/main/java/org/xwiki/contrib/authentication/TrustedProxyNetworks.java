@@ -0,0 +1,248 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Set of IPv4 and IPv6 networks, compiled from their CIDR notation into a binary prefix trie per address family, so
+ * that checking if an address belongs to one of them takes at most one step per bit of the address, whatever the
+ * number of networks.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+final class TrustedProxyNetworks
+{
+    private static final int IPV4_BITS = 32;
+
+    private static final int BYTE_BITS = 8;
+
+    private static final int BYTE_MASK = 0xFF;
+
+    private static final char PREFIX_SEPARATOR = '/';
+
+    private static final char IPV6_SEPARATOR = ':';
+
+    private final PrefixTrie ipv4Networks = new PrefixTrie();
+
+    private final PrefixTrie ipv6Networks = new PrefixTrie();
+
+    /**
+     * Binary trie of network prefixes, stored in arrays: the children of the node {@code n} are at {@code 2n} and
+     * {@code 2n + 1} of {@link #children}, 0 meaning no child since the root is never a child.
+     */
+    private static final class PrefixTrie
+    {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private int[] children = new int[2 * INITIAL_CAPACITY];
+
+        private boolean[] networks = new boolean[INITIAL_CAPACITY];
+
+        private int size = 1;
+
+        void add(byte[] address, int prefixLength)
+        {
+            int node = 0;
+            // Stop on a shorter network already covering the new one
+            for (int i = 0; i < prefixLength && !networks[node]; i++) {
+                int index = 2 * node + bit(address, i);
+                if (children[index] == 0) {
+                    // Allocate before indexing, since the arrays may be replaced
+                    int child = newNode();
+                    children[index] = child;
+                }
+                node = children[index];
+            }
+            networks[node] = true;
+        }
+
+        private int newNode()
+        {
+            if (size == networks.length) {
+                networks = Arrays.copyOf(networks, 2 * size);
+                children = Arrays.copyOf(children, 4 * size);
+            }
+            return size++;
+        }
+
+        boolean contains(byte[] address)
+        {
+            int node = 0;
+            for (int i = 0; i < address.length * BYTE_BITS && !networks[node]; i++) {
+                node = children[2 * node + bit(address, i)];
+                if (node == 0) {
+                    return false;
+                }
+            }
+            return networks[node];
+        }
+
+        boolean contains(int address)
+        {
+            int node = 0;
+            for (int i = 0; i < IPV4_BITS && !networks[node]; i++) {
+                node = children[2 * node + ((address >>> (IPV4_BITS - 1 - i)) & 1)];
+                if (node == 0) {
+                    return false;
+                }
+            }
+            return networks[node];
+        }
+
+        private static int bit(byte[] address, int index)
+        {
+            return (address[index / BYTE_BITS] >>> (BYTE_BITS - 1 - index % BYTE_BITS)) & 1;
+        }
+    }
+
+    /**
+     * Add a network to the set.
+     *
+     * @param cidr the network in CIDR notation (for instance 10.0.0.0/8 or 2001:db8::/32), or a single address.
+     * @return false if the network is not valid and has been ignored.
+     */
+    boolean add(String cidr)
+    {
+        String network = StringUtils.trim(cidr);
+        if (StringUtils.isEmpty(network)) {
+            return false;
+        }
+
+        int separator = network.indexOf(PREFIX_SEPARATOR);
+        byte[] address = parseLiteral(separator >= 0 ? network.substring(0, separator) : network);
+        if (address == null) {
+            return false;
+        }
+
+        int addressLength = address.length * BYTE_BITS;
+        int prefixLength = addressLength;
+        if (separator >= 0) {
+            prefixLength = parseDecimal(network, separator + 1, network.length());
+            if (prefixLength < 0 || prefixLength > addressLength) {
+                return false;
+            }
+        }
+
+        (addressLength == IPV4_BITS ? ipv4Networks : ipv6Networks).add(address, prefixLength);
+        return true;
+    }
+
+    /**
+     * @param address the textual representation of an IP address, as returned by
+     *            {@link javax.servlet.ServletRequest#getRemoteAddr()}.
+     * @return true if the address belongs to one of the networks.
+     */
+    boolean contains(String address)
+    {
+        if (address == null) {
+            return false;
+        }
+
+        long ipv4 = parseIPv4(address);
+        if (ipv4 >= 0) {
+            return ipv4Networks.contains((int) ipv4);
+        }
+
+        byte[] ipv6 = parseIPv6(address);
+        if (ipv6 != null) {
+            return (ipv6.length == Integer.BYTES ? ipv4Networks : ipv6Networks).contains(ipv6);
+        }
+
+        return false;
+    }
+
+    private static byte[] parseLiteral(String address)
+    {
+        long ipv4 = parseIPv4(address);
+        if (ipv4 >= 0) {
+            byte[] bytes = new byte[Integer.BYTES];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) (ipv4 >>> (IPV4_BITS - BYTE_BITS * (i + 1)));
+            }
+            return bytes;
+        }
+
+        return parseIPv6(address);
+    }
+
+    /**
+     * @param address a textual IPv4 address in dotted decimal notation
+     * @return the address as an unsigned 32 bits value, or -1 if it is not a valid IPv4 address
+     */
+    private static long parseIPv4(String address)
+    {
+        long value = 0;
+        int start = 0;
+        for (int part = 0; part < Integer.BYTES; part++) {
+            int end = part < Integer.BYTES - 1 ? address.indexOf('.', start) : address.length();
+            if (end < 0 || end - start > 3) {
+                return -1;
+            }
+            int octet = parseDecimal(address, start, end);
+            if (octet < 0 || octet > BYTE_MASK) {
+                return -1;
+            }
+            value = (value << BYTE_BITS) | octet;
+            start = end + 1;
+        }
+        return value;
+    }
+
+    /**
+     * @param address a textual IPv6 address
+     * @return the bytes of the address, 4 of them for an IPv4-mapped address, or null if it is not an IPv6 address
+     */
+    private static byte[] parseIPv6(String address)
+    {
+        // Only IPv6 literals are given to InetAddress, which would otherwise do a DNS lookup
+        if (address.indexOf(IPV6_SEPARATOR) < 0) {
+            return null;
+        }
+
+        try {
+            return InetAddress.getByName(address).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static int parseDecimal(String text, int start, int end)
+    {
+        if (start >= end) {
+            return -1;
+        }
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9' || value > BYTE_MASK) {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+}
@@ -45,4 +45,39 @@ public interface AuthenticationPersistenceStore
      * Clear the current authentication persisted in the store if any.
      */
     void clear();
+
+    /**
+     * Stores implementing {@link #storeRecord(TrustedAuthenticationRecord)} and {@link #retrieveRecord()} allow the
+     * authenticator to avoid parsing and serializing user references for each request.
+     *
+     * @return true if this store supports authentication records.
+     * @since 1.9.10
+     */
+    default boolean isRecordSupported()
+    {
+        return false;
+    }
+
+    /**
+     * Store the given authentication record into the persistence store. Only called when
+     * {@link #isRecordSupported()} returns true.
+     *
+     * @param record the authentication record to be persisted.
+     * @since 1.9.10
+     */
+    default void storeRecord(TrustedAuthenticationRecord record)
+    {
+        throw new UnsupportedOperationException("Storing authentication records is not supported by this store.");
+    }
+
+    /**
+     * Only called when {@link #isRecordSupported()} returns true.
+     *
+     * @return the current authentication record persisted in the store, or null if none is found.
+     * @since 1.9.10
+     */
+    default TrustedAuthenticationRecord retrieveRecord()
+    {
+        throw new UnsupportedOperationException("Retrieving authentication records is not supported by this store.");
+    }
 }
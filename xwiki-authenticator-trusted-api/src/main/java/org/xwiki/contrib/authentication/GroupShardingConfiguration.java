@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.authentication;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.xwiki.component.annotation.Role;
@@ -36,4 +37,46 @@ public interface GroupShardingConfiguration
      * @return the list of groups to be sharded.
      */
     List<String> getShardedGroups();
+
+    /**
+     * @return the regular expressions matching the names of additional groups to be sharded, like {@code Dyn_.*} for
+     *         all the groups with a given prefix
+     * @since 1.9.10
+     */
+    default List<String> getShardedGroupPatterns()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the number of members above which a group synchronized by the authenticator is switched to sharding,
+     *         or 0 to disable the automatic sharding
+     * @since 1.9.10
+     */
+    default int getShardingThreshold()
+    {
+        return 0;
+    }
+
+    /**
+     * @return true if some groups may be sharded
+     * @since 1.9.10
+     */
+    default boolean isShardingEnabled()
+    {
+        List<String> shardedGroups = getShardedGroups();
+
+        return (shardedGroups != null && !shardedGroups.isEmpty()) || !getShardedGroupPatterns().isEmpty()
+            || getShardingThreshold() > 0;
+    }
+
+    /**
+     * @param group the name of a sharded group
+     * @return the number of shards of the group, among 16, 256 and 4096
+     * @since 1.9.10
+     */
+    default int getShardCount(String group)
+    {
+        return 16;
+    }
 }
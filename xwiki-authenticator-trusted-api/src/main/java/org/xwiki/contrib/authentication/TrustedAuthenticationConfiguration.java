@@ -72,6 +72,15 @@ public interface TrustedAuthenticationConfiguration
      */
     TrustedAuthenticationAdapter getAuthenticationAdapter();
 
+    /**
+     * @return the hint of the authentication adapter returned by {@link #getAuthenticationAdapter()}.
+     * @since 1.9.10
+     */
+    default String getAuthenticationAdapterHint()
+    {
+        return "default";
+    }
+
     /**
      * Mainly for performance reason, the currently logged user UID should be persisted across request, this method
      * return the persistence store according to the configuration. Most common implementation is provided for storing
@@ -88,6 +97,20 @@ public interface TrustedAuthenticationConfiguration
      */
     boolean isPersistenceStoreTrusted();
 
+    /**
+     * When the persistence store is trusted, a positive interval limits that trust: once the interval has elapsed
+     * since the authentication adapter has last confirmed a persisted authentication, the adapter is consulted again
+     * for the next request, and the persisted authentication is either confirmed for another interval, or replaced.
+     *
+     * @return the interval in seconds after which a trusted persisted authentication should be revalidated by the
+     *         authentication adapter, 0 or negative to never revalidate it.
+     * @since 1.9.10
+     */
+    default int getPersistenceStoreRevalidationInterval()
+    {
+        return -1;
+    }
+
     /**
      * @return true when a not trusted persistence store should still be trusted when the adapter does not provide an
      *         authenticated user (null user identifier received).
@@ -101,6 +124,151 @@ public interface TrustedAuthenticationConfiguration
      */
     int getPersistenceTTL();
 
+    /**
+     * Random jitter applied to the TTL of the persistence storage, so that authentications persisted at the same time
+     * do not all expire together. Only applicable when a TTL has been defined.
+     *
+     * @return the maximum fraction of the TTL (between 0 and 1) that could be randomly removed from the lifetime of a
+     *         persisted authentication, 0 means no jitter.
+     * @since 1.9.10
+     */
+    default double getPersistenceTTLJitter()
+    {
+        return 0;
+    }
+
+    /**
+     * Threshold used to extend the lifetime of a persisted authentication while it is still being used (sliding
+     * expiration). Only applicable when a TTL has been defined.
+     *
+     * @return the fraction of the TTL (between 0 and 1) under which the remaining lifetime of a persisted
+     *         authentication should be renewed when it is retrieved, 0 means that the persisted authentication is never
+     *         renewed.
+     * @since 1.9.10
+     */
+    default double getPersistenceRenewalThreshold()
+    {
+        return 0;
+    }
+
+    /**
+     * Size of the node-local cache of the users recently authenticated and synchronized, used to skip the
+     * synchronization for clients not keeping any persistence between requests (like REST clients not supporting
+     * cookies).
+     *
+     * @return the maximum number of authenticated users kept in the cache, 0 or negative to disable the cache.
+     * @since 1.9.10
+     */
+    default int getAuthenticationCacheSize()
+    {
+        return 0;
+    }
+
+    /**
+     * @return how long in seconds a cached authentication could be used without synchronizing the user again.
+     * @since 1.9.10
+     */
+    default int getAuthenticationCacheTTL()
+    {
+        return 0;
+    }
+
+    /**
+     * When enabled, new user profiles are created without saving the initial groups of the wiki (usually
+     * XWiki.XWikiAllGroup) which may be huge. The new users are added to a small pending group, member of the initial
+     * groups, and moved into the initial groups in batches by a background task.
+     *
+     * @return true if the initial groups membership of new users should be deferred and batched.
+     * @since 1.9.10
+     */
+    default boolean isInitialGroupsMembershipDeferred()
+    {
+        return false;
+    }
+
+    /**
+     * @return the interval in seconds between two moves of the pending members into the initial groups.
+     * @since 1.9.10
+     */
+    default int getDeferredMembershipFlushInterval()
+    {
+        return 60;
+    }
+
+    /**
+     * @return the maximum number of pending members moved into the initial groups with a single save.
+     * @since 1.9.10
+     */
+    default int getDeferredMembershipBatchSize()
+    {
+        return 1000;
+    }
+
+    /**
+     * Authentications taking longer than this threshold are traced, with the breakdown of their duration by phase, in
+     * the {@code org.xwiki.contrib.authentication.SlowAuthentication} logger.
+     *
+     * @return the duration in milliseconds above which an authentication is traced, 0 or negative to never trace.
+     * @since 1.9.10
+     */
+    default int getSlowAuthenticationThreshold()
+    {
+        return 0;
+    }
+
+    /**
+     * When enabled, the {@code UserAuthenticatedEvent} sent after the authentication of a user from the authentication
+     * adapter is notified to the listeners by a background thread instead of the request thread. The events of a
+     * given user are always notified by the same thread, and so in order.
+     *
+     * @return true if the {@code UserAuthenticatedEvent} should be notified asynchronously.
+     * @since 1.9.10
+     */
+    default boolean isUserAuthenticatedEventAsynchronous()
+    {
+        return false;
+    }
+
+    /**
+     * @return the number of threads notifying the asynchronous {@code UserAuthenticatedEvent}.
+     * @since 1.9.10
+     */
+    default int getUserAuthenticatedEventThreads()
+    {
+        return 2;
+    }
+
+    /**
+     * @return the maximum number of asynchronous {@code UserAuthenticatedEvent} waiting for each thread, the events
+     *         beyond being notified by the request thread.
+     * @since 1.9.10
+     */
+    default int getUserAuthenticatedEventQueueSize()
+    {
+        return 1000;
+    }
+
+    /**
+     * @return the reference of a page holding group mappings in addition to {@link #getGroupMappings()}, one
+     *         {@code XWiki.TrustedAuthenticationGroupMappingClass} object per mapping of a role to a group, or null if
+     *         none.
+     * @since 1.9.10
+     */
+    default String getGroupMappingDocument()
+    {
+        return null;
+    }
+
+    /**
+     * @return the path of a local file holding group mappings in addition to {@link #getGroupMappings()}, one
+     *         {@code group=role} mapping per line, or null if none.
+     * @since 1.9.10
+     */
+    default String getGroupMappingFile()
+    {
+        return null;
+    }
+
     /**
      * @return the case style to be applied to username for defining the name of the user profile page.
      */
@@ -133,7 +301,8 @@ public interface TrustedAuthenticationConfiguration
     boolean isAuthoritative();
 
     /**
-     * @return another authenticator service to be used as fallback, or null if no fallback should be applied
+     * @return another authenticator service to be used as fallback, or null if no fallback should be applied. The
+     *         same instance is returned as long as the configuration is not modified.
      */
     XWikiAuthService getFallbackAuthenticator();
 
@@ -142,6 +311,18 @@ public interface TrustedAuthenticationConfiguration
      */
     String getLogoutPagePattern();
 
+    /**
+     * The values read from the configuration can be cached as long as the generation is unchanged, the generation
+     * changing with each modification of the wiki preferences holding the configuration.
+     *
+     * @return the current generation of the configuration
+     * @since 1.9.10
+     */
+    default long getGeneration()
+    {
+        return 0;
+    }
+
     /**
      * Retrieve value of a simple property. Example: <code>name = value</code>
      *
@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.authentication;
+
+import java.io.Serializable;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Authentication persisted between requests by an {@link AuthenticationPersistenceStore}.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class TrustedAuthenticationRecord implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final DocumentReference user;
+
+    private final String userUid;
+
+    private final long loginTime;
+
+    private final long synchronizationTime;
+
+    private final String synchronizationDigest;
+
+    private final long validationTime;
+
+    /**
+     * Create a record for an authenticated user without any other information, mainly used for authentications
+     * persisted by stores not supporting records.
+     *
+     * @param user the reference of the authenticated user profile.
+     */
+    public TrustedAuthenticationRecord(DocumentReference user)
+    {
+        this(user, null, 0, 0, null, 0);
+    }
+
+    /**
+     * Create a new record.
+     *
+     * @param user the reference of the authenticated user profile.
+     * @param userUid the user UID provided by the authentication adapter, null if unknown.
+     * @param loginTime the time (in milliseconds) of the authentication, 0 if unknown.
+     * @param synchronizationTime the time (in milliseconds) of the last synchronization of the user, 0 if unknown.
+     * @param synchronizationDigest the digest of the information used for the last synchronization, null if unknown.
+     * @param validationTime the time (in milliseconds) the authentication adapter has last confirmed the
+     *            authentication, 0 if unknown.
+     */
+    public TrustedAuthenticationRecord(DocumentReference user, String userUid, long loginTime,
+        long synchronizationTime, String synchronizationDigest, long validationTime)
+    {
+        this.user = user;
+        this.userUid = userUid;
+        this.loginTime = loginTime;
+        this.synchronizationTime = synchronizationTime;
+        this.synchronizationDigest = synchronizationDigest;
+        this.validationTime = validationTime;
+    }
+
+    /**
+     * @return the reference of the authenticated user profile.
+     */
+    public DocumentReference getUser()
+    {
+        return user;
+    }
+
+    /**
+     * @return the user UID provided by the authentication adapter, null if unknown.
+     */
+    public String getUserUid()
+    {
+        return userUid;
+    }
+
+    /**
+     * @return the time (in milliseconds) of the authentication, 0 if unknown.
+     */
+    public long getLoginTime()
+    {
+        return loginTime;
+    }
+
+    /**
+     * @return the time (in milliseconds) of the last synchronization of the user, 0 if unknown.
+     */
+    public long getSynchronizationTime()
+    {
+        return synchronizationTime;
+    }
+
+    /**
+     * @return the digest of the user information used for the last synchronization, null if unknown.
+     */
+    public String getSynchronizationDigest()
+    {
+        return synchronizationDigest;
+    }
+
+    /**
+     * @return the time (in milliseconds) the authentication adapter has last confirmed the authentication, 0 if
+     *         unknown.
+     */
+    public long getValidationTime()
+    {
+        return validationTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.valueOf(user);
+    }
+}
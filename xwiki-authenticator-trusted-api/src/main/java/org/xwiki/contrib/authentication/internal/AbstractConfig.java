@@ -29,6 +29,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -58,6 +59,8 @@ public abstract class AbstractConfig implements TrustedAuthenticationConfigurati
     private final String prefPrefix;
     private final String confPrefix;
 
+    private final AtomicLong generation = new AtomicLong();
+
     /**
      * Constructor.
      *
@@ -70,6 +73,22 @@ public abstract class AbstractConfig implements TrustedAuthenticationConfigurati
         this.confPrefix = confPrefix + '.';
     }
 
+    @Override
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Change the generation of the configuration, so that the values cached from it are read again.
+     *
+     * @since 1.9.10
+     */
+    public void invalidate()
+    {
+        generation.incrementAndGet();
+    }
+
     @Override
     public boolean getCustomPropertyAsBoolean(String name, boolean def)
     {
@@ -203,7 +222,7 @@ public abstract class AbstractConfig implements TrustedAuthenticationConfigurati
 
                         getOrCreateMappedSet(oneToMany, leftProperty).add(rightProperty);
 
-                        logger.debug("[{}] mapping found: {}", name, leftProperty + " " + rightProperty);
+                        logger.debug("[{}] mapping found: {} {}", name, leftProperty, rightProperty);
                     }
                 }
             }
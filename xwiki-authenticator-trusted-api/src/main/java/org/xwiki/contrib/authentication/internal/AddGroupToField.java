@@ -20,15 +20,17 @@
 
 package org.xwiki.contrib.authentication.internal;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.contrib.authentication.AddGroupToFieldConfiguration;
 import org.xwiki.contrib.authentication.DynamicRoleConfiguration;
+import org.xwiki.contrib.authentication.internal.jfr.AddGroupToFieldSaveEvent;
+import org.xwiki.contrib.authentication.internal.jfr.FlightRecorderSupport;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
@@ -50,14 +52,20 @@ class AddGroupToField
 
     private static final String DEF = "default";
 
-    private final Map<String, XWikiDocument> documentsToSave;
+    private final Map<DocumentReference, List<AddGroupToFieldWriter.Append>> pendingAppends;
 
-    protected AddGroupToField()
+    private final AddGroupToFieldIndex index;
+
+    private final AddGroupToFieldWriter writer;
+
+    protected AddGroupToField(AddGroupToFieldIndex index, AddGroupToFieldWriter writer)
     {
-        documentsToSave = new HashMap<String, XWikiDocument>();
+        pendingAppends = new HashMap<DocumentReference, List<AddGroupToFieldWriter.Append>>();
+        this.index = index;
+        this.writer = writer;
     }
 
-    private static BaseObject getObject(XWikiDocument doc, XWikiContext context, String className, String number,
+    static BaseObject getObject(XWikiDocument doc, XWikiContext context, String className, String number,
         String property)
     {
         if (className.isEmpty()) {
@@ -83,48 +91,13 @@ class AddGroupToField
         return resolver.resolve(page);
     }
 
-    private static boolean isGroupRolePresent(DocumentReference group, String role, String values,
-        AddGroupToFieldConfiguration c)
+    private static boolean isGroupRolePresent(DocumentReference group, String sGroup, String role,
+        AddGroupToFieldIndex.FieldIndex fieldIndex, AddGroupToFieldConfiguration c)
     {
-        Pattern valueRegex = Pattern.compile(c.getValueRegex());
-        String sGroup = serialize(group);
-        for (String keyVal : values.split(Pattern.quote(c.getSeparator()))) {
-            Matcher m = valueRegex.matcher(keyVal);
-            if (m.matches()) {
-                LOGGER.debug("Regex [{}] matches value [{}]", c.getValueRegex(), keyVal);
-                try {
-                    String mGroup = m.group("group");
-                    if (mGroup != null && !group.getName().equals(mGroup) && !sGroup.endsWith(mGroup)) {
-                        LOGGER.debug("Groups don't match: [{}] vs [{}]", sGroup, mGroup);
-                        continue;
-                    }
-                    LOGGER.debug("Groups match");
-                } catch (IllegalArgumentException e) {
-                    // no named-capturing group "group".
-                    // do nothing and keep going, it's a match by absence of constraint.
-                    LOGGER.debug("No capturing group named 'group' the regex. Not checking groups match.");
-                }
-
-                try {
-                    String mRole = m.group("role");
-                    if (mRole != null && !role.equals(mRole)) {
-                        LOGGER.debug("Rols don't match: [{}] vs [{}]", role, mRole);
-                        continue;
-                    }
-                    LOGGER.debug("Roles match");
-                } catch (IllegalArgumentException e) {
-                    // no named-capturing group "group".
-                    // do nothing and keep going, it's a match by absence of constraint.
-                    LOGGER.debug("No capturing group named 'role' in the regex. Not checking roles match.");
-                }
-
-                LOGGER.debug("Group [{}] / role [{}] is already in property [{}] of [{}]. Matching value: [{}]", group,
-                    role, c.getPropertyName(), c.getPage(), keyVal);
-
-                return true;
-            } else {
-                LOGGER.debug("Regex [{}] does not match value [{}]", c.getValueRegex(), keyVal);
-            }
+        if (fieldIndex.contains(group, sGroup, role)) {
+            LOGGER.debug("Group [{}] / role [{}] is already in property [{}] of [{}].", group, role,
+                c.getPropertyName(), c.getPage());
+            return true;
         }
 
         LOGGER.debug("Group [{}] / role [{}] was not found in property [{}] of [{}].", group, role, c.getPropertyName(),
@@ -133,20 +106,6 @@ class AddGroupToField
         return false;
     }
 
-    private XWikiDocument getXWikiDocument(String page, XWikiContext context, boolean saving) throws XWikiException
-    {
-
-        XWikiDocument xdoc = documentsToSave.get(page);
-        if (xdoc == null) {
-            xdoc = context.getWiki().getDocument(resolve(page), context);
-            if (saving) {
-                documentsToSave.put(page, xdoc);
-            }
-        }
-
-        return xdoc;
-    }
-
     protected void add(XWikiContext context, DocumentReference group, String role, DynamicRoleConfiguration conf)
     {
         AddGroupToFieldConfiguration c = conf.getAddGroupToFieldConfiguration();
@@ -166,13 +125,36 @@ class AddGroupToField
             page = context.getMainXWiki() + ":" + page;
         }
 
+        DocumentReference pageRef = resolve(page);
+        String sGroup = serialize(group);
+        AddGroupToFieldIndex.FieldIndex fieldIndex = index.getIndex(pageRef, c);
+        if (fieldIndex == null) {
+            fieldIndex = loadIndex(context, pageRef, c);
+            if (fieldIndex == null) {
+                return;
+            }
+        }
+
+        if (!isGroupRolePresent(group, sGroup, role, fieldIndex, c)) {
+            LOGGER.debug("Group [{}] / role [{}] was not found in property [{}] of [{}]. Adding it.", group, role,
+                c.getPropertyName(), page);
+
+            pendingAppends.computeIfAbsent(pageRef, key -> new ArrayList<AddGroupToFieldWriter.Append>())
+                .add(new AddGroupToFieldWriter.Append(group, role, c));
+        }
+    }
+
+    private AddGroupToFieldIndex.FieldIndex loadIndex(XWikiContext context, DocumentReference pageRef,
+        AddGroupToFieldConfiguration c)
+    {
+        long generation = index.getGeneration(pageRef);
         XWikiDocument doc;
         try {
-            doc = getXWikiDocument(page, context, false);
+            doc = context.getWiki().getDocument(pageRef, context);
         } catch (XWikiException e) {
             LOGGER.error("Failed to get document matching configuration [{}]. The field won't be updated.",
                 c.toString(), e);
-            return;
+            return null;
         }
 
         BaseObject obj = getObject(doc, context, c.getClassName(), c.getObjectNumber(), c.getPropertyName());
@@ -180,7 +162,7 @@ class AddGroupToField
         if (obj == null) {
             LOGGER.error("Could not find any object matching configuration [{}]. The field won't be updated.",
                 c.toString());
-            return;
+            return null;
         }
 
         String values;
@@ -189,28 +171,28 @@ class AddGroupToField
         } catch (ClassCastException e) {
             LOGGER.error("Could not convert the field to a string for configuration [{}]. The field won't be updated",
                 c.toString(), e);
-            return;
+            return null;
         }
 
-        if (!isGroupRolePresent(group, role, values, c)) {
-            String newValue = c.getValue(group, role);
-            LOGGER.debug("Group [{}] / role [{}] was not found in property [{}] of [{}]. Adding it: [{}]", group, role,
-                c.getPropertyName(), page, newValue);
+        AddGroupToFieldIndex.FieldIndex fieldIndex = index.createIndex(values, c);
+        index.putIndex(pageRef, c, fieldIndex, generation);
 
-            obj.setLargeStringValue(c.getPropertyName(), values + c.getSeparator() + newValue);
-            documentsToSave.put(page, doc);
-        }
+        return fieldIndex;
     }
 
     protected void save(XWikiContext context)
     {
-        for (XWikiDocument doc : documentsToSave.values()) {
-            try {
-                context.getWiki().saveDocument(doc, "Add a new role/group from the trusted authenticator", context);
-            } catch (XWikiException e) {
-                LOGGER.error("Could not update the group/role field of page [{}].", doc, e);
+        // The pages are shared by all the users, let the writer merge the concurrent additions
+        for (Map.Entry<DocumentReference, List<AddGroupToFieldWriter.Append>> entry : pendingAppends.entrySet()) {
+            AddGroupToFieldSaveEvent event =
+                FlightRecorderSupport.isAvailable() && AddGroupToFieldSaveEvent.isTypeEnabled()
+                    ? new AddGroupToFieldSaveEvent() : null;
+
+            writer.write(entry.getKey(), entry.getValue());
+
+            if (event != null) {
+                event.commit(entry.getKey(), entry.getValue().size());
             }
-            LOGGER.debug("Updated [{}] with new group(s)/role(s).", doc);
         }
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.authentication.AddGroupToFieldConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Index of the group/role pairs already present in the fields targeted by the add group to field configurations, so
+ * that checking an already present pair requires neither loading the target document nor matching the value regular
+ * expression. The index of a target document is invalidated by the {@link AddGroupToFieldListener} when it is
+ * modified.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { AddGroupToFieldIndex.class })
+@Singleton
+public class AddGroupToFieldIndex
+{
+    private static final char KEY_SEPARATOR = '\0';
+
+    /**
+     * The field indexes, by target document and configuration.
+     */
+    private final Map<DocumentReference, Map<String, FieldIndex>> indexes = new ConcurrentHashMap<>();
+
+    private final Map<String, Pattern> patterns = new ConcurrentHashMap<>();
+
+    /**
+     * The generation of each target document, incremented on each invalidation of the document, so that an index built
+     * from a document modified in the meantime is not kept. The documents which are not targets are not tracked.
+     */
+    private final Map<DocumentReference, Long> generations = new ConcurrentHashMap<>();
+
+    /**
+     * The group/role pairs present in a field. A null group or role means that the value does not constrain it.
+     */
+    public static final class FieldIndex
+    {
+        private final Map<String, Set<String>> groupsByRole = new HashMap<>();
+
+        private void add(String group, String role)
+        {
+            groupsByRole.computeIfAbsent(role, key -> new HashSet<>()).add(group);
+        }
+
+        /**
+         * @param group the group reference
+         * @param serializedGroup the group reference serialized with the default serializer
+         * @param role the role
+         * @return true if the field holds a value matching the group and role
+         */
+        public boolean contains(DocumentReference group, String serializedGroup, String role)
+        {
+            return contains(groupsByRole.get(role), group, serializedGroup)
+                || contains(groupsByRole.get(null), group, serializedGroup);
+        }
+
+        private boolean contains(Set<String> groups, DocumentReference group, String serializedGroup)
+        {
+            if (groups == null) {
+                return false;
+            }
+            if (groups.contains(null) || groups.contains(group.getName())) {
+                return true;
+            }
+            for (String candidate : groups) {
+                if (candidate != null && serializedGroup.endsWith(candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param page the target document
+     * @return the current generation of the target document, to be passed to {@link #putIndex} for an index built
+     *         after this call
+     */
+    public long getGeneration(DocumentReference page)
+    {
+        return generations.computeIfAbsent(page, key -> 0L);
+    }
+
+    /**
+     * @param page the target document
+     * @param configuration the add group to field configuration
+     * @return the index of the target field, or null if it is not indexed
+     */
+    public FieldIndex getIndex(DocumentReference page, AddGroupToFieldConfiguration configuration)
+    {
+        return indexes.getOrDefault(page, Collections.emptyMap()).get(getKey(configuration));
+    }
+
+    /**
+     * Keep the index of a target field, unless an index has been invalidated since the provided generation.
+     *
+     * @param page the target document
+     * @param configuration the add group to field configuration
+     * @param index the index of the field
+     * @param indexGeneration the generation of the target document obtained before loading it
+     */
+    public void putIndex(DocumentReference page, AddGroupToFieldConfiguration configuration, FieldIndex index,
+        long indexGeneration)
+    {
+        indexes.computeIfAbsent(page, key -> new ConcurrentHashMap<>()).put(getKey(configuration), index);
+        Long pageGeneration = generations.get(page);
+        if (pageGeneration == null || pageGeneration != indexGeneration) {
+            // The document may have been modified after it was loaded
+            indexes.remove(page);
+        }
+    }
+
+    /**
+     * Forget the indexes of a document, if it is a target document.
+     *
+     * @param page the modified document
+     */
+    public void invalidate(DocumentReference page)
+    {
+        if (generations.computeIfPresent(page, (key, pageGeneration) -> pageGeneration + 1) != null) {
+            indexes.remove(page);
+        }
+    }
+
+    /**
+     * Parse the value of a field into an index.
+     *
+     * @param values the value of the field
+     * @param configuration the add group to field configuration
+     * @return the index of the field
+     */
+    public FieldIndex createIndex(String values, AddGroupToFieldConfiguration configuration)
+    {
+        FieldIndex index = new FieldIndex();
+        Pattern valueRegex = getValueRegex(configuration);
+        for (String keyVal : values.split(Pattern.quote(configuration.getSeparator()))) {
+            addValue(index, keyVal, valueRegex);
+        }
+        return index;
+    }
+
+    /**
+     * Update the index of a field with a value appended to the field.
+     *
+     * @param index the index of the field
+     * @param value the appended value
+     * @param configuration the add group to field configuration
+     */
+    public void addValue(FieldIndex index, String value, AddGroupToFieldConfiguration configuration)
+    {
+        addValue(index, value, getValueRegex(configuration));
+    }
+
+    private void addValue(FieldIndex index, String value, Pattern valueRegex)
+    {
+        Matcher m = valueRegex.matcher(value);
+        if (m.matches()) {
+            index.add(getNamedGroup(m, "group"), getNamedGroup(m, "role"));
+        }
+    }
+
+    private Pattern getValueRegex(AddGroupToFieldConfiguration configuration)
+    {
+        return patterns.computeIfAbsent(configuration.getValueRegex(), Pattern::compile);
+    }
+
+    private String getNamedGroup(Matcher matcher, String name)
+    {
+        try {
+            return matcher.group(name);
+        } catch (IllegalArgumentException e) {
+            // No such named-capturing group in the regex, it's a match by absence of constraint
+            return null;
+        }
+    }
+
+    private String getKey(AddGroupToFieldConfiguration configuration)
+    {
+        return configuration.getClassName() + KEY_SEPARATOR + configuration.getObjectNumber() + KEY_SEPARATOR
+            + configuration.getPropertyName() + KEY_SEPARATOR + configuration.getSeparator() + KEY_SEPARATOR
+            + configuration.getValueRegex();
+    }
+}
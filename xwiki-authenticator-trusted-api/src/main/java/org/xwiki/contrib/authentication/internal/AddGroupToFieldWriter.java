@@ -0,0 +1,269 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.authentication.AddGroupToFieldConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Serialize the additions to the pages targeted by the add group to field configurations, which are shared by all the
+ * users. The additions requested concurrently for a page are merged into a single read-modify-save cycle of its latest
+ * version, so that no addition is lost and fewer versions of the page are created.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { AddGroupToFieldWriter.class })
+@Singleton
+public class AddGroupToFieldWriter
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private AddGroupToFieldIndex addGroupToFieldIndex;
+
+    @Inject
+    private EntityReferenceSerializer<String> defaultStringEntityReferenceSerializer;
+
+    private final Map<DocumentReference, PageWriter> writers = new ConcurrentHashMap<>();
+
+    /**
+     * A group/role pair to add to a field.
+     */
+    public static final class Append
+    {
+        private final DocumentReference group;
+
+        private final String role;
+
+        private final AddGroupToFieldConfiguration configuration;
+
+        /**
+         * @param group the group to add
+         * @param role the role to add
+         * @param configuration the add group to field configuration
+         */
+        public Append(DocumentReference group, String role, AddGroupToFieldConfiguration configuration)
+        {
+            this.group = group;
+            this.role = role;
+            this.configuration = configuration;
+        }
+    }
+
+    /**
+     * A target field, which several configurations may share: the object holding it, compared by identity, and the
+     * name of its property.
+     */
+    private static final class FieldKey
+    {
+        private final BaseObject object;
+
+        private final String propertyName;
+
+        FieldKey(BaseObject object, String propertyName)
+        {
+            this.object = object;
+            this.propertyName = propertyName;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof FieldKey)) {
+                return false;
+            }
+            FieldKey other = (FieldKey) obj;
+            return object == other.object && propertyName.equals(other.propertyName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * System.identityHashCode(object) + propertyName.hashCode();
+        }
+    }
+
+    /**
+     * The values appended to a field while writing a batch, the field being parsed only once for the whole batch. The
+     * field keeps an index for each configuration targeting it, since configurations may format the values
+     * differently.
+     */
+    private static final class FieldAppends
+    {
+        private final BaseObject object;
+
+        private final String propertyName;
+
+        private final Map<AddGroupToFieldConfiguration, AddGroupToFieldIndex.FieldIndex> indexes = new HashMap<>();
+
+        private final StringBuilder values = new StringBuilder();
+
+        FieldAppends(BaseObject object, String propertyName)
+        {
+            this.object = object;
+            this.propertyName = propertyName;
+        }
+    }
+
+    /**
+     * The additions waiting for a page, and the lock held while writing it.
+     */
+    private static final class PageWriter
+    {
+        private final List<Append> pending = new ArrayList<>();
+
+        private final Lock lock = new ReentrantLock();
+    }
+
+    /**
+     * Add group/role pairs to a page, merged with the additions requested concurrently by other users. Returns once
+     * the additions have been saved, either by the current thread or by another one writing the same page.
+     *
+     * @param page the target page
+     * @param appends the group/role pairs to add
+     */
+    public void write(DocumentReference page, Collection<Append> appends)
+    {
+        PageWriter writer = writers.computeIfAbsent(page, key -> new PageWriter());
+        synchronized (writer.pending) {
+            writer.pending.addAll(appends);
+        }
+
+        writer.lock.lock();
+        try {
+            // The pending additions may already have been written by the previous lock owner
+            List<Append> batch;
+            synchronized (writer.pending) {
+                batch = new ArrayList<>(writer.pending);
+                writer.pending.clear();
+            }
+            if (!batch.isEmpty()) {
+                write(page, batch);
+            }
+        } finally {
+            writer.lock.unlock();
+        }
+    }
+
+    private void write(DocumentReference page, List<Append> batch)
+    {
+        XWikiContext context = contextProvider.get();
+
+        try {
+            XWikiDocument doc = context.getWiki().getDocument(page, context).clone();
+
+            // The fields of the configurations, null when missing, and the fields shared by several configurations
+            Map<AddGroupToFieldConfiguration, FieldAppends> fields = new HashMap<>();
+            Map<FieldKey, FieldAppends> targetFields = new HashMap<>();
+            for (Append append : batch) {
+                append(doc, append, fields, targetFields, context);
+            }
+
+            boolean modified = false;
+            for (FieldAppends field : targetFields.values()) {
+                if (field.values.length() > 0) {
+                    field.object.setLargeStringValue(field.propertyName,
+                        field.object.getLargeStringValue(field.propertyName) + field.values);
+                    modified = true;
+                }
+            }
+
+            if (modified) {
+                context.getWiki().saveDocument(doc, "Add a new role/group from the trusted authenticator", context);
+                logger.debug("Updated [{}] with [{}] new group(s)/role(s).", page, batch.size());
+            }
+        } catch (XWikiException e) {
+            logger.error("Could not update the group/role field of page [{}].", page, e);
+        }
+    }
+
+    private void append(XWikiDocument doc, Append append, Map<AddGroupToFieldConfiguration, FieldAppends> fields,
+        Map<FieldKey, FieldAppends> targetFields, XWikiContext context)
+    {
+        AddGroupToFieldConfiguration c = append.configuration;
+        FieldAppends field = fields.containsKey(c) ? fields.get(c) : getField(doc, c, fields, targetFields, context);
+        if (field == null) {
+            return;
+        }
+
+        // Check again against the latest version, which may already hold the pair
+        AddGroupToFieldIndex.FieldIndex index = field.indexes.get(c);
+        if (index == null) {
+            index = addGroupToFieldIndex.createIndex(field.object.getLargeStringValue(field.propertyName)
+                + field.values, c);
+            field.indexes.put(c, index);
+        }
+        String serializedGroup = defaultStringEntityReferenceSerializer.serialize(append.group);
+        if (index.contains(append.group, serializedGroup, append.role)) {
+            return;
+        }
+
+        String value = c.getValue(append.group, append.role);
+        field.values.append(c.getSeparator()).append(value);
+        field.indexes.forEach((configuration, fieldIndex) -> addGroupToFieldIndex.addValue(fieldIndex, value,
+            configuration));
+    }
+
+    private FieldAppends getField(XWikiDocument doc, AddGroupToFieldConfiguration c,
+        Map<AddGroupToFieldConfiguration, FieldAppends> fields, Map<FieldKey, FieldAppends> targetFields,
+        XWikiContext context)
+    {
+        FieldAppends field = null;
+        BaseObject obj = AddGroupToField.getObject(doc, context, c.getClassName(), c.getObjectNumber(),
+            c.getPropertyName());
+        if (obj == null) {
+            logger.error("Could not find any object matching configuration [{}]. The field won't be updated.", c);
+        } else {
+            // Configurations parsed separately may target the same field, whose values must be appended together
+            field = targetFields.computeIfAbsent(new FieldKey(obj, c.getPropertyName()),
+                key -> new FieldAppends(obj, c.getPropertyName()));
+        }
+        // Also remember the missing objects, to log them once per batch
+        fields.put(c, field);
+
+        return field;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Node-local cache of the users recently authenticated and synchronized, indexed by the identity provided by the
+ * authentication adapter (user UID and synchronization digest). It allows clients not keeping any persistence between
+ * requests to be authenticated without synchronizing the user again with every request.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { AuthenticatedUserCache.class })
+@Singleton
+public class AuthenticatedUserCache implements Initializable, Disposable
+{
+    private static final String CACHE_ID = "authenticator.trusted.users";
+
+    private static final char KEY_SEPARATOR = '\0';
+
+    @Inject
+    private TrustedAuthenticationConfiguration configuration;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private Logger logger;
+
+    private Cache<DocumentReference> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int size = configuration.getAuthenticationCacheSize();
+        int ttl = configuration.getAuthenticationCacheTTL();
+        if (size <= 0 || ttl <= 0) {
+            logger.debug("Cache of authenticated users is disabled.");
+            return;
+        }
+
+        LRUCacheConfiguration cacheConfiguration = new LRUCacheConfiguration(CACHE_ID, size);
+        cacheConfiguration.getLRUEvictionConfiguration().setLifespan(ttl);
+        try {
+            cache = cacheManager.createNewLocalCache(cacheConfiguration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the cache of authenticated users", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (cache != null) {
+            cache.dispose();
+        }
+    }
+
+    /**
+     * @return true if the cache is enabled.
+     */
+    public boolean isEnabled()
+    {
+        return cache != null;
+    }
+
+    /**
+     * @param userUid the user UID provided by the authentication adapter.
+     * @param digest the synchronization digest of the information provided by the authentication adapter.
+     * @return the user profile that has been synchronized with the given identity, or null if none is cached.
+     */
+    public DocumentReference get(String userUid, String digest)
+    {
+        return cache != null ? cache.get(getKey(userUid, digest)) : null;
+    }
+
+    /**
+     * @param userUid the user UID provided by the authentication adapter.
+     * @param digest the synchronization digest of the information provided by the authentication adapter.
+     * @param userProfile the user profile that has been synchronized with the given identity.
+     */
+    public void set(String userUid, String digest, DocumentReference userProfile)
+    {
+        if (cache != null) {
+            cache.set(getKey(userUid, digest), userProfile);
+        }
+    }
+
+    private String getKey(String userUid, String digest)
+    {
+        return userUid + KEY_SEPARATOR + digest;
+    }
+}
@@ -22,6 +22,7 @@ package org.xwiki.contrib.authentication.internal;
 
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
@@ -34,6 +35,9 @@ import javax.servlet.http.Cookie;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
+import org.xwiki.contrib.authentication.TrustedAuthenticationRecord;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
@@ -45,7 +49,7 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.web.XWikiRequest;
 
 /**
- * Persistence store implementation that store userUID in cookie.
+ * Persistence store implementation that store userUID or authentication records in cookie.
  *
  * @version $Id$
  */
@@ -73,6 +77,32 @@ public class CookieAuthenticationPersistenceStore implements AuthenticationPersi
     private static final String EQUAL_SIGN = "=";
     private static final String UNDERSCORE = "_";
 
+    /**
+     * Separate the fields of the authentication record stored in the cookie value.
+     */
+    private static final String FIELD_SEPARATOR = "\n";
+
+    /**
+     * Radix used to encode times in the cookie value, to keep it compact.
+     */
+    private static final int TIME_RADIX = Character.MAX_RADIX;
+
+    // Fields of the authentication record stored in the cookie value, the user reference should remain last.
+    private static final int EXPIRATION_FIELD = 0;
+    private static final int LOGIN_TIME_FIELD = 1;
+    private static final int SYNCHRONIZATION_TIME_FIELD = 2;
+    private static final int SYNCHRONIZATION_DIGEST_FIELD = 3;
+    private static final int VALIDATION_TIME_FIELD = 4;
+    private static final int USER_UID_FIELD = 5;
+    private static final int USER_FIELD = 6;
+    private static final int FIELD_COUNT = 7;
+
+    /**
+     * Number of fields of the cookies issued before authentication records were stored, holding the expiration in
+     * decimal followed by the user.
+     */
+    private static final int EXPIRING_USER_FIELD_COUNT = 2;
+
     @Inject
     private Logger logger;
 
@@ -82,10 +112,18 @@ public class CookieAuthenticationPersistenceStore implements AuthenticationPersi
     @Inject
     private TrustedAuthenticationConfiguration config;
 
+    @Inject
+    private DocumentReferenceResolver<String> defaultStringDocumentReferenceResolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> defaultStringEntityReferenceSerializer;
+
     private String cookiePfx;
     private String cookiePath;
     private String[] cookieDomains;
     private int cookieMaxAge;
+    private double cookieMaxAgeJitter;
+    private int cookieRenewalThreshold;
     private Cipher encryptionCipher;
     private Cipher decryptionCipher;
 
@@ -107,6 +145,18 @@ public class CookieAuthenticationPersistenceStore implements AuthenticationPersi
         }
 
         cookieMaxAge = config.getPersistenceTTL();
+        cookieMaxAgeJitter = config.getPersistenceTTLJitter();
+        double renewalThreshold = config.getPersistenceRenewalThreshold();
+        cookieRenewalThreshold = (int) (cookieMaxAge * renewalThreshold);
+
+        // A cookie shortened by the jitter below the renewal threshold would be renewed with every response, keep at
+        // least half of the lifetime above the threshold for the shortest cookies
+        double maxJitter = (1 - renewalThreshold) / 2;
+        if (renewalThreshold > 0 && cookieMaxAgeJitter > maxJitter) {
+            logger.warn("The persistence store TTL jitter [{}] is too large for the renewal threshold [{}], using [{}]",
+                cookieMaxAgeJitter, renewalThreshold, maxJitter);
+            cookieMaxAgeJitter = maxJitter;
+        }
 
         try {
             encryptionCipher = getCipher(true);
@@ -125,7 +175,65 @@ public class CookieAuthenticationPersistenceStore implements AuthenticationPersi
     @Override
     public void store(String userUid)
     {
-        setAuthenticationCookie(encryptText(userUid), cookieMaxAge);
+        String[] fields = new String[FIELD_COUNT];
+        fields[USER_FIELD] = userUid;
+        store(fields);
+    }
+
+    @Override
+    public boolean isRecordSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public void storeRecord(TrustedAuthenticationRecord record)
+    {
+        String[] fields = new String[FIELD_COUNT];
+        fields[LOGIN_TIME_FIELD] = Long.toString(record.getLoginTime(), TIME_RADIX);
+        fields[SYNCHRONIZATION_TIME_FIELD] = Long.toString(record.getSynchronizationTime(), TIME_RADIX);
+        fields[SYNCHRONIZATION_DIGEST_FIELD] = record.getSynchronizationDigest();
+        fields[VALIDATION_TIME_FIELD] = Long.toString(record.getValidationTime(), TIME_RADIX);
+        fields[USER_UID_FIELD] = record.getUserUid();
+        fields[USER_FIELD] = defaultStringEntityReferenceSerializer.serialize(record.getUser());
+        store(fields);
+    }
+
+    /**
+     * Store the given record fields into the cookie, with a new expiration.
+     *
+     * @param fields the record fields, the expiration field will be set.
+     */
+    private void store(String[] fields)
+    {
+        int maxAge = cookieMaxAge;
+        long expiration = 0;
+        if (cookieMaxAge > 0) {
+            maxAge = getJitteredMaxAge();
+            expiration = getCurrentTime() + maxAge;
+        }
+        fields[EXPIRATION_FIELD] = Long.toString(expiration, TIME_RADIX);
+
+        setAuthenticationCookie(encryptText(StringUtils.join(fields, FIELD_SEPARATOR)), maxAge);
+    }
+
+    /**
+     * @return the cookie max age, randomly reduced by up to the configured jitter, to spread cookie expirations.
+     */
+    private int getJitteredMaxAge()
+    {
+        if (cookieMaxAgeJitter <= 0) {
+            return cookieMaxAge;
+        }
+        return cookieMaxAge - (int) (ThreadLocalRandom.current().nextDouble() * cookieMaxAge * cookieMaxAgeJitter);
+    }
+
+    /**
+     * @return the current time in seconds.
+     */
+    private static long getCurrentTime()
+    {
+        return System.currentTimeMillis() / 1000;
     }
 
     /**
@@ -152,12 +260,115 @@ public class CookieAuthenticationPersistenceStore implements AuthenticationPersi
 
     @Override
     public String retrieve()
+    {
+        String[] fields = retrieveFields();
+        return fields != null ? fields[USER_FIELD] : null;
+    }
+
+    @Override
+    public TrustedAuthenticationRecord retrieveRecord()
+    {
+        String[] fields = retrieveFields();
+        if (fields == null) {
+            return null;
+        }
+
+        try {
+            return new TrustedAuthenticationRecord(
+                defaultStringDocumentReferenceResolver.resolve(fields[USER_FIELD]),
+                StringUtils.defaultIfEmpty(fields[USER_UID_FIELD], null),
+                Long.parseLong(StringUtils.defaultIfEmpty(fields[LOGIN_TIME_FIELD], "0"), TIME_RADIX),
+                Long.parseLong(StringUtils.defaultIfEmpty(fields[SYNCHRONIZATION_TIME_FIELD], "0"), TIME_RADIX),
+                StringUtils.defaultIfEmpty(fields[SYNCHRONIZATION_DIGEST_FIELD], null),
+                Long.parseLong(StringUtils.defaultIfEmpty(fields[VALIDATION_TIME_FIELD], "0"), TIME_RADIX));
+        } catch (NumberFormatException e) {
+            logger.debug("Ignoring authentication cookie with invalid times.");
+            return null;
+        }
+    }
+
+    /**
+     * Retrieve the record fields from the authentication cookie. When a TTL is defined, the cookie is re-issued with a
+     * fresh lifetime if its remaining lifetime is below the configured renewal threshold, so that active users do not
+     * lose their persisted authentication. If the authentication is later found to be invalid, the cookie will be
+     * cleared after this renewal and the clearing will prevail.
+     *
+     * @return the record fields found in the cookie, or null if there is no valid cookie.
+     */
+    private String[] retrieveFields()
     {
         String cookie = getAuthenticationCookieValue();
-        if (cookie != null) {
-            return decryptText(cookie);
+        if (cookie == null) {
+            return null;
         }
-        return null;
+
+        String value = decryptText(cookie);
+        if (value == null) {
+            return null;
+        }
+
+        String[] fields = StringUtils.splitPreserveAllTokens(value, FIELD_SEPARATOR, FIELD_COUNT);
+        if (fields.length == EXPIRING_USER_FIELD_COUNT) {
+            fields = getExpiringUserRecordFields(fields);
+        } else if (fields.length != FIELD_COUNT) {
+            // Cookie issued by a version not storing authentication records, only containing the user
+            fields = new String[FIELD_COUNT];
+            fields[USER_FIELD] = value;
+            return fields;
+        }
+
+        return checkExpiration(fields) ? fields : null;
+    }
+
+    /**
+     * @param expiringUserFields the fields of a cookie issued by a version not storing authentication records, with
+     *            its expiration in decimal followed by the user.
+     * @return the matching record fields, with an empty expiration if it is invalid so that the cookie is ignored.
+     */
+    private String[] getExpiringUserRecordFields(String[] expiringUserFields)
+    {
+        String[] fields = new String[FIELD_COUNT];
+        try {
+            fields[EXPIRATION_FIELD] = Long.toString(Long.parseLong(expiringUserFields[0]), TIME_RADIX);
+        } catch (NumberFormatException e) {
+            fields[EXPIRATION_FIELD] = "";
+        }
+        fields[USER_FIELD] = expiringUserFields[1];
+
+        return fields;
+    }
+
+    /**
+     * Check the expiration of the record fields found in the authentication cookie, renewing the cookie when its
+     * remaining lifetime is below the configured renewal threshold.
+     *
+     * @param fields the record fields found in the cookie.
+     * @return false if the cookie has expired or has an invalid expiration.
+     */
+    private boolean checkExpiration(String[] fields)
+    {
+        long expiration;
+        try {
+            expiration = Long.parseLong(fields[EXPIRATION_FIELD], TIME_RADIX);
+        } catch (NumberFormatException e) {
+            logger.debug("Ignoring authentication cookie with an invalid expiration.");
+            return false;
+        }
+
+        if (expiration > 0) {
+            long remaining = expiration - getCurrentTime();
+            if (remaining <= 0) {
+                logger.debug("Ignoring expired authentication cookie for user [{}].", fields[USER_FIELD]);
+                return false;
+            }
+            if (remaining < cookieRenewalThreshold) {
+                logger.debug("Renewing authentication cookie for user [{}], expiring in [{}] seconds.",
+                    fields[USER_FIELD], remaining);
+                store(fields.clone());
+            }
+        }
+
+        return true;
     }
 
     /**
@@ -234,7 +445,7 @@ public class CookieAuthenticationPersistenceStore implements AuthenticationPersi
                 }
             }
         }
-        logger.debug("Cookie domain is:" + cookieDomain);
+        logger.debug("Cookie domain is: [{}]", cookieDomain);
         return cookieDomain;
     }
 
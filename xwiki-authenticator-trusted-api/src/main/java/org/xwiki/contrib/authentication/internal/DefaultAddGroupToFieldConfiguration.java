@@ -21,6 +21,9 @@ package org.xwiki.contrib.authentication.internal;
  */
 
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.xwiki.model.reference.DocumentReference;
 
 import com.xpn.xwiki.web.Utils;
@@ -53,6 +56,20 @@ class DefaultAddGroupToFieldConfiguration implements AddGroupToFieldConfiguratio
     private final String valueRegex;
     private final String valueFormat;
 
+    /**
+     * The compiled value format, null if it is invalid.
+     */
+    private final Segment[] segments;
+
+    /**
+     * A literal or placeholder part of the value format.
+     */
+    @FunctionalInterface
+    private interface Segment
+    {
+        void append(StringBuilder value, DocumentReference group, String role);
+    }
+
     protected DefaultAddGroupToFieldConfiguration(TrustedAuthenticationConfiguration authConf, String confPrefix,
             AddGroupToFieldConfiguration parentConf)
     {
@@ -76,6 +93,8 @@ class DefaultAddGroupToFieldConfiguration implements AddGroupToFieldConfiguratio
 
         valueFormat = authConf.getCustomProperty(confPrefix + "valueFormat",
             parentConf == null ? "{group.fullName}={role}" : parentConf.getValueFormat());
+
+        segments = compile(valueFormat);
     }
 
 
@@ -93,8 +112,8 @@ class DefaultAddGroupToFieldConfiguration implements AddGroupToFieldConfiguratio
         DefaultAddGroupToFieldConfiguration conf = new DefaultAddGroupToFieldConfiguration(authConf,
             confPrefix, parentConf);
 
-        if (conf.getValue(null, "") != null) {
-            // check that the value format is correctly formed. If not, errors will be printed.
+        if (conf.segments != null) {
+            // the value format has been validated when compiled. If not correctly formed, errors have been printed.
             return conf;
         }
 
@@ -146,69 +165,106 @@ class DefaultAddGroupToFieldConfiguration implements AddGroupToFieldConfiguratio
     @Override
     public String getValue(DocumentReference group, String role)
     {
-        String value = "";
+        if (segments == null) {
+            return null;
+        }
+
+        StringBuilder value = new StringBuilder();
+        for (Segment segment : segments) {
+            segment.append(value, group, role);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Compile the value format into segments, so that the format is parsed and validated only once.
+     *
+     * @param format the value format to compile.
+     * @return the segments of the value format, or null if it is invalid.
+     */
+    private static Segment[] compile(String format)
+    {
+        List<Segment> compiled = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
         int i = 0;
-        int n = valueFormat.length();
+        int n = format.length();
         while (i < n) {
-            char c = valueFormat.charAt(i);
+            char c = format.charAt(i);
             switch (c) {
                 case '\\':
                     i++;
                     if (i < n) {
-                        value += valueFormat.charAt(i);
+                        literal.append(format.charAt(i));
                     }
                     break;
 
                 case '{':
                     i++;
                     int startPlaceholderName = i;
-                    int endBrace = valueFormat.indexOf('}', i);
+                    int endBrace = format.indexOf('}', i);
                     if (endBrace == -1) {
                         LOGGER.error("Value format [{}] has an unmatched '{'. Escape it or add the missing brace.",
-                            valueFormat);
+                            format);
                         return null;
                     }
 
-                    String placeholderName = valueFormat.substring(startPlaceholderName, endBrace);
-
-                    switch (placeholderName) {
-                        case "group.name":
-                            value += group.getName();
-                            break;
-
-                        case "group.fullName":
-                            EntityReferenceSerializer<String> localSerializer =
-                                Utils.getComponent(EntityReferenceSerializer.TYPE_STRING, "local");
-                            value += localSerializer.serialize(group);
-                            break;
-
-                        case "group":
-                            EntityReferenceSerializer<String> defaultSerializer =
-                                Utils.getComponent(EntityReferenceSerializer.TYPE_STRING, "default");
-                            value += defaultSerializer.serialize(group);
-                            break;
-
-                        case "role":
-                            value += role;
-                            break;
-
-                        default:
-                            LOGGER.error(
-                                "Value format [{}] has an unknown placeholder [{}]. "
-                                    + "Fix it or escape the opening brace '{' right before.",
-                                valueFormat,
-                                placeholderName);
-                            return null;
+                    String placeholderName = format.substring(startPlaceholderName, endBrace);
+                    Segment placeholder = compilePlaceholder(placeholderName);
+                    if (placeholder == null) {
+                        LOGGER.error(
+                            "Value format [{}] has an unknown placeholder [{}]. "
+                                + "Fix it or escape the opening brace '{' right before.",
+                            format,
+                            placeholderName);
+                        return null;
                     }
+
+                    addLiteral(compiled, literal);
+                    compiled.add(placeholder);
                     i = endBrace;
                     break;
 
                 default:
-                    value += c;
+                    literal.append(c);
             }
             i++;
         }
-        return value;
+        addLiteral(compiled, literal);
+
+        return compiled.toArray(new Segment[0]);
+    }
+
+    private static void addLiteral(List<Segment> compiled, StringBuilder literal)
+    {
+        if (literal.length() > 0) {
+            String text = literal.toString();
+            compiled.add((value, group, role) -> value.append(text));
+            literal.setLength(0);
+        }
+    }
+
+    private static Segment compilePlaceholder(String placeholderName)
+    {
+        switch (placeholderName) {
+            case "group.name":
+                return (value, group, role) -> value.append(group.getName());
+
+            case "group.fullName":
+                EntityReferenceSerializer<String> localSerializer =
+                    Utils.getComponent(EntityReferenceSerializer.TYPE_STRING, "local");
+                return (value, group, role) -> value.append(localSerializer.serialize(group));
+
+            case "group":
+                EntityReferenceSerializer<String> defaultSerializer =
+                    Utils.getComponent(EntityReferenceSerializer.TYPE_STRING, "default");
+                return (value, group, role) -> value.append(defaultSerializer.serialize(group));
+
+            case "role":
+                return (value, group, role) -> value.append(role);
+
+            default:
+                return null;
+        }
     }
 
     @Override
@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.authentication.internal;
 
+import java.util.Collections;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -43,6 +44,14 @@ public class DefaultGroupShardingConfiguration implements GroupShardingConfigura
 
     private static final String GROUPS_PROPERTY = CONF_PREFIX + ".groups";
 
+    private static final String GROUP_PATTERNS_PROPERTY = CONF_PREFIX + ".groupPatterns";
+
+    private static final String THRESHOLD_PROPERTY = CONF_PREFIX + ".threshold";
+
+    private static final String SHARD_COUNT_PROPERTY = CONF_PREFIX + ".shardCount";
+
+    private static final int DEFAULT_SHARD_COUNT = 16;
+
     @Inject
     @Named("xwikiproperties")
     private ConfigurationSource configurationSource;
@@ -52,4 +61,26 @@ public class DefaultGroupShardingConfiguration implements GroupShardingConfigura
     {
         return configurationSource.getProperty(GROUPS_PROPERTY, List.class);
     }
+
+    @Override
+    public List<String> getShardedGroupPatterns()
+    {
+        List<String> patterns = configurationSource.getProperty(GROUP_PATTERNS_PROPERTY, List.class);
+
+        return patterns != null ? patterns : Collections.emptyList();
+    }
+
+    @Override
+    public int getShardingThreshold()
+    {
+        return configurationSource.getProperty(THRESHOLD_PROPERTY, 0);
+    }
+
+    @Override
+    public int getShardCount(String group)
+    {
+        int defaultShardCount = configurationSource.getProperty(SHARD_COUNT_PROPERTY, DEFAULT_SHARD_COUNT);
+
+        return configurationSource.getProperty(SHARD_COUNT_PROPERTY + '.' + group, defaultShardCount);
+    }
 }
@@ -38,6 +38,7 @@ import org.xwiki.contrib.authentication.AddGroupToFieldConfiguration;
 import org.xwiki.contrib.authentication.AuthenticationPersistenceStore;
 import org.xwiki.contrib.authentication.TrustedAuthenticationAdapter;
 import org.xwiki.contrib.authentication.DynamicRoleConfiguration;
+import org.xwiki.security.authservice.XWikiAuthServiceComponent;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.user.api.XWikiAuthService;
@@ -63,6 +64,10 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
     private static final String PERSISTANCE_STORE_TRUSTED_PROPERTY = "isPersistenceStoreTrusted";
     private static final boolean PERSISTANCE_STORE_TRUSTED_DEFAULT = false;
 
+    private static final String PERSISTANCE_STORE_REVALIDATION_INTERVAL_PROPERTY =
+        "persistenceStoreRevalidationInterval";
+    private static final int PERSISTANCE_STORE_REVALIDATION_INTERVAL_DEFAULT = -1;
+
     private static final String PERSISTANCE_STORE_TRUSTED_ON_MISSING_AUTH_PROPERTY =
         "isPersistenceStoreTrustedOnMissingAuthentication";
     private static final boolean PERSISTANCE_STORE_TRUSTED_ON_MISSING_AUTH_DEFAULT = false;
@@ -70,6 +75,39 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
     private static final String PERSISTANCE_STORE_TTL_PROPERTY = "persistenceStoreTTL";
     private static final int    PERSISTANCE_STORE_TTL_DEFAULT = -1;
 
+    private static final String PERSISTANCE_STORE_TTL_JITTER_PROPERTY = "persistenceStoreTTLJitter";
+    private static final double PERSISTANCE_STORE_TTL_JITTER_DEFAULT = 0.1;
+
+    private static final String PERSISTANCE_STORE_RENEWAL_THRESHOLD_PROPERTY = "persistenceStoreRenewalThreshold";
+    private static final double PERSISTANCE_STORE_RENEWAL_THRESHOLD_DEFAULT = 0.5;
+
+    private static final String AUTHENTICATION_CACHE_SIZE_PROPERTY = "authenticationCacheSize";
+    private static final int AUTHENTICATION_CACHE_SIZE_DEFAULT = 1000;
+
+    private static final String AUTHENTICATION_CACHE_TTL_PROPERTY = "authenticationCacheTTL";
+    private static final int AUTHENTICATION_CACHE_TTL_DEFAULT = 300;
+
+    private static final String DEFERRED_MEMBERSHIP_PROPERTY = "deferInitialGroupsMembership";
+    private static final boolean DEFERRED_MEMBERSHIP_DEFAULT = false;
+
+    private static final String DEFERRED_MEMBERSHIP_FLUSH_INTERVAL_PROPERTY = "deferredMembershipFlushInterval";
+    private static final int DEFERRED_MEMBERSHIP_FLUSH_INTERVAL_DEFAULT = 60;
+
+    private static final String DEFERRED_MEMBERSHIP_BATCH_SIZE_PROPERTY = "deferredMembershipBatchSize";
+    private static final int DEFERRED_MEMBERSHIP_BATCH_SIZE_DEFAULT = 1000;
+
+    private static final String SLOW_AUTHENTICATION_THRESHOLD_PROPERTY = "slowAuthenticationThreshold";
+    private static final int SLOW_AUTHENTICATION_THRESHOLD_DEFAULT = 5000;
+
+    private static final String ASYNC_AUTHENTICATED_EVENT_PROPERTY = "asyncUserAuthenticatedEvent";
+    private static final boolean ASYNC_AUTHENTICATED_EVENT_DEFAULT = false;
+
+    private static final String AUTHENTICATED_EVENT_THREADS_PROPERTY = "userAuthenticatedEventThreads";
+    private static final int AUTHENTICATED_EVENT_THREADS_DEFAULT = 2;
+
+    private static final String AUTHENTICATED_EVENT_QUEUE_SIZE_PROPERTY = "userAuthenticatedEventQueueSize";
+    private static final int AUTHENTICATED_EVENT_QUEUE_SIZE_DEFAULT = 1000;
+
     private static final String AUTHORITATIVE_PROPERTY = "isAuthoritative";
     private static final boolean AUTHORITATIVE_DEFAULT = false;
 
@@ -84,6 +122,9 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
     private static final String GROUP_MAPPING_PROPERTY = "groupsMapping";
     private static final char GROUP_MAPPING_SEP = '|';
 
+    private static final String GROUP_MAPPING_DOCUMENT_PROPERTY = "groupsMappingDocument";
+    private static final String GROUP_MAPPING_FILE_PROPERTY = "groupsMappingFile";
+
     private static final String PROPERTY_MAPPING_PROPERTY = "propertiesMapping";
     private static final char PROPERTY_MAPPING_SEP = '|';
 
@@ -102,6 +143,24 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
 
     private Collection<DynamicRoleConfiguration> dynamicRoleConfigurations;
 
+    private volatile FallbackAuthenticator fallbackAuthenticator;
+
+    /**
+     * The fallback authenticator resolved for a given configuration.
+     */
+    private static final class FallbackAuthenticator
+    {
+        private final String name;
+
+        private final XWikiAuthService authenticator;
+
+        FallbackAuthenticator(String name, XWikiAuthService authenticator)
+        {
+            this.name = name;
+            this.authenticator = authenticator;
+        }
+    }
+
     /**
      * Default constructor.
      */
@@ -113,8 +172,7 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
     @Override
     public TrustedAuthenticationAdapter getAuthenticationAdapter()
     {
-        String authAdapterHint =
-            getCustomProperty(AUTHENTICATION_ADAPTER_HINT_PROPERTY, AUTHENTICATION_ADAPTER_HINT_DEFAULT);
+        String authAdapterHint = getAuthenticationAdapterHint();
         try {
             return componentManager.getInstance(TrustedAuthenticationAdapter.class, authAdapterHint);
         } catch (ComponentLookupException e) {
@@ -123,6 +181,12 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
         return null;
     }
 
+    @Override
+    public String getAuthenticationAdapterHint()
+    {
+        return getCustomProperty(AUTHENTICATION_ADAPTER_HINT_PROPERTY, AUTHENTICATION_ADAPTER_HINT_DEFAULT);
+    }
+
     @Override
     public AuthenticationPersistenceStore getPersistenceStore()
     {
@@ -142,6 +206,13 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
         return getCustomPropertyAsBoolean(PERSISTANCE_STORE_TRUSTED_PROPERTY, PERSISTANCE_STORE_TRUSTED_DEFAULT);
     }
 
+    @Override
+    public int getPersistenceStoreRevalidationInterval()
+    {
+        return getInteger(PERSISTANCE_STORE_REVALIDATION_INTERVAL_PROPERTY,
+            PERSISTANCE_STORE_REVALIDATION_INTERVAL_DEFAULT);
+    }
+
     @Override
     public boolean isPersistenceStoreTrustedOnMissingAuthentication()
     {
@@ -152,15 +223,103 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
     @Override
     public int getPersistenceTTL()
     {
-        String ttl = getCustomProperty(PERSISTANCE_STORE_TTL_PROPERTY, null);
-        if (ttl != null) {
+        return getInteger(PERSISTANCE_STORE_TTL_PROPERTY, PERSISTANCE_STORE_TTL_DEFAULT);
+    }
+
+    private int getInteger(String name, int def)
+    {
+        String value = getCustomProperty(name, null);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (Exception e) {
+                // ignored, use default
+            }
+        }
+        return def;
+    }
+
+    @Override
+    public double getPersistenceTTLJitter()
+    {
+        return getFraction(PERSISTANCE_STORE_TTL_JITTER_PROPERTY, PERSISTANCE_STORE_TTL_JITTER_DEFAULT);
+    }
+
+    @Override
+    public double getPersistenceRenewalThreshold()
+    {
+        return getFraction(PERSISTANCE_STORE_RENEWAL_THRESHOLD_PROPERTY, PERSISTANCE_STORE_RENEWAL_THRESHOLD_DEFAULT);
+    }
+
+    @Override
+    public int getAuthenticationCacheSize()
+    {
+        return getInteger(AUTHENTICATION_CACHE_SIZE_PROPERTY, AUTHENTICATION_CACHE_SIZE_DEFAULT);
+    }
+
+    @Override
+    public int getAuthenticationCacheTTL()
+    {
+        return getInteger(AUTHENTICATION_CACHE_TTL_PROPERTY, AUTHENTICATION_CACHE_TTL_DEFAULT);
+    }
+
+    @Override
+    public boolean isInitialGroupsMembershipDeferred()
+    {
+        return getCustomPropertyAsBoolean(DEFERRED_MEMBERSHIP_PROPERTY, DEFERRED_MEMBERSHIP_DEFAULT);
+    }
+
+    @Override
+    public int getDeferredMembershipFlushInterval()
+    {
+        return getInteger(DEFERRED_MEMBERSHIP_FLUSH_INTERVAL_PROPERTY, DEFERRED_MEMBERSHIP_FLUSH_INTERVAL_DEFAULT);
+    }
+
+    @Override
+    public int getDeferredMembershipBatchSize()
+    {
+        return getInteger(DEFERRED_MEMBERSHIP_BATCH_SIZE_PROPERTY, DEFERRED_MEMBERSHIP_BATCH_SIZE_DEFAULT);
+    }
+
+    @Override
+    public int getSlowAuthenticationThreshold()
+    {
+        return getInteger(SLOW_AUTHENTICATION_THRESHOLD_PROPERTY, SLOW_AUTHENTICATION_THRESHOLD_DEFAULT);
+    }
+
+    @Override
+    public boolean isUserAuthenticatedEventAsynchronous()
+    {
+        return getCustomPropertyAsBoolean(ASYNC_AUTHENTICATED_EVENT_PROPERTY, ASYNC_AUTHENTICATED_EVENT_DEFAULT);
+    }
+
+    @Override
+    public int getUserAuthenticatedEventThreads()
+    {
+        return getInteger(AUTHENTICATED_EVENT_THREADS_PROPERTY, AUTHENTICATED_EVENT_THREADS_DEFAULT);
+    }
+
+    @Override
+    public int getUserAuthenticatedEventQueueSize()
+    {
+        return getInteger(AUTHENTICATED_EVENT_QUEUE_SIZE_PROPERTY, AUTHENTICATED_EVENT_QUEUE_SIZE_DEFAULT);
+    }
+
+    private double getFraction(String name, double def)
+    {
+        String fraction = getCustomProperty(name, null);
+        if (fraction != null) {
             try {
-                return Integer.parseInt(ttl);
+                double value = Double.parseDouble(fraction);
+                if (value >= 0 && value <= 1) {
+                    return value;
+                }
+                logger.warn("Ignoring [{}] value [{}], it should be between 0 and 1.", name, fraction);
             } catch (Exception e) {
                 // ignored, use default
             }
         }
-        return PERSISTANCE_STORE_TTL_DEFAULT;
+        return def;
     }
 
     @Override
@@ -196,6 +355,18 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
             Collections.<String, Collection<String>>emptyMap(), true);
     }
 
+    @Override
+    public String getGroupMappingDocument()
+    {
+        return StringUtils.trimToNull(getCustomProperty(GROUP_MAPPING_DOCUMENT_PROPERTY, null));
+    }
+
+    @Override
+    public String getGroupMappingFile()
+    {
+        return StringUtils.trimToNull(getCustomProperty(GROUP_MAPPING_FILE_PROPERTY, null));
+    }
+
     @Override
     public boolean isAuthoritative()
     {
@@ -205,18 +376,45 @@ public class DefaultTrustedAuthenticationConfiguration extends AbstractConfig
     @Override
     public XWikiAuthService getFallbackAuthenticator()
     {
-        String authenticatorClassName = getCustomProperty(FALLBACK_AUTH_PROPERTY, null);
-        XWikiAuthService authenticator = null;
+        String authenticatorName = getCustomProperty(FALLBACK_AUTH_PROPERTY, null);
+        if (authenticatorName == null) {
+            return null;
+        }
 
-        if (authenticatorClassName != null) {
-            try {
-                authenticator = (XWikiAuthService) Class.forName(authenticatorClassName).newInstance();
-            } catch (Exception e) {
-                logger.error("Failed to get fallback authenticator [" + authenticatorClassName + "]", e);
+        // Keep the same instance as long as the configuration is not modified, since the authenticator may hold
+        // connection pools or caches
+        FallbackAuthenticator fallback = fallbackAuthenticator;
+        if (fallback == null || !fallback.name.equals(authenticatorName)) {
+            fallback = new FallbackAuthenticator(authenticatorName, createFallbackAuthenticator(authenticatorName));
+            fallbackAuthenticator = fallback;
+        }
+
+        return fallback.authenticator;
+    }
+
+    /**
+     * @param authenticatorName the hint of a {@link XWikiAuthServiceComponent} or the name of a class implementing
+     *            {@link XWikiAuthService}
+     * @return the authenticator, or null if it cannot be created
+     */
+    private XWikiAuthService createFallbackAuthenticator(String authenticatorName)
+    {
+        if (XWikiTrustedAuthService.ID.equals(authenticatorName)) {
+            logger.error("The trusted authenticator cannot fallback to itself");
+            return null;
+        }
+
+        try {
+            if (componentManager.hasComponent(XWikiAuthServiceComponent.class, authenticatorName)) {
+                return componentManager.getInstance(XWikiAuthServiceComponent.class, authenticatorName);
             }
+
+            return (XWikiAuthService) Class.forName(authenticatorName).newInstance();
+        } catch (Exception e) {
+            logger.error("Failed to get fallback authenticator [" + authenticatorName + "]", e);
         }
 
-        return authenticator;
+        return null;
     }
 
     @Override
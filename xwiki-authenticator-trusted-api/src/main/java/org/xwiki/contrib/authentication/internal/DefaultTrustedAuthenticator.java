@@ -22,9 +22,8 @@ package org.xwiki.contrib.authentication.internal;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -32,28 +31,27 @@ import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.RegExUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.contrib.authentication.AuthenticationPersistenceStore;
-import org.xwiki.contrib.authentication.DynamicRoleConfiguration;
+import org.xwiki.contrib.authentication.GroupShardingConfiguration;
 import org.xwiki.contrib.authentication.TrustedAuthenticationAdapter;
 import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.contrib.authentication.TrustedAuthenticationRecord;
 import org.xwiki.contrib.authentication.TrustedAuthenticator;
 import org.xwiki.contrib.authentication.UserManager;
-import org.xwiki.model.EntityType;
+import org.xwiki.contrib.authentication.internal.jfr.AuthenticationEvent;
+import org.xwiki.contrib.authentication.internal.jfr.FlightRecorderSupport;
+import org.xwiki.contrib.authentication.internal.metrics.TrustedAuthenticationMetrics;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
-import org.xwiki.observation.ObservationManager;
 import org.xwiki.security.authentication.UserAuthenticatedEvent;
 import org.xwiki.user.UserReferenceResolver;
 
 import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
 
 /**
  * Default implementation of the {@link TrustedAuthenticator} role.
@@ -64,8 +62,6 @@ import com.xpn.xwiki.XWikiException;
 @Singleton
 public class DefaultTrustedAuthenticator implements TrustedAuthenticator, Initializable
 {
-    private static final EntityReference USER_SPACE_REFERENCE = new EntityReference("XWiki", EntityType.SPACE);
-
     @Inject
     private Logger logger;
 
@@ -79,7 +75,11 @@ public class DefaultTrustedAuthenticator implements TrustedAuthenticator, Initia
     private UserManager userManager;
 
     @Inject
-    private DocumentReferenceResolver<EntityReference> defaultEntityDocumentReferenceResolver;
+    @Named("sharding")
+    private Provider<UserManager> shardingUserManagerProvider;
+
+    @Inject
+    private GroupShardingConfiguration groupShardingConfiguration;
 
     @Inject
     private DocumentReferenceResolver<String> defaultStringDocumentReferenceResolver;
@@ -88,69 +88,213 @@ public class DefaultTrustedAuthenticator implements TrustedAuthenticator, Initia
     private EntityReferenceSerializer<String> defaultStringEntityReferenceSerializer;
 
     @Inject
-    @Named("local")
-    private EntityReferenceSerializer<String> localStringEntityReferenceSerializer;
+    private UserAuthenticatedEventNotifier userAuthenticatedEventNotifier;
+
+    @Inject
+    private AuthenticatedUserCache authenticatedUserCache;
+
+    @Inject
+    private UserSynchronizationRules userSynchronizationRules;
 
     @Inject
-    private ObservationManager observation;
+    private SynchronizationDigestManager synchronizationDigestManager;
 
     @Inject
     @Named("document")
     private UserReferenceResolver<DocumentReference> userReferenceResolver;
 
+    @Inject
+    private TrustedAuthenticationMetrics metrics;
+
     private TrustedAuthenticationAdapter authenticationAdapter;
 
     private AuthenticationPersistenceStore persistenceStore;
 
+    private boolean persistenceStoreRecordSupported;
+
     /**
-     * Cache of the group mapping.
+     * The configuration read by every authentication, cached so that the authentication of an already authenticated
+     * user neither reads the configuration nor allocates anything. It is read again when the generation of the
+     * configuration changes.
      */
-    private Map<DocumentReference, Collection<String>> groupMappings;
+    private volatile long configurationGeneration = -1;
+
+    private boolean persistenceStoreTrusted;
+
+    private boolean persistenceStoreTrustedOnMissingAuthentication;
+
+    private long persistenceStoreRevalidationInterval;
+
+    private String adapterHint;
 
     /**
      * Cache of the logout pattern matcher.
      */
-    private RequestMatcher logoutMatcher;
+    private volatile RequestMatcher logoutMatcher;
 
     @Override
     public void initialize() throws InitializationException
     {
         authenticationAdapter = configuration.getAuthenticationAdapter();
+        adapterHint = configuration.getAuthenticationAdapterHint();
         persistenceStore = configuration.getPersistenceStore();
+        persistenceStoreRecordSupported = persistenceStore.isRecordSupported();
+        if (groupShardingConfiguration.isShardingEnabled()) {
+            userManager = shardingUserManagerProvider.get();
+        }
+    }
+
+    /**
+     * Read again the cached configuration if it has been modified since it was last read.
+     */
+    private void updateConfiguration()
+    {
+        long generation = configuration.getGeneration();
+        if (generation != configurationGeneration) {
+            persistenceStoreTrusted = configuration.isPersistenceStoreTrusted();
+            persistenceStoreTrustedOnMissingAuthentication =
+                configuration.isPersistenceStoreTrustedOnMissingAuthentication();
+            persistenceStoreRevalidationInterval =
+                TimeUnit.SECONDS.toMillis(configuration.getPersistenceStoreRevalidationInterval());
+            logoutMatcher = null;
+            configurationGeneration = generation;
+        }
     }
 
     @Override
     public DocumentReference authenticate()
     {
         logger.debug("Starting trusted authentication...");
-
-        DocumentReference authenticatedUser = authenticate(persistenceStore.retrieve());
+        updateConfiguration();
+
+        AuthenticationEvent event = FlightRecorderSupport.isAvailable() && AuthenticationEvent.isTypeEnabled()
+            ? new AuthenticationEvent() : null;
+        long start = metrics.start();
+        metrics.startAuthentication();
+        DocumentReference authenticatedUser = null;
+        String outcome = null;
+        try {
+            authenticatedUser = authenticate(retrieveRecord());
+            if (authenticatedUser == null) {
+                metrics.increment(TrustedAuthenticationMetrics.COUNTER_PUBLIC);
+            }
+            outcome = metrics.getOutcome();
+        } finally {
+            metrics.stopAuthentication(authenticatedUser);
+            metrics.stop(TrustedAuthenticationMetrics.TIMER_AUTHENTICATION, start);
+            if (event != null) {
+                event.commit(authenticatedUser, adapterHint,
+                    outcome != null ? outcome : TrustedAuthenticationMetrics.COUNTER_PUBLIC,
+                    TrustedAuthenticationMetrics.COUNTER_SYNCHRONIZED.equals(outcome));
+            }
+        }
 
         if (isLogoutRequest()) {
             wrapResponseForLogoutRediction();
-            persistenceStore.clear();
+            clearPersistenceStore();
         }
 
         return authenticatedUser;
     }
 
+    /**
+     * @return the authentication record persisted in the persistence store, or null if none is found.
+     */
+    private TrustedAuthenticationRecord retrieveRecord()
+    {
+        long start = metrics.start();
+        TrustedAuthenticationRecord record;
+        if (persistenceStoreRecordSupported) {
+            record = persistenceStore.retrieveRecord();
+        } else {
+            String user = persistenceStore.retrieve();
+            record = user != null
+                ? new TrustedAuthenticationRecord(defaultStringDocumentReferenceResolver.resolve(user)) : null;
+        }
+        metrics.stop(TrustedAuthenticationMetrics.TIMER_PERSISTENCE_RETRIEVE, start);
+        metrics.increment(record != null ? TrustedAuthenticationMetrics.COUNTER_PERSISTENCE_HIT
+            : TrustedAuthenticationMetrics.COUNTER_PERSISTENCE_MISS);
+
+        return record;
+    }
+
+    /**
+     * Store the given authentication record in the persistence store.
+     *
+     * @param record the authentication record to persist.
+     */
+    private void storeRecord(TrustedAuthenticationRecord record)
+    {
+        if (persistenceStoreRecordSupported) {
+            persistenceStore.storeRecord(record);
+        } else {
+            persistenceStore.store(defaultStringEntityReferenceSerializer.serialize(record.getUser()));
+        }
+        metrics.increment(TrustedAuthenticationMetrics.COUNTER_PERSISTENCE_STORE);
+    }
+
+    /**
+     * Clear the persistence store.
+     */
+    private void clearPersistenceStore()
+    {
+        persistenceStore.clear();
+        metrics.increment(TrustedAuthenticationMetrics.COUNTER_PERSISTENCE_CLEAR);
+    }
+
     /**
      * Proceed to the authentication, checking with the adapter if the previously authenticated user is not trusted, and
      * creating and synchronizing user profile as needed.
      *
-     * @param currentUser the currently authenticated user (serialized reference of his profile name).
+     * @param record the currently persisted authentication.
      * @return the authenticated user (document reference to the user profile).
      */
-    private DocumentReference authenticate(String currentUser)
+    private DocumentReference authenticate(TrustedAuthenticationRecord record)
     {
-        if (configuration.isPersistenceStoreTrusted()) {
-            if (currentUser != null) {
-                logger.debug("User [{}] authenticated from trusted persistence store.", currentUser);
-                return defaultStringDocumentReferenceResolver.resolve(currentUser);
+        if (persistenceStoreTrusted) {
+            if (record != null) {
+                if (!isRevalidationNeeded(record)) {
+                    logger.debug("User [{}] authenticated from trusted persistence store.", record);
+                    metrics.outcome(TrustedAuthenticationMetrics.COUNTER_FAST_PATH_PERSISTED);
+                    return record.getUser();
+                }
+                logger.debug("User [{}] retrieved from trusted persistence store needs to be revalidated.", record);
             }
         }
 
-        return authenticate(currentUser, authenticationAdapter.getUserUid());
+        long start = metrics.start();
+        String userUid = authenticationAdapter.getUserUid();
+        metrics.stop(TrustedAuthenticationMetrics.TIMER_ADAPTER_USER_UID, start);
+
+        return authenticate(record, userUid);
+    }
+
+    /**
+     * @param record the authentication persisted in a trusted persistence store.
+     * @return true if the revalidation interval is enabled and has elapsed since the last confirmation of the given
+     *         authentication by the authentication adapter.
+     */
+    private boolean isRevalidationNeeded(TrustedAuthenticationRecord record)
+    {
+        return persistenceStoreRevalidationInterval > 0
+            && System.currentTimeMillis() - record.getValidationTime() >= persistenceStoreRevalidationInterval;
+    }
+
+    /**
+     * Confirm the given persisted authentication for another revalidation interval, if the persistence store is
+     * trusted and revalidation is enabled. Otherwise the adapter is consulted anyway with every request, and
+     * persisting the confirmation would only be a waste.
+     *
+     * @param record the persisted authentication that the authentication adapter has just confirmed.
+     * @param userUid the user UID provided by the authentication adapter.
+     */
+    private void confirmRecord(TrustedAuthenticationRecord record, String userUid)
+    {
+        if (persistenceStoreTrusted && persistenceStoreRevalidationInterval > 0) {
+            logger.debug("User [{}] revalidated by the authentication adapter.", record);
+            storeRecord(new TrustedAuthenticationRecord(record.getUser(), userUid, record.getLoginTime(),
+                record.getSynchronizationTime(), record.getSynchronizationDigest(), System.currentTimeMillis()));
+        }
     }
 
     /**
@@ -159,23 +303,24 @@ public class DefaultTrustedAuthenticator implements TrustedAuthenticator, Initia
      * returned. When the adapter provide a valid user UID, this one is used, and the user and groups are synchronized`
      * only if it differ from the user available in the persistent store.
      *
-     * @param previouslyAuthenticatedUser the previously authenticated user (serialized reference of his profile name).
+     * @param previousRecord the previously persisted authentication.
      * @param userUid the new user UID effectively connected.
      * @return the authenticated user (document reference to the user profile).
      */
-    private DocumentReference authenticate(String previouslyAuthenticatedUser, String userUid)
+    private DocumentReference authenticate(TrustedAuthenticationRecord previousRecord, String userUid)
     {
         // Sometimes Auth adapters/Auth systems might return an empty (non-null) value. Therefore strict checking here.
         if (StringUtils.isBlank(userUid)) {
             logger.debug("No user available from trusted authenticator.");
-            if (previouslyAuthenticatedUser != null) {
-                if (configuration.isPersistenceStoreTrustedOnMissingAuthentication()) {
+            if (previousRecord != null) {
+                if (persistenceStoreTrustedOnMissingAuthentication) {
                     logger.debug("User [{}] authenticated from 'trusted on missing authentication' persistence store .",
-                        previouslyAuthenticatedUser);
-                    return defaultStringDocumentReferenceResolver.resolve(previouslyAuthenticatedUser);
+                        previousRecord);
+                    metrics.outcome(TrustedAuthenticationMetrics.COUNTER_FAST_PATH_PERSISTED);
+                    return previousRecord.getUser();
                 } else {
-                    logger.debug("Clearing persistenceStore, removing [{}].", previouslyAuthenticatedUser);
-                    persistenceStore.clear();
+                    logger.debug("Clearing persistenceStore, removing [{}].", previousRecord);
+                    clearPersistenceStore();
                 }
             }
             logger.debug("Trusted authentication ended with public access.");
@@ -183,117 +328,99 @@ public class DefaultTrustedAuthenticator implements TrustedAuthenticator, Initia
         }
         logger.debug("User [{}] retrieved from the authentication adapter.", userUid);
 
-        return authenticate(previouslyAuthenticatedUser, getUserProfileReference(userUid));
+        if (previousRecord != null && userUid.equals(previousRecord.getUserUid())) {
+            logger.debug("User [{}] authenticated from the authentication adapter, no synchronization.",
+                previousRecord);
+            metrics.outcome(TrustedAuthenticationMetrics.COUNTER_FAST_PATH_CONFIRMED);
+            confirmRecord(previousRecord, userUid);
+            return previousRecord.getUser();
+        }
+
+        return authenticate(previousRecord, userUid,
+            userSynchronizationRules.getUserProfileReference(authenticationAdapter, userUid));
     }
 
     /**
-     * Proceed to the authentication, creating and synchronizing user profile as needed.
+     * Proceed to the authentication, creating and synchronizing user profile as needed. When the same identity has
+     * recently been synchronized on this node, the synchronization is skipped, so that clients not keeping any
+     * persistence between requests are authenticated cheaply. The authentication is still persisted and notified.
      *
-     * @param previouslyAuthenticatedUser the previously authenticated user (serialized reference of his profile name).
+     * @param previousRecord the previously persisted authentication.
+     * @param userUid the new user UID effectively connected.
      * @param userProfile the reference of the profile of the user effectively connected (may need to be created).
      * @return the authenticated user (document reference to the user profile).
      */
-    private DocumentReference authenticate(String previouslyAuthenticatedUser, DocumentReference userProfile)
+    private DocumentReference authenticate(TrustedAuthenticationRecord previousRecord, String userUid,
+        DocumentReference userProfile)
     {
-        String authenticatedUser = defaultStringEntityReferenceSerializer.serialize(userProfile);
-
-        if (previouslyAuthenticatedUser != null) {
-            logger.debug("User [{}] retrieved from untrusted persistence store.", previouslyAuthenticatedUser);
-            if (authenticatedUser.equals(previouslyAuthenticatedUser)) {
+        if (previousRecord != null) {
+            logger.debug("User [{}] retrieved from untrusted persistence store.", previousRecord);
+            if (userProfile.equals(previousRecord.getUser())) {
                 logger.debug("User [{}] authenticated from the authentication adapter, no synchronization.",
                     userProfile);
+                metrics.outcome(TrustedAuthenticationMetrics.COUNTER_FAST_PATH_CONFIRMED);
+                confirmRecord(previousRecord, userUid);
                 return userProfile;
             } else {
-                logger.debug("Authentication changed, clearing persistenceStore, removing [{}].",
-                    previouslyAuthenticatedUser);
-                persistenceStore.clear();
+                logger.debug("Authentication changed, clearing persistenceStore, removing [{}].", previousRecord);
+                clearPersistenceStore();
             }
         }
 
-        if (!synchronizeUser(userProfile)) {
-            logger.error("Unable to synchronize user profile for user [{}], ended with public access.",
-                authenticatedUser);
-            return null;
+        long start = metrics.start();
+        Map<String, String> extInfos = getExtendedInformations();
+        String digest =
+            userSynchronizationRules.getSynchronizationDigest(authenticationAdapter, userUid, extInfos);
+        metrics.stop(TrustedAuthenticationMetrics.TIMER_ADAPTER_USER_INFORMATION, start);
+
+        long now = System.currentTimeMillis();
+        long synchronizationTime = 0;
+        boolean cached = userProfile.equals(authenticatedUserCache.get(userUid, digest));
+        if (cached) {
+            logger.debug("User [{}] authenticated from the authentication cache, no synchronization.", userProfile);
+            metrics.outcome(TrustedAuthenticationMetrics.COUNTER_FAST_PATH_CACHED);
+        } else if (digest.equals(synchronizationDigestManager.getDigest(userProfile))) {
+            // The user has been provisioned or synchronized with the very same information
+            logger.debug("User [{}] already synchronized with the same information, no synchronization.",
+                userProfile);
+            metrics.outcome(TrustedAuthenticationMetrics.COUNTER_FAST_PATH_DIGEST);
+        } else {
+            start = metrics.start();
+            boolean userSynchronized = synchronizeUser(userProfile, extInfos);
+            metrics.stop(TrustedAuthenticationMetrics.TIMER_SYNCHRONIZATION, start);
+            if (!userSynchronized) {
+                logger.error("Unable to synchronize user profile for user [{}], ended with public access.",
+                    userProfile);
+                metrics.outcome(TrustedAuthenticationMetrics.COUNTER_FAILED);
+                return null;
+            }
+            metrics.outcome(TrustedAuthenticationMetrics.COUNTER_SYNCHRONIZED);
+            synchronizationDigestManager.updateDigest(userProfile, digest);
+            synchronizationTime = now;
+        }
+        if (!cached) {
+            authenticatedUserCache.set(userUid, digest, userProfile);
         }
 
-        persistenceStore.store(authenticatedUser);
+        storeRecord(new TrustedAuthenticationRecord(userProfile, userUid, now, synchronizationTime, digest, now));
         logger.debug("User [{}] authenticated from the authentication adapter and saved to persistence store.",
-            authenticatedUser);
+            userProfile);
 
         // Notify listeners about this new authentication
-        this.observation.notify(new UserAuthenticatedEvent(this.userReferenceResolver.resolve(userProfile)), null);
+        this.userAuthenticatedEventNotifier.notify(userProfile,
+            new UserAuthenticatedEvent(this.userReferenceResolver.resolve(userProfile)));
 
         return userProfile;
     }
 
-    /**
-     * Return the reference to the user profile of the user being authenticated.
-     *
-     * @param userUid the userUid retrieved from the authentication adapter (could not be any other userUid).
-     * @return the reference to the user profile (existing or to be created).
-     */
-    private DocumentReference getUserProfileReference(String userUid)
-    {
-        // Sometimes Auth adapters/Auth systems might return an empty (non-null) value. Therefore strict checking here.
-        String userName = authenticationAdapter.getUserName();
-        if (StringUtils.isBlank(userName)) {
-            throw new UnsupportedOperationException("Cannot work with an empty username!");
-        }
-
-        if (!userUid.equals(userName)) {
-            throw new UnsupportedOperationException("Not yet implemented");
-        }
-
-        return defaultEntityDocumentReferenceResolver.resolve(
-            new EntityReference(getCleanedUpUsername(getCaseNormalizedName(userName)), EntityType.DOCUMENT),
-            USER_SPACE_REFERENCE);
-    }
-
-    /**
-     * Apply replacements to clean up username for defining the user profile name.
-     *
-     * @param userName userName to clean
-     * @return cleaned up userName
-     */
-    private String getCleanedUpUsername(String userName)
-    {
-        String result = userName;
-        for (Map.Entry<String, String> replacement : configuration.getUserProfileReplacements().entrySet()) {
-            result = result.replace(replacement.getKey(), replacement.getValue());
-        }
-        return result;
-    }
-
-    /**
-     * Apply replacements to clean up username for defining the user profile name.
-     *
-     * @param userName userName to clean
-     * @return cleaned up userName
-     */
-    private String getCaseNormalizedName(String userName)
-    {
-        switch (configuration.getUserProfileCaseStyle()) {
-            case LOWERCASE:
-                return userName.toLowerCase();
-            case TITLECASE:
-                if (userName.length() > 1) {
-                    return userName.substring(0, 1).toUpperCase() + userName.substring(1).toLowerCase();
-                }
-                return userName.toUpperCase();
-            case UPPERCASE:
-                return userName.toUpperCase();
-            default:
-                return userName;
-        }
-    }
-
     /**
      * Create the user if needed, or synchronize it and synchronize user in mapped groups.
      *
      * @param user the reference of the user document.
+     * @param extInfos the user information based on properties mapping.
      * @return true if the user has been successfully created and/or synchronized.
      */
-    private boolean synchronizeUser(DocumentReference user)
+    private boolean synchronizeUser(DocumentReference user, Map<String, String> extInfos)
     {
         XWikiContext context = contextProvider.get();
         String database = context.getWikiId();
@@ -301,20 +428,27 @@ public class DefaultTrustedAuthenticator implements TrustedAuthenticator, Initia
             // Switch to main wiki to force users to be global users
             context.setWikiId(user.getWikiReference().getName());
 
-            Map<String, String> extInfos = getExtendedInformations();
             // test if user already exists
             if (!context.getWiki().exists(user, context)) {
                 logger.debug("Creating user [{}]...", user);
-                if (!userManager.createUser(user, extInfos)) {
+                long start = metrics.start();
+                boolean created = userManager.createUser(user, extInfos);
+                metrics.stop(TrustedAuthenticationMetrics.TIMER_CREATE_USER, start);
+                if (!created) {
                     return false;
                 }
             } else if (!extInfos.isEmpty()) {
                 logger.debug("Synchronizing profile for user [{}]...", user);
+                long start = metrics.start();
                 userManager.synchronizeUserProperties(user, extInfos,
                     "Trusted authenticator user profile synchronization");
+                metrics.stop(TrustedAuthenticationMetrics.TIMER_SYNCHRONIZE_USER_PROPERTIES, start);
             }
 
-            if (!synchronizeGroups(user)) {
+            long start = metrics.start();
+            boolean groupsSynchronized = synchronizeGroups(user);
+            metrics.stop(TrustedAuthenticationMetrics.TIMER_SYNCHRONIZE_GROUPS, start);
+            if (!groupsSynchronized) {
                 return false;
             }
         } finally {
@@ -328,20 +462,7 @@ public class DefaultTrustedAuthenticator implements TrustedAuthenticator, Initia
      */
     protected Map<String, String> getExtendedInformations()
     {
-        Map<String, String> extInfos = new HashMap<String, String>();
-        Map<String, String> mapping = configuration.getUserPropertyMappings();
-
-        if (mapping.size() > 0) {
-            for (Map.Entry<String, String> entry : mapping.entrySet()) {
-                String value = authenticationAdapter.getUserProperty(entry.getValue());
-
-                if (StringUtils.isNotBlank(value)) {
-                    extInfos.put(entry.getKey(), value.trim());
-                }
-            }
-        }
-
-        return extInfos;
+        return userSynchronizationRules.getExtendedInformations(authenticationAdapter);
     }
 
     /**
@@ -355,267 +476,27 @@ public class DefaultTrustedAuthenticator implements TrustedAuthenticator, Initia
         Collection<DocumentReference> groupOutRefs = new ArrayList<DocumentReference>();
         Collection<DocumentReference> groupInWithAutoCreateRefs = new ArrayList<DocumentReference>();
 
-        populateGroupsFromMappings(groupInRefs, groupOutRefs);
-
-        if (!populateGroupsFromDynamicRoles(user, groupInRefs, groupInWithAutoCreateRefs, groupOutRefs)) {
+        if (!userSynchronizationRules.populateGroups(authenticationAdapter, user, groupInRefs,
+            groupInWithAutoCreateRefs, groupOutRefs)) {
             return false;
         }
 
+        metrics.trace(TrustedAuthenticationMetrics.TRACE_GROUPS,
+            groupInRefs.size() + groupInWithAutoCreateRefs.size() + groupOutRefs.size());
         if (!(groupInRefs.isEmpty() && groupOutRefs.isEmpty() && groupInWithAutoCreateRefs.isEmpty())) {
             logger.debug("Synchronizing groups for user [{}]...", user);
-            userManager.synchronizeGroupsMembership(user, groupInRefs, groupInWithAutoCreateRefs, groupOutRefs,
-                "Trusted authentication group synchronization");
-        }
-
-        return true;
-    }
-
-    /**
-     * Synchronize the user in mapped groups.
-     *
-     * @param groupInRefs will be filled with groups the user should be in.
-     * @param groupOutRefs will be filled with groups the user should not be in.
-     */
-    private void populateGroupsFromMappings(Collection<DocumentReference> groupInRefs,
-        Collection<DocumentReference> groupOutRefs)
-    {
-        // Only synchronize groups if a group mapping configuration exists
-        Map<DocumentReference, Collection<String>> mappings = getGroupMapping();
-        if (mappings.size() > 0) {
-            // membership to add
-            for (Map.Entry<DocumentReference, Collection<String>> mapping : mappings.entrySet()) {
-                DocumentReference groupRef = mapping.getKey();
-                Boolean isMember = false;
-                for (String role : mapping.getValue()) {
-                    if (authenticationAdapter.isUserInRole(role)) {
-                        isMember = true;
-                        break;
-                    }
-                }
-
-                if (isMember) {
-                    groupInRefs.add(groupRef);
-                } else {
-                    groupOutRefs.add(groupRef);
-                }
-            }
-        }
-    }
-
-    /**
-     * @return the group matching this role with the given dynamic role configuration.
-     * @param conf the group configuration
-     * @param role the dynamic role the given group configuration is associated with
-     */
-    private DocumentReference getGroupForRole(DynamicRoleConfiguration conf, String role)
-    {
-        String group;
-        if (conf.getRoleRegex().isEmpty() || conf.getReplacement().isEmpty()) {
-            String radical =
-                role.substring(conf.getRolePrefix().length(), role.length() - conf.getRoleSuffix().length());
-            group = conf.getGroupPrefix() + (configuration.cleanDynamicRoles() ? clean(radical) : radical)
-                + conf.getGroupSuffix();
-            return resolveUserOrGroup(group);
-        }
-        group = role.replaceFirst(conf.getRoleRegex(), conf.getReplacement());
-        return resolveUserOrGroup(group);
-    }
-
-    /**
-     * @return the groups concerned by the given dynamic role configuration.
-     * @param conf the dynamic role configuration to use.
-     * @param groups the set of groups to filter.
-     */
-    private Collection<DocumentReference> groupsMatchingConfiguration(DynamicRoleConfiguration conf,
-        Collection<DocumentReference> groups)
-    {
-        String[] wikiAndGroupPrefix = conf.getGroupPrefix().split(":", 2);
-        String unqualifiedGroupPrefix = wikiAndGroupPrefix[wikiAndGroupPrefix.length - 1];
-
-        Collection<DocumentReference> matchingGroups = new ArrayList<DocumentReference>();
-
-        for (DocumentReference group : groups) {
-            String g = localStringEntityReferenceSerializer.serialize(group);
-            if (g.startsWith(unqualifiedGroupPrefix) && g.endsWith(conf.getGroupSuffix())) {
-                logger.debug("Group [{}] matches this configuration", g);
-                matchingGroups.add(group);
-            } else {
-                logger.debug("Group [{}] does not match this configuration", g);
-            }
-        }
-
-        return matchingGroups;
-    }
-
-    /**
-     * Fill the groups in which the user should be added, given the roles provided by the authentication adapter and the
-     * dynamic role configurations.
-     *
-     * @param configurations all the dynamic role configurations.
-     * @param groupInRefs is filled with the groups the user should be added to, not to be auto-created.
-     * @param groupInWithAutoCreateRefs is filled with the groups the user should be added to, to be auto-created.
-     * @return whether the operation succeeded.
-     */
-    private boolean addGroupsFromDynamicRoles(Collection<DynamicRoleConfiguration> configurations,
-        Collection<DocumentReference> groupInRefs, Collection<DocumentReference> groupInWithAutoCreateRefs)
-    {
-        Collection<String> roles = authenticationAdapter.getUserRoles();
-        logger.debug("Found roles: [{}]", roles);
-        if (roles == null) {
-            return false;
-        }
-
-        AddGroupToField agtf = new AddGroupToField();
-        XWikiContext context = contextProvider.get();
-
-        for (String role : roles) {
-            DynamicRoleConfiguration conf = null;
-            for (DynamicRoleConfiguration config : configurations) {
-                if (config.matchesRole(role)) {
-                    conf = config;
-                    break;
-                }
-            }
-
-            if (conf == null) {
-                logger.debug("Did not find any dynamic configuration for role [{}]", role);
-                continue;
-            }
-
-            logger.debug("Found a dynamic configuration for role [{}]: [{}]", role, conf);
-
-            DocumentReference group = getGroupForRole(conf, role);
-            if (group == null) {
-                continue;
-            }
-
-            logger.debug("Found a group for this role: [{}]", group);
-
-            if (conf.isAutoCreate()) {
-                logger.debug("This group will be auto created if needed.");
-                groupInWithAutoCreateRefs.add(group);
-                agtf.add(context, group, role, conf);
-            } else {
-                logger.debug("This group will not be auto created.");
-                groupInRefs.add(group);
+            boolean started = synchronizationDigestManager.startGroupsSynchronization();
+            try {
+                userManager.synchronizeGroupsMembership(user, groupInRefs, groupInWithAutoCreateRefs, groupOutRefs,
+                    "Trusted authentication group synchronization");
+            } finally {
+                synchronizationDigestManager.endGroupsSynchronization(started);
             }
         }
 
-        agtf.save(context);
         return true;
     }
 
-    /**
-     * Remove from the first parameters groups that are in the second parameter.
-     *
-     * @param groupsToRemove the collection to remove groups from.
-     * @param addedGroups the collection of groups to remove
-     */
-    private void removeGroups(Collection<DocumentReference> groupsToRemove, Collection<DocumentReference> addedGroups)
-    {
-        for (DocumentReference addedGroup : addedGroups) {
-            String sAddedGroup = defaultStringEntityReferenceSerializer.serialize(addedGroup);
-            Iterator<DocumentReference> iter = groupsToRemove.iterator();
-            while (iter.hasNext()) {
-                String userGroup = defaultStringEntityReferenceSerializer.serialize(iter.next());
-                if (userGroup.equals(sAddedGroup)) {
-                    iter.remove();
-                }
-            }
-        }
-    }
-
-    /**
-     * Given the groups the user is in and the groups in which this user needs to be added, and given the dynamic role
-     * configurations, fill in the groups from which the user is to be removed.
-     *
-     * @param configurations all the dynamic role configurations.
-     * @param groupInRefs the groups the user is to be added to, that are not to be auto-created.
-     * @param groupInWithAutoCreateRefs the groups the user is to be added to, that are to be auto-created.
-     * @param groupOutRefs is filled with the groups the user should be removed from.
-     * @return whether the operation succeeded.
-     */
-    private boolean removeGroupsFromDynamicRoles(Collection<DynamicRoleConfiguration> configurations,
-        DocumentReference user, Collection<DocumentReference> groupInRefs,
-        Collection<DocumentReference> groupInWithAutoCreateRefs, Collection<DocumentReference> groupOutRefs)
-    {
-        XWikiContext context = contextProvider.get();
-        Collection<DocumentReference> userGroupsNotBeingAdded;
-
-        try {
-            userGroupsNotBeingAdded =
-                context.getWiki().getGroupService(context).getAllGroupsReferencesForMember(user, 0, 0, context);
-        } catch (XWikiException e) {
-            logger.error("Failed to get user groups [{}]", user, e);
-            return false;
-        }
-        logger.debug("User is in these groups: [{}]", userGroupsNotBeingAdded);
-
-        removeGroups(userGroupsNotBeingAdded, groupInRefs);
-        removeGroups(userGroupsNotBeingAdded, groupInWithAutoCreateRefs);
-
-        logger.debug("These groups have not been added: [{}]", userGroupsNotBeingAdded);
-
-        Collection<DocumentReference> matchingGroups = new ArrayList<DocumentReference>();
-        for (DynamicRoleConfiguration conf : configurations) {
-            logger.debug("Removing groups corresponding to missing roles for configuration [{}].", conf);
-            matchingGroups.addAll(groupsMatchingConfiguration(conf, userGroupsNotBeingAdded));
-        }
-        logger.debug("The user will be removed from these groups: [{}].", matchingGroups);
-        groupOutRefs.addAll(matchingGroups);
-        return true;
-    }
-
-    /**
-     * Given the groups the user is in and the dynamic role configurations, fill in the groups to which the user is to
-     * be added and from which the user is to be removed.
-     *
-     * @param DocumentReference all the dynamic role configurations.
-     * @param groupInRefs is filled with the groups the user is to be added to, not to be auto-created.
-     * @param groupInWithAutoCreateRefs is filled with the groups the user is to be added to, to be auto-created.
-     * @param groupOutRefs is filled with the groups the user should be removed from.
-     * @return whether the operation succeeded.
-     */
-    private boolean populateGroupsFromDynamicRoles(DocumentReference user, Collection<DocumentReference> groupInRefs,
-        Collection<DocumentReference> groupInWithAutoCreateRefs, Collection<DocumentReference> groupOutRefs)
-    {
-        Collection<DynamicRoleConfiguration> configs = configuration.getDynamicRoleConfigurations();
-        if (configs == null) {
-            return false;
-        }
-
-        if (configs.isEmpty()) {
-            return true;
-        }
-
-        return addGroupsFromDynamicRoles(configs, groupInRefs, groupInWithAutoCreateRefs)
-            && removeGroupsFromDynamicRoles(configs, user, groupInRefs, groupInWithAutoCreateRefs, groupOutRefs);
-    }
-
-    /**
-     * @return the document reference for the given user or group, finding it by default in the default user space.
-     */
-    private DocumentReference resolveUserOrGroup(String userOrGroup)
-    {
-        return defaultStringDocumentReferenceResolver.resolve(userOrGroup, USER_SPACE_REFERENCE);
-    }
-
-    /**
-     * @return the mapping between XWiki groups and user Roles.
-     */
-    private Map<DocumentReference, Collection<String>> getGroupMapping()
-    {
-        if (this.groupMappings == null) {
-            Map<String, Collection<String>> mappings = configuration.getGroupMappings();
-            this.groupMappings = new HashMap<DocumentReference, Collection<String>>();
-            for (Map.Entry<String, Collection<String>> mapping : mappings.entrySet()) {
-                this.groupMappings.put(resolveUserOrGroup(mapping.getKey()), mapping.getValue());
-            }
-        }
-
-        return this.groupMappings;
-    }
-
     /**
      * If the authenticator adapter provides a global logout URL, wrap the current response in order to rewrite
      * redirection URL using that external logout, which will be responsible to latter redirect back to the original
@@ -644,15 +525,13 @@ public class DefaultTrustedAuthenticator implements TrustedAuthenticator, Initia
      */
     private boolean isLogoutRequest()
     {
-        if (logoutMatcher == null) {
-            logoutMatcher = new RequestMatcher(configuration.getLogoutPagePattern());
+        RequestMatcher matcher = logoutMatcher;
+        if (matcher == null) {
+            matcher = new RequestMatcher(configuration.getLogoutPagePattern());
+            logoutMatcher = matcher;
         }
 
-        return logoutMatcher.match(contextProvider.get().getRequest());
+        return matcher.match(contextProvider.get().getRequest());
     }
 
-    private String clean(String str)
-    {
-        return RegExUtils.removePattern(str, "[\\.\\:\\s,@\\^\\/]");
-    }
 }
@@ -32,7 +32,12 @@ import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
 import org.xwiki.contrib.authentication.UserManager;
+import org.xwiki.contrib.authentication.internal.jfr.FlightRecorderSupport;
+import org.xwiki.contrib.authentication.internal.jfr.GroupMembershipEvent;
+import org.xwiki.contrib.authentication.internal.jfr.UserCreationEvent;
+import org.xwiki.contrib.authentication.internal.jfr.UserPropertiesSynchronizationEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 
@@ -55,6 +60,8 @@ public class DefaultUserManager implements UserManager
 
     private static final String GROUP_PROPERTY_MEMBER = "member";
 
+    private static final String CREATE_USER_ERROR = "Failed to create user [{}]";
+
     @Inject
     private Logger logger;
     
@@ -65,8 +72,30 @@ public class DefaultUserManager implements UserManager
     @Named("compactwiki")
     private EntityReferenceSerializer<String> compactWikiEntityReferenceSerializer;
 
+    @Inject
+    private TrustedAuthenticationConfiguration configuration;
+
+    @Inject
+    private Provider<DeferredGroupMembershipManager> deferredGroupMembershipManagerProvider;
+
+    @Inject
+    private UserProfileDocumentManager userProfileDocumentManager;
+
     @Override
     public boolean createUser(DocumentReference user, Map<String, String> extInfo)
+    {
+        UserCreationEvent event = FlightRecorderSupport.isAvailable() && UserCreationEvent.isTypeEnabled()
+            ? new UserCreationEvent() : null;
+
+        boolean created = createUserProfile(user, extInfo);
+
+        if (event != null) {
+            event.commit(user, created);
+        }
+        return created;
+    }
+
+    private boolean createUserProfile(DocumentReference user, Map<String, String> extInfo)
     {
         logger.debug("Creating new XWiki user [{}]", user);
         XWikiContext context = contextProvider.get();
@@ -80,6 +109,10 @@ public class DefaultUserManager implements UserManager
             extended.put(USER_PROPERTY_ACTIVE, "1");
         }
 
+        if (configuration.isInitialGroupsMembershipDeferred()) {
+            return createUserWithDeferredMembership(user, extended, context);
+        }
+
         try {
             int result = context.getWiki().createUser(user.getName(), extended, context);
             if (result != 1) {
@@ -87,52 +120,64 @@ public class DefaultUserManager implements UserManager
                     String.format("Error [%s] while creating user [%s]", result, user));
             }
         } catch (XWikiException e) {
-            logger.error("Failed to create user [{}]", user, e);
+            logger.error(CREATE_USER_ERROR, user, e);
             return false;
         }
         return true;
     }
 
+    /**
+     * Create the user profile without saving the initial groups, leaving the membership to the
+     * {@link DeferredGroupMembershipManager}.
+     *
+     * @param user the reference of the user document.
+     * @param extended the properties to be assigned in the user profile.
+     * @param context the current context.
+     * @return true when the user has been successfully created.
+     */
+    private boolean createUserWithDeferredMembership(DocumentReference user, Map<String, String> extended,
+        XWikiContext context)
+    {
+        try {
+            XWikiDocument userDoc = userProfileDocumentManager.createUserDocument(user, extended, context);
+            context.getWiki().saveDocument(userDoc, "Created user", context);
+        } catch (XWikiException e) {
+            logger.error(CREATE_USER_ERROR, user, e);
+            return false;
+        }
+
+        return deferredGroupMembershipManagerProvider.get().addMember(user);
+    }
+
     @Override
     public boolean synchronizeUserProperties(DocumentReference user, Map<String, String> extInfos, String comment)
     {
+        UserPropertiesSynchronizationEvent event =
+            FlightRecorderSupport.isAvailable() && UserPropertiesSynchronizationEvent.isTypeEnabled()
+                ? new UserPropertiesSynchronizationEvent() : null;
         XWikiContext context = contextProvider.get();
 
+        boolean success = true;
+        boolean saved = false;
         try {
-            BaseClass userClass = context.getWiki().getUserClass(context);
             XWikiDocument userDoc = context.getWiki().getDocument(user, context);
 
             if (userDoc.isNew()) {
                 logger.error("User [{}] does not exist and will not be synchronized", user);
-                return false;
-            }
-
-            BaseObject userObj = userDoc.getXObject(userClass.getReference());
-            Map<String, String> extended = new HashMap<String, String>();
-
-            for (Map.Entry<String, String> entry : extInfos.entrySet()) {
-                String key = entry.getKey();
-                if (userClass.get(key) == null) {
-                    logger.warn("User property [{}] does not exist in user profile and will not be synchronized", key);
-                    continue;
-                }
-                String value = entry.getValue();
-
-                String objValue = userObj.getStringValue(key);
-                if ((value != null && objValue == null) || (objValue != null && !objValue.equals(value))) {
-                    extended.put(key, value);
-                }
-            }
-
-            if (!extended.isEmpty()) {
-                userClass.fromMap(extended, userObj);
+                success = false;
+            } else if (userProfileDocumentManager.updateUserDocument(userDoc, extInfos, context)) {
                 context.getWiki().saveDocument(userDoc, comment, context);
+                saved = true;
             }
         } catch (Exception e) {
             logger.error("Failed to synchronize profile properties for user [{}]", user, e);
-            return false;
+            success = false;
         }
-        return true;
+
+        if (event != null) {
+            event.commit(user, saved, success);
+        }
+        return success;
     }
 
     @Override
@@ -191,8 +236,12 @@ public class DefaultUserManager implements UserManager
     @Override
     public boolean removeFromGroup(DocumentReference user, DocumentReference group, String comment)
     {
+        GroupMembershipEvent event = FlightRecorderSupport.isAvailable() && GroupMembershipEvent.isTypeEnabled()
+            ? new GroupMembershipEvent() : null;
         XWikiContext context = contextProvider.get();
 
+        boolean success = true;
+        boolean saved = false;
         try {
             BaseClass groupClass = context.getWiki().getGroupClass(context);
             String userName = compactWikiEntityReferenceSerializer.serialize(user);
@@ -202,32 +251,42 @@ public class DefaultUserManager implements UserManager
 
             if (groupDoc.isNew()) {
                 logger.warn("User [{}] cannot be removed from unknown group [{}]", user, group);
-                return false;
-            }
-
-            groupDoc = groupDoc.clone();
-            // Get and remove the specific group membership object for the user
-            BaseObject groupObj = groupDoc.getXObject(groupClass.getReference(), GROUP_PROPERTY_MEMBER, userName);
+                success = false;
+            } else {
+                groupDoc = groupDoc.clone();
+                // Get and remove the specific group membership object for the user
+                BaseObject groupObj =
+                    groupDoc.getXObject(groupClass.getReference(), GROUP_PROPERTY_MEMBER, userName);
 
-            if (groupObj != null) {
-                groupDoc.removeXObject(groupObj);
+                if (groupObj != null) {
+                    groupDoc.removeXObject(groupObj);
 
-                // Save modifications
-                context.getWiki().saveDocument(groupDoc, comment, context);
-                logger.debug("User [{}] removed from xwiki group [{}]", user, group);
+                    // Save modifications
+                    context.getWiki().saveDocument(groupDoc, comment, context);
+                    saved = true;
+                    logger.debug("User [{}] removed from xwiki group [{}]", user, group);
+                }
             }
         } catch (Exception e) {
             logger.error("Failed to remove a user [{}] from a group [{}]", user, group, e);
-            return false;
+            success = false;
         }
-        return true;
+
+        if (event != null) {
+            event.commit(GroupMembershipEvent.REMOVE, user, group, saved, success);
+        }
+        return success;
     }
 
     @Override
     public boolean addToGroup(DocumentReference user, DocumentReference group, String comment, boolean create)
     {
+        GroupMembershipEvent event = FlightRecorderSupport.isAvailable() && GroupMembershipEvent.isTypeEnabled()
+            ? new GroupMembershipEvent() : null;
         XWikiContext context = contextProvider.get();
 
+        boolean success = true;
+        boolean saved = false;
         try {
             BaseClass groupClass = context.getWiki().getGroupClass(context);
             String userName = compactWikiEntityReferenceSerializer.serialize(user);
@@ -235,33 +294,39 @@ public class DefaultUserManager implements UserManager
             // Get document representing group
             XWikiDocument groupDoc = context.getWiki().getDocument(group, context);
 
-            if (groupDoc.isNew()) {
-                if (!create) {
-                    logger.error("User [{}] cannot be added to unknown group [{}]", user, group);
-                    return false;
-                } else {
+            if (groupDoc.isNew() && !create) {
+                logger.error("User [{}] cannot be added to unknown group [{}]", user, group);
+                success = false;
+            } else {
+                if (groupDoc.isNew()) {
                     logger.debug("Group [{}] created to be able to add user [{}]", group, user);
+                } else {
+                    groupDoc = groupDoc.clone();
                 }
-            } else {
-                groupDoc = groupDoc.clone();
-            }
 
-            // Get and remove the specific group membership object for the user
-            BaseObject groupObj = groupDoc.getXObject(groupClass.getReference(), GROUP_PROPERTY_MEMBER, userName);
+                // Get and remove the specific group membership object for the user
+                BaseObject groupObj =
+                    groupDoc.getXObject(groupClass.getReference(), GROUP_PROPERTY_MEMBER, userName);
 
-            if (groupObj == null) {
-                // Add a member object to document
-                BaseObject memberObj = groupDoc.newXObject(groupClass.getReference(), context);
-                memberObj.setStringValue(GROUP_PROPERTY_MEMBER, userName);
+                if (groupObj == null) {
+                    // Add a member object to document
+                    BaseObject memberObj = groupDoc.newXObject(groupClass.getReference(), context);
+                    memberObj.setStringValue(GROUP_PROPERTY_MEMBER, userName);
 
-                // Save modifications
-                context.getWiki().saveDocument(groupDoc, comment, context);
-                logger.debug("User [{}] added to xwiki group [{}]", user, group);
+                    // Save modifications
+                    context.getWiki().saveDocument(groupDoc, comment, context);
+                    saved = true;
+                    logger.debug("User [{}] added to xwiki group [{}]", user, group);
+                }
             }
         } catch (Exception e) {
             logger.error("Failed to add a user [{}] to a group [{}]", user, group, e);
-            return false;
+            success = false;
         }
-        return true;
+
+        if (event != null) {
+            event.commit(GroupMembershipEvent.ADD, user, group, saved, success);
+        }
+        return success;
     }
 }
@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.WikiReadyEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Resume moving the pending members left by a restart into the initial groups when each wiki is ready, instead of
+ * waiting for the next new user of the wiki.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component
+@Named(DeferredGroupMembershipListener.NAME)
+@Singleton
+public class DeferredGroupMembershipListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "authenticator.trusted.deferredGroupMembership";
+
+    @Inject
+    private TrustedAuthenticationConfiguration configuration;
+
+    @Inject
+    private Provider<DeferredGroupMembershipManager> deferredGroupMembershipManagerProvider;
+
+    /**
+     * Default constructor.
+     */
+    public DeferredGroupMembershipListener()
+    {
+        super(NAME, new WikiReadyEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (configuration.isInitialGroupsMembershipDeferred()) {
+            deferredGroupMembershipManagerProvider.get().checkPendingMembers(((WikiReadyEvent) event).getWikiId());
+        }
+    }
+}
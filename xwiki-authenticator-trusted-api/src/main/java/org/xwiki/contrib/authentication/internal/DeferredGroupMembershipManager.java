@@ -0,0 +1,422 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Defer the membership of new users to the initial groups of the wiki (usually XWiki.XWikiAllGroup). Since these
+ * groups may have a huge number of members, loading, cloning and saving them for each new user is expensive and
+ * concurrent first logins contend on them. New users are instead added to one of a few small pending groups, chosen
+ * from the user reference so that concurrent first logins rarely contend on the same one, themselves members of the
+ * initial groups so that rights are evaluated as if the users were already members. A background task moves them
+ * into the initial groups in batches, saving each group once per batch, until no pending member remains. Pending
+ * members left by a restart are looked for when each wiki is ready.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { DeferredGroupMembershipManager.class })
+@Singleton
+public class DeferredGroupMembershipManager implements Disposable
+{
+    private static final String XWIKI_SPACE = "XWiki";
+
+    private static final String PENDING_GROUP_NAME = "TrustedAuthenticationPendingMembers";
+
+    /**
+     * Number of pending groups, each one holding the new users whose reference hashes to it.
+     */
+    private static final int PENDING_GROUP_COUNT = 8;
+
+    private static final LocalDocumentReference GROUP_CLASS_REFERENCE =
+        new LocalDocumentReference(XWIKI_SPACE, "XWikiGroups");
+
+    private static final String GROUP_PROPERTY_MEMBER = "member";
+
+    private static final String INITIAL_GROUPS_PROPERTY = "xwiki.users.initialGroups";
+
+    private static final String DEFAULT_INITIAL_GROUP = "XWiki.XWikiAllGroup";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private TrustedAuthenticationConfiguration configuration;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> currentDocumentReferenceResolver;
+
+    @Inject
+    @Named("compactwiki")
+    private EntityReferenceSerializer<String> compactWikiEntityReferenceSerializer;
+
+    /**
+     * Wikis for which the pending group is known to be a member of the initial groups.
+     */
+    private final Set<String> initializedWikis = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Wikis which may have pending members to move into the initial groups.
+     */
+    private final Set<String> pendingWikis = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The pending groups, and the locks serializing the modifications of each of them.
+     */
+    private final LocalDocumentReference[] pendingGroupReferences = new LocalDocumentReference[PENDING_GROUP_COUNT];
+
+    private final Object[] pendingGroupLocks = new Object[PENDING_GROUP_COUNT];
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Default constructor.
+     */
+    public DeferredGroupMembershipManager()
+    {
+        for (int i = 0; i < PENDING_GROUP_COUNT; i++) {
+            pendingGroupReferences[i] = new LocalDocumentReference(XWIKI_SPACE, PENDING_GROUP_NAME + i);
+            pendingGroupLocks[i] = new Object();
+        }
+    }
+
+    private final class FlushRunnable extends AbstractXWikiRunnable
+    {
+        @Override
+        protected void runInternal()
+        {
+            XWikiContext context = contextProvider.get();
+            for (String wikiId : pendingWikis) {
+                // Forget the wiki before reading its pending groups, users added meanwhile mark it again
+                pendingWikis.remove(wikiId);
+                context.setWikiId(wikiId);
+                boolean drained = false;
+                try {
+                    // Move all the pending members, one batch at a time, so that the pending groups remain small
+                    while (!drained && !Thread.currentThread().isInterrupted()) {
+                        drained = flush();
+                    }
+                } catch (Exception e) {
+                    logger.error("Failed to move the pending members of wiki [{}] into the initial groups.", wikiId,
+                        e);
+                } finally {
+                    if (!drained) {
+                        pendingWikis.add(wikiId);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Start moving the pending members of the given wiki into the initial groups if some are left, for instance by a
+     * restart.
+     *
+     * @param wikiId the identifier of the wiki.
+     */
+    public void checkPendingMembers(String wikiId)
+    {
+        XWikiContext context = contextProvider.get();
+        String database = context.getWikiId();
+        try {
+            context.setWikiId(wikiId);
+            XWiki xwiki = context.getWiki();
+            WikiReference wiki = new WikiReference(wikiId);
+            for (LocalDocumentReference pendingGroupReference : pendingGroupReferences) {
+                DocumentReference pendingGroup = new DocumentReference(pendingGroupReference, wiki);
+                if (xwiki.exists(pendingGroup, context)
+                    && !getMemberObjects(xwiki.getDocument(pendingGroup, context)).isEmpty()) {
+                    logger.info("Moving the pending members of wiki [{}] into the initial groups", wikiId);
+                    pendingWikis.add(wikiId);
+                    startFlushing();
+                    break;
+                }
+            }
+        } catch (XWikiException e) {
+            logger.error("Failed to look for the pending members of wiki [{}]", wikiId, e);
+        } finally {
+            context.setWikiId(database);
+        }
+    }
+
+    /**
+     * Add the given user to a pending group of the current wiki, to be moved later into the initial groups.
+     *
+     * @param user the reference of the newly created user.
+     * @return true when the user has been successfully added.
+     */
+    public boolean addMember(DocumentReference user)
+    {
+        XWikiContext context = contextProvider.get();
+
+        try {
+            List<DocumentReference> initialGroups = getInitialGroups(context);
+            if (initialGroups.isEmpty()) {
+                logger.debug("No initial group to add user [{}] to.", user);
+                return true;
+            }
+
+            initializePendingGroups(initialGroups, context);
+
+            int index = Math.floorMod(user.hashCode(), PENDING_GROUP_COUNT);
+            synchronized (pendingGroupLocks[index]) {
+                XWikiDocument pendingGroup = context.getWiki().getDocument(pendingGroupReferences[index], context)
+                    .clone();
+                if (pendingGroup.isNew()) {
+                    pendingGroup.setHidden(true);
+                }
+                BaseObject memberObj = pendingGroup.newXObject(GROUP_CLASS_REFERENCE, context);
+                memberObj.setStringValue(GROUP_PROPERTY_MEMBER, compactWikiEntityReferenceSerializer.serialize(user));
+                context.getWiki().saveDocument(pendingGroup, String.format("Add pending member [%s]", user), true,
+                    context);
+            }
+            pendingWikis.add(context.getWikiId());
+            startFlushing();
+            logger.debug("User [{}] added to the pending members of the initial groups", user);
+        } catch (XWikiException e) {
+            logger.error("Failed to add user [{}] to the pending members of the initial groups", user, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move a batch of pending members of the current wiki into the initial groups. Only the modifications of the
+     * pending groups are done while holding their lock, so that new users are not blocked while the initial groups are
+     * saved.
+     *
+     * @return true if no pending members remain.
+     * @throws XWikiException if the groups cannot be loaded or saved.
+     */
+    private boolean flush() throws XWikiException
+    {
+        XWikiContext context = contextProvider.get();
+        int batchSize = configuration.getDeferredMembershipBatchSize();
+
+        Set<String> batch = new HashSet<>();
+        List<Integer> batchGroups = new ArrayList<>();
+        for (int i = 0; i < PENDING_GROUP_COUNT && batch.size() < batchSize; i++) {
+            if (collectPendingMembers(i, batch, batchSize, context)) {
+                batchGroups.add(i);
+            }
+        }
+        if (batch.isEmpty()) {
+            return true;
+        }
+
+        // Add the members to the initial groups before removing them from the pending group, so that they are never
+        // left without their initial rights.
+        for (DocumentReference groupReference : getInitialGroups(context)) {
+            addMembers(groupReference, batch, context);
+        }
+
+        for (int i : batchGroups) {
+            removePendingMembers(i, batch, context);
+        }
+        logger.debug("[{}] pending members moved into the initial groups", batch.size());
+
+        return batch.size() < batchSize;
+    }
+
+    /**
+     * @param index the index of the pending group
+     * @param batch is filled with the pending members, up to the batch size
+     * @param batchSize the maximum number of members in the batch
+     * @param context the current context
+     * @return true if the pending group holds members
+     * @throws XWikiException if the pending group cannot be loaded
+     */
+    private boolean collectPendingMembers(int index, Set<String> batch, int batchSize, XWikiContext context)
+        throws XWikiException
+    {
+        synchronized (pendingGroupLocks[index]) {
+            List<BaseObject> memberObjects =
+                getMemberObjects(context.getWiki().getDocument(pendingGroupReferences[index], context));
+            for (BaseObject memberObj : memberObjects) {
+                if (batch.size() >= batchSize) {
+                    break;
+                }
+                batch.add(memberObj.getStringValue(GROUP_PROPERTY_MEMBER));
+            }
+
+            return !memberObjects.isEmpty();
+        }
+    }
+
+    private void removePendingMembers(int index, Set<String> batch, XWikiContext context) throws XWikiException
+    {
+        XWiki xwiki = context.getWiki();
+
+        synchronized (pendingGroupLocks[index]) {
+            XWikiDocument pendingGroup = xwiki.getDocument(pendingGroupReferences[index], context).clone();
+            int moved = 0;
+            for (BaseObject memberObj : getMemberObjects(pendingGroup)) {
+                if (batch.contains(memberObj.getStringValue(GROUP_PROPERTY_MEMBER))) {
+                    pendingGroup.removeXObject(memberObj);
+                    moved++;
+                }
+            }
+            if (moved > 0) {
+                xwiki.saveDocument(pendingGroup, String.format("Moved [%s] pending members", moved), true, context);
+            }
+        }
+    }
+
+    private void addMembers(DocumentReference groupReference, Collection<String> members, XWikiContext context)
+        throws XWikiException
+    {
+        XWiki xwiki = context.getWiki();
+        XWikiDocument groupDocument = xwiki.getDocument(groupReference, context).clone();
+
+        Set<String> currentMembers = new HashSet<>();
+        for (BaseObject memberObj : getMemberObjects(groupDocument)) {
+            currentMembers.add(memberObj.getStringValue(GROUP_PROPERTY_MEMBER));
+        }
+
+        int added = 0;
+        for (String member : members) {
+            if (currentMembers.add(member)) {
+                BaseObject memberObj = groupDocument.newXObject(GROUP_CLASS_REFERENCE, context);
+                memberObj.setStringValue(GROUP_PROPERTY_MEMBER, member);
+                added++;
+            }
+        }
+
+        if (added > 0) {
+            xwiki.saveDocument(groupDocument, String.format("Added [%s] new members", added), context);
+        }
+    }
+
+    private List<BaseObject> getMemberObjects(XWikiDocument groupDocument)
+    {
+        List<BaseObject> memberObjects = new ArrayList<>();
+        List<BaseObject> objects = groupDocument.getXObjects(GROUP_CLASS_REFERENCE);
+        if (objects != null) {
+            for (BaseObject memberObj : objects) {
+                // Skip deleted objects and the empty object used to mark the document as a group
+                if (memberObj != null && StringUtils.isNotEmpty(memberObj.getStringValue(GROUP_PROPERTY_MEMBER))) {
+                    memberObjects.add(memberObj);
+                }
+            }
+        }
+        return memberObjects;
+    }
+
+    /**
+     * Make the pending groups of the current wiki members of the initial groups, if not already done.
+     *
+     * @param initialGroups the initial groups of the current wiki.
+     * @param context the current context.
+     * @throws XWikiException if the groups cannot be loaded or saved.
+     */
+    private synchronized void initializePendingGroups(List<DocumentReference> initialGroups, XWikiContext context)
+        throws XWikiException
+    {
+        if (!initializedWikis.contains(context.getWikiId())) {
+            List<String> pendingGroupNames = new ArrayList<>(PENDING_GROUP_COUNT);
+            for (LocalDocumentReference pendingGroupReference : pendingGroupReferences) {
+                pendingGroupNames.add(compactWikiEntityReferenceSerializer
+                    .serialize(new DocumentReference(pendingGroupReference, context.getWikiReference())));
+            }
+            for (DocumentReference groupReference : initialGroups) {
+                addMembers(groupReference, pendingGroupNames, context);
+            }
+            initializedWikis.add(context.getWikiId());
+        }
+    }
+
+    /**
+     * @param context the current context.
+     * @return the groups new users of the current wiki are added to.
+     */
+    public List<DocumentReference> getInitialGroups(XWikiContext context)
+    {
+        XWiki xwiki = context.getWiki();
+        // Same default as the one used by XWiki when creating users
+        String initialGroups = xwiki.Param(INITIAL_GROUPS_PROPERTY,
+            xwiki.isAllGroupImplicit() ? "" : DEFAULT_INITIAL_GROUP);
+
+        List<DocumentReference> groupReferences = new ArrayList<>();
+        for (String group : StringUtils.split(initialGroups, ',')) {
+            if (StringUtils.isNotBlank(group)) {
+                groupReferences.add(currentDocumentReferenceResolver.resolve(group.trim()));
+            }
+        }
+        return groupReferences;
+    }
+
+    private synchronized void startFlushing()
+    {
+        if (executor == null) {
+            int interval = Math.max(1, configuration.getDeferredMembershipFlushInterval());
+            executor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Trusted Authentication pending members").daemon(true).build());
+            executor.scheduleWithFixedDelay(new FlushRunnable(), interval, interval, TimeUnit.SECONDS);
+        }
+    }
+}
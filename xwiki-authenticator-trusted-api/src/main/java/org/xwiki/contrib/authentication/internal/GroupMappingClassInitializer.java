@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.doc.AbstractMandatoryClassInitializer;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+/**
+ * Initialize the class of the objects holding the group mappings, one object per mapping of a role to a group, in the
+ * page configured as a group mapping source.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component
+@Named(GroupMappingClassInitializer.CLASS_NAME)
+@Singleton
+public class GroupMappingClassInitializer extends AbstractMandatoryClassInitializer
+{
+    /**
+     * The name of the class.
+     */
+    public static final String CLASS_NAME = "XWiki.TrustedAuthenticationGroupMappingClass";
+
+    /**
+     * The reference of the class.
+     */
+    public static final LocalDocumentReference CLASS_REFERENCE =
+        new LocalDocumentReference("XWiki", "TrustedAuthenticationGroupMappingClass");
+
+    /**
+     * The name of the property holding the mapped group.
+     */
+    public static final String PROPERTY_GROUP = "group";
+
+    /**
+     * The name of the property holding the role mapped to the group.
+     */
+    public static final String PROPERTY_ROLE = "role";
+
+    /**
+     * Default constructor.
+     */
+    public GroupMappingClassInitializer()
+    {
+        super(CLASS_REFERENCE, "Trusted Authentication Group Mapping Class");
+    }
+
+    @Override
+    protected void createClass(BaseClass xclass)
+    {
+        xclass.addTextField(PROPERTY_GROUP, "Group", 30);
+        xclass.addTextField(PROPERTY_ROLE, "Role", 30);
+    }
+}
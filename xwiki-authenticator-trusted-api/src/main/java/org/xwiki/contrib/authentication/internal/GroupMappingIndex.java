@@ -0,0 +1,385 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Inverted index of the group mappings, giving the groups mapped to a role, so that the synchronization of the groups
+ * of a user costs a lookup per role of the user instead of a check of each mapped role. The mappings are merged from
+ * up to three sources: the {@code groupsMapping} preference, a page holding one object per mapping, and a local file
+ * holding one mapping per line. When the page or the file is modified, only the groups whose mapped roles have changed
+ * are updated in the index.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { GroupMappingIndex.class })
+@Singleton
+public class GroupMappingIndex
+{
+    private static final EntityReference USER_SPACE_REFERENCE = new EntityReference("XWiki", EntityType.SPACE);
+
+    private static final String SOURCE_PREFERENCES = "preferences";
+
+    private static final String SOURCE_DOCUMENT = "document";
+
+    private static final String SOURCE_FILE = "file";
+
+    private static final char FILE_MAPPING_SEPARATOR = '=';
+
+    private static final String FILE_COMMENT_PREFIX = "#";
+
+    private static final byte FINGERPRINT_ROLE_SEPARATOR = 0;
+
+    private static final byte FINGERPRINT_GROUP_SEPARATOR = 1;
+
+    /**
+     * Minimum interval between two checks of the modification of the group mapping file.
+     */
+    private static final long FILE_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private TrustedAuthenticationConfiguration configuration;
+
+    @Inject
+    private DocumentReferenceResolver<String> defaultStringDocumentReferenceResolver;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> currentDocumentReferenceResolver;
+
+    /**
+     * The mapped roles of each group, indexed by source. Only accessed while holding the lock of the index.
+     */
+    private final Map<String, Map<DocumentReference, Set<String>>> sources = new HashMap<>();
+
+    /**
+     * The roles of each group, merged from all the sources.
+     */
+    private final Map<DocumentReference, Set<String>> rolesByGroup = new ConcurrentHashMap<>();
+
+    /**
+     * The groups of each role, the sets being replaced instead of modified so that they can be read without locking.
+     */
+    private final Map<String, Set<DocumentReference>> groupsByRole = new ConcurrentHashMap<>();
+
+    /**
+     * Hash of the merged mappings, updated whenever the mapped roles of a group change.
+     */
+    private volatile String fingerprint = "";
+
+    private volatile boolean loaded;
+
+    private volatile DocumentReference mappingDocument;
+
+    private File mappingFile;
+
+    private long mappingFileLastModified;
+
+    private volatile long mappingFileNextCheck;
+
+    /**
+     * @return the roles mapped to each group, loading the mappings on first use and reloading the mapping file if it
+     *         has been modified.
+     */
+    public Map<DocumentReference, Set<String>> getMappings()
+    {
+        if (!loaded) {
+            load();
+        } else if (mappingFile != null && System.currentTimeMillis() >= mappingFileNextCheck) {
+            checkMappingFile();
+        }
+
+        return Collections.unmodifiableMap(rolesByGroup);
+    }
+
+    /**
+     * @param role a role of the user.
+     * @return the groups mapped to the given role, empty if none.
+     */
+    public Set<DocumentReference> getGroups(String role)
+    {
+        Set<DocumentReference> groups = groupsByRole.get(role);
+        return groups != null ? groups : Collections.<DocumentReference>emptySet();
+    }
+
+    /**
+     * @return a fingerprint of the mappings, changing whenever a role is mapped to or unmapped from a group, so that
+     *         the users synchronized with previous mappings can be detected.
+     */
+    public String getFingerprint()
+    {
+        getMappings();
+
+        return fingerprint;
+    }
+
+    /**
+     * Update the mappings of the given document, if it is the page holding group mappings.
+     *
+     * @param document the created, modified or deleted document.
+     */
+    public void updateDocument(XWikiDocument document)
+    {
+        if (loaded && document.getDocumentReference().equals(mappingDocument)) {
+            int changed = updateSource(SOURCE_DOCUMENT, readDocument(document));
+            logger.debug("[{}] groups changed in the group mapping page [{}]", changed, mappingDocument);
+        }
+    }
+
+    private synchronized void load()
+    {
+        if (loaded) {
+            return;
+        }
+
+        Map<DocumentReference, Set<String>> preferences = new HashMap<>();
+        for (Map.Entry<String, Collection<String>> mapping : configuration.getGroupMappings().entrySet()) {
+            preferences.computeIfAbsent(resolveGroup(mapping.getKey()), k -> new HashSet<>())
+                .addAll(mapping.getValue());
+        }
+        updateSource(SOURCE_PREFERENCES, preferences);
+
+        String document = configuration.getGroupMappingDocument();
+        if (document != null) {
+            XWikiContext context = contextProvider.get();
+            mappingDocument =
+                currentDocumentReferenceResolver.resolve(document, new WikiReference(context.getMainXWiki()));
+            try {
+                updateSource(SOURCE_DOCUMENT, readDocument(context.getWiki().getDocument(mappingDocument, context)));
+            } catch (XWikiException e) {
+                logger.error("Failed to load the group mapping page [{}]", mappingDocument, e);
+            }
+        }
+
+        String file = configuration.getGroupMappingFile();
+        if (file != null) {
+            mappingFile = new File(file);
+            checkMappingFile();
+        }
+
+        loaded = true;
+    }
+
+    private synchronized void checkMappingFile()
+    {
+        long now = System.currentTimeMillis();
+        if (now < mappingFileNextCheck) {
+            return;
+        }
+        mappingFileNextCheck = now + FILE_CHECK_INTERVAL;
+
+        long lastModified = mappingFile.lastModified();
+        if (lastModified == mappingFileLastModified) {
+            return;
+        }
+
+        try {
+            int changed = updateSource(SOURCE_FILE, readFile(mappingFile));
+            mappingFileLastModified = lastModified;
+            logger.debug("[{}] groups changed in the group mapping file [{}]", changed, mappingFile);
+        } catch (IOException e) {
+            logger.error("Failed to read the group mapping file [{}]", mappingFile, e);
+        }
+    }
+
+    private Map<DocumentReference, Set<String>> readDocument(XWikiDocument document)
+    {
+        Map<DocumentReference, Set<String>> mappings = new HashMap<>();
+        List<BaseObject> objects = document.getXObjects(GroupMappingClassInitializer.CLASS_REFERENCE);
+        if (objects != null) {
+            for (BaseObject object : objects) {
+                if (object != null) {
+                    addMapping(mappings, object.getStringValue(GroupMappingClassInitializer.PROPERTY_GROUP),
+                        object.getStringValue(GroupMappingClassInitializer.PROPERTY_ROLE));
+                }
+            }
+        }
+        return mappings;
+    }
+
+    private Map<DocumentReference, Set<String>> readFile(File file) throws IOException
+    {
+        Map<DocumentReference, Set<String>> mappings = new HashMap<>();
+        if (file.exists()) {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().startsWith(FILE_COMMENT_PREFIX)) {
+                    // Roles may contain the separator (LDAP distinguished names), but not the groups
+                    int separator = line.indexOf(FILE_MAPPING_SEPARATOR);
+                    if (separator > 0) {
+                        addMapping(mappings, line.substring(0, separator), line.substring(separator + 1));
+                    }
+                }
+            }
+        }
+        return mappings;
+    }
+
+    private void addMapping(Map<DocumentReference, Set<String>> mappings, String group, String role)
+    {
+        if (StringUtils.isNotBlank(group) && StringUtils.isNotBlank(role)) {
+            mappings.computeIfAbsent(resolveGroup(group.trim()), k -> new HashSet<>()).add(role.trim());
+        }
+    }
+
+    private DocumentReference resolveGroup(String group)
+    {
+        return defaultStringDocumentReferenceResolver.resolve(group, USER_SPACE_REFERENCE);
+    }
+
+    /**
+     * Replace the mappings of a source, updating the index only for the groups whose mapped roles have changed.
+     *
+     * @param source the name of the source.
+     * @param mappings the new mappings of the source.
+     * @return the number of groups whose mapped roles have changed.
+     */
+    private synchronized int updateSource(String source, Map<DocumentReference, Set<String>> mappings)
+    {
+        Map<DocumentReference, Set<String>> previous = sources.put(source, mappings);
+        if (previous == null) {
+            previous = Collections.emptyMap();
+        }
+
+        Set<DocumentReference> groups = new HashSet<>(mappings.keySet());
+        groups.addAll(previous.keySet());
+
+        int changed = 0;
+        for (DocumentReference group : groups) {
+            if (!Objects.equals(previous.get(group), mappings.get(group))) {
+                updateGroup(group);
+                changed++;
+            }
+        }
+        if (changed > 0) {
+            updateFingerprint();
+        }
+        return changed;
+    }
+
+    private void updateFingerprint()
+    {
+        Map<String, Set<String>> mappings = new TreeMap<>();
+        for (Map.Entry<DocumentReference, Set<String>> entry : rolesByGroup.entrySet()) {
+            mappings.put(entry.getKey().toString(), new TreeSet<>(entry.getValue()));
+        }
+
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        for (Map.Entry<String, Set<String>> entry : mappings.entrySet()) {
+            DigestUtils.updateDigest(digest, entry.getKey());
+            for (String role : entry.getValue()) {
+                digest.update(FINGERPRINT_ROLE_SEPARATOR);
+                DigestUtils.updateDigest(digest, role);
+            }
+            digest.update(FINGERPRINT_GROUP_SEPARATOR);
+        }
+        fingerprint = Hex.encodeHexString(digest.digest());
+    }
+
+    private void updateGroup(DocumentReference group)
+    {
+        Set<String> roles = new HashSet<>();
+        for (Map<DocumentReference, Set<String>> mappings : sources.values()) {
+            Set<String> sourceRoles = mappings.get(group);
+            if (sourceRoles != null) {
+                roles.addAll(sourceRoles);
+            }
+        }
+
+        Set<String> previousRoles = rolesByGroup.getOrDefault(group, Collections.<String>emptySet());
+        for (String role : previousRoles) {
+            if (!roles.contains(role)) {
+                updateRole(role, group, false);
+            }
+        }
+        for (String role : roles) {
+            if (!previousRoles.contains(role)) {
+                updateRole(role, group, true);
+            }
+        }
+
+        if (roles.isEmpty()) {
+            rolesByGroup.remove(group);
+        } else {
+            rolesByGroup.put(group, Collections.unmodifiableSet(roles));
+        }
+    }
+
+    private void updateRole(String role, DocumentReference group, boolean mapped)
+    {
+        Set<DocumentReference> groups = new HashSet<>(getGroups(role));
+        if (mapped) {
+            groups.add(group);
+        } else {
+            groups.remove(group);
+        }
+
+        if (groups.isEmpty()) {
+            groupsByRole.remove(role);
+        } else {
+            groupsByRole.put(role, Collections.unmodifiableSet(groups));
+        }
+    }
+}
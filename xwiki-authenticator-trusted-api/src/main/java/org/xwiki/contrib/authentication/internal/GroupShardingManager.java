@@ -19,18 +19,36 @@
  */
 package org.xwiki.contrib.authentication.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.authentication.GroupShardingConfiguration;
+import org.xwiki.contrib.authentication.internal.job.ReshardingJobStarter;
+import org.xwiki.contrib.authentication.internal.metrics.TrustedAuthenticationMetrics;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
 import org.xwiki.user.group.GroupException;
 import org.xwiki.user.group.GroupManager;
 
@@ -53,6 +71,22 @@ public class GroupShardingManager
     private static final LocalDocumentReference GROUP_CLASS_REFERENCE =
         new LocalDocumentReference("XWiki", "XWikiGroups");
 
+    private static final String GROUP_PROPERTY_MEMBER = "member";
+
+    private static final String SHARD_SEPARATOR = "-Shard";
+
+    private static final int MAX_SHARD_PREFIX_LENGTH = 3;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static final String SHARD_LINKS_QUERY = "select distinct obj.name, prop.value "
+        + "from BaseObject obj, StringProperty prop where obj.className = 'XWiki.XWikiGroups' "
+        + "and obj.id = prop.id.id and prop.id.name = 'member' and prop.value like :shard";
+
+    private static final String SHARDED_GROUPS_QUERY = "select distinct obj.name "
+        + "from BaseObject obj, IntegerProperty prop where obj.className = :className "
+        + "and obj.id = prop.id.id and prop.id.name = :property and prop.value > 0";
+
     @Inject
     private GroupShardingConfiguration groupShardingConfiguration;
 
@@ -69,6 +103,39 @@ public class GroupShardingManager
     @Inject
     private Logger logger;
 
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> currentDocumentReferenceResolver;
+
+    @Inject
+    private TrustedAuthenticationMetrics metrics;
+
+    @Inject
+    private ReshardingJobStarter reshardingJobStarter;
+
+    /**
+     * The shards already set-up as members of their group, indexed by wiki and group. The shards of a wiki are loaded
+     * on first use and kept up to date by the {@link GroupShardingListener}.
+     */
+    private final Map<String, Map<DocumentReference, Set<DocumentReference>>> shardLinks = new ConcurrentHashMap<>();
+
+    /**
+     * The groups switched to sharding after growing past the configured number of members, indexed by wiki. They are
+     * loaded and kept up to date like the shards.
+     */
+    private final Map<String, Set<DocumentReference>> thresholdShardedGroups = new ConcurrentHashMap<>();
+
+    /**
+     * The sharded groups whose direct members have all been moved to the shards, indexed by wiki. They are loaded and
+     * kept up to date like the shards.
+     */
+    private final Map<String, Set<DocumentReference>> migratedGroups = new ConcurrentHashMap<>();
+
+    private volatile List<Pattern> shardedGroupPatterns;
+
     /**
      * Calculate the reference of the user shard for the given group.
      *
@@ -78,16 +145,275 @@ public class GroupShardingManager
      */
     public DocumentReference getShardedGroupReference(DocumentReference group, DocumentReference user)
     {
-        if (groupShardingConfiguration.getShardedGroups().contains(group.getName())) {
-            String serializedUserReference = entityReferenceSerializer.serialize(user);
-            String digest = DigestUtils.sha256Hex(serializedUserReference);
-            String shardName = String.format("%s-Shard%s", group.getName(), digest.toUpperCase().charAt(0));
-            return new DocumentReference(shardName, group.getLastSpaceReference());
+        if (isSharded(group)) {
+            metrics.increment(TrustedAuthenticationMetrics.COUNTER_SHARDING_LOOKUP);
+            return getShardReference(group, getUserDigest(user), getShardPrefixLength(group));
         } else {
             return group;
         }
     }
 
+    /**
+     * Calculate the references of all the shards of the given group which may hold the user: its current shard and,
+     * while the group is being re-sharded, its shard with any previous number of shards.
+     *
+     * @param group the user group
+     * @param user the user
+     * @return the references of the sharded groups, or the group itself if it is not sharded
+     * @since 1.9.10
+     */
+    public Collection<DocumentReference> getShardedGroupReferences(DocumentReference group, DocumentReference user)
+    {
+        if (!isSharded(group)) {
+            return Collections.singletonList(group);
+        }
+        metrics.increment(TrustedAuthenticationMetrics.COUNTER_SHARDING_LOOKUP);
+
+        byte[] digest = getUserDigest(user);
+        int currentPrefixLength = getShardPrefixLength(group);
+        Set<DocumentReference> groupShards = getGroupShards(group);
+
+        Collection<DocumentReference> shards = new ArrayList<>();
+        for (int prefixLength = 1; prefixLength <= MAX_SHARD_PREFIX_LENGTH; prefixLength++) {
+            DocumentReference shard = getShardReference(group, digest, prefixLength);
+            if (prefixLength == currentPrefixLength || groupShards.contains(shard)) {
+                shards.add(shard);
+            }
+        }
+
+        return shards;
+    }
+
+    /**
+     * @param group the user group or a shard of a sharded group
+     * @return the sharded group of the given shard, or the given group if it is not a shard
+     * @since 1.9.10
+     */
+    public DocumentReference getGroupOfShard(DocumentReference group)
+    {
+        String groupName = group.getName();
+        int separator = getShardSeparatorIndex(groupName);
+        if (separator < 0) {
+            return group;
+        }
+
+        // Shards with another prefix length are left by a re-sharding, and only known from the group members
+        DocumentReference shardedGroup =
+            new DocumentReference(groupName.substring(0, separator), group.getLastSpaceReference());
+        int prefixLength = groupName.length() - separator - SHARD_SEPARATOR.length();
+        if (prefixLength == getShardPrefixLength(shardedGroup) || getShardLinks(group.getWikiReference())
+            .getOrDefault(shardedGroup, Collections.emptySet()).contains(group)) {
+            return shardedGroup;
+        }
+
+        return group;
+    }
+
+    /**
+     * @param groupName the name of a group
+     * @return the index of the shard separator if the name is the one of a shard, ending with the separator followed
+     *         only by upper-cased hexadecimal digits, -1 otherwise
+     */
+    private int getShardSeparatorIndex(String groupName)
+    {
+        int separator = groupName.lastIndexOf(SHARD_SEPARATOR);
+        if (separator <= 0) {
+            return -1;
+        }
+
+        int prefixStart = separator + SHARD_SEPARATOR.length();
+        int prefixLength = groupName.length() - prefixStart;
+        if (prefixLength < 1 || prefixLength > MAX_SHARD_PREFIX_LENGTH) {
+            return -1;
+        }
+        for (int i = prefixStart; i < groupName.length(); i++) {
+            char c = groupName.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'A' && c <= 'F')) {
+                return -1;
+            }
+        }
+
+        return separator;
+    }
+
+    /**
+     * @param group the user group
+     * @return the number of hexadecimal characters identifying a shard of the group, derived from its configured
+     *         number of shards
+     * @since 1.9.10
+     */
+    public int getShardPrefixLength(DocumentReference group)
+    {
+        int shardCount = groupShardingConfiguration.getShardCount(group.getName());
+
+        int prefixLength = 1;
+        while (prefixLength < MAX_SHARD_PREFIX_LENGTH && shardCount > 1 << (4 * prefixLength)) {
+            prefixLength++;
+        }
+
+        return prefixLength;
+    }
+
+    /**
+     * @param group the user group
+     * @return the shards currently set-up as members of the group
+     * @since 1.9.10
+     */
+    public Set<DocumentReference> getGroupShards(DocumentReference group)
+    {
+        Set<DocumentReference> groupShards = getShardLinks(group.getWikiReference()).get(group);
+
+        return groupShards != null ? new HashSet<>(groupShards) : Collections.emptySet();
+    }
+
+    /**
+     * @param group the user group
+     * @return true if the group is sharded, either because it is configured so or because it has grown past the
+     *         configured number of members
+     * @since 1.9.10
+     */
+    public boolean isSharded(DocumentReference group)
+    {
+        String groupName = group.getName();
+        List<String> shardedGroups = groupShardingConfiguration.getShardedGroups();
+        if (shardedGroups != null && shardedGroups.contains(groupName)) {
+            return true;
+        }
+
+        // Shards are never sharded themselves
+        if (getShardSeparatorIndex(groupName) >= 0) {
+            return false;
+        }
+
+        for (Pattern pattern : getShardedGroupPatterns()) {
+            if (pattern.matcher(groupName).matches()) {
+                return true;
+            }
+        }
+
+        return groupShardingConfiguration.getShardingThreshold() > 0 && getGroups(thresholdShardedGroups,
+            group.getWikiReference(), ShardedGroupClassInitializer.PROPERTY_MEMBER_COUNT).contains(group);
+    }
+
+    /**
+     * @param group the user group
+     * @return true if the group is sharded and its members have all been moved to the shards, so that users only
+     *         need to be removed from their shard
+     * @since 1.9.10
+     */
+    public boolean isMigrated(DocumentReference group)
+    {
+        return isSharded(group)
+            && getGroups(migratedGroups, group.getWikiReference(), ShardedGroupClassInitializer.PROPERTY_MIGRATED)
+                .contains(group);
+    }
+
+    /**
+     * Record that the members of a sharded group have all been moved to the shards.
+     *
+     * @param group the user group
+     * @throws XWikiException if the group cannot be saved
+     * @since 1.9.10
+     */
+    public void setMigrated(DocumentReference group) throws XWikiException
+    {
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+
+        XWikiDocument groupDocument = xwiki.getDocument(group, context).clone();
+        BaseObject shardedGroupObject =
+            groupDocument.getXObject(ShardedGroupClassInitializer.CLASS_REFERENCE, true, context);
+        if (shardedGroupObject.getIntValue(ShardedGroupClassInitializer.PROPERTY_MIGRATED) != 1) {
+            shardedGroupObject.setIntValue(ShardedGroupClassInitializer.PROPERTY_MIGRATED, 1);
+            xwiki.saveDocument(groupDocument, "Members moved to the shards", true, context);
+            metrics.increment(TrustedAuthenticationMetrics.COUNTER_SHARDING_MIGRATED);
+        }
+        updateGroupSharding(groupDocument);
+    }
+
+    /**
+     * Switch a group to sharding if it has grown past the configured number of members, and start moving its members
+     * to the shards in the background.
+     *
+     * @param group the user group
+     * @return true if the group has been switched to sharding
+     * @since 1.9.10
+     */
+    public boolean checkShardingThreshold(DocumentReference group)
+    {
+        int threshold = groupShardingConfiguration.getShardingThreshold();
+        if (threshold <= 0 || isSharded(group)) {
+            return false;
+        }
+
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+
+        try {
+            XWikiDocument groupDocument = xwiki.getDocument(group, context);
+            List<BaseObject> memberObjects = groupDocument.getXObjects(GROUP_CLASS_REFERENCE);
+            int memberCount = memberObjects != null ? memberObjects.size() : 0;
+            if (memberCount <= threshold) {
+                return false;
+            }
+
+            synchronized (this) {
+                if (isSharded(group)) {
+                    return false;
+                }
+                groupDocument = xwiki.getDocument(group, context).clone();
+                BaseObject shardedGroupObject =
+                    groupDocument.newXObject(ShardedGroupClassInitializer.CLASS_REFERENCE, context);
+                shardedGroupObject.setIntValue(ShardedGroupClassInitializer.PROPERTY_MEMBER_COUNT, memberCount);
+                xwiki.saveDocument(groupDocument, "Switch to sharding", context);
+                metrics.increment(TrustedAuthenticationMetrics.COUNTER_SHARDING_THRESHOLD);
+                getGroups(thresholdShardedGroups, group.getWikiReference(),
+                    ShardedGroupClassInitializer.PROPERTY_MEMBER_COUNT).add(group);
+            }
+        } catch (XWikiException e) {
+            logger.error("Failed to switch group [{}] to sharding", group, e);
+            return false;
+        }
+
+        logger.info("Group [{}] has grown past [{}] members and is now sharded", group, threshold);
+        reshardingJobStarter.start(group);
+
+        return true;
+    }
+
+    private List<Pattern> getShardedGroupPatterns()
+    {
+        List<Pattern> patterns = shardedGroupPatterns;
+        if (patterns == null) {
+            patterns = new ArrayList<>();
+            for (String pattern : groupShardingConfiguration.getShardedGroupPatterns()) {
+                patterns.add(Pattern.compile(pattern));
+            }
+            shardedGroupPatterns = patterns;
+        }
+
+        return patterns;
+    }
+
+    private byte[] getUserDigest(DocumentReference user)
+    {
+        return DigestUtils.sha256(entityReferenceSerializer.serialize(user));
+    }
+
+    private DocumentReference getShardReference(DocumentReference group, byte[] digest, int prefixLength)
+    {
+        // Same as the first characters of the upper-cased hexadecimal digest, without the hexadecimal conversion
+        String groupName = group.getName();
+        StringBuilder shardName = new StringBuilder(groupName.length() + SHARD_SEPARATOR.length() + prefixLength);
+        shardName.append(groupName).append(SHARD_SEPARATOR);
+        for (int i = 0; i < prefixLength; i++) {
+            int nibble = (i % 2 == 0) ? digest[i / 2] >> 4 : digest[i / 2];
+            shardName.append(HEX_DIGITS[nibble & 0xF]);
+        }
+
+        return new DocumentReference(shardName.toString(), group.getLastSpaceReference());
+    }
+
     /**
      * Make sure that the group shard is added as a member of the group.
      *
@@ -99,13 +425,21 @@ public class GroupShardingManager
         XWikiContext context = contextProvider.get();
         XWiki xwiki = context.getWiki();
 
+        Map<DocumentReference, Set<DocumentReference>> wikiShardLinks = getShardLinks(group.getWikiReference());
+        if (wikiShardLinks.getOrDefault(group, Collections.emptySet()).contains(shard)) {
+            metrics.increment(TrustedAuthenticationMetrics.COUNTER_SHARDING_LINK_HIT);
+            return;
+        }
+
         try {
             // Let's first make sure the shard has actually to be set-up
             if (!groupManager.getMembers(group, false).contains(shard)) {
                 XWikiDocument groupDocument = xwiki.getDocument(group, context);
                 addGroupShard(groupDocument, shard, context);
                 xwiki.saveDocument(groupDocument, String.format("Add shard [%s]", shard.getName()), context);
+                metrics.increment(TrustedAuthenticationMetrics.COUNTER_SHARDING_SHARD_ADDED);
             }
+            wikiShardLinks.computeIfAbsent(group, key -> ConcurrentHashMap.newKeySet()).add(shard);
         } catch (GroupException | XWikiException e) {
             logger.error("Failed so set-up group shard for group [{}] and shard [{}]", group, shard, e);
         }
@@ -123,6 +457,166 @@ public class GroupShardingManager
         throws XWikiException
     {
         BaseObject groupObject = groupDocument.newXObject(GROUP_CLASS_REFERENCE, context);
-        groupObject.setStringValue("member", entityReferenceSerializer.serialize(shard));
+        groupObject.setStringValue(GROUP_PROPERTY_MEMBER, entityReferenceSerializer.serialize(shard));
+    }
+
+    /**
+     * Remove a shard from the members of the group.
+     *
+     * @param group the group reference
+     * @param shard the shard reference
+     * @throws XWikiException if the group cannot be saved
+     * @since 1.9.10
+     */
+    public void removeGroupShard(DocumentReference group, DocumentReference shard) throws XWikiException
+    {
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+
+        XWikiDocument groupDocument = xwiki.getDocument(group, context).clone();
+        boolean modified = false;
+        List<BaseObject> groupObjects = groupDocument.getXObjects(GROUP_CLASS_REFERENCE);
+        if (groupObjects != null) {
+            for (BaseObject groupObject : new ArrayList<>(groupObjects)) {
+                String member = groupObject != null ? groupObject.getStringValue(GROUP_PROPERTY_MEMBER) : null;
+                if (StringUtils.isNotEmpty(member)
+                    && shard.equals(currentDocumentReferenceResolver.resolve(member, group))) {
+                    groupDocument.removeXObject(groupObject);
+                    modified = true;
+                }
+            }
+        }
+
+        if (modified) {
+            xwiki.saveDocument(groupDocument, String.format("Remove shard [%s]", shard.getName()), context);
+            metrics.increment(TrustedAuthenticationMetrics.COUNTER_SHARDING_SHARD_REMOVED);
+        }
+        updateGroupSharding(groupDocument);
+    }
+
+    /**
+     * Update the known shards and sharding state of a group after its document has been created, updated or deleted.
+     *
+     * @param groupDocument the new version of the group document
+     */
+    public void updateGroupSharding(XWikiDocument groupDocument)
+    {
+        if (!isGroup(groupDocument) && !isGroup(groupDocument.getOriginalDocument())) {
+            // Neither the new nor the previous version of the document is a group
+            return;
+        }
+
+        DocumentReference group = groupDocument.getDocumentReference();
+        BaseObject shardedGroupObject = groupDocument.getXObject(ShardedGroupClassInitializer.CLASS_REFERENCE);
+        updateGroups(thresholdShardedGroups, group, shardedGroupObject,
+            ShardedGroupClassInitializer.PROPERTY_MEMBER_COUNT);
+        updateGroups(migratedGroups, group, shardedGroupObject, ShardedGroupClassInitializer.PROPERTY_MIGRATED);
+
+        Map<DocumentReference, Set<DocumentReference>> wikiShardLinks =
+            shardLinks.get(group.getWikiReference().getName());
+        if (wikiShardLinks == null) {
+            // Not loaded yet, the shards will be queried on first use
+            return;
+        }
+
+        Set<DocumentReference> shards = ConcurrentHashMap.newKeySet();
+        List<BaseObject> groupObjects = groupDocument.getXObjects(GROUP_CLASS_REFERENCE);
+        if (groupObjects != null) {
+            String shardPrefix = group.getName() + SHARD_SEPARATOR;
+            for (BaseObject groupObject : groupObjects) {
+                if (groupObject != null) {
+                    addShardLink(shards, groupObject.getStringValue(GROUP_PROPERTY_MEMBER), group, shardPrefix);
+                }
+            }
+        }
+
+        if (shards.isEmpty()) {
+            wikiShardLinks.remove(group);
+        } else {
+            wikiShardLinks.put(group, shards);
+        }
+    }
+
+    private void updateGroups(Map<String, Set<DocumentReference>> groups, DocumentReference group,
+        BaseObject shardedGroupObject, String property)
+    {
+        Set<DocumentReference> wikiGroups = groups.get(group.getWikiReference().getName());
+        if (wikiGroups != null) {
+            if (shardedGroupObject != null && shardedGroupObject.getIntValue(property) > 0) {
+                wikiGroups.add(group);
+            } else {
+                wikiGroups.remove(group);
+            }
+        }
+    }
+
+    private Set<DocumentReference> getGroups(Map<String, Set<DocumentReference>> groups, WikiReference wiki,
+        String property)
+    {
+        return groups.computeIfAbsent(wiki.getName(), key -> loadGroups(wiki, property));
+    }
+
+    private Set<DocumentReference> loadGroups(WikiReference wiki, String property)
+    {
+        Set<DocumentReference> wikiGroups = ConcurrentHashMap.newKeySet();
+
+        try {
+            List<String> results = queryManager.createQuery(SHARDED_GROUPS_QUERY, Query.HQL)
+                .bindValue("className", ShardedGroupClassInitializer.CLASS_NAME).bindValue("property", property)
+                .setWiki(wiki.getName()).execute();
+            for (String result : results) {
+                wikiGroups.add(currentDocumentReferenceResolver.resolve(result, wiki));
+            }
+        } catch (QueryException e) {
+            logger.error("Failed to load the sharded groups of wiki [{}]", wiki.getName(), e);
+        }
+
+        return wikiGroups;
+    }
+
+    private Map<DocumentReference, Set<DocumentReference>> getShardLinks(WikiReference wiki)
+    {
+        return shardLinks.computeIfAbsent(wiki.getName(), key -> loadShardLinks(wiki));
+    }
+
+    private Map<DocumentReference, Set<DocumentReference>> loadShardLinks(WikiReference wiki)
+    {
+        Map<DocumentReference, Set<DocumentReference>> wikiShardLinks = new ConcurrentHashMap<>();
+
+        try {
+            List<Object[]> results = queryManager.createQuery(SHARD_LINKS_QUERY, Query.HQL)
+                .bindValue("shard", '%' + SHARD_SEPARATOR + '%').setWiki(wiki.getName()).execute();
+            for (Object[] result : results) {
+                DocumentReference group = currentDocumentReferenceResolver.resolve((String) result[0], wiki);
+                addShardLink(wikiShardLinks.computeIfAbsent(group, key -> ConcurrentHashMap.newKeySet()),
+                    (String) result[1], group, group.getName() + SHARD_SEPARATOR);
+            }
+        } catch (QueryException e) {
+            // Leave the shards to be checked against the group members
+            logger.error("Failed to load the group shards of wiki [{}]", wiki.getName(), e);
+        }
+
+        return wikiShardLinks;
+    }
+
+    private boolean isGroup(XWikiDocument document)
+    {
+        if (document != null) {
+            List<BaseObject> groupObjects = document.getXObjects(GROUP_CLASS_REFERENCE);
+            return groupObjects != null && !groupObjects.isEmpty();
+        }
+
+        return false;
+    }
+
+    private void addShardLink(Set<DocumentReference> shards, String member, DocumentReference group,
+        String shardPrefix)
+    {
+        if (member != null && member.contains(shardPrefix)) {
+            DocumentReference shard = currentDocumentReferenceResolver.resolve(member, group);
+            if (shard.getName().startsWith(shardPrefix)) {
+                shards.add(shard);
+            }
+        }
     }
 }
@@ -17,9 +17,12 @@
  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
-
 package org.xwiki.contrib.authentication.internal;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 import org.apache.commons.lang3.StringUtils;
 import org.securityfilter.filter.URLPattern;
 import org.securityfilter.filter.URLPatternFactory;
@@ -33,6 +36,8 @@ import com.xpn.xwiki.web.XWikiRequest;
  * Helper class to match request against a given pattern using the same pattern syntax that is used by the the form
  * authenticator. This overly complex matching is caused by the usage of the SecurityFilter which itself has a very
  * special matcher (based on Perl5Matcher) to match URLs, that is not following the usual regular expression syntax.
+ * Since the request is matched with each authentication, the pattern converted by the SecurityFilter is also compiled
+ * as a {@link Pattern}, matched against the request path without allocating anything.
  *
  * @version $Id$
  */
@@ -45,6 +50,68 @@ public class RequestMatcher
      */
     private URLPattern pattern;
 
+    /**
+     * The request path and the matcher reused by the current thread, null when the converted pattern is not supported
+     * by {@link Pattern} and the SecurityFilter matcher is used.
+     */
+    private ThreadLocal<RequestPath> requestPaths;
+
+    /**
+     * The path of the request (servletPath + pathInfo), read without concatenating its parts.
+     */
+    private static final class RequestPath implements CharSequence
+    {
+        private final Matcher matcher;
+
+        private String servletPath = StringUtils.EMPTY;
+
+        private String pathInfo = StringUtils.EMPTY;
+
+        RequestPath(Pattern regex)
+        {
+            this.matcher = regex.matcher(this);
+        }
+
+        boolean matches(XWikiRequest request)
+        {
+            this.servletPath = StringUtils.defaultString(request.getServletPath());
+            this.pathInfo = StringUtils.defaultString(request.getPathInfo());
+            try {
+                return this.matcher.reset(this).matches();
+            } finally {
+                // Don't keep the request strings
+                this.servletPath = StringUtils.EMPTY;
+                this.pathInfo = StringUtils.EMPTY;
+            }
+        }
+
+        @Override
+        public int length()
+        {
+            return this.servletPath.length() + this.pathInfo.length();
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            int servletPathLength = this.servletPath.length();
+            return index < servletPathLength ? this.servletPath.charAt(index)
+                : this.pathInfo.charAt(index - servletPathLength);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.servletPath + this.pathInfo;
+        }
+    }
+
     /**
      * Construct a new matcher for the provided pattern.
      *
@@ -60,6 +127,16 @@ public class RequestMatcher
                 LOGGER.warn("Unable to compile pattern [{}] for request matching, it will never match.", pattern, e);
             }
         }
+
+        if (this.pattern != null) {
+            try {
+                Pattern regex = Pattern.compile(this.pattern.getConvertedPattern());
+                this.requestPaths = ThreadLocal.withInitial(() -> new RequestPath(regex));
+            } catch (PatternSyntaxException e) {
+                LOGGER.debug("Pattern [{}] is only supported by the SecurityFilter matcher: {}", pattern,
+                    e.getMessage());
+            }
+        }
     }
 
     /**
@@ -72,15 +149,20 @@ public class RequestMatcher
             return false;
         }
 
-        String requestPath = getRequestPath(request);
         boolean matched = false;
-        try {
-            matched = new URLPatternMatcher().match(requestPath, pattern);
-        } catch (Exception e) {
-            LOGGER.warn("Unexpected exception during request matching", e);
+        if (requestPaths != null) {
+            matched = requestPaths.get().matches(request);
+        } else {
+            try {
+                matched = new URLPatternMatcher().match(getRequestPath(request), pattern);
+            } catch (Exception e) {
+                LOGGER.warn("Unexpected exception during request matching", e);
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Matching [{}] against [{}] has resulted to a {} match", getRequestPath(request),
+                pattern.getPattern(), matched ? "successful" : "failed");
         }
-        LOGGER.debug("Matching [{}] against [{}] has resulted to a {} match", requestPath, pattern.getPattern(),
-            matched ? "successful" : "failed");
         return matched;
     }
 
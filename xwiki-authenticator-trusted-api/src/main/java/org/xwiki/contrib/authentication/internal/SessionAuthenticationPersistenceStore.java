@@ -31,13 +31,16 @@ import javax.servlet.http.HttpSession;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.authentication.AuthenticationPersistenceStore;
+import org.xwiki.contrib.authentication.TrustedAuthenticationRecord;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.web.XWikiRequest;
 
 /**
- * Persistence store implementation that store userUID in session.
+ * Persistence store implementation that store userUID or authentication records in session.
  *
  * @version $Id$
  */
@@ -58,22 +61,29 @@ public class SessionAuthenticationPersistenceStore implements AuthenticationPers
     @Inject
     private Provider<XWikiContext> contextProvider;
 
+    @Inject
+    private DocumentReferenceResolver<String> defaultStringDocumentReferenceResolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> defaultStringEntityReferenceSerializer;
+
     /**
-     * @return the current session (create a new one if needed), or null if request is not available.
+     * @param create true to create a new session if none exists yet.
+     * @return the current session, or null if request or session is not available.
      */
-    private HttpSession getSession()
+    private HttpSession getSession(boolean create)
     {
         XWikiRequest request = contextProvider.get().getRequest();
         if (request == null) {
             return null;
         }
-        return request.getSession(true);
+        return request.getSession(create);
     }
 
     @Override
     public void clear()
     {
-        HttpSession session = getSession();
+        HttpSession session = getSession(false);
         if (session == null) {
             return;
         }
@@ -87,7 +97,7 @@ public class SessionAuthenticationPersistenceStore implements AuthenticationPers
     @Override
     public void store(String userUid)
     {
-        HttpSession session = getSession();
+        HttpSession session = getSession(true);
         if (session == null) {
             if (logger.isDebugEnabled()) {
                 logger.error("No session to store user UID [{}]", userUid);
@@ -103,19 +113,65 @@ public class SessionAuthenticationPersistenceStore implements AuthenticationPers
     @Override
     public String retrieve()
     {
-        HttpSession session = getSession();
+        Object value = retrieveValue();
+        if (value instanceof TrustedAuthenticationRecord) {
+            return defaultStringEntityReferenceSerializer.serialize(((TrustedAuthenticationRecord) value).getUser());
+        }
+        return (String) value;
+    }
+
+    @Override
+    public boolean isRecordSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public void storeRecord(TrustedAuthenticationRecord record)
+    {
+        HttpSession session = getSession(true);
+        if (session == null) {
+            if (logger.isDebugEnabled()) {
+                logger.error("No session to store authentication of user [{}]", record);
+            }
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Authentication of user [{}] associated to session [{}]", record, session.getId());
+        }
+        session.setAttribute(USERNAME_SESSION_KEY, record);
+    }
+
+    @Override
+    public TrustedAuthenticationRecord retrieveRecord()
+    {
+        Object value = retrieveValue();
+        if (value instanceof String) {
+            // Stored using store(String)
+            return new TrustedAuthenticationRecord(defaultStringDocumentReferenceResolver.resolve((String) value));
+        }
+        return (TrustedAuthenticationRecord) value;
+    }
+
+    /**
+     * @return the user UID or the authentication record found in session, or null if none is found.
+     */
+    private Object retrieveValue()
+    {
+        // Don't create a session only to find it empty, clients not keeping sessions would get a new one each time
+        HttpSession session = getSession(false);
         if (session == null) {
             logger.debug("Unable to retrieve user UID from session");
             return null;
         }
-        String userUid = (String) session.getAttribute(USERNAME_SESSION_KEY);
+        Object value = session.getAttribute(USERNAME_SESSION_KEY);
         if (logger.isDebugEnabled()) {
-            if (userUid != null) {
-                logger.debug("User UID [{}] retrieved from session [{}]", userUid, session.getId());
+            if (value != null) {
+                logger.debug("User UID [{}] retrieved from session [{}]", value, session.getId());
             } else {
                 logger.debug("No user UID found in session [{}]", session.getId());
             }
         }
-        return userUid;
+        return value;
     }
 }
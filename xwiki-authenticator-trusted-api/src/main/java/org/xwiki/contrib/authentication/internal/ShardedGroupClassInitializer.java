@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.doc.AbstractMandatoryClassInitializer;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+/**
+ * Initialize the class used to keep the sharding state of the groups: whether they have been switched to sharding
+ * after growing past the configured number of members, and whether their members have all been moved to the shards.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component
+@Named(ShardedGroupClassInitializer.CLASS_NAME)
+@Singleton
+public class ShardedGroupClassInitializer extends AbstractMandatoryClassInitializer
+{
+    /**
+     * The name of the class.
+     */
+    public static final String CLASS_NAME = "XWiki.TrustedAuthenticationShardedGroupClass";
+
+    /**
+     * The reference of the class.
+     */
+    public static final LocalDocumentReference CLASS_REFERENCE =
+        new LocalDocumentReference("XWiki", "TrustedAuthenticationShardedGroupClass");
+
+    /**
+     * The name of the property holding the number of members which triggered the sharding, 0 for the groups sharded
+     * by configuration.
+     */
+    public static final String PROPERTY_MEMBER_COUNT = "memberCount";
+
+    /**
+     * The name of the property telling if the members of the group have all been moved to the shards.
+     */
+    public static final String PROPERTY_MIGRATED = "migrated";
+
+    /**
+     * Default constructor.
+     */
+    public ShardedGroupClassInitializer()
+    {
+        super(CLASS_REFERENCE, "Trusted Authentication Sharded Group Class");
+    }
+
+    @Override
+    protected void createClass(BaseClass xclass)
+    {
+        xclass.addNumberField(PROPERTY_MEMBER_COUNT, "Member count", 10, "integer");
+        xclass.addBooleanField(PROPERTY_MIGRATED, "Migrated", "yesno");
+    }
+}
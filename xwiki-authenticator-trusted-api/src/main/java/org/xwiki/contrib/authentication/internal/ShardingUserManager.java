@@ -30,6 +30,8 @@ import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.authentication.UserManager;
+import org.xwiki.contrib.authentication.internal.jfr.FlightRecorderSupport;
+import org.xwiki.contrib.authentication.internal.jfr.GroupShardEvent;
 import org.xwiki.model.reference.DocumentReference;
 
 /**
@@ -58,7 +60,8 @@ public class ShardingUserManager implements UserManager
     @Override
     public boolean synchronizeUserProperties(DocumentReference user, Map<String, String> extended, String comment)
     {
-        return defaultUserManager.createUser(user, extended);
+        // Only the group memberships are sharded, the user profile is synchronized as without sharding
+        return defaultUserManager.synchronizeUserProperties(user, extended, comment);
     }
 
     @Override
@@ -75,36 +78,52 @@ public class ShardingUserManager implements UserManager
     {
         Collection<DocumentReference> shardedGroupInRefs = new HashSet<>();
         for (DocumentReference groupInRef : groupInRefs) {
-            DocumentReference shardedGroupReference = groupShardingManager.getShardedGroupReference(groupInRef, user);
-            if (!shardedGroupReference.equals(groupInRef)) {
-                groupShardingManager.setupGroupShard(groupInRef, shardedGroupReference);
-            }
-            shardedGroupInRefs.add(shardedGroupReference);
+            shardedGroupInRefs.add(getGroupShard(groupInRef, user));
         }
 
         Collection<DocumentReference> shardedGroupWithAutoCreateInRefs = new HashSet<>();
         for (DocumentReference groupWithAutoCreateInRef : groupWithAutoCreateInRefs) {
-            DocumentReference shardedGroupReference =
-                groupShardingManager.getShardedGroupReference(groupWithAutoCreateInRef, user);
-            if (!shardedGroupReference.equals(groupWithAutoCreateInRef)) {
-                groupShardingManager.setupGroupShard(groupWithAutoCreateInRef, shardedGroupReference);
-            }
-            shardedGroupWithAutoCreateInRefs.add(shardedGroupReference);
+            shardedGroupWithAutoCreateInRefs.add(getGroupShard(groupWithAutoCreateInRef, user));
         }
 
-        // Make sure that the user is also removed from the initial, non-sharded group, if the user remains.
+        // Make sure that the user is also removed from the initial, non-sharded group, if the user remains because the
+        // group members have not been moved to the shards yet, and from any shard of a previous sharding of the group.
         Collection<DocumentReference> shardedGroupOutRefs = new HashSet<>();
         for (DocumentReference groupOutRef : groupOutRefs) {
-            DocumentReference shardedGroupReference =
-                groupShardingManager.getShardedGroupReference(groupOutRef, user);
-            shardedGroupOutRefs.add(shardedGroupReference);
-            shardedGroupOutRefs.add(groupOutRef);
+            shardedGroupOutRefs.addAll(groupShardingManager.getShardedGroupReferences(groupOutRef, user));
+            if (!groupShardingManager.isMigrated(groupOutRef)) {
+                shardedGroupOutRefs.add(groupOutRef);
+            }
         }
 
         return defaultUserManager.synchronizeGroupsMembership(user, shardedGroupInRefs,
             shardedGroupWithAutoCreateInRefs, shardedGroupOutRefs, comment);
     }
 
+    /**
+     * Switch the group to sharding if it has grown too much, and make sure the shard of the user is set-up.
+     *
+     * @param group the group the user should be a member of
+     * @param user the user
+     * @return the shard of the user in the group, or the group itself if it is not sharded
+     */
+    private DocumentReference getGroupShard(DocumentReference group, DocumentReference user)
+    {
+        GroupShardEvent event = FlightRecorderSupport.isAvailable() && GroupShardEvent.isTypeEnabled()
+            ? new GroupShardEvent() : null;
+
+        groupShardingManager.checkShardingThreshold(group);
+        DocumentReference shard = groupShardingManager.getShardedGroupReference(group, user);
+        if (!shard.equals(group)) {
+            groupShardingManager.setupGroupShard(group, shard);
+        }
+
+        if (event != null) {
+            event.commit(user, group, shard);
+        }
+        return shard;
+    }
+
     @Override
     public boolean removeFromGroup(DocumentReference user, DocumentReference group, String comment)
     {
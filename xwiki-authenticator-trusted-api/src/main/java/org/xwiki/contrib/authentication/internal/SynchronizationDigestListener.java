@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Invalidate the synchronization digest of the users added to or removed from a managed group by anything else than
+ * their synchronization, so that their membership is synchronized again on their next login.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component
+@Named(SynchronizationDigestListener.NAME)
+@Singleton
+public class SynchronizationDigestListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "authenticator.trusted.synchronizationDigest";
+
+    private static final LocalDocumentReference GROUP_CLASS_REFERENCE =
+        new LocalDocumentReference("XWiki", "XWikiGroups");
+
+    private static final String GROUP_PROPERTY_MEMBER = "member";
+
+    @Inject
+    private Provider<SynchronizationDigestManager> synchronizationDigestManagerProvider;
+
+    @Inject
+    private Provider<UserSynchronizationRules> userSynchronizationRulesProvider;
+
+    @Inject
+    private Provider<GroupShardingManager> groupShardingManagerProvider;
+
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> currentDocumentReferenceResolver;
+
+    /**
+     * Default constructor.
+     */
+    public SynchronizationDigestListener()
+    {
+        super(NAME, new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        // The node modifying the group takes care of the users
+        if (remoteObservationManagerContext.isRemoteState()) {
+            return;
+        }
+
+        SynchronizationDigestManager synchronizationDigestManager = synchronizationDigestManagerProvider.get();
+        if (synchronizationDigestManager.isSynchronizingGroups()) {
+            return;
+        }
+
+        XWikiDocument document = (XWikiDocument) source;
+        if (!hasMemberObjects(document) && !hasMemberObjects(document.getOriginalDocument())) {
+            return;
+        }
+
+        DocumentReference group = document.getDocumentReference();
+        if (!userSynchronizationRulesProvider.get()
+            .isManagedGroup(groupShardingManagerProvider.get().getGroupOfShard(group))) {
+            return;
+        }
+
+        Set<String> members = getMembers(document);
+        Set<String> previousMembers = getMembers(document.getOriginalDocument());
+        if (members.equals(previousMembers)) {
+            return;
+        }
+
+        Set<String> changedMembers = new HashSet<>(members);
+        changedMembers.addAll(previousMembers);
+        changedMembers.removeIf(member -> members.contains(member) && previousMembers.contains(member));
+        List<DocumentReference> changedUsers = new ArrayList<>(changedMembers.size());
+        for (String member : changedMembers) {
+            changedUsers.add(currentDocumentReferenceResolver.resolve(member, group));
+        }
+
+        // Loading and saving each profile would hold the modification of the group, it's done in the background
+        synchronizationDigestManager.invalidateDigests(changedUsers);
+    }
+
+    private boolean hasMemberObjects(XWikiDocument document)
+    {
+        if (document != null) {
+            List<BaseObject> memberObjects = document.getXObjects(GROUP_CLASS_REFERENCE);
+            return memberObjects != null && !memberObjects.isEmpty();
+        }
+
+        return false;
+    }
+
+    private Set<String> getMembers(XWikiDocument document)
+    {
+        List<BaseObject> memberObjects = document != null ? document.getXObjects(GROUP_CLASS_REFERENCE) : null;
+        if (memberObjects == null || memberObjects.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> members = new HashSet<>();
+        for (BaseObject memberObject : memberObjects) {
+            if (memberObject != null) {
+                String member = memberObject.getStringValue(GROUP_PROPERTY_MEMBER);
+                if (!member.isEmpty()) {
+                    members.add(member);
+                }
+            }
+        }
+        return members;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Keep in the user profiles the digest of the information used for their last synchronization, so that a user
+ * provisioned in advance is not synchronized again on its first login if its information has not changed. The digest
+ * of a user is invalidated when the user is added to or removed from a managed group by anything else than its
+ * synchronization, like a manual modification of the group or a reconciliation of the group members.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { SynchronizationDigestManager.class })
+@Singleton
+public class SynchronizationDigestManager implements Disposable
+{
+    private static final LocalDocumentReference CLASS_REFERENCE = SynchronizationDigestClassInitializer.CLASS_REFERENCE;
+
+    private static final String PROPERTY_DIGEST = SynchronizationDigestClassInitializer.PROPERTY_DIGEST;
+
+    /**
+     * Name of the context property marking the group modifications made while synchronizing the users.
+     */
+    private static final String SYNCHRONIZING_GROUPS_PROPERTY = "authenticator.trusted.synchronizingGroups";
+
+    /**
+     * The digest of a user whose digest has been invalidated, never matching a computed digest.
+     */
+    private static final String INVALID_DIGEST = "";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /**
+     * Users whose digest is to be invalidated in the background.
+     */
+    private final Set<DocumentReference> pendingInvalidations = ConcurrentHashMap.newKeySet();
+
+    /**
+     * True when a background invalidation of the pending users is scheduled and has not started yet.
+     */
+    private final AtomicBoolean invalidationScheduled = new AtomicBoolean();
+
+    private ExecutorService executor;
+
+    private final class InvalidationRunnable extends AbstractXWikiRunnable
+    {
+        @Override
+        protected void runInternal()
+        {
+            // Users added meanwhile are either seen below or schedule another invalidation
+            invalidationScheduled.set(false);
+
+            XWikiContext context = contextProvider.get();
+            for (DocumentReference user : pendingInvalidations) {
+                pendingInvalidations.remove(user);
+                context.setWikiId(user.getWikiReference().getName());
+                invalidateDigest(user);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @param user the reference of the user profile.
+     * @return the digest of the information used for the last synchronization of the user, or null if none is kept.
+     */
+    public String getDigest(DocumentReference user)
+    {
+        XWikiContext context = contextProvider.get();
+        try {
+            BaseObject digestObj = context.getWiki().getDocument(user, context).getXObject(CLASS_REFERENCE);
+            return digestObj != null ? digestObj.getStringValue(PROPERTY_DIGEST) : null;
+        } catch (XWikiException e) {
+            logger.warn("Failed to get the synchronization digest of user [{}]", user, e);
+            return null;
+        }
+    }
+
+    /**
+     * Set the synchronization digest in the given user profile, without saving it.
+     *
+     * @param userDocument the user profile document, which should be a copy safe for modifications.
+     * @param digest the digest of the information used to synchronize the user.
+     * @param context the current context.
+     * @return true if the document has been modified.
+     * @throws XWikiException if the digest object cannot be created.
+     */
+    public boolean setDigest(XWikiDocument userDocument, String digest, XWikiContext context) throws XWikiException
+    {
+        BaseObject digestObj = userDocument.getXObject(CLASS_REFERENCE, true, context);
+        if (digest.equals(digestObj.getStringValue(PROPERTY_DIGEST))) {
+            return false;
+        }
+        digestObj.setStringValue(PROPERTY_DIGEST, digest);
+        return true;
+    }
+
+    /**
+     * Update the synchronization digest kept in the given user profile, if any. Users without a kept digest are left
+     * untouched, avoiding an additional save of their profile with each synchronization.
+     *
+     * @param user the reference of the user profile.
+     * @param digest the digest of the information used to synchronize the user.
+     */
+    public void updateDigest(DocumentReference user, String digest)
+    {
+        XWikiContext context = contextProvider.get();
+        try {
+            XWikiDocument userDocument = context.getWiki().getDocument(user, context);
+            if (userDocument.getXObject(CLASS_REFERENCE) != null) {
+                userDocument = userDocument.clone();
+                if (setDigest(userDocument, digest, context)) {
+                    context.getWiki().saveDocument(userDocument, "Update synchronization digest", true, context);
+                }
+            }
+        } catch (XWikiException e) {
+            logger.warn("Failed to update the synchronization digest of user [{}]", user, e);
+        }
+    }
+
+    /**
+     * Invalidate the synchronization digest kept in the given user profile, if any, so that the user is synchronized
+     * again on its next login.
+     *
+     * @param user the reference of the user profile.
+     */
+    public void invalidateDigest(DocumentReference user)
+    {
+        updateDigest(user, INVALID_DIGEST);
+    }
+
+    /**
+     * Invalidate in the background the synchronization digest kept in the given user profiles, if any, so that the
+     * users are synchronized again on their next login. Users invalidated several times before the background
+     * invalidation starts have their profile saved only once.
+     *
+     * @param users the references of the user profiles.
+     */
+    public void invalidateDigests(Collection<DocumentReference> users)
+    {
+        if (pendingInvalidations.addAll(users) && invalidationScheduled.compareAndSet(false, true)) {
+            getExecutor().execute(new InvalidationRunnable());
+        }
+    }
+
+    /**
+     * Mark the group memberships modified in the current context as resulting from the synchronization of the users,
+     * so that they don't invalidate the digest of these users. Each call must be followed by a call to
+     * {@link #endGroupsSynchronization(boolean)}.
+     *
+     * @return true if the current context was already marked.
+     */
+    public boolean startGroupsSynchronization()
+    {
+        return contextProvider.get().put(SYNCHRONIZING_GROUPS_PROPERTY, Boolean.TRUE) != null;
+    }
+
+    /**
+     * @param started the value returned by the matching call to {@link #startGroupsSynchronization()}.
+     */
+    public void endGroupsSynchronization(boolean started)
+    {
+        if (!started) {
+            contextProvider.get().remove(SYNCHRONIZING_GROUPS_PROPERTY);
+        }
+    }
+
+    /**
+     * @return true if the group memberships modified in the current context result from the synchronization of the
+     *         users.
+     */
+    public boolean isSynchronizingGroups()
+    {
+        return contextProvider.get().containsKey(SYNCHRONIZING_GROUPS_PROPERTY);
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Trusted Authentication digest invalidation").daemon(true).build());
+        }
+
+        return executor;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidate the values cached from the {@link TrustedAuthenticationConfiguration} when the wiki preferences holding
+ * the authentication properties are modified.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component
+@Named(TrustedAuthenticationConfigurationListener.NAME)
+@Singleton
+public class TrustedAuthenticationConfigurationListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "authenticator.trusted.configuration";
+
+    private static final LocalDocumentReference PREFERENCES_REFERENCE =
+        new LocalDocumentReference("XWiki", "XWikiPreferences");
+
+    @Inject
+    private Provider<TrustedAuthenticationConfiguration> configurationProvider;
+
+    /**
+     * Default constructor.
+     */
+    public TrustedAuthenticationConfigurationListener()
+    {
+        super(NAME, new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        if (PREFERENCES_REFERENCE.equals(document.getDocumentReference().getLocalDocumentReference())) {
+            TrustedAuthenticationConfiguration configuration = configurationProvider.get();
+            if (configuration instanceof AbstractConfig) {
+                ((AbstractConfig) configuration).invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.contrib.authentication.internal.metrics.TrustedAuthenticationMetrics;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.security.authentication.UserAuthenticatedEvent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Notify the {@link UserAuthenticatedEvent}, either in the request thread, or when configured, in background threads
+ * so that slow listeners (audit log, activity stream...) do not delay the login. The events are dispatched on a fixed
+ * set of single threaded executors by hash of the user, so that the events of a given user are notified in order, and
+ * each executor has a bounded queue. When its queue is full, the event is notified by the request thread.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { UserAuthenticatedEventNotifier.class })
+@Singleton
+public class UserAuthenticatedEventNotifier implements Disposable
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private TrustedAuthenticationConfiguration configuration;
+
+    @Inject
+    private ObservationManager observation;
+
+    @Inject
+    private TrustedAuthenticationMetrics metrics;
+
+    private ExecutorService[] executors;
+
+    private final class NotificationRunnable extends AbstractXWikiRunnable
+    {
+        private final DocumentReference user;
+
+        private final UserAuthenticatedEvent event;
+
+        NotificationRunnable(DocumentReference user, UserAuthenticatedEvent event)
+        {
+            this.user = user;
+            this.event = event;
+        }
+
+        @Override
+        protected void runInternal()
+        {
+            metrics.adjust(TrustedAuthenticationMetrics.GAUGE_AUTHENTICATED_EVENT_QUEUE, -1);
+
+            // Listeners expect the context of the authenticated user
+            XWikiContext context = contextProvider.get();
+            context.setWikiId(user.getWikiReference().getName());
+            context.setUserReference(user);
+
+            notifyListeners(user, event);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        synchronized (this) {
+            if (executors != null) {
+                for (ExecutorService executor : executors) {
+                    executor.shutdown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Notify the listeners of the authentication of a user, asynchronously if configured.
+     *
+     * @param user the authenticated user.
+     * @param event the event to notify.
+     */
+    public void notify(DocumentReference user, UserAuthenticatedEvent event)
+    {
+        if (!configuration.isUserAuthenticatedEventAsynchronous()) {
+            notifyListeners(user, event);
+            return;
+        }
+
+        ExecutorService[] userExecutors = getExecutors();
+        ExecutorService executor = userExecutors[Math.floorMod(user.hashCode(), userExecutors.length)];
+
+        metrics.adjust(TrustedAuthenticationMetrics.GAUGE_AUTHENTICATED_EVENT_QUEUE, 1);
+        try {
+            executor.execute(new NotificationRunnable(user, event));
+        } catch (RejectedExecutionException e) {
+            metrics.adjust(TrustedAuthenticationMetrics.GAUGE_AUTHENTICATED_EVENT_QUEUE, -1);
+            metrics.increment(TrustedAuthenticationMetrics.COUNTER_AUTHENTICATED_EVENT_OVERFLOW);
+            logger.debug("Queue of authentication events full, notifying the authentication of [{}] synchronously.",
+                user);
+            notifyListeners(user, event);
+        }
+    }
+
+    private void notifyListeners(DocumentReference user, UserAuthenticatedEvent event)
+    {
+        long start = metrics.start();
+        try {
+            observation.notify(event, null);
+        } catch (Exception e) {
+            logger.error("Failed to notify the authentication of user [{}]", user, e);
+        }
+        metrics.stop(TrustedAuthenticationMetrics.TIMER_AUTHENTICATED_EVENT, start);
+    }
+
+    private synchronized ExecutorService[] getExecutors()
+    {
+        if (executors == null) {
+            int threads = Math.max(1, configuration.getUserAuthenticatedEventThreads());
+            int queueSize = Math.max(1, configuration.getUserAuthenticatedEventQueueSize());
+            ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+                .namingPattern("XWiki Trusted Authentication event notifier %d").daemon(true).build();
+
+            ExecutorService[] newExecutors = new ExecutorService[threads];
+            for (int i = 0; i < threads; i++) {
+                newExecutors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), threadFactory);
+            }
+            executors = newExecutors;
+        }
+
+        return executors;
+    }
+}
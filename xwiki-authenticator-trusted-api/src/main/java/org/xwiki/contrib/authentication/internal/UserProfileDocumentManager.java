@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+/**
+ * Prepare the modifications of user profile documents, without saving them, so that they could be combined with other
+ * modifications of the same documents.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { UserProfileDocumentManager.class })
+@Singleton
+public class UserProfileDocumentManager
+{
+    private static final String XWIKI_SPACE = "XWiki";
+
+    private static final EntityReference USERS_PARENT_REFERENCE =
+        new EntityReference("XWikiUsers", EntityType.DOCUMENT, new EntityReference(XWIKI_SPACE, EntityType.SPACE));
+
+    private static final LocalDocumentReference RIGHTS_CLASS_REFERENCE =
+        new LocalDocumentReference(XWIKI_SPACE, "XWikiRights");
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("compactwiki")
+    private EntityReferenceSerializer<String> compactWikiEntityReferenceSerializer;
+
+    /**
+     * Prepare a new user profile the same way {@link XWiki#createUser(String, Map, XWikiContext)} does, but without
+     * adding the user to the initial groups.
+     *
+     * @param user the reference of the user document.
+     * @param extended the properties to be assigned in the user profile.
+     * @param context the current context.
+     * @return the new user profile document, to be saved.
+     * @throws XWikiException if the user already exists or the profile cannot be prepared.
+     */
+    public XWikiDocument createUserDocument(DocumentReference user, Map<String, String> extended,
+        XWikiContext context) throws XWikiException
+    {
+        XWiki xwiki = context.getWiki();
+        XWikiDocument userDoc = xwiki.getDocument(user, context);
+        if (!userDoc.isNew()) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_CREATE,
+                String.format("User [%s] already exists", user));
+        }
+        userDoc = userDoc.clone();
+
+        BaseClass userClass = xwiki.getUserClass(context);
+        BaseObject userObj = userDoc.newXObject(userClass.getReference(), context);
+        userClass.fromMap(extended, userObj);
+        userDoc.setParentReference(USERS_PARENT_REFERENCE);
+        // Make the user the creator of its profile, and let it edit it
+        userDoc.setCreatorReference(user);
+        userDoc.setAuthorReference(context.getUserReference());
+        BaseObject rightsObj = userDoc.newXObject(RIGHTS_CLASS_REFERENCE, context);
+        rightsObj.setLargeStringValue("users", compactWikiEntityReferenceSerializer.serialize(user));
+        rightsObj.setStringValue("levels", "edit");
+        rightsObj.setIntValue("allow", 1);
+
+        return userDoc;
+    }
+
+    /**
+     * Update the properties of an existing user profile which are different from the given ones.
+     *
+     * @param userDoc the user profile document, to be saved if modified.
+     * @param extInfos the user properties to synchronize.
+     * @param context the current context.
+     * @return true if the document has been modified.
+     * @throws XWikiException if the user class cannot be retrieved.
+     */
+    public boolean updateUserDocument(XWikiDocument userDoc, Map<String, String> extInfos, XWikiContext context)
+        throws XWikiException
+    {
+        BaseClass userClass = context.getWiki().getUserClass(context);
+        BaseObject userObj = userDoc.getXObject(userClass.getReference());
+        Map<String, String> extended = new HashMap<String, String>();
+
+        for (Map.Entry<String, String> entry : extInfos.entrySet()) {
+            String key = entry.getKey();
+            if (userClass.get(key) == null) {
+                logger.warn("User property [{}] does not exist in user profile and will not be synchronized", key);
+                continue;
+            }
+            String value = entry.getValue();
+
+            String objValue = userObj.getStringValue(key);
+            if ((value != null && objValue == null) || (objValue != null && !objValue.equals(value))) {
+                extended.put(key, value);
+            }
+        }
+
+        if (extended.isEmpty()) {
+            return false;
+        }
+        userClass.fromMap(extended, userObj);
+        return true;
+    }
+}
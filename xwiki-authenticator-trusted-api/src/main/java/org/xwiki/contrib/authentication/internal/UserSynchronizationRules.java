@@ -0,0 +1,661 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.RegExUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.authentication.DynamicRoleConfiguration;
+import org.xwiki.contrib.authentication.TrustedAuthenticationAdapter;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.contrib.authentication.internal.metrics.TrustedAuthenticationMetrics;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Rules applied to the information provided by an authentication adapter to synchronize a user: naming of the user
+ * profile, mapping of the user properties, and membership to mapped and dynamic role groups. These rules are shared by
+ * the authenticator and the bulk provisioning of users.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { UserSynchronizationRules.class })
+@Singleton
+public class UserSynchronizationRules
+{
+    private static final EntityReference USER_SPACE_REFERENCE = new EntityReference("XWiki", EntityType.SPACE);
+
+    /**
+     * Number of bytes of the SHA-256 hash kept in the synchronization digest.
+     */
+    private static final int DIGEST_LENGTH = 16;
+
+    private static final byte DIGEST_SEPARATOR = 0;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private TrustedAuthenticationConfiguration configuration;
+
+    @Inject
+    private GroupMappingIndex groupMappingIndex;
+
+    @Inject
+    private AddGroupToFieldIndex addGroupToFieldIndex;
+
+    @Inject
+    private AddGroupToFieldWriter addGroupToFieldWriter;
+
+    @Inject
+    private TrustedAuthenticationMetrics metrics;
+
+    @Inject
+    private DocumentReferenceResolver<EntityReference> defaultEntityDocumentReferenceResolver;
+
+    @Inject
+    private DocumentReferenceResolver<String> defaultStringDocumentReferenceResolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> defaultStringEntityReferenceSerializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localStringEntityReferenceSerializer;
+
+    /**
+     * Cache of the user profile case style.
+     */
+    private volatile TrustedAuthenticationConfiguration.CaseStyle userProfileCaseStyle;
+
+    /**
+     * Cache of the user profile replacements, as pairs of searched and replacement strings iterated without
+     * allocating anything.
+     */
+    private volatile String[][] userProfileReplacements;
+
+    /**
+     * The generation of the configuration the cached user profile case style and replacements were read from.
+     */
+    private volatile long userProfileGeneration = -1;
+
+    /**
+     * Fill the groups the user should be added to and removed from, given the roles provided by the authentication
+     * adapter, the group mapping and the dynamic role configurations.
+     *
+     * @param adapter the authentication adapter providing the user roles.
+     * @param user the reference of the user document.
+     * @param groupInRefs is filled with the groups the user is to be added to, not to be auto-created.
+     * @param groupInWithAutoCreateRefs is filled with the groups the user is to be added to, to be auto-created.
+     * @param groupOutRefs is filled with the groups the user should be removed from.
+     * @return whether the operation succeeded.
+     */
+    public boolean populateGroups(TrustedAuthenticationAdapter adapter, DocumentReference user,
+        Collection<DocumentReference> groupInRefs, Collection<DocumentReference> groupInWithAutoCreateRefs,
+        Collection<DocumentReference> groupOutRefs)
+    {
+        populateGroupsFromMappings(adapter, groupInRefs, groupOutRefs);
+
+        return populateGroupsFromDynamicRoles(adapter, user, groupInRefs, groupInWithAutoCreateRefs, groupOutRefs);
+    }
+
+    /**
+     * Compute the groups a user having the given roles should be a member of, according to the group mapping and the
+     * dynamic role configurations, without looking at its current groups.
+     *
+     * @param roles the roles of the user.
+     * @return the mapped and dynamic role groups of the user.
+     */
+    public Set<DocumentReference> getRoleGroups(Collection<String> roles)
+    {
+        Set<DocumentReference> groups = new HashSet<>();
+        Collection<DynamicRoleConfiguration> configs = configuration.getDynamicRoleConfigurations();
+
+        for (String role : roles) {
+            groups.addAll(groupMappingIndex.getGroups(role));
+
+            if (configs != null) {
+                for (DynamicRoleConfiguration conf : configs) {
+                    if (conf.matchesRole(role)) {
+                        DocumentReference group = getGroupForRole(conf, role);
+                        if (group != null) {
+                            groups.add(group);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * @param group a group.
+     * @return true if the members of the group are managed by the authenticator, either because the group is mapped
+     *         to roles or because it matches a dynamic role configuration.
+     */
+    public boolean isManagedGroup(DocumentReference group)
+    {
+        if (groupMappingIndex.getMappings().containsKey(group)) {
+            return true;
+        }
+
+        Collection<DynamicRoleConfiguration> configs = configuration.getDynamicRoleConfigurations();
+        if (configs != null) {
+            Collection<DocumentReference> groups = Collections.singletonList(group);
+            for (DynamicRoleConfiguration conf : configs) {
+                if (!groupsMatchingConfiguration(conf, groups).isEmpty()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Compute a digest of the user information used for synchronizing the user, allowing to detect cheaply if
+     * anything has changed since a previous synchronization. The configuration of the synchronization is part of the
+     * digest, so that modifying the group mappings, the dynamic roles or the property mappings synchronizes again the
+     * users on their next login.
+     *
+     * @param adapter the authentication adapter providing the user information.
+     * @param userUid the user UID provided by the authentication adapter.
+     * @param extInfos the user information based on properties mapping.
+     * @return the digest of the synchronization configuration, user UID, user properties and user roles.
+     */
+    public String getSynchronizationDigest(TrustedAuthenticationAdapter adapter, String userUid,
+        Map<String, String> extInfos)
+    {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        updateConfigurationDigest(digest);
+        updateDigest(digest, userUid);
+        for (Map.Entry<String, String> entry : new TreeMap<String, String>(extInfos).entrySet()) {
+            updateDigest(digest, entry.getKey());
+            updateDigest(digest, entry.getValue());
+        }
+        for (String role : getUserRolesForDigest(adapter)) {
+            updateDigest(digest, role);
+        }
+        return Base64.encodeBase64URLSafeString(Arrays.copyOf(digest.digest(), DIGEST_LENGTH));
+    }
+
+    private static void updateDigest(MessageDigest digest, String value)
+    {
+        DigestUtils.updateDigest(digest, StringUtils.defaultString(value));
+        digest.update(DIGEST_SEPARATOR);
+    }
+
+    private void updateConfigurationDigest(MessageDigest digest)
+    {
+        updateDigest(digest, groupMappingIndex.getFingerprint());
+        for (Map.Entry<String, String> mapping : new TreeMap<String, String>(configuration.getUserPropertyMappings())
+            .entrySet()) {
+            updateDigest(digest, mapping.getKey());
+            updateDigest(digest, mapping.getValue());
+        }
+
+        Collection<DynamicRoleConfiguration> configs = configuration.getDynamicRoleConfigurations();
+        if (configs != null) {
+            for (DynamicRoleConfiguration conf : configs) {
+                updateDigest(digest, conf.getRolePrefix());
+                updateDigest(digest, conf.getRoleSuffix());
+                updateDigest(digest, conf.getRoleRegex());
+                updateDigest(digest, conf.getReplacement());
+                updateDigest(digest, conf.getGroupPrefix());
+                updateDigest(digest, conf.getGroupSuffix());
+                updateDigest(digest, String.valueOf(conf.isAutoCreate()));
+            }
+            updateDigest(digest, String.valueOf(configuration.cleanDynamicRoles()));
+        }
+    }
+
+    /**
+     * @param adapter the authentication adapter providing the user information.
+     * @return the sorted roles of the user, limited to the mapped roles when the adapter cannot provide all of them.
+     */
+    private Collection<String> getUserRolesForDigest(TrustedAuthenticationAdapter adapter)
+    {
+        Collection<String> roles = adapter.getUserRoles();
+        if (roles != null) {
+            return new TreeSet<String>(roles);
+        }
+
+        Collection<String> mappedRoles = new TreeSet<String>();
+        for (Collection<String> groupRoles : groupMappingIndex.getMappings().values()) {
+            for (String role : groupRoles) {
+                if (adapter.isUserInRole(role)) {
+                    mappedRoles.add(role);
+                }
+            }
+        }
+        return mappedRoles;
+    }
+
+    /**
+     * Return the reference to the user profile of the user being authenticated.
+     *
+     * @param adapter the authentication adapter providing the user information.
+     * @param userUid the userUid retrieved from the authentication adapter (could not be any other userUid).
+     * @return the reference to the user profile (existing or to be created).
+     */
+    public DocumentReference getUserProfileReference(TrustedAuthenticationAdapter adapter, String userUid)
+    {
+        // Sometimes Auth adapters/Auth systems might return an empty (non-null) value. Therefore strict checking here.
+        String userName = adapter.getUserName();
+        if (StringUtils.isBlank(userName)) {
+            throw new UnsupportedOperationException("Cannot work with an empty username!");
+        }
+
+        if (!userUid.equals(userName)) {
+            throw new UnsupportedOperationException("Not yet implemented");
+        }
+
+        return defaultEntityDocumentReferenceResolver.resolve(
+            new EntityReference(getCleanedUpUsername(getCaseNormalizedName(userName)), EntityType.DOCUMENT),
+            USER_SPACE_REFERENCE);
+    }
+
+    /**
+     * Apply replacements to clean up username for defining the user profile name.
+     *
+     * @param userName userName to clean
+     * @return cleaned up userName
+     */
+    private String getCleanedUpUsername(String userName)
+    {
+        String result = userName;
+        for (String[] replacement : getUserProfileReplacements()) {
+            result = StringUtils.replace(result, replacement[0], replacement[1]);
+        }
+        return result;
+    }
+
+    /**
+     * Apply replacements to clean up username for defining the user profile name.
+     *
+     * @param userName userName to clean
+     * @return cleaned up userName
+     */
+    private String getCaseNormalizedName(String userName)
+    {
+        switch (getUserProfileCaseStyle()) {
+            case LOWERCASE:
+                return userName.toLowerCase();
+            case TITLECASE:
+                if (userName.length() > 1) {
+                    return userName.substring(0, 1).toUpperCase() + userName.substring(1).toLowerCase();
+                }
+                return userName.toUpperCase();
+            case UPPERCASE:
+                return userName.toUpperCase();
+            default:
+                return userName;
+        }
+    }
+
+    private TrustedAuthenticationConfiguration.CaseStyle getUserProfileCaseStyle()
+    {
+        updateUserProfileConfiguration();
+
+        return this.userProfileCaseStyle;
+    }
+
+    private String[][] getUserProfileReplacements()
+    {
+        updateUserProfileConfiguration();
+
+        return this.userProfileReplacements;
+    }
+
+    private synchronized void readUserProfileConfiguration(long generation)
+    {
+        if (generation != this.userProfileGeneration) {
+            this.userProfileCaseStyle = configuration.getUserProfileCaseStyle();
+
+            Map<String, String> replacements = configuration.getUserProfileReplacements();
+            String[][] pairs = new String[replacements.size()][];
+            int i = 0;
+            for (Map.Entry<String, String> replacement : replacements.entrySet()) {
+                pairs[i++] = new String[] { replacement.getKey(), replacement.getValue() };
+            }
+            this.userProfileReplacements = pairs;
+
+            this.userProfileGeneration = generation;
+        }
+    }
+
+    private void updateUserProfileConfiguration()
+    {
+        long generation = configuration.getGeneration();
+        if (generation != this.userProfileGeneration) {
+            readUserProfileConfiguration(generation);
+        }
+    }
+
+    /**
+     * @param adapter the authentication adapter providing the user information.
+     * @return the user information based on properties mapping.
+     */
+    public Map<String, String> getExtendedInformations(TrustedAuthenticationAdapter adapter)
+    {
+        Map<String, String> extInfos = new HashMap<String, String>();
+        Map<String, String> mapping = configuration.getUserPropertyMappings();
+
+        if (mapping.size() > 0) {
+            for (Map.Entry<String, String> entry : mapping.entrySet()) {
+                String value = adapter.getUserProperty(entry.getValue());
+
+                if (StringUtils.isNotBlank(value)) {
+                    extInfos.put(entry.getKey(), value.trim());
+                }
+            }
+        }
+
+        return extInfos;
+    }
+
+    /**
+     * Synchronize the user in mapped groups.
+     *
+     * @param adapter the authentication adapter providing the user roles.
+     * @param groupInRefs will be filled with groups the user should be in.
+     * @param groupOutRefs will be filled with groups the user should not be in.
+     */
+    private void populateGroupsFromMappings(TrustedAuthenticationAdapter adapter,
+        Collection<DocumentReference> groupInRefs,
+        Collection<DocumentReference> groupOutRefs)
+    {
+        // Only synchronize groups if a group mapping configuration exists
+        Map<DocumentReference, Set<String>> mappings = groupMappingIndex.getMappings();
+        if (mappings.isEmpty()) {
+            return;
+        }
+
+        Set<DocumentReference> memberGroups = new HashSet<DocumentReference>();
+        Collection<String> roles = adapter.getUserRoles();
+        if (roles != null) {
+            // Look up the groups of each role of the user, whatever the number of mappings
+            for (String role : roles) {
+                memberGroups.addAll(groupMappingIndex.getGroups(role));
+            }
+        } else {
+            // The adapter cannot list the roles of the user, check each mapped role
+            for (Map.Entry<DocumentReference, Set<String>> mapping : mappings.entrySet()) {
+                for (String role : mapping.getValue()) {
+                    if (adapter.isUserInRole(role)) {
+                        memberGroups.add(mapping.getKey());
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (DocumentReference groupRef : mappings.keySet()) {
+            if (memberGroups.contains(groupRef)) {
+                groupInRefs.add(groupRef);
+            } else {
+                groupOutRefs.add(groupRef);
+            }
+        }
+    }
+
+    /**
+     * @return the group matching this role with the given dynamic role configuration.
+     * @param conf the group configuration
+     * @param role the dynamic role the given group configuration is associated with
+     */
+    private DocumentReference getGroupForRole(DynamicRoleConfiguration conf, String role)
+    {
+        String group;
+        if (conf.getRoleRegex().isEmpty() || conf.getReplacement().isEmpty()) {
+            String radical =
+                role.substring(conf.getRolePrefix().length(), role.length() - conf.getRoleSuffix().length());
+            group = conf.getGroupPrefix() + (configuration.cleanDynamicRoles() ? clean(radical) : radical)
+                + conf.getGroupSuffix();
+            return resolveUserOrGroup(group);
+        }
+        group = role.replaceFirst(conf.getRoleRegex(), conf.getReplacement());
+        return resolveUserOrGroup(group);
+    }
+
+    /**
+     * @return the groups concerned by the given dynamic role configuration.
+     * @param conf the dynamic role configuration to use.
+     * @param groups the set of groups to filter.
+     */
+    private Collection<DocumentReference> groupsMatchingConfiguration(DynamicRoleConfiguration conf,
+        Collection<DocumentReference> groups)
+    {
+        String[] wikiAndGroupPrefix = conf.getGroupPrefix().split(":", 2);
+        String unqualifiedGroupPrefix = wikiAndGroupPrefix[wikiAndGroupPrefix.length - 1];
+
+        Collection<DocumentReference> matchingGroups = new ArrayList<DocumentReference>();
+
+        for (DocumentReference group : groups) {
+            String g = localStringEntityReferenceSerializer.serialize(group);
+            if (g.startsWith(unqualifiedGroupPrefix) && g.endsWith(conf.getGroupSuffix())) {
+                logger.debug("Group [{}] matches this configuration", g);
+                matchingGroups.add(group);
+            } else {
+                logger.debug("Group [{}] does not match this configuration", g);
+            }
+        }
+
+        return matchingGroups;
+    }
+
+    /**
+     * Fill the groups in which the user should be added, given the roles provided by the authentication adapter and the
+     * dynamic role configurations.
+     *
+     * @param adapter the authentication adapter providing the user roles.
+     * @param configurations all the dynamic role configurations.
+     * @param groupInRefs is filled with the groups the user should be added to, not to be auto-created.
+     * @param groupInWithAutoCreateRefs is filled with the groups the user should be added to, to be auto-created.
+     * @return whether the operation succeeded.
+     */
+    private boolean addGroupsFromDynamicRoles(TrustedAuthenticationAdapter adapter,
+        Collection<DynamicRoleConfiguration> configurations,
+        Collection<DocumentReference> groupInRefs, Collection<DocumentReference> groupInWithAutoCreateRefs)
+    {
+        Collection<String> roles = adapter.getUserRoles();
+        logger.debug("Found roles: [{}]", roles);
+        if (roles == null) {
+            return false;
+        }
+        metrics.trace(TrustedAuthenticationMetrics.TRACE_ROLES, roles.size());
+
+        AddGroupToField agtf = new AddGroupToField(addGroupToFieldIndex, addGroupToFieldWriter);
+        XWikiContext context = contextProvider.get();
+
+        for (String role : roles) {
+            DynamicRoleConfiguration conf = null;
+            for (DynamicRoleConfiguration config : configurations) {
+                if (config.matchesRole(role)) {
+                    conf = config;
+                    break;
+                }
+            }
+
+            if (conf == null) {
+                logger.debug("Did not find any dynamic configuration for role [{}]", role);
+                continue;
+            }
+
+            logger.debug("Found a dynamic configuration for role [{}]: [{}]", role, conf);
+
+            DocumentReference group = getGroupForRole(conf, role);
+            if (group == null) {
+                continue;
+            }
+
+            logger.debug("Found a group for this role: [{}]", group);
+
+            if (conf.isAutoCreate()) {
+                logger.debug("This group will be auto created if needed.");
+                groupInWithAutoCreateRefs.add(group);
+                agtf.add(context, group, role, conf);
+            } else {
+                logger.debug("This group will not be auto created.");
+                groupInRefs.add(group);
+            }
+        }
+
+        long start = metrics.start();
+        agtf.save(context);
+        metrics.stop(TrustedAuthenticationMetrics.TIMER_ADD_GROUP_TO_FIELD, start);
+        return true;
+    }
+
+    /**
+     * Remove from the first parameters groups that are in the second parameter.
+     *
+     * @param groupsToRemove the collection to remove groups from.
+     * @param addedGroups the collection of groups to remove
+     */
+    private void removeGroups(Collection<DocumentReference> groupsToRemove, Collection<DocumentReference> addedGroups)
+    {
+        for (DocumentReference addedGroup : addedGroups) {
+            String sAddedGroup = defaultStringEntityReferenceSerializer.serialize(addedGroup);
+            Iterator<DocumentReference> iter = groupsToRemove.iterator();
+            while (iter.hasNext()) {
+                String userGroup = defaultStringEntityReferenceSerializer.serialize(iter.next());
+                if (userGroup.equals(sAddedGroup)) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Given the groups the user is in and the groups in which this user needs to be added, and given the dynamic role
+     * configurations, fill in the groups from which the user is to be removed.
+     *
+     * @param configurations all the dynamic role configurations.
+     * @param groupInRefs the groups the user is to be added to, that are not to be auto-created.
+     * @param groupInWithAutoCreateRefs the groups the user is to be added to, that are to be auto-created.
+     * @param groupOutRefs is filled with the groups the user should be removed from.
+     * @return whether the operation succeeded.
+     */
+    private boolean removeGroupsFromDynamicRoles(Collection<DynamicRoleConfiguration> configurations,
+        DocumentReference user, Collection<DocumentReference> groupInRefs,
+        Collection<DocumentReference> groupInWithAutoCreateRefs, Collection<DocumentReference> groupOutRefs)
+    {
+        XWikiContext context = contextProvider.get();
+        Collection<DocumentReference> userGroupsNotBeingAdded;
+
+        try {
+            userGroupsNotBeingAdded =
+                context.getWiki().getGroupService(context).getAllGroupsReferencesForMember(user, 0, 0, context);
+        } catch (XWikiException e) {
+            logger.error("Failed to get user groups [{}]", user, e);
+            return false;
+        }
+        logger.debug("User is in these groups: [{}]", userGroupsNotBeingAdded);
+
+        removeGroups(userGroupsNotBeingAdded, groupInRefs);
+        removeGroups(userGroupsNotBeingAdded, groupInWithAutoCreateRefs);
+
+        logger.debug("These groups have not been added: [{}]", userGroupsNotBeingAdded);
+
+        Collection<DocumentReference> matchingGroups = new ArrayList<DocumentReference>();
+        for (DynamicRoleConfiguration conf : configurations) {
+            logger.debug("Removing groups corresponding to missing roles for configuration [{}].", conf);
+            matchingGroups.addAll(groupsMatchingConfiguration(conf, userGroupsNotBeingAdded));
+        }
+        logger.debug("The user will be removed from these groups: [{}].", matchingGroups);
+        groupOutRefs.addAll(matchingGroups);
+        return true;
+    }
+
+    /**
+     * Given the groups the user is in and the dynamic role configurations, fill in the groups to which the user is to
+     * be added and from which the user is to be removed.
+     *
+     * @param adapter the authentication adapter providing the user roles.
+     * @param user the reference of the user document.
+     * @param groupInRefs is filled with the groups the user is to be added to, not to be auto-created.
+     * @param groupInWithAutoCreateRefs is filled with the groups the user is to be added to, to be auto-created.
+     * @param groupOutRefs is filled with the groups the user should be removed from.
+     * @return whether the operation succeeded.
+     */
+    private boolean populateGroupsFromDynamicRoles(TrustedAuthenticationAdapter adapter, DocumentReference user,
+        Collection<DocumentReference> groupInRefs,
+        Collection<DocumentReference> groupInWithAutoCreateRefs, Collection<DocumentReference> groupOutRefs)
+    {
+        Collection<DynamicRoleConfiguration> configs = configuration.getDynamicRoleConfigurations();
+        if (configs == null) {
+            return false;
+        }
+
+        if (configs.isEmpty()) {
+            return true;
+        }
+
+        return addGroupsFromDynamicRoles(adapter, configs, groupInRefs, groupInWithAutoCreateRefs)
+            && removeGroupsFromDynamicRoles(configs, user, groupInRefs, groupInWithAutoCreateRefs, groupOutRefs);
+    }
+
+    /**
+     * @return the document reference for the given user or group, finding it by default in the default user space.
+     */
+    private DocumentReference resolveUserOrGroup(String userOrGroup)
+    {
+        return defaultStringDocumentReferenceResolver.resolve(userOrGroup, USER_SPACE_REFERENCE);
+    }
+
+    private String clean(String str)
+    {
+        return RegExUtils.removePattern(str, "[\\.\\:\\s,@\\^\\/]");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.jfr;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A save of a page listing the groups created for the dynamic roles.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Name(FlightRecorderSupport.PREFIX + "AddGroupToFieldSave")
+@Label("Add Group To Field Save")
+@Description("Addition of the groups created for dynamic roles to the field of a page")
+@Category({ FlightRecorderSupport.XWIKI_CATEGORY, FlightRecorderSupport.CATEGORY })
+public class AddGroupToFieldSaveEvent extends Event
+{
+    @Label("Page")
+    private String page;
+
+    @Label("Additions")
+    @Description("The number of group/role pairs to add to the page")
+    private int additions;
+
+    /**
+     * The type of the event, only resolved once the event class is initialized.
+     */
+    private static final class TypeHolder
+    {
+        private static final EventType TYPE = EventType.getEventType(AddGroupToFieldSaveEvent.class);
+    }
+
+    /**
+     * Create the event and start its timing.
+     */
+    public AddGroupToFieldSaveEvent()
+    {
+        begin();
+    }
+
+    /**
+     * @return true if the event is enabled in a running recording, so that no event is created for each save otherwise
+     */
+    public static boolean isTypeEnabled()
+    {
+        return TypeHolder.TYPE.isEnabled();
+    }
+
+    /**
+     * Commit the event if it is enabled.
+     *
+     * @param modifiedPage the page listing the groups
+     * @param pendingAdditions the number of group/role pairs to add to the page
+     */
+    public void commit(DocumentReference modifiedPage, int pendingAdditions)
+    {
+        end();
+        if (shouldCommit()) {
+            this.page = modifiedPage.toString();
+            this.additions = pendingAdditions;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.jfr;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A trusted authentication, with the path which lead to the authenticated user.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Name(FlightRecorderSupport.PREFIX + "Authentication")
+@Label("Trusted Authentication")
+@Description("Authentication of a request by the trusted authenticator")
+@Category({ FlightRecorderSupport.XWIKI_CATEGORY, FlightRecorderSupport.CATEGORY })
+public class AuthenticationEvent extends Event
+{
+    @Label("User")
+    private String user;
+
+    @Label("Adapter")
+    @Description("The hint of the authentication adapter")
+    private String adapter;
+
+    @Label("Path")
+    @Description("How the user has been authenticated: from a fast path, with a synchronization, or not at all")
+    private String path;
+
+    @Label("Synchronized")
+    private boolean userSynchronized;
+
+    /**
+     * The type of the event, only resolved once the event class is initialized.
+     */
+    private static final class TypeHolder
+    {
+        private static final EventType TYPE = EventType.getEventType(AuthenticationEvent.class);
+    }
+
+    /**
+     * Create the event and start its timing.
+     */
+    public AuthenticationEvent()
+    {
+        begin();
+    }
+
+    /**
+     * @return true if the event is enabled in a running recording, checked without creating an event so that the
+     *         authentications do not allocate anything when no recording is running
+     */
+    public static boolean isTypeEnabled()
+    {
+        return TypeHolder.TYPE.isEnabled();
+    }
+
+    /**
+     * Commit the event if it is enabled.
+     *
+     * @param authenticatedUser the authenticated user, null for public access
+     * @param adapterHint the hint of the authentication adapter
+     * @param authenticationPath how the user has been authenticated
+     * @param synchronization true if the user has been synchronized
+     */
+    public void commit(DocumentReference authenticatedUser, String adapterHint, String authenticationPath,
+        boolean synchronization)
+    {
+        end();
+        if (shouldCommit()) {
+            this.user = authenticatedUser != null ? authenticatedUser.toString() : null;
+            this.adapter = adapterHint;
+            this.path = authenticationPath;
+            this.userSynchronized = synchronization;
+            commit();
+        }
+    }
+}
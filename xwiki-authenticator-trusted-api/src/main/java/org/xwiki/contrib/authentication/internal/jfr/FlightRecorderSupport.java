@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.jfr;
+
+/**
+ * Tell whether the JDK Flight Recorder events API is available in the running JVM. The event classes of this package
+ * must not be loaded when it is not, so their creation is always guarded by {@link #isAvailable()}.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public final class FlightRecorderSupport
+{
+    /**
+     * The category of the trusted authentication events.
+     */
+    public static final String CATEGORY = "Trusted Authentication";
+
+    /**
+     * The category of all XWiki events.
+     */
+    public static final String XWIKI_CATEGORY = "XWiki";
+
+    /**
+     * The prefix of the names of the trusted authentication events.
+     */
+    public static final String PREFIX = "org.xwiki.contrib.authentication.";
+
+    private static final boolean AVAILABLE = isEventAvailable();
+
+    private FlightRecorderSupport()
+    {
+        // Utility class
+    }
+
+    private static boolean isEventAvailable()
+    {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorderSupport.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the JDK Flight Recorder events can be created
+     */
+    public static boolean isAvailable()
+    {
+        return AVAILABLE;
+    }
+}
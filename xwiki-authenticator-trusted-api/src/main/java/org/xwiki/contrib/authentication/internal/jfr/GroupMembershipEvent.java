@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.jfr;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An addition or removal of a user to or from a group (or group shard).
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Name(FlightRecorderSupport.PREFIX + "GroupMembership")
+@Label("Group Membership")
+@Description("Addition or removal of a user to or from a group, and save of the group")
+@Category({ FlightRecorderSupport.XWIKI_CATEGORY, FlightRecorderSupport.CATEGORY })
+public class GroupMembershipEvent extends Event
+{
+    /**
+     * The operation adding a user to a group.
+     */
+    public static final String ADD = "add";
+
+    /**
+     * The operation removing a user from a group.
+     */
+    public static final String REMOVE = "remove";
+
+    @Label("Operation")
+    private String operation;
+
+    @Label("User")
+    private String user;
+
+    @Label("Group")
+    @Description("The group, or group shard, modified")
+    private String group;
+
+    @Label("Saved")
+    @Description("Whether the group had to be modified and saved")
+    private boolean saved;
+
+    @Label("Success")
+    private boolean success;
+
+    /**
+     * The type of the event, only resolved once the event class is initialized.
+     */
+    private static final class TypeHolder
+    {
+        private static final EventType TYPE = EventType.getEventType(GroupMembershipEvent.class);
+    }
+
+    /**
+     * Create the event and start its timing.
+     */
+    public GroupMembershipEvent()
+    {
+        begin();
+    }
+
+    /**
+     * @return true if the event is enabled in a running recording
+     */
+    public static boolean isTypeEnabled()
+    {
+        return TypeHolder.TYPE.isEnabled();
+    }
+
+    /**
+     * Commit the event if it is enabled.
+     *
+     * @param membershipOperation {@link #ADD} or {@link #REMOVE}
+     * @param member the user added or removed
+     * @param modifiedGroup the group, or group shard, the user is added to or removed from
+     * @param groupSaved true if the group has been modified and saved
+     * @param done true if the operation succeeded
+     */
+    public void commit(String membershipOperation, DocumentReference member, DocumentReference modifiedGroup,
+        boolean groupSaved, boolean done)
+    {
+        end();
+        if (shouldCommit()) {
+            this.operation = membershipOperation;
+            this.user = member.toString();
+            this.group = modifiedGroup.toString();
+            this.saved = groupSaved;
+            this.success = done;
+            commit();
+        }
+    }
+}
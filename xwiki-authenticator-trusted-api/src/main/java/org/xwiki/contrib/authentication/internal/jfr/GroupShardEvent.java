@@ -0,0 +1,95 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.jfr;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A resolution, and set-up if needed, of the shard of a user in a sharded group.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Name(FlightRecorderSupport.PREFIX + "GroupShard")
+@Label("Group Shard")
+@Description("Resolution and set-up of the shard of a user in a group, including the check of the sharding threshold")
+@Category({ FlightRecorderSupport.XWIKI_CATEGORY, FlightRecorderSupport.CATEGORY })
+public class GroupShardEvent extends Event
+{
+    @Label("User")
+    private String user;
+
+    @Label("Group")
+    private String group;
+
+    @Label("Shard")
+    @Description("The shard of the user, or the group itself when it is not sharded")
+    private String shard;
+
+    /**
+     * The type of the event, only resolved once the event class is initialized.
+     */
+    private static final class TypeHolder
+    {
+        private static final EventType TYPE = EventType.getEventType(GroupShardEvent.class);
+    }
+
+    /**
+     * Create the event and start its timing.
+     */
+    public GroupShardEvent()
+    {
+        begin();
+    }
+
+    /**
+     * @return true if the event is enabled in a running recording, so that resolving the shard of an already set-up
+     *         user does not create any event otherwise
+     */
+    public static boolean isTypeEnabled()
+    {
+        return TypeHolder.TYPE.isEnabled();
+    }
+
+    /**
+     * Commit the event if it is enabled.
+     *
+     * @param member the user
+     * @param shardedGroup the group
+     * @param groupShard the shard of the user in the group
+     */
+    public void commit(DocumentReference member, DocumentReference shardedGroup, DocumentReference groupShard)
+    {
+        end();
+        if (shouldCommit()) {
+            this.user = member.toString();
+            this.group = shardedGroup.toString();
+            this.shard = groupShard.toString();
+            commit();
+        }
+    }
+}
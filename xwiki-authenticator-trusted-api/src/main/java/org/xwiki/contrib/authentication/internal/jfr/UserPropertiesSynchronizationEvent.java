@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.jfr;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A synchronization of the properties of a user profile.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Name(FlightRecorderSupport.PREFIX + "UserPropertiesSynchronization")
+@Label("User Properties Synchronization")
+@Description("Synchronization of the profile properties of a user with the information of the authentication adapter")
+@Category({ FlightRecorderSupport.XWIKI_CATEGORY, FlightRecorderSupport.CATEGORY })
+public class UserPropertiesSynchronizationEvent extends Event
+{
+    @Label("User")
+    private String user;
+
+    @Label("Saved")
+    @Description("Whether the profile had to be modified and saved")
+    private boolean saved;
+
+    @Label("Success")
+    private boolean success;
+
+    /**
+     * The type of the event, only resolved once the event class is initialized.
+     */
+    private static final class TypeHolder
+    {
+        private static final EventType TYPE = EventType.getEventType(UserPropertiesSynchronizationEvent.class);
+    }
+
+    /**
+     * Create the event and start its timing.
+     */
+    public UserPropertiesSynchronizationEvent()
+    {
+        begin();
+    }
+
+    /**
+     * @return true if the event is enabled in a running recording
+     */
+    public static boolean isTypeEnabled()
+    {
+        return TypeHolder.TYPE.isEnabled();
+    }
+
+    /**
+     * Commit the event if it is enabled.
+     *
+     * @param synchronizedUser the synchronized user
+     * @param profileSaved true if the profile has been modified and saved
+     * @param synchronization true if the properties have been successfully synchronized
+     */
+    public void commit(DocumentReference synchronizedUser, boolean profileSaved, boolean synchronization)
+    {
+        end();
+        if (shouldCommit()) {
+            this.user = synchronizedUser.toString();
+            this.saved = profileSaved;
+            this.success = synchronization;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Read users from a CSV export (RFC 4180). The first record is a header naming the columns: the column holding the
+ * user identifier is required, the column holding the roles is optional and separates roles with {@code |}, and any
+ * other column is a user property.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class CsvProvisioningEntryReader implements ProvisioningEntryReader
+{
+    private static final char SEPARATOR = ',';
+
+    private static final char QUOTE = '"';
+
+    private static final char ROLE_SEPARATOR = '|';
+
+    private final BufferedReader reader;
+
+    private final String uidField;
+
+    private final String rolesField;
+
+    private List<String> header;
+
+    private int uidIndex;
+
+    private int rolesIndex;
+
+    /**
+     * @param reader the reader of the export.
+     * @param uidField the name of the column holding the user identifier.
+     * @param rolesField the name of the column holding the roles.
+     */
+    public CsvProvisioningEntryReader(BufferedReader reader, String uidField, String rolesField)
+    {
+        this.reader = reader;
+        this.uidField = uidField;
+        this.rolesField = rolesField;
+    }
+
+    @Override
+    public ProvisioningEntry read() throws IOException
+    {
+        if (header == null) {
+            readHeader();
+        }
+
+        List<String> record = readNonEmptyRecord();
+        if (record == null) {
+            return null;
+        }
+        if (record.size() != header.size()) {
+            throw new IOException(String.format("Invalid CSV record with [%s] columns instead of [%s]: %s",
+                record.size(), header.size(), record));
+        }
+
+        Map<String, String> properties = new HashMap<>();
+        List<String> roles = new ArrayList<>();
+        for (int i = 0; i < record.size(); i++) {
+            String value = record.get(i);
+            if (i == rolesIndex) {
+                addRoles(value, roles);
+            } else if (i != uidIndex && !value.isEmpty()) {
+                properties.put(header.get(i), value);
+            }
+        }
+
+        return new ProvisioningEntry(record.get(uidIndex), properties, roles);
+    }
+
+    private void addRoles(String value, List<String> roles)
+    {
+        for (String role : StringUtils.split(value, ROLE_SEPARATOR)) {
+            if (StringUtils.isNotBlank(role)) {
+                roles.add(role.trim());
+            }
+        }
+    }
+
+    private void readHeader() throws IOException
+    {
+        header = readRecord();
+        if (header == null) {
+            throw new IOException("Missing CSV header");
+        }
+        uidIndex = header.indexOf(uidField);
+        if (uidIndex < 0) {
+            throw new IOException(String.format("Missing column [%s] in CSV header %s", uidField, header));
+        }
+        rolesIndex = header.indexOf(rolesField);
+    }
+
+    /**
+     * @return the values of the next record, skipping empty lines, or null at the end of the export.
+     */
+    private List<String> readNonEmptyRecord() throws IOException
+    {
+        List<String> record;
+        do {
+            record = readRecord();
+        } while (record != null && record.size() == 1 && record.get(0).isEmpty());
+
+        return record;
+    }
+
+    /**
+     * @return the values of the next record, which may span several lines when containing quoted line breaks, or
+     *         null at the end of the export.
+     */
+    private List<String> readRecord() throws IOException
+    {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = parseLine(line, false, value, values);
+        while (quoted) {
+            // Quoted line break, continue with the next line
+            line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Unterminated quoted CSV value");
+            }
+            value.append('\n');
+            quoted = parseLine(line, true, value, values);
+        }
+        values.add(value.toString());
+
+        return values;
+    }
+
+    /**
+     * @param line the line to parse
+     * @param quoted true if the line starts inside a quoted value
+     * @param value the value being parsed, completed with the line
+     * @param values the values of the record, completed with the values ending in the line
+     * @return true if the line ends inside a quoted value
+     */
+    private boolean parseLine(String line, boolean quoted, StringBuilder value, List<String> values)
+    {
+        boolean inQuotes = quoted;
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i++);
+            if (inQuotes) {
+                if (c != QUOTE) {
+                    value.append(c);
+                } else if (i < line.length() && line.charAt(i) == QUOTE) {
+                    // Escaped quote
+                    value.append(QUOTE);
+                    i++;
+                } else {
+                    inQuotes = false;
+                }
+            } else if (c == QUOTE) {
+                inQuotes = true;
+            } else if (c == SEPARATOR) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+
+        return inQuotes;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+}
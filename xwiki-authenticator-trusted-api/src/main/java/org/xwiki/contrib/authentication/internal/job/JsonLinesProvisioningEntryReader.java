@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Read users from a JSON lines export, with one JSON object per line like
+ * {@code {"uid": "jdoe", "properties": {"email": "jdoe@example.com"}, "roles": ["staff"]}}. The name of the field
+ * holding the user identifier and of the field holding the roles could be changed.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class JsonLinesProvisioningEntryReader implements ProvisioningEntryReader
+{
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String PROPERTIES_FIELD = "properties";
+
+    private final BufferedReader reader;
+
+    private final String uidField;
+
+    private final String rolesField;
+
+    /**
+     * @param reader the reader of the export.
+     * @param uidField the name of the field holding the user identifier.
+     * @param rolesField the name of the field holding the roles.
+     */
+    public JsonLinesProvisioningEntryReader(BufferedReader reader, String uidField, String rolesField)
+    {
+        this.reader = reader;
+        this.uidField = uidField;
+        this.rolesField = rolesField;
+    }
+
+    @Override
+    public ProvisioningEntry read() throws IOException
+    {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (StringUtils.isBlank(line));
+
+        JsonNode node = MAPPER.readTree(line);
+        JsonNode uid = node.get(uidField);
+        if (uid == null || !uid.isValueNode()) {
+            throw new IOException(String.format("Missing field [%s] in JSON line [%s]", uidField, line));
+        }
+
+        List<String> roles = new ArrayList<>();
+        JsonNode rolesNode = node.get(rolesField);
+        if (rolesNode != null) {
+            for (JsonNode role : rolesNode) {
+                roles.add(role.asText());
+            }
+        }
+
+        return new ProvisioningEntry(uid.asText(), getProperties(node), roles);
+    }
+
+    private Map<String, String> getProperties(JsonNode node)
+    {
+        Map<String, String> properties = new HashMap<>();
+        JsonNode propertiesNode = node.get(PROPERTIES_FIELD);
+        if (propertiesNode != null) {
+            for (Iterator<Map.Entry<String, JsonNode>> it = propertiesNode.fields(); it.hasNext();) {
+                Map.Entry<String, JsonNode> property = it.next();
+                if (property.getValue().isValueNode() && !property.getValue().isNull()) {
+                    properties.put(property.getKey(), property.getValue().asText());
+                }
+            }
+        }
+
+        return properties;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+}
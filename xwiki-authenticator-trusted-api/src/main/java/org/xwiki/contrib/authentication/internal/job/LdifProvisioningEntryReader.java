@@ -0,0 +1,185 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Read users from an LDIF export (RFC 2849) of user entries. The attribute holding the user identifier is required,
+ * every value of the attribute holding the roles (like {@code memberOf}) is a role, and the first value of any other
+ * attribute is a user property. Change records are not supported.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class LdifProvisioningEntryReader implements ProvisioningEntryReader
+{
+    private static final String COMMENT_PREFIX = "#";
+
+    private static final String DN_ATTRIBUTE = "dn";
+
+    private static final String VERSION_ATTRIBUTE = "version";
+
+    private final BufferedReader reader;
+
+    private final String uidField;
+
+    private final String rolesField;
+
+    /**
+     * The line read ahead while unfolding the previous line.
+     */
+    private String nextLine;
+
+    /**
+     * @param reader the reader of the export.
+     * @param uidField the name of the attribute holding the user identifier.
+     * @param rolesField the name of the attribute holding the roles.
+     */
+    public LdifProvisioningEntryReader(BufferedReader reader, String uidField, String rolesField)
+    {
+        this.reader = reader;
+        this.uidField = uidField;
+        this.rolesField = rolesField;
+    }
+
+    @Override
+    public ProvisioningEntry read() throws IOException
+    {
+        List<String[]> attributes = readRecord();
+        if (attributes == null) {
+            return null;
+        }
+
+        String userUid = null;
+        Map<String, String> properties = new HashMap<>();
+        List<String> roles = new ArrayList<>();
+        for (String[] attribute : attributes) {
+            String name = attribute[0];
+            if (name.equalsIgnoreCase(uidField)) {
+                userUid = attribute[1];
+            } else if (name.equalsIgnoreCase(rolesField)) {
+                roles.add(attribute[1]);
+            } else if (!name.equalsIgnoreCase(DN_ATTRIBUTE) && !properties.containsKey(name)) {
+                properties.put(name, attribute[1]);
+            }
+        }
+
+        if (userUid == null) {
+            throw new IOException(String.format("Missing attribute [%s] in LDIF record with attributes %s",
+                uidField, properties.keySet()));
+        }
+
+        return new ProvisioningEntry(userUid, properties, roles);
+    }
+
+    /**
+     * @return the attribute names and values of the next record, or null at the end.
+     */
+    private List<String[]> readRecord() throws IOException
+    {
+        List<String[]> attributes = new ArrayList<>();
+
+        for (String line = readLine(); line != null; line = readLine()) {
+            if (line.isEmpty()) {
+                if (!attributes.isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException(String.format("Invalid LDIF line [%s]", line));
+            }
+            String attribute = line.substring(0, colon);
+            if (attributes.isEmpty() && VERSION_ATTRIBUTE.equalsIgnoreCase(attribute)) {
+                continue;
+            }
+            attributes.add(new String[] { attribute, getValue(line, colon) });
+        }
+
+        return attributes.isEmpty() ? null : attributes;
+    }
+
+    private String getValue(String line, int colon) throws IOException
+    {
+        int start = colon + 1;
+        boolean base64 = start < line.length() && line.charAt(start) == ':';
+        if (base64) {
+            start++;
+        } else if (start < line.length() && line.charAt(start) == '<') {
+            throw new IOException(String.format("Unsupported LDIF URL value in line [%s]", line));
+        }
+
+        String value = line.substring(start).trim();
+        return base64 ? new String(Base64.decodeBase64(value), StandardCharsets.UTF_8) : value;
+    }
+
+    /**
+     * @return the next logical line, with folded lines unfolded and comments skipped, or null at the end.
+     */
+    private String readLine() throws IOException
+    {
+        String line = nextLine != null ? nextLine : reader.readLine();
+        nextLine = null;
+        while (line != null && line.startsWith(COMMENT_PREFIX)) {
+            line = skipFolded();
+        }
+        if (line == null || line.isEmpty()) {
+            return line;
+        }
+
+        StringBuilder unfolded = new StringBuilder(line);
+        for (nextLine = reader.readLine(); nextLine != null && nextLine.startsWith(" ");
+            nextLine = reader.readLine()) {
+            unfolded.append(nextLine, 1, nextLine.length());
+        }
+        return unfolded.toString();
+    }
+
+    /**
+     * Skip the continuation lines of a comment.
+     *
+     * @return the line following the comment.
+     */
+    private String skipFolded() throws IOException
+    {
+        String line = reader.readLine();
+        while (line != null && line.startsWith(" ")) {
+            line = reader.readLine();
+        }
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * A user whose profile has been provisioned and whose memberships remain to be applied.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class ProvisionedUser
+{
+    private final DocumentReference reference;
+
+    private final ProvisioningEntryAdapter adapter;
+
+    private final boolean created;
+
+    /**
+     * @param reference the reference of the user profile.
+     * @param adapter the adapter providing the information of the user.
+     * @param created true if the user profile has been created by the provisioning.
+     */
+    public ProvisionedUser(DocumentReference reference, ProvisioningEntryAdapter adapter, boolean created)
+    {
+        this.reference = reference;
+        this.adapter = adapter;
+        this.created = created;
+    }
+
+    /**
+     * @return the reference of the user profile.
+     */
+    public DocumentReference getReference()
+    {
+        return reference;
+    }
+
+    /**
+     * @return the adapter providing the information of the user.
+     */
+    public ProvisioningEntryAdapter getAdapter()
+    {
+        return adapter;
+    }
+
+    /**
+     * @return true if the user profile has been created by the provisioning.
+     */
+    public boolean isCreated()
+    {
+        return created;
+    }
+}
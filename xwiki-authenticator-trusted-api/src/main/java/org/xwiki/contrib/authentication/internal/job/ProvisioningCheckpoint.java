@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Progress of the provisioning of an export, kept on disk so that an interrupted provisioning could be resumed after
+ * the last completed batch, as long as the export has not been modified.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class ProvisioningCheckpoint
+{
+    private static final String PROPERTY_SOURCE = "source";
+
+    private static final String PROPERTY_SIZE = "size";
+
+    private static final String PROPERTY_LAST_MODIFIED = "lastModified";
+
+    private static final String PROPERTY_PROCESSED = "processed";
+
+    private final File file;
+
+    private final File source;
+
+    /**
+     * @param directory the directory where checkpoints are stored.
+     * @param source the export being provisioned.
+     */
+    public ProvisioningCheckpoint(File directory, File source)
+    {
+        this.source = source.getAbsoluteFile();
+        this.file = new File(directory, DigestUtils.sha256Hex(this.source.getPath()) + ".properties");
+    }
+
+    /**
+     * @return the number of entries of the export already provisioned, 0 if the export has been modified since.
+     * @throws IOException if the checkpoint cannot be read.
+     */
+    public long getProcessed() throws IOException
+    {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            properties.load(stream);
+        }
+
+        if (!source.getPath().equals(properties.getProperty(PROPERTY_SOURCE))
+            || !String.valueOf(source.length()).equals(properties.getProperty(PROPERTY_SIZE))
+            || !String.valueOf(source.lastModified()).equals(properties.getProperty(PROPERTY_LAST_MODIFIED))) {
+            return 0;
+        }
+
+        return Long.parseLong(properties.getProperty(PROPERTY_PROCESSED, "0"));
+    }
+
+    /**
+     * @param processed the number of entries of the export provisioned so far.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    public void save(long processed) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty(PROPERTY_SOURCE, source.getPath());
+        properties.setProperty(PROPERTY_SIZE, String.valueOf(source.length()));
+        properties.setProperty(PROPERTY_LAST_MODIFIED, String.valueOf(source.lastModified()));
+        properties.setProperty(PROPERTY_PROCESSED, String.valueOf(processed));
+
+        // Write a temporary file first, so that an interruption never leaves a corrupted checkpoint
+        file.getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temporary.toPath())) {
+            properties.store(stream, null);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the checkpoint once the whole export has been provisioned.
+     *
+     * @throws IOException if the checkpoint cannot be removed.
+     */
+    public void delete() throws IOException
+    {
+        Files.deleteIfExists(file.toPath());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * A user read from an identity provider export, with the information an authentication adapter would provide.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class ProvisioningEntry
+{
+    private final String userUid;
+
+    private final Map<String, String> properties;
+
+    private final Collection<String> roles;
+
+    /**
+     * @param userUid the unique identifier of the user.
+     * @param properties the user properties, indexed by the names used in the user property mapping.
+     * @param roles the roles of the user.
+     */
+    public ProvisioningEntry(String userUid, Map<String, String> properties, Collection<String> roles)
+    {
+        this.userUid = userUid;
+        this.properties = Collections.unmodifiableMap(properties);
+        this.roles = Collections.unmodifiableSet(new LinkedHashSet<>(roles));
+    }
+
+    /**
+     * @return the unique identifier of the user.
+     */
+    public String getUserUid()
+    {
+        return userUid;
+    }
+
+    /**
+     * @return the user properties, indexed by the names used in the user property mapping.
+     */
+    public Map<String, String> getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * @return the roles of the user.
+     */
+    public Collection<String> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public String toString()
+    {
+        return userUid;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.util.Collection;
+
+import org.xwiki.contrib.authentication.TrustedAuthenticationAdapter;
+
+/**
+ * Authentication adapter providing the information of a user read from an identity provider export, so that the same
+ * synchronization rules are applied to provisioned users than to authenticated users.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class ProvisioningEntryAdapter implements TrustedAuthenticationAdapter
+{
+    private final ProvisioningEntry entry;
+
+    /**
+     * @param entry the user read from the export.
+     */
+    public ProvisioningEntryAdapter(ProvisioningEntry entry)
+    {
+        this.entry = entry;
+    }
+
+    @Override
+    public String getUserUid()
+    {
+        return entry.getUserUid();
+    }
+
+    @Override
+    public String getUserName()
+    {
+        return entry.getUserUid();
+    }
+
+    @Override
+    public String getUserProperty(String name)
+    {
+        return entry.getProperties().get(name);
+    }
+
+    @Override
+    public boolean isUserInRole(String role)
+    {
+        return entry.getRoles().contains(role);
+    }
+
+    @Override
+    public Collection<String> getUserRoles()
+    {
+        return entry.getRoles();
+    }
+
+    @Override
+    public String getLogoutURL(String location)
+    {
+        return null;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Read the users from an identity provider export, one at a time.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public interface ProvisioningEntryReader extends Closeable
+{
+    /**
+     * @return the next user of the export, or null when all users have been read.
+     * @throws IOException if the export cannot be read or is invalid.
+     */
+    ProvisioningEntry read() throws IOException;
+}
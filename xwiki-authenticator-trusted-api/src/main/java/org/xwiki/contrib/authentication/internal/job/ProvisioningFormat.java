@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.io.BufferedReader;
+
+/**
+ * The supported formats of identity provider exports.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public enum ProvisioningFormat
+{
+    /**
+     * CSV with a header record.
+     */
+    CSV
+    {
+        @Override
+        public ProvisioningEntryReader createReader(BufferedReader reader, String uidField, String rolesField)
+        {
+            return new CsvProvisioningEntryReader(reader, uidField, rolesField);
+        }
+    },
+
+    /**
+     * LDIF content records.
+     */
+    LDIF
+    {
+        @Override
+        public ProvisioningEntryReader createReader(BufferedReader reader, String uidField, String rolesField)
+        {
+            return new LdifProvisioningEntryReader(reader, uidField, rolesField);
+        }
+    },
+
+    /**
+     * One JSON object per line.
+     */
+    JSONL
+    {
+        @Override
+        public ProvisioningEntryReader createReader(BufferedReader reader, String uidField, String rolesField)
+        {
+            return new JsonLinesProvisioningEntryReader(reader, uidField, rolesField);
+        }
+    };
+
+    /**
+     * @param reader the reader of the export.
+     * @param uidField the name of the field holding the user identifier.
+     * @param rolesField the name of the field holding the roles.
+     * @return a reader of the users of the export in this format.
+     */
+    public abstract ProvisioningEntryReader createReader(BufferedReader reader, String uidField, String rolesField);
+}
@@ -0,0 +1,221 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.context.concurrent.ExecutionContextRunnable;
+import org.xwiki.contrib.authentication.job.ProvisioningRequest;
+import org.xwiki.environment.Environment;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Provision users and their group memberships in bulk from an identity provider export, applying the same naming,
+ * property mapping and group rules as the trusted authenticator. Users are processed in batches: the user profiles of
+ * a batch are created or updated in parallel, then the memberships of the whole batch are applied with a single save
+ * of each group. The synchronization digest of each user is kept in its profile, so that its first login does not
+ * need to synchronize it again. Since the digest is saved with the profile, before the memberships, the memberships
+ * of the users whose digest is unchanged are still applied, and the digest of the users whose memberships cannot be
+ * saved is invalidated.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component
+@Named(ProvisioningJob.JOBTYPE)
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+public class ProvisioningJob extends AbstractJob<ProvisioningRequest, DefaultJobStatus<ProvisioningRequest>>
+{
+    /**
+     * The id of the job type.
+     */
+    public static final String JOBTYPE = "authenticator.trusted.provisioning";
+
+    private static final String DEFAULT_ROLES_FIELD = "roles";
+
+    private static final String DEFAULT_LDIF_ROLES_FIELD = "memberOf";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private ProvisioningUserManager provisioningUserManager;
+
+    @Override
+    public String getType()
+    {
+        return JOBTYPE;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        XWikiContext context = contextProvider.get();
+        if (request.getWiki() != null) {
+            context.setWikiId(request.getWiki());
+        }
+
+        File source = new File(request.getSource());
+        ProvisioningCheckpoint checkpoint = new ProvisioningCheckpoint(
+            new File(environment.getPermanentDirectory(), "authenticator-trusted/provisioning"), source);
+        long skipped = getSkipped(checkpoint, source);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, request.getThreads()),
+            new BasicThreadFactory.Builder().namingPattern("XWiki Trusted Authentication provisioning %d")
+                .daemon(true).build());
+        try (ProvisioningEntryReader reader = createReader(source)) {
+            long processed = 0;
+            List<ProvisioningEntry> batch = new ArrayList<>();
+            for (ProvisioningEntry entry = reader.read(); entry != null; entry = reader.read()) {
+                if (processed < skipped) {
+                    processed++;
+                    continue;
+                }
+                batch.add(entry);
+                if (batch.size() >= request.getBatchSize()) {
+                    processed += provision(batch, executor);
+                    checkpoint.save(processed);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                processed += provision(batch, executor);
+            }
+            checkpoint.delete();
+            logger.info("Provisioning of [{}] completed with [{}] users", source, processed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param source the export to provision.
+     * @return the reader of the export, in the requested format.
+     * @throws IOException if the export cannot be opened.
+     */
+    private ProvisioningEntryReader createReader(File source) throws IOException
+    {
+        ProvisioningFormat format = ProvisioningFormat.valueOf(request.getFormat().toUpperCase(Locale.ROOT));
+        String rolesField = request.getRolesField();
+        if (rolesField == null) {
+            rolesField = format == ProvisioningFormat.LDIF ? DEFAULT_LDIF_ROLES_FIELD : DEFAULT_ROLES_FIELD;
+        }
+
+        return format.createReader(Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8),
+            request.getUidField(), rolesField);
+    }
+
+    /**
+     * @param checkpoint the progress of a previous provisioning of the export.
+     * @param source the export being provisioned.
+     * @return the number of users already provisioned, to skip when resuming the provisioning.
+     * @throws IOException if the checkpoint cannot be read.
+     */
+    private long getSkipped(ProvisioningCheckpoint checkpoint, File source) throws IOException
+    {
+        long skipped = request.isResume() ? checkpoint.getProcessed() : 0;
+        if (skipped > 0) {
+            logger.info("Resuming the provisioning of [{}] after [{}] users", source, skipped);
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Create or update the profile of a user from a worker thread, whose context is initialized on the main wiki.
+     *
+     * @param entry the user to provision.
+     * @param wikiId the wiki in which the user is provisioned.
+     * @return the provisioned user, whose memberships remain to be applied, or null if the user has been skipped.
+     * @throws XWikiException if the user profile cannot be saved.
+     */
+    private ProvisionedUser provisionProfile(ProvisioningEntry entry, String wikiId) throws XWikiException
+    {
+        contextProvider.get().setWikiId(wikiId);
+
+        return provisioningUserManager.provisionProfile(entry);
+    }
+
+    /**
+     * Provision a batch of users.
+     *
+     * @param batch the users to provision.
+     * @param executor the executor used to provision the user profiles in parallel.
+     * @return the number of users processed.
+     * @throws InterruptedException if the job has been interrupted.
+     */
+    private int provision(List<ProvisioningEntry> batch, ExecutorService executor) throws InterruptedException
+    {
+        // Create or update the user profiles in parallel, each profile being an independent document
+        String wikiId = contextProvider.get().getWikiId();
+        List<FutureTask<ProvisionedUser>> tasks = new ArrayList<>(batch.size());
+        for (ProvisioningEntry entry : batch) {
+            FutureTask<ProvisionedUser> task = new FutureTask<>(() -> provisionProfile(entry, wikiId));
+            executor.execute(new ExecutionContextRunnable(task, componentManager));
+            tasks.add(task);
+        }
+
+        List<ProvisionedUser> users = new ArrayList<>(batch.size());
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    ProvisionedUser user = tasks.get(i).get();
+                    if (user != null) {
+                        users.add(user);
+                    }
+                } catch (ExecutionException e) {
+                    logger.error("Failed to provision user [{}]", batch.get(i), e.getCause());
+                }
+            }
+        } finally {
+            // The profiles are saved with their digest, apply their memberships even if the job is interrupted
+            provisioningUserManager.applyMemberships(users);
+        }
+
+        logger.info("Provisioned [{}] users", batch.size());
+
+        return batch.size();
+    }
+}
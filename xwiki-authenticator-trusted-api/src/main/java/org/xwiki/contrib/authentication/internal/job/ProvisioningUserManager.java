@@ -0,0 +1,326 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.authentication.internal.DeferredGroupMembershipManager;
+import org.xwiki.contrib.authentication.internal.GroupShardingManager;
+import org.xwiki.contrib.authentication.internal.SynchronizationDigestManager;
+import org.xwiki.contrib.authentication.internal.UserProfileDocumentManager;
+import org.xwiki.contrib.authentication.internal.UserSynchronizationRules;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Create or update the users provisioned by the {@link ProvisioningJob} and apply their group memberships, with the
+ * same rules as the trusted authenticator. The memberships are applied to a batch of users at once, saving each group
+ * once.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { ProvisioningUserManager.class })
+@Singleton
+public class ProvisioningUserManager
+{
+    private static final LocalDocumentReference GROUP_CLASS_REFERENCE =
+        new LocalDocumentReference("XWiki", "XWikiGroups");
+
+    private static final String GROUP_PROPERTY_MEMBER = "member";
+
+    private static final String USER_PROPERTY_ACTIVE = "active";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private UserSynchronizationRules userSynchronizationRules;
+
+    @Inject
+    private UserProfileDocumentManager userProfileDocumentManager;
+
+    @Inject
+    private SynchronizationDigestManager synchronizationDigestManager;
+
+    @Inject
+    private DeferredGroupMembershipManager deferredGroupMembershipManager;
+
+    @Inject
+    private GroupShardingManager groupShardingManager;
+
+    @Inject
+    @Named("compactwiki")
+    private EntityReferenceSerializer<String> compactWikiEntityReferenceSerializer;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The memberships to apply to a group.
+     */
+    private static final class GroupChanges
+    {
+        private final Set<String> membersIn = new HashSet<>();
+
+        private final Set<String> membersOut = new HashSet<>();
+
+        private final Set<DocumentReference> users = new HashSet<>();
+
+        private boolean autoCreate;
+    }
+
+    /**
+     * Create or update the profile of a user, including its synchronization digest, with a single save. The profile
+     * is left untouched if its digest is unchanged.
+     *
+     * @param entry the user to provision.
+     * @return the provisioned user, whose memberships remain to be applied, or null if the user has been skipped.
+     * @throws XWikiException if the user profile cannot be saved.
+     */
+    public ProvisionedUser provisionProfile(ProvisioningEntry entry) throws XWikiException
+    {
+        if (StringUtils.isBlank(entry.getUserUid())) {
+            logger.warn("Skipping user without identifier");
+            return null;
+        }
+
+        ProvisioningEntryAdapter adapter = new ProvisioningEntryAdapter(entry);
+        DocumentReference user = userSynchronizationRules.getUserProfileReference(adapter, entry.getUserUid());
+        Map<String, String> extInfos = userSynchronizationRules.getExtendedInformations(adapter);
+        String digest = userSynchronizationRules.getSynchronizationDigest(adapter, entry.getUserUid(), extInfos);
+
+        XWikiContext context = contextProvider.get();
+        String database = context.getWikiId();
+        try {
+            // Switch to the wiki of the user, like when authenticating
+            context.setWikiId(user.getWikiReference().getName());
+            XWiki xwiki = context.getWiki();
+
+            XWikiDocument userDocument = xwiki.getDocument(user, context);
+            boolean created = userDocument.isNew();
+            if (created) {
+                Map<String, String> extended = new HashMap<>(extInfos);
+                extended.putIfAbsent(USER_PROPERTY_ACTIVE, "1");
+                userDocument = userProfileDocumentManager.createUserDocument(user, extended, context);
+            } else if (digest.equals(synchronizationDigestManager.getDigest(user))) {
+                // The memberships may not have been saved with the profile, like when the job has been interrupted
+                logger.debug("User [{}] already provisioned with the same information", user);
+                return new ProvisionedUser(user, adapter, false);
+            } else {
+                userDocument = userDocument.clone();
+                userProfileDocumentManager.updateUserDocument(userDocument, extInfos, context);
+            }
+            synchronizationDigestManager.setDigest(userDocument, digest, context);
+            xwiki.saveDocument(userDocument, created ? "Provisioned user" : "Provisioning user synchronization",
+                context);
+
+            return new ProvisionedUser(user, adapter, created);
+        } finally {
+            context.setWikiId(database);
+        }
+    }
+
+    /**
+     * Apply the memberships of a batch of users, saving each group once.
+     *
+     * @param users the provisioned users.
+     */
+    public void applyMemberships(List<ProvisionedUser> users)
+    {
+        Map<DocumentReference, GroupChanges> changes = getGroupChanges(users);
+        boolean started = synchronizationDigestManager.startGroupsSynchronization();
+        try {
+            applyGroupChanges(changes);
+        } finally {
+            synchronizationDigestManager.endGroupsSynchronization(started);
+        }
+
+        // Switch the groups which have grown too large to sharding before the next batch
+        for (DocumentReference group : changes.keySet()) {
+            groupShardingManager.checkShardingThreshold(group);
+        }
+    }
+
+    /**
+     * Collect the memberships to apply for a batch of users, with the same rules as the authenticator. New users are
+     * also added to the initial groups of their wiki.
+     *
+     * @param users the provisioned users.
+     * @return the memberships to apply, indexed by group.
+     */
+    private Map<DocumentReference, GroupChanges> getGroupChanges(List<ProvisionedUser> users)
+    {
+        XWikiContext context = contextProvider.get();
+        Map<DocumentReference, GroupChanges> changes = new LinkedHashMap<>();
+        Map<String, List<DocumentReference>> initialGroups = new HashMap<>();
+
+        for (ProvisionedUser user : users) {
+            DocumentReference reference = user.getReference();
+            Collection<DocumentReference> groupInRefs = new ArrayList<>();
+            Collection<DocumentReference> groupInWithAutoCreateRefs = new ArrayList<>();
+            Collection<DocumentReference> groupOutRefs = new ArrayList<>();
+
+            String database = context.getWikiId();
+            try {
+                String userWiki = reference.getWikiReference().getName();
+                context.setWikiId(userWiki);
+                if (!userSynchronizationRules.populateGroups(user.getAdapter(), reference, groupInRefs,
+                    groupInWithAutoCreateRefs, groupOutRefs)) {
+                    logger.error("Failed to compute the groups of user [{}]", reference);
+                    continue;
+                }
+                if (user.isCreated()) {
+                    groupInRefs.addAll(initialGroups.computeIfAbsent(userWiki,
+                        wiki -> deferredGroupMembershipManager.getInitialGroups(context)));
+                }
+            } finally {
+                context.setWikiId(database);
+            }
+
+            for (DocumentReference group : groupInRefs) {
+                addMember(changes, group, reference, false);
+            }
+            for (DocumentReference group : groupInWithAutoCreateRefs) {
+                addMember(changes, group, reference, true);
+            }
+            for (DocumentReference group : groupOutRefs) {
+                // Make sure that the user is also removed from previous shards, and from the initial, non-sharded group
+                // until its members are moved to the shards
+                for (DocumentReference shard : groupShardingManager.getShardedGroupReferences(group, reference)) {
+                    removeMember(changes, shard, reference);
+                }
+                if (!groupShardingManager.isMigrated(group)) {
+                    removeMember(changes, group, reference);
+                }
+            }
+        }
+
+        return changes;
+    }
+
+    private void addMember(Map<DocumentReference, GroupChanges> changes, DocumentReference group,
+        DocumentReference user, boolean autoCreate)
+    {
+        DocumentReference shard = groupShardingManager.getShardedGroupReference(group, user);
+        if (!shard.equals(group) && !changes.containsKey(shard)) {
+            groupShardingManager.setupGroupShard(group, shard);
+        }
+
+        GroupChanges groupChanges = changes.computeIfAbsent(shard, key -> new GroupChanges());
+        groupChanges.membersIn.add(compactWikiEntityReferenceSerializer.serialize(user, shard));
+        groupChanges.users.add(user);
+        groupChanges.autoCreate |= autoCreate || !shard.equals(group);
+    }
+
+    private void removeMember(Map<DocumentReference, GroupChanges> changes, DocumentReference group,
+        DocumentReference user)
+    {
+        GroupChanges groupChanges = changes.computeIfAbsent(group, key -> new GroupChanges());
+        groupChanges.membersOut.add(compactWikiEntityReferenceSerializer.serialize(user, group));
+        groupChanges.users.add(user);
+    }
+
+    private void applyGroupChanges(Map<DocumentReference, GroupChanges> changes)
+    {
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+
+        for (Map.Entry<DocumentReference, GroupChanges> entry : changes.entrySet()) {
+            DocumentReference group = entry.getKey();
+            GroupChanges groupChanges = entry.getValue();
+            try {
+                XWikiDocument groupDocument = xwiki.getDocument(group, context);
+                if (groupDocument.isNew() && !groupChanges.autoCreate) {
+                    if (!groupChanges.membersIn.isEmpty()) {
+                        logger.error("Users cannot be added to unknown group [{}]", group);
+                    }
+                    continue;
+                }
+                groupDocument = groupDocument.clone();
+
+                if (applyGroupChanges(groupDocument, groupChanges, context)) {
+                    xwiki.saveDocument(groupDocument, "Trusted authentication provisioning", context);
+                }
+            } catch (XWikiException e) {
+                logger.error("Failed to provision the members of group [{}]", group, e);
+                // Synchronize the users again on their next login instead of trusting their digest
+                for (DocumentReference user : groupChanges.users) {
+                    synchronizationDigestManager.invalidateDigest(user);
+                }
+            }
+        }
+    }
+
+    private boolean applyGroupChanges(XWikiDocument groupDocument, GroupChanges groupChanges, XWikiContext context)
+        throws XWikiException
+    {
+        boolean modified = false;
+
+        Set<String> currentMembers = new HashSet<>();
+        List<BaseObject> memberObjects = groupDocument.getXObjects(GROUP_CLASS_REFERENCE);
+        if (memberObjects != null) {
+            for (BaseObject memberObj : new ArrayList<>(memberObjects)) {
+                if (memberObj == null) {
+                    continue;
+                }
+                String member = memberObj.getStringValue(GROUP_PROPERTY_MEMBER);
+                if (groupChanges.membersOut.contains(member) && !groupChanges.membersIn.contains(member)) {
+                    groupDocument.removeXObject(memberObj);
+                    modified = true;
+                } else {
+                    currentMembers.add(member);
+                }
+            }
+        }
+
+        for (String member : groupChanges.membersIn) {
+            if (currentMembers.add(member)) {
+                BaseObject memberObj = groupDocument.newXObject(GROUP_CLASS_REFERENCE, context);
+                memberObj.setStringValue(GROUP_PROPERTY_MEMBER, member);
+                modified = true;
+            }
+        }
+
+        return modified;
+    }
+}
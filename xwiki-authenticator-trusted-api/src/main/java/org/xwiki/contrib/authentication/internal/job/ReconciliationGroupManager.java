@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.authentication.DynamicRoleConfiguration;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.contrib.authentication.internal.GroupMappingIndex;
+import org.xwiki.contrib.authentication.internal.GroupShardingManager;
+import org.xwiki.contrib.authentication.internal.UserSynchronizationRules;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * List the groups whose members are reconciled by the {@link ReconciliationJob}, which are the groups managed by the
+ * trusted authenticator.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { ReconciliationGroupManager.class })
+@Singleton
+public class ReconciliationGroupManager
+{
+    private static final String GROUPS_QUERY = "select distinct obj.name from BaseObject obj "
+        + "where obj.className = 'XWiki.XWikiGroups' and obj.name like :group";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private TrustedAuthenticationConfiguration configuration;
+
+    @Inject
+    private UserSynchronizationRules userSynchronizationRules;
+
+    @Inject
+    private GroupMappingIndex groupMappingIndex;
+
+    @Inject
+    private GroupShardingManager groupShardingManager;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> currentDocumentReferenceResolver;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @return the groups mapped to roles and the existing groups matching a dynamic role configuration, without their
+     *         shards.
+     */
+    public Set<DocumentReference> getManagedGroups()
+    {
+        Set<DocumentReference> groups = new LinkedHashSet<>(groupMappingIndex.getMappings().keySet());
+
+        Collection<DynamicRoleConfiguration> configs = configuration.getDynamicRoleConfigurations();
+        if (configs != null) {
+            for (DynamicRoleConfiguration conf : configs) {
+                groups.addAll(getDynamicRoleGroups(conf));
+            }
+        }
+
+        // Shards are reconciled along with their group
+        for (DocumentReference group : new ArrayList<>(groups)) {
+            groups.removeAll(groupShardingManager.getGroupShards(group));
+        }
+
+        return groups;
+    }
+
+    private List<DocumentReference> getDynamicRoleGroups(DynamicRoleConfiguration conf)
+    {
+        String[] wikiAndGroupPrefix = conf.getGroupPrefix().split(":", 2);
+        WikiReference wiki = new WikiReference(
+            wikiAndGroupPrefix.length > 1 ? wikiAndGroupPrefix[0] : contextProvider.get().getWikiId());
+
+        List<DocumentReference> groups = new ArrayList<>();
+        try {
+            List<String> results = queryManager.createQuery(GROUPS_QUERY, Query.HQL)
+                .bindValue("group", wikiAndGroupPrefix[wikiAndGroupPrefix.length - 1] + '%' + conf.getGroupSuffix())
+                .setWiki(wiki.getName()).execute();
+            for (String result : results) {
+                // The query pattern is looser than the configuration
+                DocumentReference group = currentDocumentReferenceResolver.resolve(result, wiki);
+                if (userSynchronizationRules.isManagedGroup(group)) {
+                    groups.add(group);
+                }
+            }
+        } catch (QueryException e) {
+            logger.error("Failed to list the groups of dynamic role configuration [{}]", conf, e);
+        }
+
+        return groups;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.contrib.authentication.internal.GroupShardingManager;
+import org.xwiki.contrib.authentication.internal.UserSynchronizationRules;
+import org.xwiki.contrib.authentication.job.ReconciliationRequest;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Remove the users of an identity provider snapshot from the groups managed by the trusted authenticator, mapped to
+ * roles or matching a dynamic role configuration, when they no longer have a role of these groups. Group membership is
+ * otherwise only corrected when users log in. The memberships to remove from a group are the snapshot users among its
+ * members minus the users expected in it, and are removed with a single save of the group, or of each of its shards,
+ * per chunk of at most the number of memberships allowed to be removed per second. Members which are not part of the
+ * snapshot, like local users or sub-groups, are left untouched. The number of memberships removed per second is
+ * limited, the job pausing between the chunks, so that it can run while the wiki is in use.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component
+@Named(ReconciliationJob.JOBTYPE)
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+public class ReconciliationJob extends AbstractJob<ReconciliationRequest, DefaultJobStatus<ReconciliationRequest>>
+{
+    /**
+     * The id of the job type.
+     */
+    public static final String JOBTYPE = "authenticator.trusted.reconciliation";
+
+    private static final LocalDocumentReference GROUP_CLASS_REFERENCE =
+        new LocalDocumentReference("XWiki", "XWikiGroups");
+
+    private static final String GROUP_PROPERTY_MEMBER = "member";
+
+    private static final String DEFAULT_ROLES_FIELD = "roles";
+
+    private static final String DEFAULT_LDIF_ROLES_FIELD = "memberOf";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private UserSynchronizationRules userSynchronizationRules;
+
+    @Inject
+    private ReconciliationGroupManager reconciliationGroupManager;
+
+    @Inject
+    private GroupShardingManager groupShardingManager;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> currentDocumentReferenceResolver;
+
+    /**
+     * The users of the snapshot.
+     */
+    private final Set<DocumentReference> snapshotUsers = new HashSet<>();
+
+    /**
+     * The snapshot users expected in each group, given their roles.
+     */
+    private final Map<DocumentReference, Set<DocumentReference>> expectedMembers = new HashMap<>();
+
+    private long removalStart;
+
+    private long removals;
+
+    @Override
+    public String getType()
+    {
+        return JOBTYPE;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        XWikiContext context = contextProvider.get();
+        if (request.getWiki() != null) {
+            context.setWikiId(request.getWiki());
+        }
+
+        File source = new File(request.getSource());
+        readSnapshot(source);
+        logger.info("Read [{}] users from snapshot [{}]", snapshotUsers.size(), source);
+
+        Set<DocumentReference> groups = reconciliationGroupManager.getManagedGroups();
+        logger.info("Reconciling the members of [{}] groups", groups.size());
+
+        removalStart = System.nanoTime();
+        for (DocumentReference group : groups) {
+            Set<DocumentReference> expected = expectedMembers.getOrDefault(group, Collections.emptySet());
+            reconcile(group, expected);
+            for (DocumentReference shard : groupShardingManager.getGroupShards(group)) {
+                reconcile(shard, expected);
+            }
+        }
+
+        logger.info("Reconciliation of [{}] completed with [{}] memberships removed", source, removals);
+    }
+
+    private void readSnapshot(File source) throws IOException
+    {
+        ProvisioningFormat format = ProvisioningFormat.valueOf(request.getFormat().toUpperCase(Locale.ROOT));
+        String rolesField = request.getRolesField();
+        if (rolesField == null) {
+            rolesField = format == ProvisioningFormat.LDIF ? DEFAULT_LDIF_ROLES_FIELD : DEFAULT_ROLES_FIELD;
+        }
+
+        try (ProvisioningEntryReader reader = format.createReader(
+            Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8), request.getUidField(), rolesField)) {
+            for (ProvisioningEntry entry = reader.read(); entry != null; entry = reader.read()) {
+                if (StringUtils.isBlank(entry.getUserUid())) {
+                    logger.warn("Skipping user without identifier");
+                    continue;
+                }
+
+                DocumentReference user = userSynchronizationRules
+                    .getUserProfileReference(new ProvisioningEntryAdapter(entry), entry.getUserUid());
+                snapshotUsers.add(user);
+                for (DocumentReference group : userSynchronizationRules.getRoleGroups(entry.getRoles())) {
+                    expectedMembers.computeIfAbsent(group, key -> new HashSet<>()).add(user);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove from a group, or one of its shards, the snapshot users which are not expected in it.
+     *
+     * @param group the group or shard
+     * @param expected the snapshot users expected in the group
+     * @throws InterruptedException if the job has been interrupted while waiting for the throughput limit
+     */
+    private void reconcile(DocumentReference group, Set<DocumentReference> expected) throws InterruptedException
+    {
+        XWikiContext context = contextProvider.get();
+
+        try {
+            XWikiDocument groupDocument = context.getWiki().getDocument(group, context);
+            List<BaseObject> memberObjects = groupDocument.getXObjects(GROUP_CLASS_REFERENCE);
+            if (memberObjects == null) {
+                return;
+            }
+
+            Map<DocumentReference, List<BaseObject>> objectsByMember = new LinkedHashMap<>();
+            for (BaseObject memberObject : memberObjects) {
+                String member = memberObject != null ? memberObject.getStringValue(GROUP_PROPERTY_MEMBER) : null;
+                if (StringUtils.isNotBlank(member)) {
+                    objectsByMember.computeIfAbsent(currentDocumentReferenceResolver.resolve(member, group),
+                        key -> new ArrayList<>()).add(memberObject);
+                }
+            }
+
+            List<DocumentReference> removedMembers = new ArrayList<>(objectsByMember.keySet());
+            removedMembers.retainAll(snapshotUsers);
+            removedMembers.removeAll(expected);
+
+            // Keep each save under the limit, pausing between them
+            int maxRemovalsPerSecond = request.getMaxRemovalsPerSecond();
+            int chunkSize = maxRemovalsPerSecond > 0 ? maxRemovalsPerSecond : removedMembers.size();
+            for (int start = 0; start < removedMembers.size(); start += chunkSize) {
+                int removed = removeMembers(group,
+                    removedMembers.subList(start, Math.min(start + chunkSize, removedMembers.size())), objectsByMember);
+                throttle(removed);
+            }
+        } catch (XWikiException e) {
+            logger.error("Failed to reconcile the members of group [{}]", group, e);
+        }
+    }
+
+    /**
+     * Remove a chunk of members from a group, or one of its shards, with a single save.
+     *
+     * @param group the group or shard
+     * @param members the members to remove
+     * @param objectsByMember the member objects of the group, indexed by member
+     * @return the number of removed members
+     * @throws XWikiException if the group cannot be saved
+     */
+    private int removeMembers(DocumentReference group, List<DocumentReference> members,
+        Map<DocumentReference, List<BaseObject>> objectsByMember) throws XWikiException
+    {
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+
+        // Start from the latest version of the group, which may have been modified since the previous chunk
+        XWikiDocument groupDocument = xwiki.getDocument(group, context).clone();
+        int removed = 0;
+        for (DocumentReference member : members) {
+            boolean memberRemoved = false;
+            for (BaseObject memberObject : objectsByMember.get(member)) {
+                BaseObject currentObject = groupDocument.getXObject(GROUP_CLASS_REFERENCE, memberObject.getNumber());
+                if (currentObject != null && memberObject.getStringValue(GROUP_PROPERTY_MEMBER)
+                    .equals(currentObject.getStringValue(GROUP_PROPERTY_MEMBER))) {
+                    groupDocument.removeXObject(currentObject);
+                    memberRemoved = true;
+                }
+            }
+            if (memberRemoved) {
+                removed++;
+            }
+        }
+
+        if (removed > 0) {
+            xwiki.saveDocument(groupDocument, "Trusted authentication reconciliation", true, context);
+            logger.info("Removed [{}] members from group [{}]", removed, group);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Wait until the memberships removed since the start of the reconciliation are back under the throughput limit.
+     *
+     * @param removed the number of memberships just removed
+     * @throws InterruptedException if the job has been interrupted
+     */
+    private void throttle(int removed) throws InterruptedException
+    {
+        removals += removed;
+
+        int maxRemovalsPerSecond = request.getMaxRemovalsPerSecond();
+        if (maxRemovalsPerSecond > 0) {
+            long due = removalStart + removals * TimeUnit.SECONDS.toNanos(1) / maxRemovalsPerSecond;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.contrib.authentication.internal.GroupShardingManager;
+import org.xwiki.contrib.authentication.internal.SynchronizationDigestManager;
+import org.xwiki.contrib.authentication.job.ReshardingRequest;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Move the members of a sharded group from the shards of a previous number of shards to the shards matching its
+ * configured number of shards, while the wiki is in use. The members added to the group before it was sharded are
+ * moved to the shards the same way. Each batch of members is first added to the new shards, which are set-up as
+ * members of the group beforehand, and only then removed from the old shard, so that a member is always found by
+ * rights checks. Old shards are removed from the group once empty.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component
+@Named(ReshardingJob.JOBTYPE)
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+public class ReshardingJob extends AbstractJob<ReshardingRequest, DefaultJobStatus<ReshardingRequest>>
+{
+    /**
+     * The id of the job type.
+     */
+    public static final String JOBTYPE = "authenticator.trusted.resharding";
+
+    private static final LocalDocumentReference GROUP_CLASS_REFERENCE =
+        new LocalDocumentReference("XWiki", "XWikiGroups");
+
+    private static final String GROUP_PROPERTY_MEMBER = "member";
+
+    private static final String SHARD_SEPARATOR = "-Shard";
+
+    private static final String SAVE_COMMENT = "Re-sharding";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private GroupShardingManager groupShardingManager;
+
+    @Inject
+    private SynchronizationDigestManager synchronizationDigestManager;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> currentDocumentReferenceResolver;
+
+    @Inject
+    @Named("compactwiki")
+    private EntityReferenceSerializer<String> compactWikiEntityReferenceSerializer;
+
+    @Override
+    public String getType()
+    {
+        return JOBTYPE;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        // Moving the members between the shards of their group doesn't modify their memberships
+        boolean started = synchronizationDigestManager.startGroupsSynchronization();
+        try {
+            reshard(request.getGroup());
+        } finally {
+            synchronizationDigestManager.endGroupsSynchronization(started);
+        }
+    }
+
+    private void reshard(DocumentReference group) throws XWikiException
+    {
+        if (groupShardingManager.isSharded(group)) {
+            // Move the members added to the group before it was sharded all at once, saving each shard once, and
+            // record it so that users only need to be removed from their shard from now on
+            logger.info("Moving the direct members of group [{}]", group);
+            moveMembers(group, group, Integer.MAX_VALUE);
+            groupShardingManager.setMigrated(group);
+        }
+
+        int prefixLength = groupShardingManager.getShardPrefixLength(group);
+        int shardNameLength = group.getName().length() + SHARD_SEPARATOR.length() + prefixLength;
+
+        for (DocumentReference shard : groupShardingManager.getGroupShards(group)) {
+            if (shard.getName().length() != shardNameLength) {
+                logger.info("Moving the members of shard [{}]", shard);
+                moveMembers(group, shard, request.getBatchSize());
+                removeShard(group, shard);
+            }
+        }
+
+        logger.info("Re-sharding of group [{}] completed", group);
+    }
+
+    /**
+     * Move the members of a group or of an old shard to their shard.
+     *
+     * @param group the sharded group
+     * @param source the group or old shard holding the members to move
+     * @param batchSize the number of members moved together
+     * @throws XWikiException if a group cannot be saved
+     */
+    private void moveMembers(DocumentReference group, DocumentReference source, int batchSize)
+        throws XWikiException
+    {
+        long moved = 0;
+        for (List<BaseObject> batch = getBatch(group, source, batchSize); !batch.isEmpty();
+            batch = getBatch(group, source, batchSize)) {
+            // Add the members to their new shard first
+            Map<DocumentReference, List<DocumentReference>> newShardMembers = new LinkedHashMap<>();
+            for (BaseObject memberObject : batch) {
+                String member = memberObject.getStringValue(GROUP_PROPERTY_MEMBER);
+                if (StringUtils.isNotBlank(member)) {
+                    DocumentReference user = currentDocumentReferenceResolver.resolve(member, source);
+                    newShardMembers.computeIfAbsent(groupShardingManager.getShardedGroupReference(group, user),
+                        key -> new ArrayList<>()).add(user);
+                }
+            }
+            Set<DocumentReference> addedUsers = new HashSet<>();
+            for (Map.Entry<DocumentReference, List<DocumentReference>> entry : newShardMembers.entrySet()) {
+                addedUsers.addAll(addMembers(group, entry.getKey(), entry.getValue()));
+            }
+
+            // Then remove from the source the members found in their new shard, the others are retried with the next
+            // batch
+            moved += removeMembers(source, batch, addedUsers);
+            logger.info("Moved [{}] members of [{}]", moved, source);
+        }
+    }
+
+    /**
+     * Remove a batch of members from the group or old shard holding them.
+     *
+     * @param source the group or old shard holding the members to move
+     * @param batch the member objects to remove
+     * @param addedUsers the users found in their new shard, the other users being kept in the source
+     * @return the number of removed members
+     * @throws XWikiException if the source cannot be saved, or if none of the remaining members could be moved
+     */
+    private int removeMembers(DocumentReference source, List<BaseObject> batch, Set<DocumentReference> addedUsers)
+        throws XWikiException
+    {
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+
+        XWikiDocument sourceDocument = xwiki.getDocument(source, context).clone();
+        int removed = 0;
+        int kept = 0;
+        for (BaseObject memberObject : batch) {
+            String member = memberObject.getStringValue(GROUP_PROPERTY_MEMBER);
+            BaseObject sourceObject = sourceDocument.getXObject(GROUP_CLASS_REFERENCE, memberObject.getNumber());
+            // Skip the members already removed, or replaced, since the batch has been read
+            if (sourceObject == null || !member.equals(sourceObject.getStringValue(GROUP_PROPERTY_MEMBER))) {
+                continue;
+            }
+            if (StringUtils.isBlank(member)
+                || addedUsers.contains(currentDocumentReferenceResolver.resolve(member, source))) {
+                sourceDocument.removeXObject(sourceObject);
+                removed++;
+            } else {
+                kept++;
+            }
+        }
+
+        if (removed > 0) {
+            xwiki.saveDocument(sourceDocument, SAVE_COMMENT, true, context);
+        } else if (kept > 0) {
+            // Retrying would read the very same batch again
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_DOC,
+                String.format("Failed to move the members of [%s] to their shard", source));
+        }
+
+        return removed;
+    }
+
+    private void removeShard(DocumentReference group, DocumentReference oldShard) throws XWikiException
+    {
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+
+        groupShardingManager.removeGroupShard(group, oldShard);
+        XWikiDocument oldShardDocument = xwiki.getDocument(oldShard, context);
+        if (!oldShardDocument.isNew()) {
+            xwiki.deleteDocument(oldShardDocument, context);
+        }
+    }
+
+    private List<BaseObject> getBatch(DocumentReference group, DocumentReference source, int batchSize)
+        throws XWikiException
+    {
+        XWikiContext context = contextProvider.get();
+        XWikiDocument sourceDocument = context.getWiki().getDocument(source, context);
+
+        // The shards of the group are not moved
+        Set<DocumentReference> shards = groupShardingManager.getGroupShards(group);
+        String shardPrefix = group.getName() + SHARD_SEPARATOR;
+
+        List<BaseObject> batch = new ArrayList<>();
+        List<BaseObject> memberObjects = sourceDocument.getXObjects(GROUP_CLASS_REFERENCE);
+        if (memberObjects != null) {
+            for (BaseObject memberObject : memberObjects) {
+                if (memberObject != null && !isShard(memberObject, source, shards, shardPrefix)) {
+                    batch.add(memberObject);
+                    if (batch.size() >= batchSize) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return batch;
+    }
+
+    private boolean isShard(BaseObject memberObject, DocumentReference source, Set<DocumentReference> shards,
+        String shardPrefix)
+    {
+        String member = memberObject.getStringValue(GROUP_PROPERTY_MEMBER);
+        if (StringUtils.isBlank(member) || !member.contains(shardPrefix)) {
+            return false;
+        }
+
+        DocumentReference reference = currentDocumentReferenceResolver.resolve(member, source);
+
+        return shards.contains(reference) || reference.getName().startsWith(shardPrefix);
+    }
+
+    /**
+     * Add users to a shard.
+     *
+     * @param group the sharded group
+     * @param shard the shard of the users
+     * @param users the users to add
+     * @return the users found in the shard once saved, a login modifying the shard at the same time may have saved it
+     *         without the added users
+     * @throws XWikiException if the shard cannot be saved
+     */
+    private Set<DocumentReference> addMembers(DocumentReference group, DocumentReference shard,
+        List<DocumentReference> users) throws XWikiException
+    {
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+
+        if (!shard.equals(group)) {
+            groupShardingManager.setupGroupShard(group, shard);
+        }
+
+        XWikiDocument shardDocument = xwiki.getDocument(shard, context).clone();
+        Set<String> currentMembers = getMembers(shardDocument);
+
+        boolean modified = false;
+        for (DocumentReference user : users) {
+            String member = compactWikiEntityReferenceSerializer.serialize(user, shard);
+            if (currentMembers.add(member)) {
+                BaseObject memberObject = shardDocument.newXObject(GROUP_CLASS_REFERENCE, context);
+                memberObject.setStringValue(GROUP_PROPERTY_MEMBER, member);
+                modified = true;
+            }
+        }
+
+        if (modified) {
+            xwiki.saveDocument(shardDocument, SAVE_COMMENT, true, context);
+        }
+
+        // Read the shard again to only keep the members actually saved
+        Set<String> savedMembers = getMembers(xwiki.getDocument(shard, context));
+        Set<DocumentReference> addedUsers = new HashSet<>();
+        for (DocumentReference user : users) {
+            if (savedMembers.contains(compactWikiEntityReferenceSerializer.serialize(user, shard))) {
+                addedUsers.add(user);
+            }
+        }
+
+        return addedUsers;
+    }
+
+    private Set<String> getMembers(XWikiDocument groupDocument)
+    {
+        Set<String> members = new HashSet<>();
+        List<BaseObject> memberObjects = groupDocument.getXObjects(GROUP_CLASS_REFERENCE);
+        if (memberObjects != null) {
+            for (BaseObject memberObject : memberObjects) {
+                if (memberObject != null) {
+                    members.add(memberObject.getStringValue(GROUP_PROPERTY_MEMBER));
+                }
+            }
+        }
+
+        return members;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.job;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.concurrent.ContextStoreManager;
+import org.xwiki.contrib.authentication.job.ReshardingRequest;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Start the {@link ReshardingJob} of the groups switched to sharding automatically, outside of any script.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { ReshardingJobStarter.class })
+@Singleton
+public class ReshardingJobStarter
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private ContextStoreManager contextStoreManager;
+
+    @Inject
+    private JobExecutor jobExecutor;
+
+    /**
+     * Start moving the members of a group to its shards in the background.
+     *
+     * @param group the sharded group
+     * @return true if the job has been started
+     */
+    public boolean start(DocumentReference group)
+    {
+        ReshardingRequest request = new ReshardingRequest();
+        request.setGroup(group);
+        request.setId(Arrays.asList(ReshardingJob.JOBTYPE, group.toString()));
+
+        try {
+            request.setContext(contextStoreManager.save(contextStoreManager.getSupportedEntries()));
+            jobExecutor.execute(ReshardingJob.JOBTYPE, request);
+        } catch (ComponentLookupException | JobException e) {
+            logger.error("Failed to start moving the members of group [{}] to its shards", group, e);
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Trace of the authentication running in a thread: duration of its phases, number of roles and groups evaluated,
+ * number of documents saved and outcome. The same instance is reused by all the authentications of a thread.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class AuthenticationTrace
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final String DURATION = "duration";
+
+    /**
+     * The number of timings and the total duration in nanoseconds of each phase.
+     */
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+    private final Map<String, long[]> counts = new LinkedHashMap<>();
+
+    /**
+     * The values of all the phases and quantities, reset without iterating over the maps.
+     */
+    private final long[][] allValues;
+
+    private boolean running;
+
+    private long startTime;
+
+    private long documentSaves;
+
+    private String outcome;
+
+    /**
+     * @param phaseNames the names of the phases which can be timed
+     * @param countNames the names of the quantities which can be counted
+     */
+    public AuthenticationTrace(Collection<String> phaseNames, Collection<String> countNames)
+    {
+        for (String phase : phaseNames) {
+            this.phases.put(phase, new long[2]);
+        }
+        for (String count : countNames) {
+            this.counts.put(count, new long[1]);
+        }
+
+        List<long[]> values = new ArrayList<>(this.phases.values());
+        values.addAll(this.counts.values());
+        this.allValues = values.toArray(new long[0][]);
+    }
+
+    /**
+     * Start tracing a new authentication.
+     */
+    public void start()
+    {
+        for (long[] values : this.allValues) {
+            Arrays.fill(values, 0);
+        }
+        this.documentSaves = 0;
+        this.outcome = null;
+        this.startTime = System.nanoTime();
+        this.running = true;
+    }
+
+    /**
+     * Stop tracing the authentication.
+     *
+     * @return the duration of the authentication in nanoseconds
+     */
+    public long stop()
+    {
+        this.running = false;
+        return System.nanoTime() - this.startTime;
+    }
+
+    /**
+     * @return true if an authentication is being traced
+     */
+    public boolean isRunning()
+    {
+        return this.running;
+    }
+
+    /**
+     * @param phase the name of the phase
+     * @param nanos the duration of the phase in nanoseconds
+     */
+    public void addPhase(String phase, long nanos)
+    {
+        long[] timing = this.phases.get(phase);
+        if (timing != null) {
+            timing[0]++;
+            timing[1] += nanos;
+        }
+    }
+
+    /**
+     * @param count the name of the quantity
+     * @param value the value to add to the quantity
+     */
+    public void add(String count, long value)
+    {
+        long[] quantity = this.counts.get(count);
+        if (quantity != null) {
+            quantity[0] += value;
+        }
+    }
+
+    /**
+     * Count a document saved by the authentication.
+     */
+    public void countDocumentSave()
+    {
+        this.documentSaves++;
+    }
+
+    /**
+     * @return the number of documents saved by the authentication
+     */
+    public long getDocumentSaves()
+    {
+        return this.documentSaves;
+    }
+
+    /**
+     * @param outcome the outcome of the authentication
+     */
+    public void setOutcome(String outcome)
+    {
+        this.outcome = outcome;
+    }
+
+    /**
+     * @return the outcome of the authentication, or null if none has been recorded
+     */
+    public String getOutcome()
+    {
+        return this.outcome;
+    }
+
+    /**
+     * @param user the authenticated user, null for public access
+     * @param duration the duration of the authentication in nanoseconds
+     * @return the trace as a single line JSON object
+     * @throws IOException if the JSON fails to be generated
+     */
+    public String toJSON(Object user, long duration) throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField("user", user != null ? user.toString() : null);
+            generator.writeStringField("outcome", this.outcome);
+            generator.writeNumberField(DURATION, duration / NANOS_PER_MILLI);
+            generator.writeNumberField("documentSaves", this.documentSaves);
+            for (Map.Entry<String, long[]> count : this.counts.entrySet()) {
+                generator.writeNumberField(count.getKey(), count.getValue()[0]);
+            }
+            generator.writeObjectFieldStart("phases");
+            for (Map.Entry<String, long[]> phase : this.phases.entrySet()) {
+                long[] timing = phase.getValue();
+                if (timing[0] > 0) {
+                    generator.writeObjectFieldStart(phase.getKey());
+                    generator.writeNumberField("count", timing[0]);
+                    generator.writeNumberField(DURATION, timing[1] / NANOS_PER_MILLI);
+                    generator.writeEndObject();
+                }
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+
+        return writer.toString();
+    }
+}
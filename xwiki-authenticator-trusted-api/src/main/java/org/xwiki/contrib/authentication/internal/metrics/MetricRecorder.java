@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free recorder of a distribution of values (durations in nanoseconds, or plain quantities), keeping the count,
+ * the total and the maximum of the recorded values, and a fixed histogram of them.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class MetricRecorder
+{
+    private final String name;
+
+    private final long[] bounds;
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    private final LongAdder[] buckets;
+
+    /**
+     * @param name the name of the metric.
+     * @param bounds the inclusive upper bounds of the histogram buckets, in ascending order, the last bucket (values
+     *            greater than the last bound) being implicit.
+     */
+    public MetricRecorder(String name, long... bounds)
+    {
+        this.name = name;
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the name of the metric.
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @param value the value to record.
+     */
+    public void record(long value)
+    {
+        this.count.increment();
+        this.total.add(value);
+        this.max.accumulate(value);
+
+        int bucket = 0;
+        while (bucket < this.bounds.length && value > this.bounds[bucket]) {
+            bucket++;
+        }
+        this.buckets[bucket].increment();
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long getCount()
+    {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the sum of the recorded values.
+     */
+    public long getTotal()
+    {
+        return this.total.sum();
+    }
+
+    /**
+     * @return the greatest recorded value.
+     */
+    public long getMax()
+    {
+        return this.max.get();
+    }
+
+    /**
+     * @return the inclusive upper bounds of the histogram buckets.
+     */
+    public long[] getBounds()
+    {
+        return this.bounds.clone();
+    }
+
+    /**
+     * @return the number of recorded values lower or equal to each bound, followed by the total number of recorded
+     *         values (cumulative histogram).
+     */
+    public long[] getCumulativeCounts()
+    {
+        long[] counts = new long[this.buckets.length];
+        long sum = 0;
+        for (int i = 0; i < this.buckets.length; i++) {
+            sum += this.buckets[i].sum();
+            counts[i] = sum;
+        }
+        return counts;
+    }
+}
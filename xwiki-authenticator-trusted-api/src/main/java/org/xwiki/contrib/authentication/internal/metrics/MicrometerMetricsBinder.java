@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.TimeGauge;
+
+/**
+ * Bind the {@link TrustedAuthenticationMetrics} to the Micrometer global registry. This class must only be loaded
+ * when Micrometer is available.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class MicrometerMetricsBinder
+{
+    private static final String PREFIX = "xwiki.authenticator.trusted.";
+
+    private static final String MAX = ".max";
+
+    private final TrustedAuthenticationMetrics metrics;
+
+    private final MeterRegistry registry = Metrics.globalRegistry;
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    /**
+     * @param metrics the metrics to bind.
+     */
+    public MicrometerMetricsBinder(TrustedAuthenticationMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Register the metrics in the global registry.
+     */
+    public void bind()
+    {
+        for (Map.Entry<String, LongAdder> counter : this.metrics.getCounters().entrySet()) {
+            this.meters.add(FunctionCounter.builder(PREFIX + counter.getKey(), counter.getValue(), LongAdder::sum)
+                .register(this.registry));
+        }
+
+        for (Map.Entry<String, LongAdder> gauge : this.metrics.getGauges().entrySet()) {
+            this.meters.add(
+                Gauge.builder(PREFIX + gauge.getKey(), gauge.getValue(), LongAdder::sum).register(this.registry));
+        }
+
+        for (MetricRecorder timer : this.metrics.getTimers()) {
+            String name = PREFIX + timer.getName();
+            this.meters.add(FunctionTimer.builder(name, timer, MetricRecorder::getCount,
+                MetricRecorder::getTotal, TimeUnit.NANOSECONDS).register(this.registry));
+            this.meters.add(TimeGauge.builder(name + MAX, timer, TimeUnit.NANOSECONDS, MetricRecorder::getMax)
+                .register(this.registry));
+        }
+
+        for (MetricRecorder distribution : this.metrics.getDistributions()) {
+            String name = PREFIX + distribution.getName();
+            this.meters.add(FunctionCounter.builder(name + ".count", distribution, MetricRecorder::getCount)
+                .register(this.registry));
+            this.meters.add(FunctionCounter.builder(name + ".total", distribution, MetricRecorder::getTotal)
+                .register(this.registry));
+            this.meters.add(
+                Gauge.builder(name + MAX, distribution, MetricRecorder::getMax).register(this.registry));
+        }
+    }
+
+    /**
+     * Remove the metrics from the global registry.
+     */
+    public void unbind()
+    {
+        for (Meter meter : this.meters) {
+            this.registry.remove(meter);
+        }
+        this.meters.clear();
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Timers and counters of the trusted authentication hot path. The recording is lock-free and does not allocate, the
+ * metrics being exposed as a JMX MBean and, when Micrometer is available, bound to its global registry.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component(roles = { TrustedAuthenticationMetrics.class })
+@Singleton
+public class TrustedAuthenticationMetrics implements Initializable, Disposable
+{
+    /**
+     * Timer of the whole trusted authentication.
+     */
+    public static final String TIMER_AUTHENTICATION = "authentication";
+
+    /**
+     * Timer of the retrieval of the authentication from the persistence store.
+     */
+    public static final String TIMER_PERSISTENCE_RETRIEVE = "persistence.retrieve";
+
+    /**
+     * Timer of the extraction of the user UID by the authentication adapter.
+     */
+    public static final String TIMER_ADAPTER_USER_UID = "adapter.userUid";
+
+    /**
+     * Timer of the extraction of the user information (properties and roles) by the authentication adapter.
+     */
+    public static final String TIMER_ADAPTER_USER_INFORMATION = "adapter.userInformation";
+
+    /**
+     * Timer of the synchronization of the user profile and groups.
+     */
+    public static final String TIMER_SYNCHRONIZATION = "synchronization";
+
+    /**
+     * Timer of the creation of the user profile.
+     */
+    public static final String TIMER_CREATE_USER = "user.create";
+
+    /**
+     * Timer of the synchronization of the user profile properties.
+     */
+    public static final String TIMER_SYNCHRONIZE_USER_PROPERTIES = "user.synchronizeProperties";
+
+    /**
+     * Timer of the synchronization of the user groups.
+     */
+    public static final String TIMER_SYNCHRONIZE_GROUPS = "groups.synchronize";
+
+    /**
+     * Timer of the update of the pages listing the groups created for the dynamic roles.
+     */
+    public static final String TIMER_ADD_GROUP_TO_FIELD = "addGroupToField.save";
+
+    /**
+     * Timer of the notification of the listeners of the {@code UserAuthenticatedEvent}.
+     */
+    public static final String TIMER_AUTHENTICATED_EVENT = "event.authenticated";
+
+    /**
+     * Authentications taken straight from a trusted persistence store.
+     */
+    public static final String COUNTER_FAST_PATH_PERSISTED = "authentication.fastPath.persisted";
+
+    /**
+     * Authentications confirmed by the authentication adapter without synchronization.
+     */
+    public static final String COUNTER_FAST_PATH_CONFIRMED = "authentication.fastPath.confirmed";
+
+    /**
+     * Authentications found in the cache of authenticated users.
+     */
+    public static final String COUNTER_FAST_PATH_CACHED = "authentication.fastPath.cached";
+
+    /**
+     * Authentications with a user already synchronized with the same information.
+     */
+    public static final String COUNTER_FAST_PATH_DIGEST = "authentication.fastPath.digest";
+
+    /**
+     * Authentications that have synchronized the user.
+     */
+    public static final String COUNTER_SYNCHRONIZED = "authentication.synchronized";
+
+    /**
+     * Authentications that failed to synchronize the user.
+     */
+    public static final String COUNTER_FAILED = "authentication.failed";
+
+    /**
+     * Authentications ended with public access.
+     */
+    public static final String COUNTER_PUBLIC = "authentication.public";
+
+    /**
+     * Authentications found in the persistence store.
+     */
+    public static final String COUNTER_PERSISTENCE_HIT = "persistence.hit";
+
+    /**
+     * Authentications not found in the persistence store.
+     */
+    public static final String COUNTER_PERSISTENCE_MISS = "persistence.miss";
+
+    /**
+     * Authentications stored in the persistence store.
+     */
+    public static final String COUNTER_PERSISTENCE_STORE = "persistence.store";
+
+    /**
+     * Clearings of the persistence store.
+     */
+    public static final String COUNTER_PERSISTENCE_CLEAR = "persistence.clear";
+
+    /**
+     * Resolutions of the shard of a user in a sharded group.
+     */
+    public static final String COUNTER_SHARDING_LOOKUP = "sharding.lookup";
+
+    /**
+     * Shards already known to be set-up as members of their sharded group.
+     */
+    public static final String COUNTER_SHARDING_LINK_HIT = "sharding.linkHit";
+
+    /**
+     * Shards added to a sharded group.
+     */
+    public static final String COUNTER_SHARDING_SHARD_ADDED = "sharding.shardAdded";
+
+    /**
+     * Shards removed from a sharded group.
+     */
+    public static final String COUNTER_SHARDING_SHARD_REMOVED = "sharding.shardRemoved";
+
+    /**
+     * Groups switched to sharding after reaching the sharding threshold.
+     */
+    public static final String COUNTER_SHARDING_THRESHOLD = "sharding.threshold";
+
+    /**
+     * Sharded groups whose direct members have been moved to the shards.
+     */
+    public static final String COUNTER_SHARDING_MIGRATED = "sharding.migrated";
+
+    /**
+     * Asynchronous {@code UserAuthenticatedEvent} notified by the request thread since their queue was full.
+     */
+    public static final String COUNTER_AUTHENTICATED_EVENT_OVERFLOW = "event.authenticated.overflow";
+
+    /**
+     * Number of asynchronous {@code UserAuthenticatedEvent} waiting to be notified.
+     */
+    public static final String GAUGE_AUTHENTICATED_EVENT_QUEUE = "event.authenticated.queue";
+
+    /**
+     * Distribution of the number of documents saved during an authentication.
+     */
+    public static final String DISTRIBUTION_DOCUMENT_SAVES = "authentication.documentSaves";
+
+    /**
+     * Number of roles evaluated by an authentication, only traced.
+     */
+    public static final String TRACE_ROLES = "roles";
+
+    /**
+     * Number of groups evaluated by an authentication, only traced.
+     */
+    public static final String TRACE_GROUPS = "groups";
+
+    private static final String[] TIMERS = { TIMER_AUTHENTICATION, TIMER_PERSISTENCE_RETRIEVE, TIMER_ADAPTER_USER_UID,
+        TIMER_ADAPTER_USER_INFORMATION, TIMER_SYNCHRONIZATION, TIMER_CREATE_USER, TIMER_SYNCHRONIZE_USER_PROPERTIES,
+        TIMER_SYNCHRONIZE_GROUPS, TIMER_ADD_GROUP_TO_FIELD, TIMER_AUTHENTICATED_EVENT };
+
+    private static final String[] TRACE_COUNTS = { TRACE_ROLES, TRACE_GROUPS };
+
+    private static final String[] COUNTERS = { COUNTER_FAST_PATH_PERSISTED, COUNTER_FAST_PATH_CONFIRMED,
+        COUNTER_FAST_PATH_CACHED, COUNTER_FAST_PATH_DIGEST, COUNTER_SYNCHRONIZED, COUNTER_FAILED, COUNTER_PUBLIC,
+        COUNTER_PERSISTENCE_HIT, COUNTER_PERSISTENCE_MISS, COUNTER_PERSISTENCE_STORE, COUNTER_PERSISTENCE_CLEAR,
+        COUNTER_SHARDING_LOOKUP, COUNTER_SHARDING_LINK_HIT, COUNTER_SHARDING_SHARD_ADDED,
+        COUNTER_SHARDING_SHARD_REMOVED, COUNTER_SHARDING_THRESHOLD, COUNTER_SHARDING_MIGRATED,
+        COUNTER_AUTHENTICATED_EVENT_OVERFLOW };
+
+    private static final String[] GAUGES = { GAUGE_AUTHENTICATED_EVENT_QUEUE };
+
+    /**
+     * The histogram bounds of the timers, in milliseconds.
+     */
+    private static final long[] TIMER_BOUNDS = { 1, 5, 10, 50, 100, 500, 1000, 5000 };
+
+    private static final long[] DOCUMENT_SAVES_BOUNDS = { 0, 1, 2, 5, 10, 20, 50 };
+
+    private static final String OBJECT_NAME = "org.xwiki.contrib.authentication:type=TrustedAuthenticator,name=metrics";
+
+    private static final String MICROMETER_CLASS = "io.micrometer.core.instrument.Metrics";
+
+    private static final Logger SLOW_LOGGER =
+        LoggerFactory.getLogger("org.xwiki.contrib.authentication.SlowAuthentication");
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private TrustedAuthenticationConfiguration configuration;
+
+    private final Map<String, MetricRecorder> timers = createRecorders(TIMERS, toNanos(TIMER_BOUNDS));
+
+    private final Map<String, LongAdder> counters = createCounters(COUNTERS);
+
+    private final Map<String, LongAdder> gauges = createCounters(GAUGES);
+
+    private final Map<String, MetricRecorder> distributions =
+        createRecorders(new String[] { DISTRIBUTION_DOCUMENT_SAVES }, DOCUMENT_SAVES_BOUNDS);
+
+    /**
+     * The trace of the authentication running in the current thread, with all the phases but the whole authentication.
+     */
+    private final ThreadLocal<AuthenticationTrace> authentication = ThreadLocal.withInitial(
+        () -> new AuthenticationTrace(Arrays.asList(TIMERS).subList(1, TIMERS.length), Arrays.asList(TRACE_COUNTS)));
+
+    /**
+     * The slow authentication threshold in nanoseconds, read from the configuration by the first authentication.
+     */
+    private volatile long slowAuthenticationThreshold = -1;
+
+    private ObjectName objectName;
+
+    private MicrometerMetricsBinder micrometerBinder;
+
+    private static Map<String, MetricRecorder> createRecorders(String[] names, long[] bounds)
+    {
+        Map<String, MetricRecorder> recorders = new LinkedHashMap<>();
+        for (String name : names) {
+            recorders.put(name, new MetricRecorder(name, bounds));
+        }
+        return Collections.unmodifiableMap(recorders);
+    }
+
+    private static Map<String, LongAdder> createCounters(String[] names)
+    {
+        Map<String, LongAdder> adders = new LinkedHashMap<>();
+        for (String name : names) {
+            adders.put(name, new LongAdder());
+        }
+        return Collections.unmodifiableMap(adders);
+    }
+
+    private static long[] toNanos(long[] millis)
+    {
+        long[] nanos = new long[millis.length];
+        for (int i = 0; i < millis.length; i++) {
+            nanos[i] = TimeUnit.MILLISECONDS.toNanos(millis[i]);
+        }
+        return nanos;
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            server.registerMBean(new TrustedAuthenticationMetricsMBean(this), name);
+            this.objectName = name;
+        } catch (JMException e) {
+            // Most probably another instance of the authenticator running in the same JVM
+            logger.warn("Failed to register the trusted authentication metrics in JMX: {}", e.getMessage());
+        }
+
+        if (isMicrometerAvailable()) {
+            this.micrometerBinder = new MicrometerMetricsBinder(this);
+            this.micrometerBinder.bind();
+        }
+    }
+
+    private boolean isMicrometerAvailable()
+    {
+        try {
+            Class.forName(MICROMETER_CLASS, false, getClass().getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            logger.debug("Micrometer is not available, trusted authentication metrics are only exposed in JMX.");
+            return false;
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.micrometerBinder != null) {
+            this.micrometerBinder.unbind();
+        }
+
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException e) {
+                logger.warn("Failed to unregister the trusted authentication metrics from JMX: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the start time to be given to {@link #stop(String, long)}.
+     */
+    public long start()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time elapsed since the given start time, also in the trace of the authentication running in the
+     * current thread.
+     *
+     * @param timer the name of the timer.
+     * @param start the value returned by {@link #start()}.
+     */
+    public void stop(String timer, long start)
+    {
+        long duration = System.nanoTime() - start;
+        this.timers.get(timer).record(duration);
+
+        AuthenticationTrace trace = this.authentication.get();
+        if (trace.isRunning()) {
+            trace.addPhase(timer, duration);
+        }
+    }
+
+    /**
+     * @param counter the name of the counter to increment.
+     */
+    public void increment(String counter)
+    {
+        this.counters.get(counter).increment();
+    }
+
+    /**
+     * @param gauge the name of the gauge to change.
+     * @param delta the value to add to the gauge, negative to decrease it.
+     */
+    public void adjust(String gauge, long delta)
+    {
+        this.gauges.get(gauge).add(delta);
+    }
+
+    /**
+     * Add to a quantity only traced, if an authentication is running in the current thread.
+     *
+     * @param count the name of the quantity ({@link #TRACE_ROLES} or {@link #TRACE_GROUPS})
+     * @param value the value to add
+     */
+    public void trace(String count, long value)
+    {
+        AuthenticationTrace trace = this.authentication.get();
+        if (trace.isRunning()) {
+            trace.add(count, value);
+        }
+    }
+
+    /**
+     * Start tracing the authentication running in the current thread.
+     */
+    public void startAuthentication()
+    {
+        this.authentication.get().start();
+    }
+
+    /**
+     * Count a document save, if an authentication is running in the current thread.
+     */
+    public void countDocumentSave()
+    {
+        AuthenticationTrace trace = this.authentication.get();
+        if (trace.isRunning()) {
+            trace.countDocumentSave();
+        }
+    }
+
+    /**
+     * Increment the counter of an authentication outcome, and remember it as the outcome of the authentication running
+     * in the current thread.
+     *
+     * @param counter the name of the counter of the outcome
+     */
+    public void outcome(String counter)
+    {
+        increment(counter);
+        AuthenticationTrace trace = this.authentication.get();
+        if (trace.isRunning()) {
+            trace.setOutcome(counter);
+        }
+    }
+
+    /**
+     * @return the name of the counter of the outcome of the authentication running in the current thread, or null if
+     *         none has been recorded yet
+     */
+    public String getOutcome()
+    {
+        AuthenticationTrace trace = this.authentication.get();
+        return trace.isRunning() ? trace.getOutcome() : null;
+    }
+
+    /**
+     * Stop tracing the authentication running in the current thread, record the number of documents it saved, and log
+     * its trace if it has been slower than the configured threshold.
+     *
+     * @param user the authenticated user, null for public access
+     */
+    public void stopAuthentication(DocumentReference user)
+    {
+        AuthenticationTrace trace = this.authentication.get();
+        if (!trace.isRunning()) {
+            return;
+        }
+
+        long duration = trace.stop();
+        this.distributions.get(DISTRIBUTION_DOCUMENT_SAVES).record(trace.getDocumentSaves());
+
+        long threshold = getSlowAuthenticationThreshold();
+        if (threshold > 0 && duration >= threshold && SLOW_LOGGER.isWarnEnabled()) {
+            try {
+                SLOW_LOGGER.warn(trace.toJSON(user, duration));
+            } catch (IOException e) {
+                logger.warn("Failed to trace the slow authentication of user [{}]: {}", user, e.getMessage());
+            }
+        }
+    }
+
+    private long getSlowAuthenticationThreshold()
+    {
+        long threshold = this.slowAuthenticationThreshold;
+        if (threshold < 0) {
+            threshold = TimeUnit.MILLISECONDS.toNanos(Math.max(0, configuration.getSlowAuthenticationThreshold()));
+            this.slowAuthenticationThreshold = threshold;
+        }
+        return threshold;
+    }
+
+    /**
+     * @return the timers, recording durations in nanoseconds.
+     */
+    public Collection<MetricRecorder> getTimers()
+    {
+        return this.timers.values();
+    }
+
+    /**
+     * @return the counters, indexed by name.
+     */
+    public Map<String, LongAdder> getCounters()
+    {
+        return this.counters;
+    }
+
+    /**
+     * @return the gauges, indexed by name.
+     */
+    public Map<String, LongAdder> getGauges()
+    {
+        return this.gauges;
+    }
+
+    /**
+     * @return the distributions of quantities.
+     */
+    public Collection<MetricRecorder> getDistributions()
+    {
+        return this.distributions.values();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Read-only JMX view of the {@link TrustedAuthenticationMetrics}. Timers are exposed in milliseconds with their count,
+ * total, maximum and mean, and a cumulative histogram ({@code <timer>.le.<bound>}).
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class TrustedAuthenticationMetricsMBean implements DynamicMBean
+{
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final String COUNT = ".count";
+
+    private static final String TOTAL = ".total";
+
+    private static final String MAX = ".max";
+
+    private static final String MEAN = ".mean";
+
+    private static final String LE = ".le.";
+
+    private static final String TIME_UNIT = " (ms)";
+
+    private final Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+
+    private final MBeanInfo info;
+
+    /**
+     * @param metrics the metrics to expose.
+     */
+    public TrustedAuthenticationMetricsMBean(TrustedAuthenticationMetrics metrics)
+    {
+        List<MBeanAttributeInfo> infos = new ArrayList<>();
+
+        for (Map.Entry<String, LongAdder> counter : metrics.getCounters().entrySet()) {
+            LongAdder adder = counter.getValue();
+            addAttribute(infos, counter.getKey(), Long.class, "Counter", adder::sum);
+        }
+
+        for (Map.Entry<String, LongAdder> gauge : metrics.getGauges().entrySet()) {
+            LongAdder adder = gauge.getValue();
+            addAttribute(infos, gauge.getKey(), Long.class, "Gauge", adder::sum);
+        }
+
+        for (MetricRecorder timer : metrics.getTimers()) {
+            String name = timer.getName();
+            addAttribute(infos, name + COUNT, Long.class, "Number of timings", timer::getCount);
+            addAttribute(infos, name + TOTAL, Double.class, "Total time" + TIME_UNIT,
+                () -> timer.getTotal() / NANOS_PER_MILLI);
+            addAttribute(infos, name + MAX, Double.class, "Maximum time" + TIME_UNIT,
+                () -> timer.getMax() / NANOS_PER_MILLI);
+            addAttribute(infos, name + MEAN, Double.class, "Mean time" + TIME_UNIT,
+                () -> mean(timer) / NANOS_PER_MILLI);
+            addHistogram(infos, timer, true);
+        }
+
+        for (MetricRecorder distribution : metrics.getDistributions()) {
+            String name = distribution.getName();
+            addAttribute(infos, name + COUNT, Long.class, "Number of values", distribution::getCount);
+            addAttribute(infos, name + TOTAL, Long.class, "Sum of the values", distribution::getTotal);
+            addAttribute(infos, name + MAX, Long.class, "Maximum value", distribution::getMax);
+            addAttribute(infos, name + MEAN, Double.class, "Mean value", () -> mean(distribution));
+            addHistogram(infos, distribution, false);
+        }
+
+        this.info = new MBeanInfo(getClass().getName(), "Trusted authentication metrics",
+            infos.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+
+    private static double mean(MetricRecorder recorder)
+    {
+        long count = recorder.getCount();
+        return count > 0 ? (double) recorder.getTotal() / count : 0;
+    }
+
+    private void addHistogram(List<MBeanAttributeInfo> infos, MetricRecorder recorder, boolean timer)
+    {
+        long[] bounds = recorder.getBounds();
+        for (int i = 0; i < bounds.length; i++) {
+            int bucket = i;
+            long bound = timer ? TimeUnit.NANOSECONDS.toMillis(bounds[i]) : bounds[i];
+            addAttribute(infos, recorder.getName() + LE + bound, Long.class,
+                "Number of values lower or equal to " + bound + (timer ? TIME_UNIT : ""),
+                () -> recorder.getCumulativeCounts()[bucket]);
+        }
+    }
+
+    private void addAttribute(List<MBeanAttributeInfo> infos, String name, Class<?> type, String description,
+        Supplier<Object> value)
+    {
+        this.attributes.put(name, value);
+        infos.add(new MBeanAttributeInfo(name, type.getName(), description, true, false, false));
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException
+    {
+        Supplier<Object> value = this.attributes.get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value.get();
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException("Read-only attribute: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names)
+    {
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            Supplier<Object> value = this.attributes.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value.get()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes)
+    {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+    {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo()
+    {
+        return this.info;
+    }
+}
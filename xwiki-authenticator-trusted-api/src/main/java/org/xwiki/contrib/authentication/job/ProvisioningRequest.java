@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.job;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.job.Request;
+
+/**
+ * Request to provision users and their group memberships in bulk from an identity provider export, applying the same
+ * rules as the trusted authenticator.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class ProvisioningRequest extends AbstractRequest
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final String PROPERTY_SOURCE = "source";
+
+    private static final String PROPERTY_FORMAT = "format";
+
+    private static final String PROPERTY_WIKI = "wiki";
+
+    private static final String PROPERTY_UID_FIELD = "uidField";
+
+    private static final String PROPERTY_ROLES_FIELD = "rolesField";
+
+    private static final String PROPERTY_BATCH_SIZE = "batchSize";
+
+    private static final String PROPERTY_THREADS = "threads";
+
+    private static final String PROPERTY_RESUME = "resume";
+
+    /**
+     * Default constructor.
+     */
+    public ProvisioningRequest()
+    {
+    }
+
+    /**
+     * @param request the request to copy
+     */
+    public ProvisioningRequest(Request request)
+    {
+        super(request);
+    }
+
+    /**
+     * @return the path of the export file on the server.
+     */
+    public String getSource()
+    {
+        return getProperty(PROPERTY_SOURCE);
+    }
+
+    /**
+     * @param source the path of the export file on the server.
+     */
+    public void setSource(String source)
+    {
+        setProperty(PROPERTY_SOURCE, source);
+    }
+
+    /**
+     * @return the format of the export: {@code csv}, {@code ldif} or {@code jsonl}.
+     */
+    public String getFormat()
+    {
+        return getProperty(PROPERTY_FORMAT);
+    }
+
+    /**
+     * @param format the format of the export: {@code csv}, {@code ldif} or {@code jsonl}.
+     */
+    public void setFormat(String format)
+    {
+        setProperty(PROPERTY_FORMAT, format);
+    }
+
+    /**
+     * @return the wiki in which the users are provisioned, as if they were authenticated in this wiki.
+     */
+    public String getWiki()
+    {
+        return getProperty(PROPERTY_WIKI);
+    }
+
+    /**
+     * @param wiki the wiki in which the users are provisioned, as if they were authenticated in this wiki.
+     */
+    public void setWiki(String wiki)
+    {
+        setProperty(PROPERTY_WIKI, wiki);
+    }
+
+    /**
+     * @return the name of the field holding the user identifier, {@code uid} by default.
+     */
+    public String getUidField()
+    {
+        return getProperty(PROPERTY_UID_FIELD, "uid");
+    }
+
+    /**
+     * @param uidField the name of the field holding the user identifier.
+     */
+    public void setUidField(String uidField)
+    {
+        setProperty(PROPERTY_UID_FIELD, uidField);
+    }
+
+    /**
+     * @return the name of the field holding the roles, or null to use the default of the format ({@code memberOf} for
+     *         LDIF, {@code roles} otherwise).
+     */
+    public String getRolesField()
+    {
+        return getProperty(PROPERTY_ROLES_FIELD);
+    }
+
+    /**
+     * @param rolesField the name of the field holding the roles.
+     */
+    public void setRolesField(String rolesField)
+    {
+        setProperty(PROPERTY_ROLES_FIELD, rolesField);
+    }
+
+    /**
+     * @return the number of users provisioned together, each group being saved once per batch.
+     */
+    public int getBatchSize()
+    {
+        return getProperty(PROPERTY_BATCH_SIZE, 500);
+    }
+
+    /**
+     * @param batchSize the number of users provisioned together, each group being saved once per batch.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        setProperty(PROPERTY_BATCH_SIZE, batchSize);
+    }
+
+    /**
+     * @return the number of user profiles created or updated in parallel.
+     */
+    public int getThreads()
+    {
+        return getProperty(PROPERTY_THREADS, 4);
+    }
+
+    /**
+     * @param threads the number of user profiles created or updated in parallel.
+     */
+    public void setThreads(int threads)
+    {
+        setProperty(PROPERTY_THREADS, threads);
+    }
+
+    /**
+     * @return true if a previously interrupted provisioning of the same unmodified export should be resumed after the
+     *         last completed batch.
+     */
+    public boolean isResume()
+    {
+        return getProperty(PROPERTY_RESUME, true);
+    }
+
+    /**
+     * @param resume true if a previously interrupted provisioning of the same unmodified export should be resumed
+     *            after the last completed batch.
+     */
+    public void setResume(boolean resume)
+    {
+        setProperty(PROPERTY_RESUME, resume);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.job;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.job.Request;
+
+/**
+ * Request to remove the users of an identity provider snapshot from the mapped and dynamic role groups matching roles
+ * they no longer have, without waiting for their next login.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class ReconciliationRequest extends AbstractRequest
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final String PROPERTY_SOURCE = "source";
+
+    private static final String PROPERTY_FORMAT = "format";
+
+    private static final String PROPERTY_WIKI = "wiki";
+
+    private static final String PROPERTY_UID_FIELD = "uidField";
+
+    private static final String PROPERTY_ROLES_FIELD = "rolesField";
+
+    private static final String PROPERTY_MAX_REMOVALS_PER_SECOND = "maxRemovalsPerSecond";
+
+    /**
+     * Default constructor.
+     */
+    public ReconciliationRequest()
+    {
+    }
+
+    /**
+     * @param request the request to copy
+     */
+    public ReconciliationRequest(Request request)
+    {
+        super(request);
+    }
+
+    /**
+     * @return the path of the snapshot file on the server.
+     */
+    public String getSource()
+    {
+        return getProperty(PROPERTY_SOURCE);
+    }
+
+    /**
+     * @param source the path of the snapshot file on the server.
+     */
+    public void setSource(String source)
+    {
+        setProperty(PROPERTY_SOURCE, source);
+    }
+
+    /**
+     * @return the format of the snapshot: {@code csv}, {@code ldif} or {@code jsonl}.
+     */
+    public String getFormat()
+    {
+        return getProperty(PROPERTY_FORMAT);
+    }
+
+    /**
+     * @param format the format of the snapshot: {@code csv}, {@code ldif} or {@code jsonl}.
+     */
+    public void setFormat(String format)
+    {
+        setProperty(PROPERTY_FORMAT, format);
+    }
+
+    /**
+     * @return the wiki in which the users are reconciled, as if they were authenticated in this wiki.
+     */
+    public String getWiki()
+    {
+        return getProperty(PROPERTY_WIKI);
+    }
+
+    /**
+     * @param wiki the wiki in which the users are reconciled, as if they were authenticated in this wiki.
+     */
+    public void setWiki(String wiki)
+    {
+        setProperty(PROPERTY_WIKI, wiki);
+    }
+
+    /**
+     * @return the name of the field holding the user identifier, {@code uid} by default.
+     */
+    public String getUidField()
+    {
+        return getProperty(PROPERTY_UID_FIELD, "uid");
+    }
+
+    /**
+     * @param uidField the name of the field holding the user identifier.
+     */
+    public void setUidField(String uidField)
+    {
+        setProperty(PROPERTY_UID_FIELD, uidField);
+    }
+
+    /**
+     * @return the name of the field holding the roles, or null to use the default of the format ({@code memberOf} for
+     *         LDIF, {@code roles} otherwise).
+     */
+    public String getRolesField()
+    {
+        return getProperty(PROPERTY_ROLES_FIELD);
+    }
+
+    /**
+     * @param rolesField the name of the field holding the roles.
+     */
+    public void setRolesField(String rolesField)
+    {
+        setProperty(PROPERTY_ROLES_FIELD, rolesField);
+    }
+
+    /**
+     * @return the maximum number of memberships removed per second, the job pausing after saving a group until it is
+     *         back under this limit, or 0 for no limit.
+     */
+    public int getMaxRemovalsPerSecond()
+    {
+        return getProperty(PROPERTY_MAX_REMOVALS_PER_SECOND, 50);
+    }
+
+    /**
+     * @param maxRemovalsPerSecond the maximum number of memberships removed per second, or 0 for no limit.
+     */
+    public void setMaxRemovalsPerSecond(int maxRemovalsPerSecond)
+    {
+        setProperty(PROPERTY_MAX_REMOVALS_PER_SECOND, maxRemovalsPerSecond);
+    }
+}
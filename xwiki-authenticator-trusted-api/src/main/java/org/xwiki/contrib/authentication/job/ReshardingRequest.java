@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.job;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.job.Request;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Request to move the members of a sharded group to the shards matching its configured number of shards.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+public class ReshardingRequest extends AbstractRequest
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final String PROPERTY_GROUP = "group";
+
+    private static final String PROPERTY_BATCH_SIZE = "batchSize";
+
+    /**
+     * Default constructor.
+     */
+    public ReshardingRequest()
+    {
+    }
+
+    /**
+     * @param request the request to copy
+     */
+    public ReshardingRequest(Request request)
+    {
+        super(request);
+    }
+
+    /**
+     * @return the sharded group.
+     */
+    public DocumentReference getGroup()
+    {
+        return getProperty(PROPERTY_GROUP);
+    }
+
+    /**
+     * @param group the sharded group.
+     */
+    public void setGroup(DocumentReference group)
+    {
+        setProperty(PROPERTY_GROUP, group);
+    }
+
+    /**
+     * @return the number of members moved together, each shard being saved once per batch.
+     */
+    public int getBatchSize()
+    {
+        return getProperty(PROPERTY_BATCH_SIZE, 500);
+    }
+
+    /**
+     * @param batchSize the number of members moved together, each shard being saved once per batch.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        setProperty(PROPERTY_BATCH_SIZE, batchSize);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.script;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.concurrent.ContextStoreManager;
+import org.xwiki.contrib.authentication.internal.job.ProvisioningJob;
+import org.xwiki.contrib.authentication.internal.job.ReconciliationJob;
+import org.xwiki.contrib.authentication.internal.job.ReshardingJob;
+import org.xwiki.contrib.authentication.job.ProvisioningRequest;
+import org.xwiki.contrib.authentication.job.ReconciliationRequest;
+import org.xwiki.contrib.authentication.job.ReshardingRequest;
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Script service giving access to the administration tasks of the trusted authenticator.
+ *
+ * @version $Id$
+ * @since 1.9.10
+ */
+@Component
+@Named("trustedauth")
+@Singleton
+public class TrustedAuthenticationScriptService implements ScriptService
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private ContextStoreManager contextStoreManager;
+
+    @Inject
+    private JobExecutor jobExecutor;
+
+    /**
+     * @return a new provisioning request targeting the current wiki, to be customized and passed to
+     *         {@link #provision(ProvisioningRequest)}
+     */
+    public ProvisioningRequest createProvisioningRequest()
+    {
+        ProvisioningRequest request = new ProvisioningRequest();
+        request.setWiki(contextProvider.get().getWikiId());
+
+        return request;
+    }
+
+    /**
+     * Start provisioning users and their group memberships from an identity provider export. Programming right is
+     * required since the export is read from the server file system.
+     *
+     * @param request the provisioning request
+     * @return the started job, or null if it could not be started
+     */
+    public Job provision(ProvisioningRequest request)
+    {
+        request.setId(Arrays.asList(ProvisioningJob.JOBTYPE, request.getSource()));
+
+        return execute(ProvisioningJob.JOBTYPE, request);
+    }
+
+    /**
+     * @return a new reconciliation request targeting the current wiki, to be customized and passed to
+     *         {@link #reconcile(ReconciliationRequest)}
+     */
+    public ReconciliationRequest createReconciliationRequest()
+    {
+        ReconciliationRequest request = new ReconciliationRequest();
+        request.setWiki(contextProvider.get().getWikiId());
+
+        return request;
+    }
+
+    /**
+     * Start removing the users of an identity provider snapshot from the mapped and dynamic role groups matching roles
+     * they no longer have. Programming right is required since the snapshot is read from the server file system.
+     *
+     * @param request the reconciliation request
+     * @return the started job, or null if it could not be started
+     */
+    public Job reconcile(ReconciliationRequest request)
+    {
+        request.setId(Arrays.asList(ReconciliationJob.JOBTYPE, request.getSource()));
+
+        return execute(ReconciliationJob.JOBTYPE, request);
+    }
+
+    /**
+     * Start moving the members of a sharded group to the shards matching its configured number of shards. Programming
+     * right is required.
+     *
+     * @param group the sharded group
+     * @return the started job, or null if it could not be started
+     * @since 1.9.10
+     */
+    public Job reshard(DocumentReference group)
+    {
+        ReshardingRequest request = new ReshardingRequest();
+        request.setGroup(group);
+        request.setId(Arrays.asList(ReshardingJob.JOBTYPE, group.toString()));
+
+        return execute(ReshardingJob.JOBTYPE, request);
+    }
+
+    private Job execute(String jobType, AbstractRequest request)
+    {
+        if (!authorization.hasAccess(Right.PROGRAM)) {
+            logger.error("Programming right is required to start job [{}]", jobType);
+            return null;
+        }
+
+        try {
+            request.setContext(contextStoreManager.save(contextStoreManager.getSupportedEntries()));
+
+            return jobExecutor.execute(jobType, request);
+        } catch (Exception e) {
+            logger.error("Failed to start job [{}]", request.getId(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.authentication.AddGroupToFieldConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link AddGroupToFieldWriter}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@ComponentList(AddGroupToFieldIndex.class)
+class AddGroupToFieldWriterTest
+{
+    private static final String PROPERTY = "groups";
+
+    private static final DocumentReference PAGE = new DocumentReference("wiki", "Space", "Page");
+
+    private static final DocumentReference GROUP_A = new DocumentReference("wiki", "XWiki", "GroupA");
+
+    private static final DocumentReference GROUP_B = new DocumentReference("wiki", "XWiki", "GroupB");
+
+    @InjectMockComponents
+    private AddGroupToFieldWriter writer;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> serializer;
+
+    private XWikiContext context;
+
+    private XWiki xwiki;
+
+    private XWikiDocument document;
+
+    private BaseObject object;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        context = mock(XWikiContext.class);
+        xwiki = mock(XWiki.class);
+        document = mock(XWikiDocument.class);
+        object = new BaseObject();
+        object.setLargeStringValue(PROPERTY, "Initial:role");
+
+        when(contextProvider.get()).thenReturn(context);
+        when(context.getWiki()).thenReturn(xwiki);
+        when(xwiki.getDocument(PAGE, context)).thenReturn(document);
+        when(document.clone()).thenReturn(document);
+        when(document.getFirstObject(PROPERTY)).thenReturn(object);
+        when(serializer.serialize(GROUP_A)).thenReturn("wiki:XWiki.GroupA");
+        when(serializer.serialize(GROUP_B)).thenReturn("wiki:XWiki.GroupB");
+    }
+
+    /**
+     * Dynamic roles parse their own configuration, so that distinct configurations may target the same field.
+     */
+    @Test
+    void writeWithTwoConfigurationsOnTheSameField() throws Exception
+    {
+        AddGroupToFieldConfiguration configuration1 = mockConfiguration();
+        AddGroupToFieldConfiguration configuration2 = mockConfiguration();
+
+        writer.write(PAGE, Arrays.asList(new AddGroupToFieldWriter.Append(GROUP_A, "roleA", configuration1),
+            new AddGroupToFieldWriter.Append(GROUP_B, "roleB", configuration2),
+            new AddGroupToFieldWriter.Append(GROUP_A, "roleA", configuration2)));
+
+        assertEquals("Initial:role,wiki:XWiki.GroupA:roleA,wiki:XWiki.GroupB:roleB",
+            object.getLargeStringValue(PROPERTY));
+        verify(xwiki, times(1)).saveDocument(same(document), anyString(), same(context));
+    }
+
+    private AddGroupToFieldConfiguration mockConfiguration()
+    {
+        AddGroupToFieldConfiguration configuration = mock(AddGroupToFieldConfiguration.class);
+        when(configuration.getPage()).thenReturn("Space.Page");
+        when(configuration.getClassName()).thenReturn("");
+        when(configuration.getObjectNumber()).thenReturn("");
+        when(configuration.getPropertyName()).thenReturn(PROPERTY);
+        when(configuration.getSeparator()).thenReturn(",");
+        when(configuration.getValueRegex()).thenReturn("(?<group>.*):(?<role>[^:]*)");
+        when(configuration.getValue(any(), anyString())).thenAnswer(
+            invocation -> serializer.serialize(invocation.getArgument(0)) + ':' + invocation.getArgument(1));
+        return configuration;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link GroupShardingManager}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class GroupShardingManagerTest
+{
+    private static final SpaceReference XWIKI_SPACE = new SpaceReference("XWiki", new WikiReference("wiki"));
+
+    private static final DocumentReference USERS = new DocumentReference("Users", XWIKI_SPACE);
+
+    @InjectMockComponents
+    private GroupShardingManager groupShardingManager;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @Test
+    void getGroupOfShard()
+    {
+        assertEquals(USERS, groupShardingManager.getGroupOfShard(USERS));
+        assertEquals(USERS, groupShardingManager.getGroupOfShard(new DocumentReference("Users-Shard5", XWIKI_SPACE)));
+    }
+
+    /**
+     * Groups whose name only looks like the one of a shard are not shards.
+     */
+    @Test
+    void getGroupOfShardWithGroupNamedLikeAShard() throws Exception
+    {
+        Query query = mock(Query.class);
+        when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+        when(query.bindValue(anyString(), any())).thenReturn(query);
+        when(query.setWiki(anyString())).thenReturn(query);
+
+        DocumentReference team = new DocumentReference("Team-Shard", XWIKI_SPACE);
+        assertEquals(team, groupShardingManager.getGroupOfShard(team));
+
+        DocumentReference lowerCase = new DocumentReference("Team-Shardab", XWIKI_SPACE);
+        assertEquals(lowerCase, groupShardingManager.getGroupOfShard(lowerCase));
+
+        // Not the number of hexadecimal digits of the configured number of shards, and not a known shard
+        DocumentReference unknownShard = new DocumentReference("Users-Shard5A", XWIKI_SPACE);
+        assertEquals(unknownShard, groupShardingManager.getGroupOfShard(unknownShard));
+    }
+}
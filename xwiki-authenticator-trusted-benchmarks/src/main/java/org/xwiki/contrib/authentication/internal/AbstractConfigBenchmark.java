@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the parsing of the list and map properties of the configuration by {@link AbstractConfig}, which
+ * happens each time such a property is read.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AbstractConfigBenchmark
+{
+    private static final String LIST_PROPERTY = "dynamicRole.configurations";
+
+    /**
+     * The number of entries of the list and map properties.
+     */
+    @Param({ "10", "1000" })
+    public int entryCount;
+
+    private DefaultTrustedAuthenticationConfiguration configuration;
+
+    /**
+     * Set up the configuration with list and map properties of the configured size.
+     *
+     * @throws Exception when failing to set up the environment
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        StringBuilder list = new StringBuilder();
+        StringBuilder map = new StringBuilder();
+        StringBuilder mapOfSet = new StringBuilder();
+        for (int i = 0; i < entryCount; i++) {
+            // Some escaped separators, as found in regular expressions
+            list.append("configuration\\|").append(i).append('|');
+            map.append("\\.").append(i).append("=_").append(i).append('|');
+            mapOfSet.append("XWiki.Group_").append(i % 100).append("=role-").append(i).append('|');
+        }
+
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        environment.setConfiguration(LIST_PROPERTY, list.toString());
+        environment.setConfiguration("userProfileReplacements", map.toString());
+        environment.setConfiguration("groupsMapping", mapOfSet.toString());
+        configuration = environment.createConfiguration();
+    }
+
+    /**
+     * @return the parsed list property
+     */
+    @Benchmark
+    public List<String> getCustomPropertyAsList()
+    {
+        return configuration.getCustomPropertyAsList(LIST_PROPERTY, '|', null);
+    }
+
+    /**
+     * @return the parsed map property
+     */
+    @Benchmark
+    public Map<String, String> getCustomPropertyAsMap()
+    {
+        return configuration.getUserProfileReplacements();
+    }
+
+    /**
+     * @return the parsed map of sets property
+     */
+    @Benchmark
+    public Map<String, Collection<String>> getCustomPropertyAsMapOfSet()
+    {
+        return configuration.getGroupMappings();
+    }
+}
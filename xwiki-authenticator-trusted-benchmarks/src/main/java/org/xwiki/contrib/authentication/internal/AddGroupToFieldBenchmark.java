@@ -0,0 +1,170 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xwiki.contrib.authentication.AddGroupToFieldConfiguration;
+import org.xwiki.contrib.authentication.DynamicRoleConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Benchmark of the add group to field feature on a large field: indexing the field, checking whether a group/role
+ * pair is already present in it, and formatting the value of a new pair.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AddGroupToFieldBenchmark
+{
+    private static final String DYNAMIC_ROLE_PREFIX = "dynamicRole.configuration.benchmark.";
+
+    private static final String ADD_GROUP_TO_FIELD_PREFIX = DYNAMIC_ROLE_PREFIX + "addGroupToField.";
+
+    private static final String GROUP_PREFIX = "Dyn_";
+
+    private static final String ROLE_PREFIX = "role-";
+
+    /**
+     * The number of values in the field.
+     */
+    @Param({ "1000", "10000" })
+    public int fieldSize;
+
+    private XWikiContext context;
+
+    private DynamicRoleConfiguration dynamicRoleConfiguration;
+
+    private AddGroupToFieldConfiguration configuration;
+
+    private AddGroupToFieldIndex index;
+
+    private String field;
+
+    private DocumentReference presentGroup;
+
+    private String presentRole;
+
+    private DocumentReference absentGroup;
+
+    private String absentRole;
+
+    /**
+     * Set up an indexed field with the configured number of values.
+     *
+     * @throws Exception when failing to set up the environment
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        environment.setConfiguration(DYNAMIC_ROLE_PREFIX + "rolePrefix", ROLE_PREFIX);
+        environment.setConfiguration(DYNAMIC_ROLE_PREFIX + "groupPrefix", GROUP_PREFIX);
+        environment.setConfiguration(ADD_GROUP_TO_FIELD_PREFIX + "page", "Main.Roles");
+        environment.setConfiguration(ADD_GROUP_TO_FIELD_PREFIX + "propertyName", "roles");
+        context = environment.getContext();
+
+        dynamicRoleConfiguration = new DefaultDynamicRoleConfiguration(environment.createConfiguration(),
+            DYNAMIC_ROLE_PREFIX, ADD_GROUP_TO_FIELD_PREFIX, "benchmark", null);
+        configuration = dynamicRoleConfiguration.getAddGroupToFieldConfiguration();
+
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < fieldSize; i++) {
+            if (i > 0) {
+                values.append(configuration.getSeparator());
+            }
+            values.append(configuration.getValue(getGroup(i), ROLE_PREFIX + i));
+        }
+        field = values.toString();
+
+        index = new AddGroupToFieldIndex();
+        DocumentReference page = BenchmarkEnvironment.resolve(BenchmarkEnvironment.WIKI + ":Main.Roles");
+        index.putIndex(page, configuration, index.createIndex(field, configuration), index.getGeneration(page));
+
+        presentGroup = getGroup(fieldSize / 2);
+        presentRole = ROLE_PREFIX + (fieldSize / 2);
+        absentGroup = getGroup(fieldSize);
+        absentRole = ROLE_PREFIX + fieldSize;
+    }
+
+    private static DocumentReference getGroup(int index)
+    {
+        return new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, GROUP_PREFIX + index);
+    }
+
+    /**
+     * @return the index of the field
+     */
+    @Benchmark
+    public AddGroupToFieldIndex.FieldIndex createIndex()
+    {
+        return index.createIndex(field, configuration);
+    }
+
+    /**
+     * @param blackhole consumes the pending additions, none since the group/role pair is already in the field
+     */
+    @Benchmark
+    public void addPresentGroupRole(Blackhole blackhole)
+    {
+        AddGroupToField addGroupToField = new AddGroupToField(index, null);
+        addGroupToField.add(context, presentGroup, presentRole, dynamicRoleConfiguration);
+        blackhole.consume(addGroupToField);
+    }
+
+    /**
+     * @param blackhole consumes the pending addition of the group/role pair missing from the field
+     */
+    @Benchmark
+    public void addAbsentGroupRole(Blackhole blackhole)
+    {
+        AddGroupToField addGroupToField = new AddGroupToField(index, null);
+        addGroupToField.add(context, absentGroup, absentRole, dynamicRoleConfiguration);
+        blackhole.consume(addGroupToField);
+    }
+
+    /**
+     * @return the value of a group/role pair
+     */
+    @Benchmark
+    public String getValue()
+    {
+        return configuration.getValue(presentGroup, presentRole);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run {@link TrustedAuthenticatorBenchmark} with the GC profiler and fail when the authentication of an already
+ * authenticated user allocates more than a fixed number of bytes per call, so that the allocation free fast path does
+ * not silently regress. The budget defaults to {@value #DEFAULT_BUDGET} bytes, to absorb the measurement noise, and can
+ * be changed with the {@value #BUDGET_PROPERTY} system property.
+ *
+ * @version $Id$
+ */
+public final class AllocationBudgetCheck
+{
+    private static final String BUDGET_PROPERTY = "benchmarks.allocationBudget";
+
+    private static final long DEFAULT_BUDGET = 16;
+
+    private static final String ALLOCATION_RESULT = "gc.alloc.rate.norm";
+
+    private AllocationBudgetCheck()
+    {
+    }
+
+    /**
+     * @param args the JMH command line options
+     * @throws CommandLineOptionException when the options are invalid
+     * @throws RunnerException when the benchmarks fail
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException
+    {
+        long budget = Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET);
+
+        Collection<RunResult> results = new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+            .include(TrustedAuthenticatorBenchmark.class.getName()).addProfiler(GCProfiler.class).build()).run();
+
+        int failures = 0;
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            Double allocated = getAllocatedBytes(result);
+            if (allocated == null) {
+                System.err.printf("No allocation rate reported for [%s]%n", benchmark);
+                failures++;
+            } else if (allocated > budget) {
+                System.err.printf("[%s] allocates %.1f bytes per call, above the budget of %d bytes%n", benchmark,
+                    allocated, budget);
+                failures++;
+            } else {
+                System.out.printf("[%s] allocates %.1f bytes per call, within the budget of %d bytes%n", benchmark,
+                    allocated, budget);
+            }
+        }
+
+        if (results.isEmpty() || failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static Double getAllocatedBytes(RunResult result)
+    {
+        // Depending on the JMH version, the secondary results of the profilers are prefixed or not
+        for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()) {
+            if (entry.getKey().endsWith(ALLOCATION_RESULT)) {
+                return entry.getValue().getScore();
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.contrib.authentication.TrustedAuthenticationAdapter;
+
+/**
+ * Authentication adapter providing a fixed user, as if it was read from the request headers.
+ *
+ * @version $Id$
+ */
+public class BenchmarkAuthenticationAdapter implements TrustedAuthenticationAdapter
+{
+    private final String userUid;
+
+    private final Map<String, String> properties = new HashMap<>();
+
+    private final Set<String> roles = new LinkedHashSet<>();
+
+    /**
+     * @param userUid the UID of the authenticated user
+     */
+    public BenchmarkAuthenticationAdapter(String userUid)
+    {
+        this.userUid = userUid;
+    }
+
+    /**
+     * @param name the name of the user property
+     * @param value the value of the user property
+     */
+    public void setUserProperty(String name, String value)
+    {
+        properties.put(name, value);
+    }
+
+    /**
+     * @param role a role of the user
+     */
+    public void addUserRole(String role)
+    {
+        roles.add(role);
+    }
+
+    @Override
+    public String getUserUid()
+    {
+        return userUid;
+    }
+
+    @Override
+    public String getUserName()
+    {
+        return userUid;
+    }
+
+    @Override
+    public String getUserProperty(String name)
+    {
+        return properties.get(name);
+    }
+
+    @Override
+    public boolean isUserInRole(String role)
+    {
+        return roles.contains(role);
+    }
+
+    @Override
+    public Collection<String> getUserRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public String getLogoutURL(String location)
+    {
+        return null;
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Provider;
+import javax.servlet.http.Cookie;
+
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.descriptor.DefaultComponentDescriptor;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.component.manager.ComponentRepositoryException;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.contrib.authentication.internal.metrics.TrustedAuthenticationMetrics;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.web.Utils;
+import com.xpn.xwiki.web.XWikiServletRequestStub;
+import com.xpn.xwiki.web.XWikiServletResponseStub;
+
+/**
+ * Mocked XWiki environment in which the benchmarked components are set up: an in-memory main wiki reading its
+ * configuration from a map, a context per thread with the request and response of a page view, and the reference
+ * resolvers and serializers. The doubles invoked for each benchmarked operation are plain classes rather than
+ * Mockito mocks, so that they do not weigh on the measured allocations.
+ *
+ * @version $Id$
+ */
+public class BenchmarkEnvironment
+{
+    /**
+     * The main wiki.
+     */
+    public static final String WIKI = "xwiki";
+
+    /**
+     * The space holding the users and groups.
+     */
+    public static final String USER_SPACE = "XWiki";
+
+    /**
+     * The prefix of the configuration of the trusted authenticator in xwiki.cfg.
+     */
+    public static final String CONFIGURATION_PREFIX = "xwiki.authentication.trusted.";
+
+    private static final String DEFAULT_SPACE = "Main";
+
+    private static final String DEFAULT_HINT = "default";
+
+    private static final String CURRENT_HINT = "current";
+
+    private static final String LOGGER_FIELD = "logger";
+
+    private static final String CONTEXT_PROVIDER_FIELD = "contextProvider";
+
+    private final ThreadLocal<XWikiContext> contexts = ThreadLocal.withInitial(this::createContext);
+
+    private final Provider<XWikiContext> contextProvider = contexts::get;
+
+    private final EmbeddableComponentManager componentManager = new EmbeddableComponentManager();
+
+    private final DocumentReferenceResolver<String> resolver = BenchmarkEnvironment::resolve;
+
+    private final DocumentReferenceResolver<EntityReference> entityResolver = BenchmarkEnvironment::resolve;
+
+    private final EntityReferenceSerializer<String> serializer = (reference, args) -> serialize(reference, true);
+
+    private final EntityReferenceSerializer<String> localSerializer =
+        (reference, args) -> serialize(reference, false);
+
+    private final InMemoryXWiki wiki;
+
+    /**
+     * The request of a page view, holding the cookies last sent with the response.
+     */
+    private static final class BenchmarkRequest extends XWikiServletRequestStub
+    {
+        private final Map<String, Cookie> cookies = new HashMap<>();
+
+        @Override
+        public String getServletPath()
+        {
+            return "/bin";
+        }
+
+        @Override
+        public String getPathInfo()
+        {
+            return "/view/Main/WebHome";
+        }
+
+        @Override
+        public String getServerName()
+        {
+            return "wiki.example.org";
+        }
+
+        @Override
+        public boolean isSecure()
+        {
+            return true;
+        }
+
+        @Override
+        public Cookie getCookie(String name)
+        {
+            return cookies.get(name);
+        }
+    }
+
+    /**
+     * The response of a page view, sending its cookies back with the next request.
+     */
+    private static final class BenchmarkResponse extends XWikiServletResponseStub
+    {
+        private final BenchmarkRequest request;
+
+        BenchmarkResponse(BenchmarkRequest request)
+        {
+            this.request = request;
+        }
+
+        @Override
+        public void addCookie(Cookie cookie)
+        {
+            request.cookies.put(cookie.getName(), cookie);
+        }
+    }
+
+    /**
+     * Create a new environment, and make its component manager the one used by the static component lookups.
+     *
+     * @throws Exception when failing to set up the environment
+     */
+    public BenchmarkEnvironment() throws Exception
+    {
+        wiki = new InMemoryXWiki(localSerializer);
+
+        registerComponent(new DefaultParameterizedType(null, Provider.class, XWikiContext.class), DEFAULT_HINT,
+            contextProvider);
+        registerComponent(DocumentReferenceResolver.TYPE_STRING, DEFAULT_HINT, resolver);
+        registerComponent(DocumentReferenceResolver.TYPE_STRING, CURRENT_HINT, resolver);
+        registerComponent(DocumentReferenceResolver.TYPE_REFERENCE, DEFAULT_HINT, entityResolver);
+        registerComponent(DocumentReferenceResolver.TYPE_REFERENCE, CURRENT_HINT, entityResolver);
+        registerComponent(EntityReferenceSerializer.TYPE_STRING, DEFAULT_HINT, serializer);
+        registerComponent(EntityReferenceSerializer.TYPE_STRING, "local", localSerializer);
+        registerComponent(EntityReferenceSerializer.TYPE_STRING, "compactwiki", localSerializer);
+        Utils.setComponentManager(componentManager);
+    }
+
+    /**
+     * Resolve a reference with the simple syntax {@code [wiki:][Space.]Page}, relative to the main wiki.
+     *
+     * @param reference the reference to resolve
+     * @param parameters optionally, a reference providing the default wiki and space
+     * @return the resolved reference
+     */
+    public static DocumentReference resolve(String reference, Object... parameters)
+    {
+        EntityReference baseReference = getBaseReference(parameters);
+        int wikiSeparator = reference.indexOf(':');
+        String wikiName =
+            wikiSeparator < 0 ? getName(baseReference, EntityType.WIKI, WIKI) : reference.substring(0, wikiSeparator);
+        String localReference = reference.substring(wikiSeparator + 1);
+        int spaceSeparator = localReference.lastIndexOf('.');
+        String space = spaceSeparator < 0 ? getName(baseReference, EntityType.SPACE, DEFAULT_SPACE)
+            : localReference.substring(0, spaceSeparator);
+
+        return new DocumentReference(wikiName, space, localReference.substring(spaceSeparator + 1));
+    }
+
+    /**
+     * Resolve a possibly relative document reference, relative to the main wiki.
+     *
+     * @param reference the reference to resolve
+     * @param parameters optionally, a reference providing the default wiki and space
+     * @return the resolved reference
+     */
+    public static DocumentReference resolve(EntityReference reference, Object... parameters)
+    {
+        if (reference instanceof DocumentReference) {
+            return (DocumentReference) reference;
+        }
+
+        EntityReference baseReference = getBaseReference(parameters);
+        EntityReference spaceReference = reference.extractReference(EntityType.SPACE);
+        EntityReference wikiReference = reference.extractReference(EntityType.WIKI);
+
+        return new DocumentReference(
+            wikiReference != null ? wikiReference.getName() : getName(baseReference, EntityType.WIKI, WIKI),
+            spaceReference != null ? spaceReference.getName()
+                : getName(baseReference, EntityType.SPACE, DEFAULT_SPACE),
+            reference.extractReference(EntityType.DOCUMENT).getName());
+    }
+
+    private static EntityReference getBaseReference(Object[] parameters)
+    {
+        return parameters.length > 0 && parameters[0] instanceof EntityReference ? (EntityReference) parameters[0]
+            : null;
+    }
+
+    private static String getName(EntityReference baseReference, EntityType type, String defaultName)
+    {
+        EntityReference reference = baseReference != null ? baseReference.extractReference(type) : null;
+
+        return reference != null ? reference.getName() : defaultName;
+    }
+
+    private static String serialize(EntityReference reference, boolean withWiki)
+    {
+        String localReference =
+            reference.extractReference(EntityType.SPACE).getName() + '.' + reference.getName();
+
+        return withWiki ? reference.extractReference(EntityType.WIKI).getName() + ':' + localReference
+            : localReference;
+    }
+
+    /**
+     * @param key the name of the parameter in xwiki.cfg
+     * @param value the value of the parameter
+     */
+    public void setParameter(String key, String value)
+    {
+        wiki.setParameter(key, value);
+    }
+
+    /**
+     * @param name the name of the configuration property of the trusted authenticator
+     * @param value the value of the property
+     */
+    public void setConfiguration(String name, String value)
+    {
+        setParameter(CONFIGURATION_PREFIX + name, value);
+    }
+
+    /**
+     * @param group a group, created if needed
+     * @param member the new member of the group
+     * @throws XWikiException when failing to add the member
+     */
+    public void addGroupMember(DocumentReference group, DocumentReference member) throws XWikiException
+    {
+        wiki.addMember(group, member, getContext());
+    }
+
+    /**
+     * @param <T> the type of the component
+     * @param role the role of the component
+     * @param hint the hint of the component
+     * @param component the component to register
+     * @throws ComponentRepositoryException when failing to register the component
+     */
+    public <T> void registerComponent(Type role, String hint, T component) throws ComponentRepositoryException
+    {
+        DefaultComponentDescriptor<T> descriptor = new DefaultComponentDescriptor<>();
+        descriptor.setRoleType(role);
+        descriptor.setRoleHint(hint);
+        componentManager.registerComponent(descriptor, component);
+    }
+
+    /**
+     * Inject the logger of the given component, and its context provider if it has one.
+     *
+     * @param <T> the type of the component
+     * @param component the component to set up
+     * @return the component
+     */
+    public <T> T inject(T component)
+    {
+        setField(component, LOGGER_FIELD, LoggerFactory.getLogger(component.getClass()));
+        for (Field field : ReflectionUtils.getAllFields(component.getClass())) {
+            if (field.getName().equals(CONTEXT_PROVIDER_FIELD)) {
+                setField(component, CONTEXT_PROVIDER_FIELD, contextProvider);
+            }
+        }
+
+        return component;
+    }
+
+    /**
+     * @param component the component to set up
+     * @param field the name of the injected field
+     * @param value the value to inject
+     */
+    public static void setField(Object component, String field, Object value)
+    {
+        ReflectionUtils.setFieldValue(component, field, value);
+    }
+
+    /**
+     * @return the configuration of the trusted authenticator, read from the parameters of the environment
+     */
+    public DefaultTrustedAuthenticationConfiguration createConfiguration()
+    {
+        DefaultTrustedAuthenticationConfiguration configuration =
+            inject(new DefaultTrustedAuthenticationConfiguration());
+        setField(configuration, "componentManager", componentManager);
+
+        return configuration;
+    }
+
+    /**
+     * @param configuration the configuration of the trusted authenticator
+     * @return metrics that are recorded but neither exposed through JMX nor Micrometer
+     */
+    public TrustedAuthenticationMetrics createMetrics(TrustedAuthenticationConfiguration configuration)
+    {
+        TrustedAuthenticationMetrics metrics = inject(new TrustedAuthenticationMetrics());
+        setField(metrics, "configuration", configuration);
+
+        return metrics;
+    }
+
+    private XWikiContext createContext()
+    {
+        BenchmarkRequest request = new BenchmarkRequest();
+        XWikiContext context = new XWikiContext();
+        context.setWiki(wiki);
+        context.setMainXWiki(WIKI);
+        context.setWikiId(WIKI);
+        context.setRequest(request);
+        context.setResponse(new BenchmarkResponse(request));
+
+        return context;
+    }
+
+    /**
+     * @return the context of the current request, each thread having its own
+     */
+    public XWikiContext getContext()
+    {
+        return contexts.get();
+    }
+
+    /**
+     * @return the main wiki
+     */
+    public InMemoryXWiki getWiki()
+    {
+        return wiki;
+    }
+
+    /**
+     * @return the default string reference resolver
+     */
+    public DocumentReferenceResolver<String> getResolver()
+    {
+        return resolver;
+    }
+
+    /**
+     * @return the default entity reference resolver
+     */
+    public DocumentReferenceResolver<EntityReference> getEntityResolver()
+    {
+        return entityResolver;
+    }
+
+    /**
+     * @return the default string reference serializer
+     */
+    public EntityReferenceSerializer<String> getSerializer()
+    {
+        return serializer;
+    }
+
+    /**
+     * @return the local string reference serializer
+     */
+    public EntityReferenceSerializer<String> getLocalSerializer()
+    {
+        return localSerializer;
+    }
+}
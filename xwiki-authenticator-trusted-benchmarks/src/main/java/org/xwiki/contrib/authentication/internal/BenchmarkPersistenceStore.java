@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import org.xwiki.contrib.authentication.AuthenticationPersistenceStore;
+import org.xwiki.contrib.authentication.TrustedAuthenticationRecord;
+
+/**
+ * Persistence store holding a single authentication record in memory, as if it was kept in the session.
+ *
+ * @version $Id$
+ */
+public class BenchmarkPersistenceStore implements AuthenticationPersistenceStore
+{
+    private TrustedAuthenticationRecord record;
+
+    /**
+     * @param record the persisted authentication record
+     */
+    public BenchmarkPersistenceStore(TrustedAuthenticationRecord record)
+    {
+        this.record = record;
+    }
+
+    @Override
+    public void store(String userUid)
+    {
+        // Only authentication records are stored
+    }
+
+    @Override
+    public String retrieve()
+    {
+        return null;
+    }
+
+    @Override
+    public void clear()
+    {
+        record = null;
+    }
+
+    @Override
+    public boolean isRecordSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public void storeRecord(TrustedAuthenticationRecord record)
+    {
+        this.record = record;
+    }
+
+    @Override
+    public TrustedAuthenticationRecord retrieveRecord()
+    {
+        return record;
+    }
+}
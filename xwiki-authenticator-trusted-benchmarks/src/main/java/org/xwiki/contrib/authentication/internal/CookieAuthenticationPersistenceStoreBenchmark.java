@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.contrib.authentication.TrustedAuthenticationRecord;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Benchmark of the encryption and decryption of the authentication record by the
+ * {@link CookieAuthenticationPersistenceStore}. Each thread has its own store, since the ciphers of a store are not
+ * meant to be used concurrently.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CookieAuthenticationPersistenceStoreBenchmark
+{
+    private CookieAuthenticationPersistenceStore store;
+
+    private TrustedAuthenticationRecord record;
+
+    /**
+     * Set up the store, and the cookie holding the authentication record.
+     *
+     * @throws Exception when failing to set up the store
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        environment.setParameter("xwiki.authentication.encryptionKey", "0123456789abcdefghijklmnopqrstuvwxyz");
+        environment.setParameter("xwiki.authentication.cookiedomains", "example.org");
+        environment.setConfiguration("persistenceStoreTTL", "3600");
+
+        store = environment.inject(new CookieAuthenticationPersistenceStore());
+        BenchmarkEnvironment.setField(store, "config", environment.createConfiguration());
+        BenchmarkEnvironment.setField(store, "defaultStringDocumentReferenceResolver", environment.getResolver());
+        BenchmarkEnvironment.setField(store, "defaultStringEntityReferenceSerializer", environment.getSerializer());
+        store.initialize();
+
+        long now = System.currentTimeMillis();
+        DocumentReference user =
+            new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, "jdoe");
+        record = new TrustedAuthenticationRecord(user, "jdoe@EXAMPLE.ORG", now, now,
+            "Q2hhbmdlIGRldGVjdGlvbg", now);
+        store.storeRecord(record);
+    }
+
+    /**
+     * Encrypt the authentication record into the cookie.
+     */
+    @Benchmark
+    public void storeRecord()
+    {
+        store.storeRecord(record);
+    }
+
+    /**
+     * @return the authentication record decrypted from the cookie
+     */
+    @Benchmark
+    public TrustedAuthenticationRecord retrieveRecord()
+    {
+        return store.retrieveRecord();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.contrib.authentication.GroupShardingConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Benchmark of {@link GroupShardingManager#getShardedGroupReference}, called for each group a user is added to or
+ * removed from when sharding is enabled: for a group listed as sharded, a group matching a sharded group pattern, and
+ * a group that is not sharded.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GroupShardingManagerBenchmark
+{
+    private static final int SHARDED_GROUP_COUNT = 100;
+
+    private final DocumentReference user =
+        new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, "jdoe");
+
+    private final DocumentReference listedGroup = getGroup("Group_" + (SHARDED_GROUP_COUNT - 1));
+
+    private final DocumentReference matchingGroup = getGroup("Dyn_42");
+
+    private final DocumentReference unshardedGroup = getGroup("XWikiAllGroup");
+
+    private GroupShardingManager groupShardingManager;
+
+    /**
+     * Set up the sharding of the listed groups and of the groups matching the pattern.
+     *
+     * @throws Exception when failing to set up the environment
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        List<String> shardedGroups = new ArrayList<>();
+        for (int i = 0; i < SHARDED_GROUP_COUNT; i++) {
+            shardedGroups.add("Group_" + i);
+        }
+        GroupShardingConfiguration configuration = new GroupShardingConfiguration()
+        {
+            @Override
+            public List<String> getShardedGroups()
+            {
+                return shardedGroups;
+            }
+
+            @Override
+            public List<String> getShardedGroupPatterns()
+            {
+                return Collections.singletonList("Dyn_.*");
+            }
+
+            @Override
+            public int getShardCount(String group)
+            {
+                return 256;
+            }
+        };
+
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        groupShardingManager = environment.inject(new GroupShardingManager());
+        BenchmarkEnvironment.setField(groupShardingManager, "groupShardingConfiguration", configuration);
+        BenchmarkEnvironment.setField(groupShardingManager, "entityReferenceSerializer",
+            environment.getLocalSerializer());
+        BenchmarkEnvironment.setField(groupShardingManager, "metrics",
+            environment.createMetrics(environment.createConfiguration()));
+    }
+
+    private static DocumentReference getGroup(String name)
+    {
+        return new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, name);
+    }
+
+    /**
+     * @return the shard of a group listed as sharded
+     */
+    @Benchmark
+    public DocumentReference listedGroup()
+    {
+        return groupShardingManager.getShardedGroupReference(listedGroup, user);
+    }
+
+    /**
+     * @return the shard of a group matching a sharded group pattern
+     */
+    @Benchmark
+    public DocumentReference matchingGroup()
+    {
+        return groupShardingManager.getShardedGroupReference(matchingGroup, user);
+    }
+
+    /**
+     * @return the group itself, since it is not sharded
+     */
+    @Benchmark
+    public DocumentReference unshardedGroup()
+    {
+        return groupShardingManager.getShardedGroupReference(unshardedGroup, user);
+    }
+}
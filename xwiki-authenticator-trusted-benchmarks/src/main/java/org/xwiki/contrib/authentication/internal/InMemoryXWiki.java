@@ -0,0 +1,490 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+/**
+ * Main wiki reading its configuration from a map and keeping its documents in memory, like the document cache of a
+ * node that never evicts anything. The saved documents are kept as is and returned by the following loads, the group
+ * memberships are indexed on save to answer the group queries, and the loads, clones, saves and written bytes are
+ * counted, so that the document traffic of the synchronization can be measured without a database.
+ *
+ * @version $Id$
+ */
+public class InMemoryXWiki extends XWiki
+{
+    /**
+     * The class of the user profiles.
+     */
+    public static final DocumentReference USER_CLASS =
+        new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, "XWikiUsers");
+
+    /**
+     * The class of the group members.
+     */
+    public static final DocumentReference GROUP_CLASS =
+        new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, "XWikiGroups");
+
+    /**
+     * The group all the users are added to when they are created, unless its membership is implicit.
+     */
+    public static final DocumentReference ALL_GROUP =
+        new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, "XWikiAllGroup");
+
+    private static final DocumentReference RIGHTS_CLASS =
+        new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, "XWikiRights");
+
+    private static final String MEMBER_PROPERTY = "member";
+
+    private final Map<String, String> parameters = new HashMap<>();
+
+    private final Map<DocumentReference, XWikiDocument> documents = new ConcurrentHashMap<>();
+
+    private final Map<DocumentReference, BaseClass> classes = new ConcurrentHashMap<>();
+
+    private final Map<DocumentReference, Set<String>> groupMembers = new HashMap<>();
+
+    private final Map<String, Set<DocumentReference>> memberGroups = new HashMap<>();
+
+    private final Map<DocumentReference, LongAdder> versions = new ConcurrentHashMap<>();
+
+    private final LongAdder loads = new LongAdder();
+
+    private final LongAdder clones = new LongAdder();
+
+    private final LongAdder saves = new LongAdder();
+
+    private final LongAdder writtenBytes = new LongAdder();
+
+    private final LongAdder groupQueries = new LongAdder();
+
+    private final EntityReferenceSerializer<String> memberSerializer;
+
+    private final XWikiGroupService groupService;
+
+    /**
+     * Document counting its clones in the wiki it has been loaded from. It keeps the public constructor expected by
+     * {@link XWikiDocument#clone()}.
+     */
+    public static class CountingDocument extends XWikiDocument
+    {
+        private InMemoryXWiki wiki;
+
+        /**
+         * @param reference the reference of the document
+         */
+        public CountingDocument(DocumentReference reference)
+        {
+            super(reference);
+        }
+
+        @Override
+        public XWikiDocument clone()
+        {
+            XWikiDocument clone = super.clone();
+            if (wiki != null) {
+                wiki.clones.increment();
+                ((CountingDocument) clone).wiki = wiki;
+            }
+
+            return clone;
+        }
+    }
+
+    /**
+     * @param memberSerializer the serializer of the references of the group members
+     * @throws Exception when failing to set up the group service
+     */
+    public InMemoryXWiki(EntityReferenceSerializer<String> memberSerializer) throws Exception
+    {
+        this.memberSerializer = memberSerializer;
+
+        // Only called once per synchronization, the allocations of the mock do not matter
+        groupService = Mockito.mock(XWikiGroupService.class);
+        Mockito.when(groupService.getAllGroupsReferencesForMember(ArgumentMatchers.any(), ArgumentMatchers.anyInt(),
+            ArgumentMatchers.anyInt(), ArgumentMatchers.any()))
+            .thenAnswer(invocation -> getGroups(invocation.getArgument(0)));
+    }
+
+    /**
+     * @param key the name of the parameter in xwiki.cfg
+     * @param value the value of the parameter
+     */
+    public void setParameter(String key, String value)
+    {
+        parameters.put(key, value);
+    }
+
+    @Override
+    public String Param(String key)
+    {
+        return parameters.get(key);
+    }
+
+    @Override
+    public String Param(String key, String def)
+    {
+        return parameters.getOrDefault(key, def);
+    }
+
+    @Override
+    public String getXWikiPreference(String prefname, XWikiContext context)
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isAllGroupImplicit()
+    {
+        return "1".equals(Param("xwiki.authentication.group.allgroupimplicit"));
+    }
+
+    @Override
+    public XWikiGroupService getGroupService(XWikiContext context)
+    {
+        return groupService;
+    }
+
+    @Override
+    public XWikiDocument getDocument(DocumentReference reference, XWikiContext context)
+    {
+        loads.increment();
+        XWikiDocument document = documents.get(reference);
+        if (document == null) {
+            CountingDocument newDocument = new CountingDocument(reference);
+            newDocument.wiki = this;
+            document = newDocument;
+        }
+
+        return document;
+    }
+
+    @Override
+    public XWikiDocument getDocument(EntityReference reference, XWikiContext context)
+    {
+        return getDocument(BenchmarkEnvironment.resolve(reference), context);
+    }
+
+    @Override
+    public boolean exists(DocumentReference reference, XWikiContext context)
+    {
+        return documents.containsKey(reference);
+    }
+
+    @Override
+    public void saveDocument(XWikiDocument document, String comment, XWikiContext context)
+    {
+        saveDocument(document, comment, false, context);
+    }
+
+    @Override
+    public void saveDocument(XWikiDocument document, String comment, boolean minorEdit, XWikiContext context)
+    {
+        DocumentReference reference = document.getDocumentReference();
+        saves.increment();
+        writtenBytes.add(getSize(document));
+        versions.computeIfAbsent(reference, key -> new LongAdder()).increment();
+
+        document.setNew(false);
+        documents.put(reference, document);
+        indexMembers(reference, document);
+    }
+
+    @Override
+    public void deleteDocument(XWikiDocument document, XWikiContext context)
+    {
+        DocumentReference reference = document.getDocumentReference();
+        documents.remove(reference);
+        indexMembers(reference, null);
+    }
+
+    /**
+     * Create a user like the platform does: a profile holding the given properties and the edit right on itself,
+     * followed by the membership of the all group unless it is implicit.
+     */
+    @Override
+    public int createUser(String name, Map<String, ?> map, XWikiContext context) throws XWikiException
+    {
+        DocumentReference reference = new DocumentReference(context.getWikiId(), BenchmarkEnvironment.USER_SPACE,
+            name);
+        XWikiDocument userDocument = getDocument(reference, context);
+        if (!userDocument.isNew()) {
+            return -3;
+        }
+
+        getUserClass(context).fromMap(map, userDocument.newXObject(USER_CLASS, context));
+        BaseObject rightsObject = userDocument.newXObject(RIGHTS_CLASS, context);
+        rightsObject.setStringValue("users", memberSerializer.serialize(reference));
+        rightsObject.setStringValue("levels", "edit");
+        rightsObject.setIntValue("allow", 1);
+        saveDocument(userDocument, "Created user", context);
+
+        if (!isAllGroupImplicit()) {
+            addMember(ALL_GROUP, reference, context);
+        }
+
+        return 1;
+    }
+
+    /**
+     * Add a member to a group, creating the group if needed.
+     *
+     * @param group the reference of the group
+     * @param member the reference of the new member
+     * @param context the current context
+     * @throws XWikiException when failing to add the member object
+     */
+    public void addMember(DocumentReference group, DocumentReference member, XWikiContext context)
+        throws XWikiException
+    {
+        XWikiDocument groupDocument = getDocument(group, context).clone();
+        groupDocument.newXObject(GROUP_CLASS, context).setStringValue(MEMBER_PROPERTY,
+            memberSerializer.serialize(member));
+        saveDocument(groupDocument, "Added member", context);
+    }
+
+    @Override
+    public BaseClass getUserClass(XWikiContext context)
+    {
+        return getXClass(USER_CLASS, context);
+    }
+
+    @Override
+    public BaseClass getGroupClass(XWikiContext context)
+    {
+        return getXClass(GROUP_CLASS, context);
+    }
+
+    @Override
+    public BaseClass getXClass(DocumentReference reference, XWikiContext context)
+    {
+        return classes.computeIfAbsent(reference, InMemoryXWiki::createClass);
+    }
+
+    private static BaseClass createClass(DocumentReference reference)
+    {
+        BaseClass xclass = new BaseClass();
+        xclass.setDocumentReference(reference);
+        if (USER_CLASS.equals(reference)) {
+            xclass.addTextField("first_name", "First Name", 30);
+            xclass.addTextField("last_name", "Last Name", 30);
+            xclass.addTextField("email", "e-Mail", 30);
+            xclass.addBooleanField("active", "Active", "active");
+        } else if (GROUP_CLASS.equals(reference)) {
+            xclass.addTextField(MEMBER_PROPERTY, "Member", 30);
+        }
+
+        return xclass;
+    }
+
+    /**
+     * @param member the reference of a user or group
+     * @return the groups the given user or group is directly a member of
+     */
+    public List<DocumentReference> getGroups(DocumentReference member)
+    {
+        groupQueries.increment();
+        synchronized (memberGroups) {
+            Set<DocumentReference> groups = memberGroups.get(memberSerializer.serialize(member));
+
+            return groups != null ? new ArrayList<>(groups) : new ArrayList<>();
+        }
+    }
+
+    /**
+     * @param group the reference of a group
+     * @return the direct members of the given group
+     */
+    public List<DocumentReference> getMembers(DocumentReference group)
+    {
+        groupQueries.increment();
+        List<DocumentReference> members = new ArrayList<>();
+        synchronized (memberGroups) {
+            for (String member : groupMembers.getOrDefault(group, Collections.emptySet())) {
+                members.add(BenchmarkEnvironment.resolve(member, group));
+            }
+        }
+
+        return members;
+    }
+
+    /**
+     * Count a query made by some other component, like the discovery of the group shards.
+     */
+    public void countGroupQuery()
+    {
+        groupQueries.increment();
+    }
+
+    private void indexMembers(DocumentReference reference, XWikiDocument document)
+    {
+        Set<String> members = new HashSet<>();
+        if (document != null) {
+            List<BaseObject> memberObjects = document.getXObjects(GROUP_CLASS);
+            if (memberObjects != null) {
+                for (BaseObject memberObject : memberObjects) {
+                    if (memberObject != null) {
+                        members.add(memberObject.getStringValue(MEMBER_PROPERTY));
+                    }
+                }
+            }
+        }
+
+        synchronized (memberGroups) {
+            Set<String> previousMembers =
+                members.isEmpty() ? groupMembers.remove(reference) : groupMembers.put(reference, members);
+            if (previousMembers != null) {
+                for (String previousMember : previousMembers) {
+                    if (!members.contains(previousMember)) {
+                        memberGroups.get(previousMember).remove(reference);
+                    }
+                }
+            }
+            for (String member : members) {
+                memberGroups.computeIfAbsent(member, key -> new HashSet<>()).add(reference);
+            }
+        }
+    }
+
+    /**
+     * @param document a saved document
+     * @return the approximate size of the stored objects, counting the names and values of their properties
+     */
+    private static long getSize(XWikiDocument document)
+    {
+        long size = 0;
+        for (List<BaseObject> objects : document.getXObjects().values()) {
+            for (BaseObject object : objects) {
+                if (object != null) {
+                    for (String property : object.getPropertyList()) {
+                        size += property.length() + object.getStringValue(property).length();
+                    }
+                }
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Reset the counters and the versions, before a new phase of a simulation.
+     */
+    public void resetStatistics()
+    {
+        loads.reset();
+        clones.reset();
+        saves.reset();
+        writtenBytes.reset();
+        groupQueries.reset();
+        versions.clear();
+    }
+
+    /**
+     * @return the number of document loads since the last reset
+     */
+    public long getLoadCount()
+    {
+        return loads.sum();
+    }
+
+    /**
+     * @return the number of document clones since the last reset
+     */
+    public long getCloneCount()
+    {
+        return clones.sum();
+    }
+
+    /**
+     * @return the number of document saves, each one creating a new version, since the last reset
+     */
+    public long getSaveCount()
+    {
+        return saves.sum();
+    }
+
+    /**
+     * @return the approximate number of bytes written since the last reset
+     */
+    public long getWrittenBytes()
+    {
+        return writtenBytes.sum();
+    }
+
+    /**
+     * @return the number of group queries since the last reset
+     */
+    public long getGroupQueryCount()
+    {
+        return groupQueries.sum();
+    }
+
+    /**
+     * @return the number of distinct documents saved since the last reset
+     */
+    public int getSavedDocumentCount()
+    {
+        return versions.size();
+    }
+
+    /**
+     * @return the highest number of versions created for a single document since the last reset
+     */
+    public long getMaxVersionCount()
+    {
+        long max = 0;
+        for (LongAdder documentVersions : versions.values()) {
+            max = Math.max(max, documentVersions.sum());
+        }
+
+        return max;
+    }
+
+    /**
+     * @return the number of documents in the wiki
+     */
+    public int getDocumentCount()
+    {
+        return documents.size();
+    }
+}
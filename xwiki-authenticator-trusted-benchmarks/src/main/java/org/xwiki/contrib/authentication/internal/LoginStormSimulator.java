@@ -0,0 +1,647 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.mockito.Answers;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.xwiki.contrib.authentication.AuthenticationPersistenceStore;
+import org.xwiki.contrib.authentication.GroupShardingConfiguration;
+import org.xwiki.contrib.authentication.TrustedAuthenticationAdapter;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.contrib.authentication.TrustedAuthenticationRecord;
+import org.xwiki.contrib.authentication.TrustedAuthenticator;
+import org.xwiki.contrib.authentication.UserManager;
+import org.xwiki.contrib.authentication.XWikiTrustedAuthenticator;
+import org.xwiki.contrib.authentication.internal.metrics.TrustedAuthenticationMetrics;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.user.UserReferenceResolver;
+import org.xwiki.user.group.GroupManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.user.api.XWikiUser;
+
+/**
+ * Macro-benchmark driving a storm of logins through {@link XWikiTrustedAuthenticator#checkAuth(XWikiContext)}, with
+ * the real authenticator, synchronization rules, user manager and group sharding, against an {@link InMemoryXWiki}.
+ * Each simulated user logs in once per phase, from a pool of concurrent threads, and the throughput, the latency and
+ * the document traffic of each phase are reported:
+ * <ul>
+ * <li>{@code cold-start}: all the users log in for the first time, and are created with their groups;</li>
+ * <li>{@code role-change}: after the users have been created, the roles of some of them change and all of them log in
+ * again with a new session, as after a change in the identity provider.</li>
+ * </ul>
+ * The options are given as {@code name=value} arguments, {@code help} listing them with their default value. The
+ * shard discovery queries return no result and the authentication cache is disabled, so that every login with a new
+ * session goes through the synchronization.
+ *
+ * @version $Id$
+ */
+public final class LoginStormSimulator
+{
+    private static final String HINT = "simulation";
+
+    private static final String ROLE_PREFIX = "role-";
+
+    private static final String DYNAMIC_GROUP_PREFIX = "Dyn_";
+
+    private static final String MAPPED_GROUP_PREFIX = "Mapped_";
+
+    private static final String DYNAMIC_ROLE_PREFIX = "dynamicRole.configuration." + HINT + '.';
+
+    private static final String SCENARIO_COLD_START = "cold-start";
+
+    private static final String SCENARIO_ROLE_CHANGE = "role-change";
+
+    private static final String OPTION_USERS = "users";
+
+    private static final String OPTION_THREADS = "threads";
+
+    private static final String OPTION_ROLES = "roles";
+
+    private static final String OPTION_ROLES_PER_USER = "rolesPerUser";
+
+    private static final String OPTION_MAPPINGS = "mappings";
+
+    private static final String OPTION_DYNAMIC_ROLES = "dynamicRoles";
+
+    private static final String OPTION_SHARDING = "sharding";
+
+    private static final String OPTION_SHARD_COUNT = "shardCount";
+
+    private static final String OPTION_ALL_GROUP_IMPLICIT = "allGroupImplicit";
+
+    private static final String OPTION_SCENARIO = "scenario";
+
+    private static final String OPTION_CHANGED_USERS = "changedUsers";
+
+    private static final String OPTION_CHANGED_ROLES = "changedRoles";
+
+    private static final String OPTION_SEED = "seed";
+
+    private static final String SEPARATOR = "|";
+
+    private static final double PERCENTILE_50 = 0.5;
+
+    private static final double PERCENTILE_99 = 0.99;
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private static final double BYTES_PER_KILOBYTE = 1024;
+
+    private static final Map<String, String> DEFAULT_OPTIONS = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_OPTIONS.put(OPTION_USERS, "10000");
+        DEFAULT_OPTIONS.put(OPTION_THREADS, "16");
+        DEFAULT_OPTIONS.put(OPTION_ROLES, "500");
+        DEFAULT_OPTIONS.put(OPTION_ROLES_PER_USER, "20");
+        DEFAULT_OPTIONS.put(OPTION_MAPPINGS, "100");
+        DEFAULT_OPTIONS.put(OPTION_DYNAMIC_ROLES, "true");
+        DEFAULT_OPTIONS.put(OPTION_SHARDING, "false");
+        DEFAULT_OPTIONS.put(OPTION_SHARD_COUNT, "16");
+        DEFAULT_OPTIONS.put(OPTION_ALL_GROUP_IMPLICIT, "false");
+        DEFAULT_OPTIONS.put(OPTION_SCENARIO, SCENARIO_COLD_START);
+        DEFAULT_OPTIONS.put(OPTION_CHANGED_USERS, "0.2");
+        DEFAULT_OPTIONS.put(OPTION_CHANGED_ROLES, "2");
+        DEFAULT_OPTIONS.put(OPTION_SEED, "42");
+    }
+
+    /**
+     * The user logging in on the current thread.
+     */
+    private static final ThreadLocal<SimulatedUser> CURRENT_USER = new ThreadLocal<>();
+
+    private final Map<String, String> options;
+
+    private final Random random;
+
+    private final BenchmarkEnvironment environment;
+
+    private final InMemoryXWiki wiki;
+
+    private final List<SimulatedUser> users = new ArrayList<>();
+
+    private XWikiTrustedAuthenticator authService;
+
+    /**
+     * A user of the identity provider, with the session kept by its browser.
+     */
+    private static final class SimulatedUser
+    {
+        private final String uid;
+
+        private final Map<String, String> properties = new HashMap<>();
+
+        private volatile Set<String> roles;
+
+        private volatile TrustedAuthenticationRecord record;
+
+        SimulatedUser(String uid, Set<String> roles)
+        {
+            this.uid = uid;
+            this.roles = roles;
+            properties.put("givenname", "Simulated");
+            properties.put("sn", uid);
+            properties.put("mail", uid + "@example.org");
+        }
+    }
+
+    /**
+     * Authentication adapter providing the user logging in on the current thread.
+     */
+    private static final class SimulatedAuthenticationAdapter implements TrustedAuthenticationAdapter
+    {
+        @Override
+        public String getUserUid()
+        {
+            return CURRENT_USER.get().uid;
+        }
+
+        @Override
+        public String getUserName()
+        {
+            return CURRENT_USER.get().uid;
+        }
+
+        @Override
+        public String getUserProperty(String name)
+        {
+            return CURRENT_USER.get().properties.get(name);
+        }
+
+        @Override
+        public boolean isUserInRole(String role)
+        {
+            return CURRENT_USER.get().roles.contains(role);
+        }
+
+        @Override
+        public Collection<String> getUserRoles()
+        {
+            return CURRENT_USER.get().roles;
+        }
+
+        @Override
+        public String getLogoutURL(String location)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Persistence store keeping the authentication record in the session of the user logging in on the current thread.
+     */
+    private static final class SimulatedPersistenceStore implements AuthenticationPersistenceStore
+    {
+        @Override
+        public void store(String userUid)
+        {
+            // Only authentication records are stored
+        }
+
+        @Override
+        public String retrieve()
+        {
+            return null;
+        }
+
+        @Override
+        public void clear()
+        {
+            CURRENT_USER.get().record = null;
+        }
+
+        @Override
+        public boolean isRecordSupported()
+        {
+            return true;
+        }
+
+        @Override
+        public void storeRecord(TrustedAuthenticationRecord record)
+        {
+            CURRENT_USER.get().record = record;
+        }
+
+        @Override
+        public TrustedAuthenticationRecord retrieveRecord()
+        {
+            return CURRENT_USER.get().record;
+        }
+    }
+
+    private LoginStormSimulator(Map<String, String> options) throws Exception
+    {
+        this.options = options;
+        random = new Random(getLong(OPTION_SEED));
+        environment = new BenchmarkEnvironment();
+        wiki = environment.getWiki();
+    }
+
+    /**
+     * @param args the options of the simulation, as {@code name=value}
+     * @throws Exception when the simulation fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULT_OPTIONS);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULT_OPTIONS.containsKey(arg.substring(0, separator))) {
+                printUsage();
+                return;
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        new LoginStormSimulator(options).run();
+    }
+
+    private static void printUsage()
+    {
+        System.out.println("Usage: LoginStormSimulator [name=value]...");
+        System.out.println("Options, with their default value:");
+        for (Map.Entry<String, String> option : DEFAULT_OPTIONS.entrySet()) {
+            System.out.printf("  %s=%s%n", option.getKey(), option.getValue());
+        }
+    }
+
+    private void run() throws Exception
+    {
+        System.out.printf("Simulating %s%n", options);
+        configure();
+        authService = createAuthService();
+        createUsers();
+
+        String scenario = options.get(OPTION_SCENARIO);
+        if (SCENARIO_COLD_START.equals(scenario)) {
+            runPhase("Cold start");
+        } else if (SCENARIO_ROLE_CHANGE.equals(scenario)) {
+            runPhase("Provisioning");
+            changeRoles();
+            runPhase("Role change wave");
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown scenario [%s]", scenario));
+        }
+    }
+
+    private void configure() throws Exception
+    {
+        environment.setConfiguration("adapterHint", HINT);
+        environment.setConfiguration("persistenceStoreHint", HINT);
+        environment.setConfiguration("isAuthoritative", "true");
+        environment.setConfiguration("propertiesMapping", "email=mail|first_name=givenname|last_name=sn");
+        environment.setParameter("xwiki.authentication.group.allgroupimplicit",
+            getBoolean(OPTION_ALL_GROUP_IMPLICIT) ? "1" : "0");
+
+        StringBuilder mappings = new StringBuilder();
+        for (int i = 0; i < getInt(OPTION_MAPPINGS); i++) {
+            mappings.append(BenchmarkEnvironment.USER_SPACE).append('.').append(MAPPED_GROUP_PREFIX).append(i)
+                .append('=').append(ROLE_PREFIX).append(i).append(SEPARATOR);
+        }
+        environment.setConfiguration("groupsMapping", mappings.toString());
+
+        if (getBoolean(OPTION_DYNAMIC_ROLES)) {
+            environment.setConfiguration("dynamicRole.configurations", HINT);
+            environment.setConfiguration(DYNAMIC_ROLE_PREFIX + "rolePrefix", ROLE_PREFIX);
+            environment.setConfiguration(DYNAMIC_ROLE_PREFIX + "groupPrefix", DYNAMIC_GROUP_PREFIX);
+        }
+
+        environment.registerComponent(TrustedAuthenticationAdapter.class, HINT, new SimulatedAuthenticationAdapter());
+        environment.registerComponent(AuthenticationPersistenceStore.class, HINT, new SimulatedPersistenceStore());
+    }
+
+    /**
+     * Set up the components involved in the authentication the way the component manager would, and register the
+     * authenticator and its configuration for the lookups of {@link XWikiTrustedAuthenticator}.
+     */
+    private XWikiTrustedAuthenticator createAuthService() throws Exception
+    {
+        DefaultTrustedAuthenticationConfiguration configuration = environment.createConfiguration();
+        TrustedAuthenticationMetrics metrics = environment.createMetrics(configuration);
+        GroupShardingConfiguration groupShardingConfiguration = createGroupShardingConfiguration();
+
+        AddGroupToFieldIndex addGroupToFieldIndex = new AddGroupToFieldIndex();
+        AddGroupToFieldWriter addGroupToFieldWriter = environment.inject(new AddGroupToFieldWriter());
+        BenchmarkEnvironment.setField(addGroupToFieldWriter, "addGroupToFieldIndex", addGroupToFieldIndex);
+        BenchmarkEnvironment.setField(addGroupToFieldWriter, "defaultStringEntityReferenceSerializer",
+            environment.getSerializer());
+
+        GroupMappingIndex groupMappingIndex = environment.inject(new GroupMappingIndex());
+        BenchmarkEnvironment.setField(groupMappingIndex, "configuration", configuration);
+        BenchmarkEnvironment.setField(groupMappingIndex, "defaultStringDocumentReferenceResolver",
+            environment.getResolver());
+
+        UserSynchronizationRules rules = environment.inject(new UserSynchronizationRules());
+        BenchmarkEnvironment.setField(rules, "configuration", configuration);
+        BenchmarkEnvironment.setField(rules, "groupMappingIndex", groupMappingIndex);
+        BenchmarkEnvironment.setField(rules, "addGroupToFieldIndex", addGroupToFieldIndex);
+        BenchmarkEnvironment.setField(rules, "addGroupToFieldWriter", addGroupToFieldWriter);
+        BenchmarkEnvironment.setField(rules, "metrics", metrics);
+        BenchmarkEnvironment.setField(rules, "defaultEntityDocumentReferenceResolver",
+            environment.getEntityResolver());
+        BenchmarkEnvironment.setField(rules, "defaultStringDocumentReferenceResolver", environment.getResolver());
+        BenchmarkEnvironment.setField(rules, "defaultStringEntityReferenceSerializer", environment.getSerializer());
+        BenchmarkEnvironment.setField(rules, "localStringEntityReferenceSerializer",
+            environment.getLocalSerializer());
+
+        UserProfileDocumentManager userProfileDocumentManager =
+            environment.inject(new UserProfileDocumentManager());
+        BenchmarkEnvironment.setField(userProfileDocumentManager, "compactWikiEntityReferenceSerializer",
+            environment.getLocalSerializer());
+
+        DefaultUserManager userManager = environment.inject(new DefaultUserManager());
+        BenchmarkEnvironment.setField(userManager, "compactWikiEntityReferenceSerializer",
+            environment.getLocalSerializer());
+        BenchmarkEnvironment.setField(userManager, "configuration", configuration);
+        BenchmarkEnvironment.setField(userManager, "userProfileDocumentManager", userProfileDocumentManager);
+
+        GroupShardingManager groupShardingManager = environment.inject(new GroupShardingManager());
+        BenchmarkEnvironment.setField(groupShardingManager, "groupShardingConfiguration",
+            groupShardingConfiguration);
+        BenchmarkEnvironment.setField(groupShardingManager, "entityReferenceSerializer",
+            environment.getLocalSerializer());
+        BenchmarkEnvironment.setField(groupShardingManager, "groupManager", createGroupManager());
+        BenchmarkEnvironment.setField(groupShardingManager, "queryManager", createQueryManager());
+        BenchmarkEnvironment.setField(groupShardingManager, "currentDocumentReferenceResolver",
+            environment.getResolver());
+        BenchmarkEnvironment.setField(groupShardingManager, "metrics", metrics);
+
+        ShardingUserManager shardingUserManager = new ShardingUserManager();
+        BenchmarkEnvironment.setField(shardingUserManager, "defaultUserManager", userManager);
+        BenchmarkEnvironment.setField(shardingUserManager, "groupShardingManager", groupShardingManager);
+        Provider<UserManager> shardingUserManagerProvider = () -> shardingUserManager;
+
+        UserReferenceResolver<DocumentReference> userReferenceResolver =
+            (reference, parameters) -> null;
+
+        UserAuthenticatedEventNotifier eventNotifier = environment.inject(new UserAuthenticatedEventNotifier());
+        BenchmarkEnvironment.setField(eventNotifier, "configuration", configuration);
+        BenchmarkEnvironment.setField(eventNotifier, "observation", Mockito.mock(ObservationManager.class));
+        BenchmarkEnvironment.setField(eventNotifier, "metrics", metrics);
+
+        DefaultTrustedAuthenticator authenticator = environment.inject(new DefaultTrustedAuthenticator());
+        BenchmarkEnvironment.setField(authenticator, "configuration", configuration);
+        BenchmarkEnvironment.setField(authenticator, "userManager", userManager);
+        BenchmarkEnvironment.setField(authenticator, "shardingUserManagerProvider", shardingUserManagerProvider);
+        BenchmarkEnvironment.setField(authenticator, "groupShardingConfiguration", groupShardingConfiguration);
+        BenchmarkEnvironment.setField(authenticator, "defaultStringDocumentReferenceResolver",
+            environment.getResolver());
+        BenchmarkEnvironment.setField(authenticator, "defaultStringEntityReferenceSerializer",
+            environment.getSerializer());
+        BenchmarkEnvironment.setField(authenticator, "userAuthenticatedEventNotifier", eventNotifier);
+        BenchmarkEnvironment.setField(authenticator, "authenticatedUserCache", new AuthenticatedUserCache());
+        BenchmarkEnvironment.setField(authenticator, "userSynchronizationRules", rules);
+        BenchmarkEnvironment.setField(authenticator, "synchronizationDigestManager",
+            environment.inject(new SynchronizationDigestManager()));
+        BenchmarkEnvironment.setField(authenticator, "userReferenceResolver", userReferenceResolver);
+        BenchmarkEnvironment.setField(authenticator, "metrics", metrics);
+        authenticator.initialize();
+
+        environment.registerComponent(TrustedAuthenticator.class, "default", authenticator);
+        environment.registerComponent(TrustedAuthenticationConfiguration.class, "default", configuration);
+
+        return new XWikiTrustedAuthenticator();
+    }
+
+    private GroupShardingConfiguration createGroupShardingConfiguration()
+    {
+        boolean sharding = getBoolean(OPTION_SHARDING);
+        int shardCount = getInt(OPTION_SHARD_COUNT);
+
+        return new GroupShardingConfiguration()
+        {
+            @Override
+            public List<String> getShardedGroups()
+            {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public List<String> getShardedGroupPatterns()
+            {
+                return sharding ? Arrays.asList(DYNAMIC_GROUP_PREFIX + ".*", MAPPED_GROUP_PREFIX + ".*")
+                    : Collections.emptyList();
+            }
+
+            @Override
+            public int getShardCount(String group)
+            {
+                return shardCount;
+            }
+        };
+    }
+
+    private GroupManager createGroupManager() throws Exception
+    {
+        GroupManager groupManager = Mockito.mock(GroupManager.class);
+        Mockito.when(groupManager.getMembers(ArgumentMatchers.any(), ArgumentMatchers.anyBoolean()))
+            .thenAnswer(invocation -> wiki.getMembers(invocation.getArgument(0)));
+
+        return groupManager;
+    }
+
+    /**
+     * @return a query manager counting the queries, which all return no result
+     */
+    private QueryManager createQueryManager() throws Exception
+    {
+        Query query = Mockito.mock(Query.class, Answers.RETURNS_SELF);
+        QueryManager queryManager = Mockito.mock(QueryManager.class);
+        Mockito.when(queryManager.createQuery(ArgumentMatchers.anyString(), ArgumentMatchers.anyString()))
+            .thenAnswer(invocation -> {
+                wiki.countGroupQuery();
+                return query;
+            });
+
+        return queryManager;
+    }
+
+    private void createUsers()
+    {
+        int roleCount = getInt(OPTION_ROLES);
+        int rolesPerUser = Math.min(getInt(OPTION_ROLES_PER_USER), roleCount);
+        for (int i = 0; i < getInt(OPTION_USERS); i++) {
+            Set<String> roles = new LinkedHashSet<>();
+            addRoles(roles, rolesPerUser, roleCount);
+            users.add(new SimulatedUser(String.format("simuser%06d", i), roles));
+        }
+    }
+
+    private void addRoles(Set<String> roles, int size, int roleCount)
+    {
+        while (roles.size() < size) {
+            roles.add(ROLE_PREFIX + random.nextInt(roleCount));
+        }
+    }
+
+    /**
+     * Replace some roles of a part of the users, and expire the sessions of all the users.
+     */
+    private void changeRoles()
+    {
+        int roleCount = getInt(OPTION_ROLES);
+        double changedUsers = getDouble(OPTION_CHANGED_USERS);
+        int changedRoles = getInt(OPTION_CHANGED_ROLES);
+        for (SimulatedUser user : users) {
+            if (random.nextDouble() < changedUsers) {
+                Set<String> roles = new LinkedHashSet<>(user.roles);
+                int size = roles.size();
+                Iterator<String> iterator = roles.iterator();
+                for (int i = 0; i < changedRoles && iterator.hasNext(); i++) {
+                    iterator.next();
+                    iterator.remove();
+                }
+                addRoles(roles, Math.min(size, roleCount), roleCount);
+                user.roles = roles;
+            }
+            user.record = null;
+        }
+    }
+
+    private void runPhase(String name) throws Exception
+    {
+        List<SimulatedUser> logins = new ArrayList<>(users);
+        Collections.shuffle(logins, random);
+        long[] latencies = new long[logins.size()];
+        AtomicInteger nextLogin = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        Callable<Void> worker = () -> {
+            login(logins, latencies, nextLogin, failures);
+            return null;
+        };
+
+        wiki.resetStatistics();
+        int threadCount = getInt(OPTION_THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            long start = System.nanoTime();
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(worker));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            report(name, latencies, System.nanoTime() - start, failures.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void login(List<SimulatedUser> logins, long[] latencies, AtomicInteger nextLogin, AtomicInteger failures)
+        throws XWikiException
+    {
+        XWikiContext context = environment.getContext();
+        try {
+            for (int i = nextLogin.getAndIncrement(); i < logins.size(); i = nextLogin.getAndIncrement()) {
+                CURRENT_USER.set(logins.get(i));
+                long start = System.nanoTime();
+                XWikiUser user = authService.checkAuth(context);
+                latencies[i] = System.nanoTime() - start;
+                if (user == null) {
+                    failures.incrementAndGet();
+                }
+            }
+        } finally {
+            CURRENT_USER.remove();
+        }
+    }
+
+    private void report(String name, long[] latencies, long elapsed, int failures)
+    {
+        int logins = latencies.length;
+        long[] sortedLatencies = latencies.clone();
+        Arrays.sort(sortedLatencies);
+
+        System.out.printf("%n%s: %d logins (%d failed) in %.1f s%n", name, logins, failures,
+            (double) elapsed / TimeUnit.SECONDS.toNanos(1));
+        System.out.printf("  throughput      %10.1f logins/s%n",
+            logins * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+        System.out.printf("  latency p50     %10.2f ms%n", getPercentile(sortedLatencies, PERCENTILE_50));
+        System.out.printf("  latency p99     %10.2f ms%n", getPercentile(sortedLatencies, PERCENTILE_99));
+        System.out.printf("  latency max     %10.2f ms%n", getPercentile(sortedLatencies, 1));
+        System.out.printf("  loads           %10.2f per login%n", (double) wiki.getLoadCount() / logins);
+        System.out.printf("  clones          %10.2f per login%n", (double) wiki.getCloneCount() / logins);
+        System.out.printf("  saves/versions  %10.2f per login%n", (double) wiki.getSaveCount() / logins);
+        System.out.printf("  written         %10.2f KB per login%n",
+            wiki.getWrittenBytes() / BYTES_PER_KILOBYTE / logins);
+        System.out.printf("  group queries   %10.2f per login%n", (double) wiki.getGroupQueryCount() / logins);
+        System.out.printf("  saved documents %10d, up to %d versions for a single one%n",
+            wiki.getSavedDocumentCount(), wiki.getMaxVersionCount());
+        System.out.printf("  documents       %10d in the wiki%n", wiki.getDocumentCount());
+    }
+
+    private static double getPercentile(long[] sortedLatencies, double percentile)
+    {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+
+        return sortedLatencies[Math.max(0, Math.min(sortedLatencies.length - 1, index))] / NANOS_PER_MILLI;
+    }
+
+    private int getInt(String option)
+    {
+        return Integer.parseInt(options.get(option));
+    }
+
+    private long getLong(String option)
+    {
+        return Long.parseLong(options.get(option));
+    }
+
+    private double getDouble(String option)
+    {
+        return Double.parseDouble(options.get(option));
+    }
+
+    private boolean getBoolean(String option)
+    {
+        return Boolean.parseBoolean(options.get(option));
+    }
+}
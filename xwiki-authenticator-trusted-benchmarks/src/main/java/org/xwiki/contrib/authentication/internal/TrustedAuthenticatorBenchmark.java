@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.contrib.authentication.AuthenticationPersistenceStore;
+import org.xwiki.contrib.authentication.GroupShardingConfiguration;
+import org.xwiki.contrib.authentication.TrustedAuthenticationAdapter;
+import org.xwiki.contrib.authentication.TrustedAuthenticationRecord;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Benchmark of {@link DefaultTrustedAuthenticator#authenticate()} for an already authenticated user, which is what
+ * almost every request goes through: either straight from a trusted persistence store, or confirmed by the
+ * authentication adapter when the persistence store is not trusted.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TrustedAuthenticatorBenchmark
+{
+    private static final String HINT = "benchmark";
+
+    private static final String USER_UID = "jdoe";
+
+    private DefaultTrustedAuthenticator trustedPersistenceStoreAuthenticator;
+
+    private DefaultTrustedAuthenticator untrustedPersistenceStoreAuthenticator;
+
+    /**
+     * Set up an authenticator for each kind of persistence store.
+     *
+     * @throws Exception when failing to set up the authenticators
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        trustedPersistenceStoreAuthenticator = createAuthenticator(true);
+        untrustedPersistenceStoreAuthenticator = createAuthenticator(false);
+    }
+
+    private DefaultTrustedAuthenticator createAuthenticator(boolean persistenceStoreTrusted) throws Exception
+    {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        environment.setConfiguration("adapterHint", HINT);
+        environment.setConfiguration("persistenceStoreHint", HINT);
+        environment.setConfiguration("isPersistenceStoreTrusted", String.valueOf(persistenceStoreTrusted));
+        environment.setParameter("xwiki.authentication.logoutpage", "(/|/[^/]+/|/wiki/[^/]+/)logout/*");
+
+        long now = System.currentTimeMillis();
+        DocumentReference user = new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE,
+            USER_UID);
+        environment.registerComponent(AuthenticationPersistenceStore.class, HINT,
+            new BenchmarkPersistenceStore(new TrustedAuthenticationRecord(user, USER_UID, now, now, null, now)));
+        environment.registerComponent(TrustedAuthenticationAdapter.class, HINT,
+            new BenchmarkAuthenticationAdapter(USER_UID));
+
+        DefaultTrustedAuthenticationConfiguration configuration = environment.createConfiguration();
+        GroupShardingConfiguration groupShardingConfiguration = () -> Collections.emptyList();
+
+        DefaultTrustedAuthenticator authenticator = environment.inject(new DefaultTrustedAuthenticator());
+        BenchmarkEnvironment.setField(authenticator, "configuration", configuration);
+        BenchmarkEnvironment.setField(authenticator, "groupShardingConfiguration", groupShardingConfiguration);
+        BenchmarkEnvironment.setField(authenticator, "metrics", environment.createMetrics(configuration));
+        authenticator.initialize();
+
+        return authenticator;
+    }
+
+    /**
+     * @return the user authenticated from the trusted persistence store
+     */
+    @Benchmark
+    public DocumentReference trustedPersistenceStore()
+    {
+        return trustedPersistenceStoreAuthenticator.authenticate();
+    }
+
+    /**
+     * @return the user authenticated from the persistence store, confirmed by the authentication adapter
+     */
+    @Benchmark
+    public DocumentReference untrustedPersistenceStore()
+    {
+        return untrustedPersistenceStoreAuthenticator.authenticate();
+    }
+}
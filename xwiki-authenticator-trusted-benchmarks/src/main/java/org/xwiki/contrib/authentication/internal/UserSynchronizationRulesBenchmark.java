@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.authentication.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xwiki.contrib.authentication.AddGroupToFieldConfiguration;
+import org.xwiki.contrib.authentication.TrustedAuthenticationConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Benchmark of {@link UserSynchronizationRules#populateGroups}, computing the groups of a user having many roles,
+ * either matched by a dynamic role configuration with an add group to field configuration, or listed in the group
+ * mapping. The user is already a member of all the groups, and the add group to field target is already indexed, which
+ * is the steady state of a user logging in again.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserSynchronizationRulesBenchmark
+{
+    private static final String ROLE_PREFIX = "role-";
+
+    private static final String DYNAMIC_GROUP_PREFIX = "Dyn_";
+
+    private static final String MAPPED_GROUP_PREFIX = "Mapped_";
+
+    private static final String DYNAMIC_ROLE_PREFIX = "dynamicRole.configuration.benchmark.";
+
+    private static final String SEPARATOR = "|";
+
+    /**
+     * The number of roles of the user.
+     */
+    @Param({ "1000", "4000" })
+    public int roleCount;
+
+    private final DocumentReference user =
+        new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, "jdoe");
+
+    private BenchmarkAuthenticationAdapter adapter;
+
+    private UserSynchronizationRules dynamicRoleRules;
+
+    private UserSynchronizationRules groupMappingRules;
+
+    /**
+     * Set up the synchronization rules for dynamic roles and for group mappings.
+     *
+     * @throws Exception when failing to set up the rules
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        adapter = new BenchmarkAuthenticationAdapter(user.getName());
+        for (int i = 0; i < roleCount; i++) {
+            adapter.addUserRole(ROLE_PREFIX + i);
+        }
+
+        dynamicRoleRules = createDynamicRoleRules();
+        groupMappingRules = createGroupMappingRules();
+    }
+
+    private UserSynchronizationRules createDynamicRoleRules() throws Exception
+    {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        environment.setConfiguration("dynamicRole.configurations", "benchmark");
+        environment.setConfiguration(DYNAMIC_ROLE_PREFIX + "rolePrefix", ROLE_PREFIX);
+        environment.setConfiguration(DYNAMIC_ROLE_PREFIX + "groupPrefix", DYNAMIC_GROUP_PREFIX);
+        environment.setConfiguration(DYNAMIC_ROLE_PREFIX + "addGroupToField.page", "Main.Roles");
+        environment.setConfiguration(DYNAMIC_ROLE_PREFIX + "addGroupToField.propertyName", "roles");
+
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < roleCount; i++) {
+            environment.addGroupMember(getGroup(DYNAMIC_GROUP_PREFIX, i), user);
+            field.append(BenchmarkEnvironment.USER_SPACE).append('.').append(DYNAMIC_GROUP_PREFIX).append(i)
+                .append('=').append(ROLE_PREFIX).append(i).append(SEPARATOR);
+        }
+
+        DefaultTrustedAuthenticationConfiguration configuration = environment.createConfiguration();
+        AddGroupToFieldConfiguration addGroupToFieldConfiguration =
+            configuration.getDynamicRoleConfigurations().iterator().next().getAddGroupToFieldConfiguration();
+        AddGroupToFieldIndex index = new AddGroupToFieldIndex();
+        DocumentReference page = BenchmarkEnvironment.resolve(BenchmarkEnvironment.WIKI + ":Main.Roles");
+        index.putIndex(page, addGroupToFieldConfiguration,
+            index.createIndex(field.toString(), addGroupToFieldConfiguration), index.getGeneration(page));
+
+        return createRules(environment, configuration, index);
+    }
+
+    private UserSynchronizationRules createGroupMappingRules() throws Exception
+    {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+
+        StringBuilder mappings = new StringBuilder();
+        for (int i = 0; i < roleCount; i++) {
+            mappings.append(BenchmarkEnvironment.USER_SPACE).append('.').append(MAPPED_GROUP_PREFIX).append(i)
+                .append('=').append(ROLE_PREFIX).append(i).append(SEPARATOR);
+        }
+        environment.setConfiguration("groupsMapping", mappings.toString());
+
+        return createRules(environment, environment.createConfiguration(), new AddGroupToFieldIndex());
+    }
+
+    private UserSynchronizationRules createRules(BenchmarkEnvironment environment,
+        TrustedAuthenticationConfiguration configuration, AddGroupToFieldIndex index)
+    {
+        GroupMappingIndex groupMappingIndex = environment.inject(new GroupMappingIndex());
+        BenchmarkEnvironment.setField(groupMappingIndex, "configuration", configuration);
+        BenchmarkEnvironment.setField(groupMappingIndex, "defaultStringDocumentReferenceResolver",
+            environment.getResolver());
+
+        UserSynchronizationRules rules = environment.inject(new UserSynchronizationRules());
+        BenchmarkEnvironment.setField(rules, "configuration", configuration);
+        BenchmarkEnvironment.setField(rules, "groupMappingIndex", groupMappingIndex);
+        BenchmarkEnvironment.setField(rules, "addGroupToFieldIndex", index);
+        BenchmarkEnvironment.setField(rules, "addGroupToFieldWriter", new AddGroupToFieldWriter());
+        BenchmarkEnvironment.setField(rules, "metrics", environment.createMetrics(configuration));
+        BenchmarkEnvironment.setField(rules, "defaultStringDocumentReferenceResolver", environment.getResolver());
+        BenchmarkEnvironment.setField(rules, "defaultStringEntityReferenceSerializer", environment.getSerializer());
+        BenchmarkEnvironment.setField(rules, "localStringEntityReferenceSerializer",
+            environment.getLocalSerializer());
+
+        return rules;
+    }
+
+    private static DocumentReference getGroup(String prefix, int index)
+    {
+        return new DocumentReference(BenchmarkEnvironment.WIKI, BenchmarkEnvironment.USER_SPACE, prefix + index);
+    }
+
+    /**
+     * @param blackhole consumes the computed groups
+     */
+    @Benchmark
+    public void dynamicRoles(Blackhole blackhole)
+    {
+        populateGroups(dynamicRoleRules, blackhole);
+    }
+
+    /**
+     * @param blackhole consumes the computed groups
+     */
+    @Benchmark
+    public void groupMappings(Blackhole blackhole)
+    {
+        populateGroups(groupMappingRules, blackhole);
+    }
+
+    private void populateGroups(UserSynchronizationRules rules, Blackhole blackhole)
+    {
+        Collection<DocumentReference> groupInRefs = new ArrayList<>();
+        Collection<DocumentReference> groupInWithAutoCreateRefs = new ArrayList<>();
+        Collection<DocumentReference> groupOutRefs = new ArrayList<>();
+
+        blackhole.consume(rules.populateGroups(adapter, user, groupInRefs, groupInWithAutoCreateRefs, groupOutRefs));
+        blackhole.consume(groupInRefs);
+        blackhole.consume(groupInWithAutoCreateRefs);
+        blackhole.consume(groupOutRefs);
+    }
+}